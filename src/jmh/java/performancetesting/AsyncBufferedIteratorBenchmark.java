@@ -0,0 +1,81 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.util.AsyncBufferedIterator;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Consumption of many concurrently prefetched input streams, as performed
+ * when merging the evidence from every input file of a joint calling cohort.
+ * 
+ * The peakThreads counter records the maximum number of live JVM threads
+ * observed whilst the streams were being consumed in each iteration.
+ * JMH reports the sum of this counter across all measurement iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncBufferedIteratorBenchmark {
+	private static final int RECORDS = 2000000;
+	private static final int THREAD_SAMPLE_INTERVAL = 1000;
+	@Param({"1", "10", "50"})
+	public int inputs;
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class ThreadCounter {
+		public int peakThreads;
+		@Setup(Level.Iteration)
+		public void reset() {
+			peakThreads = 0;
+		}
+	}
+	private static long work(int i) {
+		long x = i;
+		for (int j = 0; j < 16; j++) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+		}
+		return x;
+	}
+	@Benchmark
+	public long consume(ThreadCounter counter) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int perInput = RECORDS / inputs;
+		List<AsyncBufferedIterator<Long>> streams = new ArrayList<>(inputs);
+		for (int i = 0; i < inputs; i++) {
+			Iterator<Long> it = IntStream.range(0, perInput).mapToObj(AsyncBufferedIteratorBenchmark::work).iterator();
+			streams.add(new AsyncBufferedIterator<>(it, "benchmark-" + i));
+		}
+		long checksum = 0;
+		long records = 0;
+		boolean remaining = true;
+		while (remaining) {
+			remaining = false;
+			// round-robin consumption mimics a merge across coordinate-sorted inputs
+			for (AsyncBufferedIterator<Long> it : streams) {
+				for (int i = 0; i < 64 && it.hasNext(); i++) {
+					checksum += it.next();
+					if (++records % THREAD_SAMPLE_INTERVAL == 0) {
+						counter.peakThreads = Math.max(counter.peakThreads, threads.getThreadCount());
+					}
+				}
+				remaining |= it.hasNext();
+			}
+		}
+		for (AsyncBufferedIterator<Long> it : streams) {
+			it.close();
+		}
+		return checksum;
+	}
+}
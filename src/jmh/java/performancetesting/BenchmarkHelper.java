@@ -0,0 +1,59 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Deterministic data generation and fixture loading shared by the JMH benchmarks.
+ *
+ * All synthetic data is generated from a fixed seed so benchmark inputs are
+ * identical between runs and releases.
+ */
+public class BenchmarkHelper extends TestHelper {
+	public static final long SEED = 0;
+	/**
+	 * Index of the small.fa contig containing uniformly random sequence
+	 */
+	public static final int RANDOM_CONTIG = 2;
+	public static String randomBases(Random rng, int length) {
+		char[] bases = new char[length];
+		for (int i = 0; i < length; i++) {
+			bases[i] = "ACGT".charAt(rng.nextInt(4));
+		}
+		return new String(bases);
+	}
+	public static String referenceBases(int referenceIndex, int start, int length) {
+		return S(Arrays.copyOfRange(SMALL_FA.getSequence(SMALL_FA.getSequenceDictionary().getSequence(referenceIndex).getSequenceName()).getBases(), start - 1, start - 1 + length));
+	}
+	/**
+	 * Loads all records from the given test fixture
+	 */
+	public static List<SAMRecord> loadFixture(String filename) throws IOException {
+		List<SAMRecord> records = new ArrayList<>();
+		try (SamReader reader = SamReaderFactory.makeDefault()
+				.validationStringency(ValidationStringency.SILENT)
+				.open(new File("src/test/resources", filename))) {
+			for (SAMRecord r : reader) {
+				records.add(r);
+			}
+		}
+		return records;
+	}
+	/**
+	 * Groups the given records by read name, retaining the first encounter order of templates
+	 */
+	public static List<List<SAMRecord>> byTemplate(List<SAMRecord> records) {
+		Map<String, List<SAMRecord>> templates = new LinkedHashMap<>();
+		for (SAMRecord r : records) {
+			templates.computeIfAbsent(r.getReadName(), x -> new ArrayList<>()).add(r);
+		}
+		return new ArrayList<>(templates.values());
+	}
+}
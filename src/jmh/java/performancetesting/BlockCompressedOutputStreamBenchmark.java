@@ -0,0 +1,85 @@
+package performancetesting;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.AsyncReadTaskRunner;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BGZF compression of BAM records, as performed when writing every GRIDSS BAM output.
+ *
+ * Records from a test fixture are encoded once and repeatedly written through a
+ * BlockCompressedOutputStream. A thread count of 0 compresses on the writing thread.
+ * Each operation is a single megabyte of uncompressed BAM records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockCompressedOutputStreamBenchmark {
+	private static final int MEGABYTE = 1024 * 1024;
+	private static final int PAYLOAD_MEGABYTES = 32;
+	private static final int WRITE_SIZE = 4096;
+	@Param({"1", "5", "9"})
+	public int compressionLevel;
+	@Param({"0", "1", "4"})
+	public int threads;
+	private byte[] payload;
+	private Executor defaultThreadpool;
+	private int defaultAsyncCompressionBlocks;
+	private ExecutorService threadpool;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		List<SAMRecord> records = BenchmarkHelper.loadFixture("chr12.1527326.DEL1024.bam");
+		SAMFileHeader header = records.get(0).getHeader();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(PAYLOAD_MEGABYTES * MEGABYTE);
+		BAMRecordCodec codec = new BAMRecordCodec(header);
+		codec.setOutputStream(encoded);
+		while (encoded.size() < PAYLOAD_MEGABYTES * MEGABYTE) {
+			for (SAMRecord r : records) {
+				codec.encode(r);
+			}
+		}
+		payload = encoded.toByteArray();
+		defaultThreadpool = AsyncReadTaskRunner.getNonBlockingThreadpool();
+		defaultAsyncCompressionBlocks = BlockCompressedOutputStream.getDefaultAsyncCompressionBlocks();
+		if (threads > 0) {
+			threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bgzf-%d").build());
+			AsyncReadTaskRunner.setNonblockingThreadpool(threadpool);
+		}
+		BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(2 * threads);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		AsyncReadTaskRunner.setNonblockingThreadpool(defaultThreadpool);
+		BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(defaultAsyncCompressionBlocks);
+		if (threadpool != null) {
+			threadpool.shutdown();
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(PAYLOAD_MEGABYTES)
+	public long compress() throws IOException {
+		try (BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(ByteStreams.nullOutputStream(), (Path)null, compressionLevel)) {
+			for (int offset = 0; offset < PAYLOAD_MEGABYTES * MEGABYTE; offset += WRITE_SIZE) {
+				bcos.write(payload, offset, WRITE_SIZE);
+			}
+			return bcos.getFilePointer();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.alignment.BreakpointHomology;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breakpoint homology calculation for random breakpoints on the small.fa test reference
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BreakpointHomologyBenchmark extends BenchmarkHelper {
+	private static final int BREAKPOINTS = 256;
+	@Param({"100", "1000"})
+	public int maxBreakendLength;
+	private final List<BreakpointSummary> breakpoints = new ArrayList<>();
+	private final List<String> inserted = new ArrayList<>();
+	@Setup
+	public void setup() {
+		Random rng = new Random(SEED);
+		int contigLength = SMALL_FA.getSequenceDictionary().getSequence(RANDOM_CONTIG).getSequenceLength();
+		for (int i = 0; i < BREAKPOINTS; i++) {
+			int margin = maxBreakendLength + 10;
+			int pos1 = margin + rng.nextInt(contigLength - 2 * margin);
+			int pos2 = margin + rng.nextInt(contigLength - 2 * margin);
+			BreakendDirection dir1 = rng.nextBoolean() ? BreakendDirection.Forward : BreakendDirection.Backward;
+			BreakendDirection dir2 = rng.nextBoolean() ? BreakendDirection.Forward : BreakendDirection.Backward;
+			breakpoints.add(new BreakpointSummary(RANDOM_CONTIG, dir1, pos1, RANDOM_CONTIG, dir2, pos2));
+			inserted.add(randomBases(rng, rng.nextInt(3)));
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(BREAKPOINTS)
+	public void calculate(Blackhole bh) {
+		for (int i = 0; i < breakpoints.size(); i++) {
+			bh.consume(BreakpointHomology.calculate(SMALL_FA, breakpoints.get(i), inserted.get(i), maxBreakendLength, 10));
+		}
+	}
+}
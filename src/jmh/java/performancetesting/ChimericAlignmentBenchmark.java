@@ -0,0 +1,113 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.sam.ChimericAlignment;
+import htsjdk.samtools.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * SA tag handling of a split read heavy BAM, as performed by evidence construction.
+ *
+ * Each split read has its SA tag filtered (SAMEvidenceSource.transform) then
+ * parsed twice more (SplitReadEvidence.create and involvesPrimaryReadAlignment).
+ * The SA tag of every record is replaced with an equal String before each invocation
+ * so parsed SA tags cached by a previous invocation are not reused.
+ *
+ * Run with -prof gc to report the allocation rate of each approach.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChimericAlignmentBenchmark extends BenchmarkHelper {
+	private static final int READS = 100000;
+	private static final int MIN_MAPQ = 10;
+	private List<SAMRecord> records;
+	private List<String> sa;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		SAMSequenceDictionary dict = header.getSequenceDictionary();
+		Random rng = new Random(SEED);
+		File bam = File.createTempFile("splitreads", ".bam");
+		try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, false, bam)) {
+			for (int i = 0; i < READS; i++) {
+				SAMRecord r = new SAMRecord(header);
+				r.setReadName("r" + i);
+				r.setReferenceIndex(rng.nextInt(dict.size()));
+				r.setAlignmentStart(1 + rng.nextInt(9000));
+				r.setCigarString("50M100S");
+				r.setMappingQuality(60);
+				r.setReadBases(getPolyA(150));
+				r.setBaseQualities(getPolyA(150));
+				// bwa reports up to 3 additional split alignments for 150bp reads
+				int segments = 1 + rng.nextInt(3);
+				List<String> sa = new ArrayList<>(segments);
+				for (int j = 0; j < segments; j++) {
+					sa.add(String.format("%s,%d,%s,%dS50M%dS,%d,%d",
+							dict.getSequence(rng.nextInt(dict.size())).getSequenceName(),
+							1 + rng.nextInt(9000),
+							rng.nextBoolean() ? "+" : "-",
+							50 * (j + 1), 100 - 50 * j,
+							rng.nextInt(61),
+							rng.nextInt(5)));
+				}
+				r.setAttribute(SAMTag.SA.name(), String.join(";", sa));
+				writer.addAlignment(r);
+			}
+		}
+		records = new ArrayList<>(READS);
+		try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+			for (SAMRecord r : reader) {
+				records.add(r);
+			}
+		}
+		bam.delete();
+		sa = records.stream().map(r -> r.getStringAttribute(SAMTag.SA.name())).collect(Collectors.toList());
+	}
+	@Setup(Level.Invocation)
+	public void resetSA() {
+		for (int i = 0; i < records.size(); i++) {
+			records.get(i).setAttribute(SAMTag.SA.name(), new String(sa.get(i)));
+		}
+	}
+	/**
+	 * Regular expression parsing and re-serialisation of the full SA tag
+	 */
+	@Benchmark
+	public int regexSplit() {
+		int count = 0;
+		for (SAMRecord r : records) {
+			r.setAttribute(SAMTag.SA.name(), ChimericAlignment.getChimericAlignments(r.getStringAttribute(SAMTag.SA.name()), ";").stream()
+					.filter(ca -> ca.mapq >= MIN_MAPQ)
+					.map(ca -> ca.toString())
+					.collect(Collectors.joining(";")));
+			count += ChimericAlignment.getChimericAlignments(r.getStringAttribute(SAMTag.SA.name()), ";").size();
+			count += ChimericAlignment.getChimericAlignments(r.getStringAttribute(SAMTag.SA.name()), ";").size();
+		}
+		return count;
+	}
+	/**
+	 * Cached parsing and patching of the SA tag
+	 */
+	@Benchmark
+	public int cached() {
+		int count = 0;
+		for (SAMRecord r : records) {
+			ChimericAlignment.retainChimericAlignments(r, ca -> ca.mapq >= MIN_MAPQ);
+			count += ChimericAlignment.getChimericAlignments(r).size();
+			count += ChimericAlignment.getChimericAlignments(r).size();
+		}
+		return count;
+	}
+}
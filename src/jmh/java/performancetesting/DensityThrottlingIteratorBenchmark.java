@@ -0,0 +1,80 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.util.DensityThrottlingIterator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsampling of a synthetic amplicon region in which every read
+ * starts within a few bases of the amplicon primers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class DensityThrottlingIteratorBenchmark extends BenchmarkHelper {
+	private static final int WINDOW_SIZE = 1000;
+	@Param({"1000000"})
+	public int records;
+	@Param({"0", "64"})
+	public int windowBins;
+	@Param({"1", "64"})
+	public int reorderBufferSize;
+	private long[] position;
+	private int[] score;
+	@Setup
+	public void setup() {
+		Random rng = new Random(SEED);
+		position = new long[records];
+		score = new int[records];
+		for (int i = 0; i < records; i++) {
+			// 10 amplicons 150bp apart with read starts within 5bp of the primer
+			position[i] = 150 * (10L * i / records) + rng.nextInt(5);
+			score[i] = rng.nextInt(60);
+		}
+		Arrays.sort(position);
+	}
+	private class IndexIterator implements Iterator<Integer> {
+		private int i = 0;
+		@Override
+		public boolean hasNext() {
+			return i < records;
+		}
+		@Override
+		public Integer next() {
+			return i++;
+		}
+	}
+	private class IndexDensityThrottlingIterator extends DensityThrottlingIterator<Integer> {
+		public IndexDensityThrottlingIterator() {
+			super(new IndexIterator(), WINDOW_SIZE, 0.1, 1, windowBins, reorderBufferSize, SEED);
+		}
+		@Override
+		protected long getPosition(Integer record) {
+			return position[record];
+		}
+		@Override
+		protected boolean excludedFromThrottling(Integer record) {
+			return false;
+		}
+		@Override
+		protected double getScore(Integer record) {
+			return score[record];
+		}
+	}
+	@Benchmark
+	public long throttle() {
+		long scoreSum = 0;
+		IndexDensityThrottlingIterator it = new IndexDensityThrottlingIterator();
+		while (it.hasNext()) {
+			scoreSum += score[it.next()];
+		}
+		return scoreSum;
+	}
+}
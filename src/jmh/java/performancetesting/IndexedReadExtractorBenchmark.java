@@ -0,0 +1,133 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.IndexedReadExtractor;
+import au.edu.wehi.idsv.LinearGenomicCoordinate;
+import au.edu.wehi.idsv.PaddedLinearGenomicCoordinate;
+import au.edu.wehi.idsv.bed.IntervalBed;
+import htsjdk.samtools.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Targeted extraction of reads, mates and split read alignments from an indexed BAM,
+ * as used for targeted re-calling of variants.
+ *
+ * The BAM contains read pairs distributed uniformly over a synthetic 100Mb genome.
+ * A small proportion of pairs are discordant or have split read alignments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexedReadExtractorBenchmark extends BenchmarkHelper {
+	private static final int CONTIGS = 10;
+	private static final int CONTIG_LENGTH = 10000000;
+	private static final int READ_PAIRS = 250000;
+	private static final int READ_LENGTH = 100;
+	private static final int REGION_SIZE = 100;
+	@Param({"10", "1000", "100000"})
+	public int regions;
+	@Param({"1", "8"})
+	public int threads;
+	private File input;
+	private File output;
+	private LinearGenomicCoordinate lgc;
+	private IntervalBed bed;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SAMSequenceDictionary dict = new SAMSequenceDictionary();
+		for (int i = 0; i < CONTIGS; i++) {
+			dict.addSequence(new SAMSequenceRecord("chr" + (i + 1), CONTIG_LENGTH));
+		}
+		SAMFileHeader header = new SAMFileHeader(dict);
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		lgc = new PaddedLinearGenomicCoordinate(dict, 1000);
+		Random rng = new Random(SEED);
+		List<SAMRecord> records = new ArrayList<>(2 * READ_PAIRS);
+		byte[] bases = getPolyA(READ_LENGTH);
+		for (int i = 0; i < READ_PAIRS; i++) {
+			int referenceIndex = rng.nextInt(CONTIGS);
+			int position = 1 + rng.nextInt(CONTIG_LENGTH - 1000);
+			int mateReferenceIndex = referenceIndex;
+			int matePosition = position + 300;
+			if (rng.nextInt(20) == 0) {
+				// discordant pair
+				mateReferenceIndex = rng.nextInt(CONTIGS);
+				matePosition = 1 + rng.nextInt(CONTIG_LENGTH - 1000);
+			}
+			SAMRecord r1 = new SAMRecord(header);
+			SAMRecord r2 = new SAMRecord(header);
+			r1.setReadName("r" + i);
+			r2.setReadName("r" + i);
+			r1.setReadPairedFlag(true);
+			r2.setReadPairedFlag(true);
+			r1.setFirstOfPairFlag(true);
+			r2.setSecondOfPairFlag(true);
+			r1.setReferenceIndex(referenceIndex);
+			r1.setAlignmentStart(position);
+			r2.setReferenceIndex(mateReferenceIndex);
+			r2.setAlignmentStart(matePosition);
+			r2.setReadNegativeStrandFlag(true);
+			for (SAMRecord r : new SAMRecord[] { r1, r2 }) {
+				r.setCigarString(READ_LENGTH + "M");
+				r.setMappingQuality(60);
+				r.setReadBases(bases);
+				r.setBaseQualities(bases);
+			}
+			if (rng.nextInt(20) == 0) {
+				// split read
+				SAMRecord supp = new SAMRecord(header);
+				supp.setReadName("r" + i);
+				supp.setFlags(r2.getFlags());
+				supp.setSupplementaryAlignmentFlag(true);
+				supp.setReferenceIndex(rng.nextInt(CONTIGS));
+				supp.setAlignmentStart(1 + rng.nextInt(CONTIG_LENGTH - 1000));
+				supp.setCigarString("50S50M");
+				supp.setMappingQuality(60);
+				supp.setReadBases(bases);
+				supp.setBaseQualities(bases);
+				supp.setMateReferenceIndex(r1.getReferenceIndex());
+				supp.setMateAlignmentStart(r1.getAlignmentStart());
+				r2.setCigarString("50M50S");
+				r2.setAttribute(SAMTag.SA.name(), String.format("%s,%d,+,50S50M,60,0", supp.getReferenceName(), supp.getAlignmentStart()));
+				supp.setAttribute(SAMTag.SA.name(), String.format("%s,%d,-,50M50S,60,0", r2.getReferenceName(), r2.getAlignmentStart()));
+				records.add(supp);
+			}
+			SamPairUtil.setMateInfo(r1, r2, true);
+			records.add(r1);
+			records.add(r2);
+		}
+		records.sort(new SAMRecordCoordinateComparator());
+		input = File.createTempFile("extract", ".bam");
+		output = File.createTempFile("extract.out", ".bam");
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeSAMOrBAMWriter(header, true, input)) {
+			for (SAMRecord r : records) {
+				writer.addAlignment(r);
+			}
+		}
+		bed = new IntervalBed(lgc);
+		for (int i = 0; i < regions; i++) {
+			int start = 1 + rng.nextInt(CONTIG_LENGTH - REGION_SIZE);
+			bed.addInterval(rng.nextInt(CONTIGS), start, start + REGION_SIZE - 1);
+		}
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.delete();
+		new File(input.getPath().replaceAll("\\.bam$", ".bai")).delete();
+		output.delete();
+	}
+	@Benchmark
+	public long extract() throws IOException {
+		new IndexedReadExtractor(lgc, bed, true, true).extract(input, output, threads);
+		return output.length();
+	}
+}
@@ -0,0 +1,46 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.util.IntervalAccumulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binned coverage accumulation as performed for every read by ComputeCoverage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class IntervalAccumulatorBenchmark extends BenchmarkHelper {
+	private static final int CONTIG_LENGTH = 10000000;
+	@Param({"100000"})
+	public int reads;
+	@Param({"1000"})
+	public int binSize;
+	@Param({"500"})
+	public int fragmentSize;
+	private int[] start;
+	@Setup
+	public void setup() {
+		Random rng = new Random(SEED);
+		start = new int[reads];
+		for (int i = 0; i < reads; i++) {
+			start[i] = 1 + rng.nextInt(CONTIG_LENGTH);
+		}
+		Arrays.sort(start);
+	}
+	@Benchmark
+	public IntervalAccumulator accumulate() {
+		IntervalAccumulator ia = new IntervalAccumulator(1, CONTIG_LENGTH, binSize);
+		ia.finaliseBins();
+		for (int i = 0; i < start.length; i++) {
+			ia.add(start[i], start[i] + fragmentSize - 1, 1.0);
+		}
+		return ia;
+	}
+}
@@ -0,0 +1,62 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KmerEncodingHelperBenchmark {
+	@Param({"25", "31"})
+	public int k;
+	private byte[] bases;
+	private long[] kmers;
+	@Setup
+	public void setup() {
+		Random rng = new Random(BenchmarkHelper.SEED);
+		bases = BenchmarkHelper.B(BenchmarkHelper.randomBases(rng, 100000));
+		kmers = new long[bases.length - k + 1];
+		for (int i = 0; i < kmers.length; i++) {
+			kmers[i] = KmerEncodingHelper.picardBaseToEncoded(k, java.util.Arrays.copyOfRange(bases, i, i + k));
+		}
+	}
+	@Benchmark
+	public long rollingEncode() {
+		long state = KmerEncodingHelper.picardBaseToEncoded(k, bases);
+		long checksum = state;
+		for (int i = k; i < bases.length; i++) {
+			state = KmerEncodingHelper.nextState(k, state, bases[i]);
+			checksum += state;
+		}
+		return checksum;
+	}
+	@Benchmark
+	public long reverseComplement() {
+		long checksum = 0;
+		for (long kmer : kmers) {
+			checksum += KmerEncodingHelper.reverseComplement(k, kmer);
+		}
+		return checksum;
+	}
+	@Benchmark
+	public int basesDifference() {
+		int checksum = 0;
+		for (int i = 1; i < kmers.length; i++) {
+			checksum += KmerEncodingHelper.basesDifference(k, kmers[i - 1], kmers[i]);
+		}
+		return checksum;
+	}
+	@Benchmark
+	public void encodedToPicardBases(Blackhole bh) {
+		for (int i = 0; i < kmers.length; i += k) {
+			bh.consume(KmerEncodingHelper.encodedToPicardBases(k, kmers[i]));
+		}
+	}
+}
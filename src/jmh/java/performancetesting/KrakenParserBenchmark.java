@@ -0,0 +1,92 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.kraken.KrakenClassification;
+import au.edu.wehi.idsv.kraken.KrakenParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of kraken2 output, as performed by SubsetToTaxonomy and AnnotateVariantsKraken.
+ *
+ * Paired read kraken2 output lines with 151bp reads are synthesised in memory.
+ * A thread count of 0 parses on the calling thread. Each operation is a single
+ * kraken2 output line, including the taxonomy lookup of every kmer LCA mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KrakenParserBenchmark {
+	private static final int LINES = 100000;
+	@Param({"0", "1", "4"})
+	public int threads;
+	@Param({"true", "false"})
+	public boolean ordered;
+	private byte[] payload;
+	private ExecutorService threadpool;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random random = new Random(0);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		for (int i = 0; i < LINES; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(random.nextBoolean() ? "C" : "U");
+			sb.append("\tA00624:8:HHKYHDSXX:1:1245:").append(random.nextInt(32000)).append(":").append(i);
+			sb.append("\t").append(random.nextInt(10000));
+			sb.append("\t151|151\t");
+			for (int read = 0; read < 2; read++) {
+				if (read == 1) {
+					sb.append("|:| ");
+				}
+				for (int kmers = 0; kmers < 117; ) {
+					int count = Math.min(117 - kmers, 1 + random.nextInt(20));
+					sb.append(random.nextInt(8) == 0 ? "A" : Integer.toString(random.nextInt(10000))).append(':').append(count).append(' ');
+					kmers += count;
+				}
+			}
+			sb.append('\n');
+			os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		payload = os.toByteArray();
+		if (threads > 0) {
+			threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kraken-%d").build());
+		}
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (threadpool != null) {
+			threadpool.shutdown();
+		}
+	}
+	private static boolean hasTaxonomyId(KrakenClassification kc) {
+		for (int read = 0; read < 2; read++) {
+			for (int i = 0; i < kc.getKmerClassificationCount(read); i++) {
+				if (kc.getKmerTaxonomyId(read, i) == 9606) return true;
+			}
+		}
+		return false;
+	}
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public int parse() throws IOException {
+		int count = 0;
+		try (KrakenParser parser = new KrakenParser(new ByteArrayInputStream(payload), threadpool, 2 * Math.max(1, threads), ordered, KrakenParserBenchmark::hasTaxonomyId)) {
+			while (parser.hasNext()) {
+				parser.next();
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,127 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
+import au.edu.wehi.idsv.ncbi.NcbiTaxonomy;
+import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and querying of the NCBI taxonomy, as performed by SubsetToTaxonomy
+ * and ExtractBestSequencesBasedOnReport.
+ *
+ * A random taxonomy of a similar size to the full NCBI taxonomy is synthesised.
+ * Load benchmarks compare the boxed map representation, direct parsing of the
+ * array representation, and the memory mapped binary cache. Query benchmarks
+ * compare ancestor walks against Euler tour interval lookups.
+ *
+ * Loading is a one-off operation so is measured as single shot time.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class NcbiTaxonomyBenchmark {
+	private static final int TAXA = 2500000;
+	private static final int QUERIES = 1000000;
+	private static final List<Integer> TAXA_OF_INTEREST = ImmutableList.of(10239, 2759);
+	private File nodesdmp;
+	private File cache;
+	private Map<Integer, MinimalTaxonomyNode> map;
+	private NcbiTaxonomy taxonomy;
+	private int[] queries;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		nodesdmp = File.createTempFile("nodes", ".dmp");
+		cache = NcbiTaxonomy.getDefaultCacheFile(nodesdmp);
+		Random random = new Random(0);
+		try (Writer writer = new BufferedWriter(new FileWriter(nodesdmp))) {
+			writer.write("1\t|\t1\t|\tno rank\t|\t\t|\t8\t|\t0\t|\t1\t|\t0\t|\t0\t|\t0\t|\t0\t|\t0\t|\t\t|\n");
+			for (int taxId = 2; taxId <= TAXA; taxId++) {
+				// random recursive tree has a logarithmic depth comparable to the NCBI taxonomy
+				int parent = 1 + random.nextInt(taxId - 1);
+				writer.write(taxId + "\t|\t" + parent + "\t|\tspecies\t|\t\t|\t0\t|\t1\t|\t1\t|\t1\t|\t0\t|\t1\t|\t1\t|\t0\t|\t\t|\n");
+			}
+		}
+		map = TaxonomyHelper.parseMinimal(nodesdmp);
+		taxonomy = NcbiTaxonomy.load(nodesdmp, cache);
+		queries = new int[2 * QUERIES];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = 1 + random.nextInt(TAXA);
+		}
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(nodesdmp.toPath());
+		Files.deleteIfExists(cache.toPath());
+	}
+	@TearDown(Level.Iteration)
+	public void releaseMappedCaches() {
+		// mapped buffers are only unmapped when garbage collected
+		System.gc();
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public Map<Integer, MinimalTaxonomyNode> loadMap() throws IOException {
+		return TaxonomyHelper.parseMinimal(nodesdmp);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public NcbiTaxonomy loadArray() throws IOException {
+		return NcbiTaxonomy.parse(nodesdmp);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public NcbiTaxonomy loadCache() throws IOException {
+		return NcbiTaxonomy.load(nodesdmp, cache);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public boolean[] inclusionLookupMap() {
+		return TaxonomyHelper.createInclusionLookup(TAXA_OF_INTEREST, map);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public boolean[] inclusionLookupArray() {
+		return taxonomy.createInclusionLookup(TAXA_OF_INTEREST);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int subtreeQueryAncestorWalk() {
+		int count = 0;
+		for (int i = 0; i < queries.length; i += 2) {
+			int ancestor = queries[i + 1];
+			int node = queries[i];
+			while (node != ancestor && taxonomy.getParent(node) != node) {
+				node = taxonomy.getParent(node);
+			}
+			if (node == ancestor) count++;
+		}
+		return count;
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int subtreeQueryEulerTour() {
+		int count = 0;
+		for (int i = 0; i < queries.length; i += 2) {
+			if (taxonomy.isInSubtree(queries[i], queries[i + 1])) count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,69 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.util.ParallelTransformIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Ordered parallel transformation throughput for cheap and expensive per-record transforms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelTransformIteratorBenchmark {
+	private static final int RECORDS = 100000;
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	public int threads;
+	/**
+	 * Number of records transformed by each task
+	 */
+	@Param({"1", "64"})
+	public int batchSize;
+	/**
+	 * Number of hash rounds performed per record
+	 */
+	@Param({"1", "256"})
+	public int work;
+	private ExecutorService threadpool;
+	@Setup
+	public void setup() {
+		threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("benchmark-%d").build());
+	}
+	@TearDown
+	public void teardown() {
+		threadpool.shutdownNow();
+	}
+	private static long transform(int record, int work) {
+		long x = record;
+		for (int i = 0; i < work; i++) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+		}
+		return x;
+	}
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public long transform() {
+		final int w = work;
+		ParallelTransformIterator<Integer, Long> it = new ParallelTransformIterator<>(
+				IntStream.range(0, RECORDS).boxed().iterator(),
+				r -> transform(r, w),
+				threads * 64,
+				threadpool,
+				batchSize);
+		long checksum = 0;
+		while (it.hasNext()) {
+			checksum += it.next();
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,103 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.PartitionedSplitReadRealigner;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.SplitReadRealigner;
+import au.edu.wehi.idsv.alignment.BwaAligner;
+import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import htsjdk.samtools.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitioned soft clip realignment, as performed by SoftClipsToSplitReads
+ * when PARTITION_THREADS is greater than 1.
+ *
+ * Every partition shares a single in-process bwa aligner against the bundled small.fa test index.
+ * The cpuMillis and wallMillis counters record the process CPU time and wall-clock time
+ * of each invocation. Their ratio is the average number of cores in use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionedSplitReadRealignerBenchmark extends BenchmarkHelper {
+	private static final int READS = 20000;
+	private static final int BATCH_SIZE = 10000;
+	private static final int PARTITION_SIZE = 1000;
+	@Param({"1", "8", "16", "32", "64"})
+	public int threads;
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class CpuCounter {
+		public long cpuMillis;
+		public long wallMillis;
+		@Setup(Level.Iteration)
+		public void reset() {
+			cpuMillis = 0;
+			wallMillis = 0;
+		}
+	}
+	private ProcessingContext pc;
+	private BwaAligner aligner;
+	private File input;
+	private File output;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		pc = getContext();
+		aligner = new BwaAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 1);
+		input = File.createTempFile("partitioned", ".bam");
+		output = File.createTempFile("partitioned.out", ".bam");
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		SAMSequenceDictionary dict = header.getSequenceDictionary();
+		int contigLength = dict.getSequence(RANDOM_CONTIG).getSequenceLength();
+		Random rng = new Random(SEED);
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeSAMOrBAMWriter(header, false, input)) {
+			for (int i = 0; i < READS; i++) {
+				int referenceIndex = rng.nextInt(dict.size());
+				int position = 1 + rng.nextInt(dict.getSequence(referenceIndex).getSequenceLength() - 100);
+				String anchor = referenceBases(referenceIndex, position, 50);
+				// soft clipped bases originate from elsewhere in the genome
+				String clip = i % 4 == 0 ? randomBases(rng, 50) : referenceBases(RANDOM_CONTIG, 1 + rng.nextInt(contigLength - 50), 50);
+				SAMRecord r = new SAMRecord(header);
+				r.setReadName("r" + i);
+				r.setReferenceIndex(referenceIndex);
+				r.setAlignmentStart(position);
+				r.setCigarString("50M50S");
+				r.setMappingQuality(60);
+				r.setReadBases(B(anchor + clip));
+				r.setBaseQualities(getPolyA(100));
+				writer.addAlignment(r);
+			}
+		}
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		aligner.close();
+		input.delete();
+		new File(input.getPath().replaceAll("\\.bam$", ".bai")).delete();
+		output.delete();
+	}
+	@Benchmark
+	public long realign(CpuCounter counter) throws IOException {
+		com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean();
+		long startCpu = os.getProcessCpuTime();
+		long startWall = System.nanoTime();
+		int batchSize = Math.max(1, BATCH_SIZE / threads);
+		List<QueryInterval[]> partitions = pc.getReference().getIntervals(PARTITION_SIZE, 0);
+		SplitReadRealigner realigner = new PartitionedSplitReadRealigner(pc, () -> new BwaStreamingAligner(aligner, batchSize * 150), batchSize, partitions, threads);
+		realigner.createSupplementaryAlignments(input, output, output);
+		counter.cpuMillis += TimeUnit.NANOSECONDS.toMillis(os.getProcessCpuTime() - startCpu);
+		counter.wallMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startWall);
+		return output.length();
+	}
+}
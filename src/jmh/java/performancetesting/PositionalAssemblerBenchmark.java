@@ -0,0 +1,68 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.*;
+import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
+import au.edu.wehi.idsv.configuration.PositionalAssemblyConfiguration;
+import au.edu.wehi.idsv.debruijn.positional.PositionalAssembler;
+import htsjdk.samtools.SAMRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Positional de Bruijn graph assembly of synthetic soft clipped reads
+ * supporting breakends at regular intervals along a random reference contig.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PositionalAssemblerBenchmark extends BenchmarkHelper {
+	private static final int READ_LENGTH = 100;
+	@Param({"4", "16"})
+	public int readsPerBreakend;
+	@Param({"false", "true"})
+	public boolean concurrentSubgraphCalling;
+	private ProcessingContext pc;
+	private AssemblyEvidenceSource aes;
+	private List<DirectedEvidence> evidence;
+	@Setup
+	public void setup() {
+		Random rng = new Random(SEED);
+		pc = getContext();
+		boolean trimSelfIntersectingReads = pc.getAssemblyParameters().positional.trimSelfIntersectingReads;
+		pc.getAssemblyParameters().positional = new PositionalAssemblyConfiguration(
+				getDefaultConfig("assembly.positional.concurrentSubgraphCalling", concurrentSubgraphCalling).subset(AssemblyConfiguration.CONFIGURATION_PREFIX));
+		pc.getAssemblyParameters().positional.trimSelfIntersectingReads = trimSelfIntersectingReads;
+		aes = AES(pc);
+		evidence = new ArrayList<>();
+		for (int breakend = 200; breakend < 9500; breakend += 250) {
+			String inserted = randomBases(rng, READ_LENGTH);
+			for (int i = 0; i < readsPerBreakend; i++) {
+				int clipLength = 10 + rng.nextInt(READ_LENGTH - 20);
+				int anchorLength = READ_LENGTH - clipLength;
+				int start = breakend - anchorLength + 1;
+				SAMRecord r = Read(RANDOM_CONTIG, start, String.format("%dM%dS", anchorLength, clipLength));
+				r.setReadName(String.format("r%d_%d", breakend, i));
+				withSequence(referenceBases(RANDOM_CONTIG, start, anchorLength) + inserted.substring(0, clipLength), r);
+				evidence.add(SCE(BreakendDirection.Forward, r));
+			}
+		}
+		evidence.sort(DirectedEvidenceOrder.ByStartEnd);
+	}
+	@Benchmark
+	public int assemble() {
+		int count = 0;
+		PositionalAssembler assembler = new PositionalAssembler(pc, aes, new SequentialIdGenerator("asm"), evidence.iterator(), BreakendDirection.Forward, null, null);
+		while (assembler.hasNext()) {
+			assembler.next();
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,69 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.FixedSizeReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.ReadGcSummary;
+import au.edu.wehi.idsv.ReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.ReferenceGcCounts;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fragment GC calculation as performed for every read by ComputeCoverage
+ * and CollectFragmentGCMetrics.
+ *
+ * Reads are concordant pairs with fragment sizes typical of whole genome
+ * sequencing libraries so the reference scan covers the full fragment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ReadGcSummaryBenchmark extends BenchmarkHelper {
+	private static final int CONTIG_LENGTH = 1000000;
+	private static final int READ_LENGTH = 150;
+	@Param({"100000"})
+	public int reads;
+	@Param({"500"})
+	public int fragmentSize;
+	private ReferenceSequence refSeq;
+	private ReferenceGcCounts.Contig gcCounts;
+	private ReadPairConcordanceCalculator rpcc;
+	private List<SAMRecord> records;
+	@Setup
+	public void setup() {
+		Random rng = new Random(SEED);
+		refSeq = new ReferenceSequence("contig", 0, B(randomBases(rng, CONTIG_LENGTH)));
+		gcCounts = ReferenceGcCounts.create(refSeq);
+		rpcc = new FixedSizeReadPairConcordanceCalculator(0, 2 * fragmentSize);
+		records = new ArrayList<>(reads);
+		for (int i = 0; i < reads; i++) {
+			int pos = 1 + rng.nextInt(CONTIG_LENGTH - fragmentSize);
+			SAMRecord[] dp = DP(0, pos, READ_LENGTH + "M", true, 0, pos + fragmentSize - READ_LENGTH, READ_LENGTH + "M", false);
+			records.add(dp[0]);
+		}
+	}
+	@Benchmark
+	public double scanReference() {
+		double sum = 0;
+		for (SAMRecord r : records) {
+			sum += new ReadGcSummary(r, refSeq, READ_LENGTH, rpcc).gcPercentage;
+		}
+		return sum;
+	}
+	@Benchmark
+	public double lookupGcCounts() {
+		double sum = 0;
+		for (SAMRecord r : records) {
+			sum += new ReadGcSummary(r, gcCounts, READ_LENGTH, rpcc).gcPercentage;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,53 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.graph.RectangleGraphMaximalCliqueCalculator;
+import au.edu.wehi.idsv.graph.RectangleGraphNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maximal clique calling over randomly placed evidence rectangles
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RectangleGraphMaximalCliqueCalculatorBenchmark {
+	@Param({"10000", "100000"})
+	public int rectangles;
+	/**
+	 * Average number of overlapping rectangles at any position
+	 */
+	@Param({"4", "64"})
+	public int depth;
+	private List<RectangleGraphNode> nodes;
+	@Setup
+	public void setup() {
+		Random rng = new Random(BenchmarkHelper.SEED);
+		int width = 300;
+		long span = (long)rectangles * width / depth;
+		nodes = new ArrayList<>(rectangles);
+		for (int i = 0; i < rectangles; i++) {
+			long x = (long)(rng.nextDouble() * span);
+			long y = x + 1000 + rng.nextInt(100);
+			nodes.add(new RectangleGraphNode(x, x + rng.nextInt(width), y, y + rng.nextInt(width), 1 + rng.nextInt(50)));
+		}
+		nodes.sort(RectangleGraphNode.ByStartXY);
+	}
+	@Benchmark
+	public int calculateMaximalCliques() {
+		RectangleGraphMaximalCliqueCalculator calc = new RectangleGraphMaximalCliqueCalculator();
+		int count = 0;
+		for (RectangleGraphNode node : nodes) {
+			count += calc.next(node).size();
+		}
+		count += calc.complete().size();
+		return count;
+	}
+}
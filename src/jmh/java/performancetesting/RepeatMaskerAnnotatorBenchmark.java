@@ -0,0 +1,170 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerBEDCodec;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerFeature;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerIntervalIndex;
+import htsjdk.samtools.util.IntervalTree;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.bed.BEDFeature;
+import htsjdk.tribble.readers.LineIterator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and querying of RepeatMasker annotations, as performed by AnnotateInsertedSequence.
+ *
+ * A random RepeatMasker track with a repeat density and length distribution
+ * similar to the hg38 RepeatMasker track is synthesised. Load benchmarks compare
+ * the htsjdk interval tree of RepeatMaskerBEDCodec features, direct parsing of the
+ * position index, and the memory mapped binary cache. Query benchmarks compare
+ * interval tree lookups against index cursor lookups for coordinate sorted and
+ * random queries.
+ *
+ * Loading is a one-off operation so is measured as single shot time.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RepeatMaskerAnnotatorBenchmark {
+	private static final int CONTIGS = 24;
+	private static final int RECORDS_PER_CONTIG = 40000;
+	private static final int QUERIES = 100000;
+	private static final String[] CLASSES = { "SINE/Alu", "LINE/L1", "LTR/ERVL-MaLR", "DNA/hAT-Charlie", "Simple_repeat", "Low_complexity", "Satellite" };
+	private File bed;
+	private File cache;
+	private Map<String, IntervalTree<RepeatMaskerFeature>> tree;
+	private RepeatMaskerIntervalIndex index;
+	private String[] queryContig;
+	private int[] queryStart;
+	private int[] randomQuery;
+	private int[] sortedQuery;
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		bed = File.createTempFile("rmsk", ".bed");
+		cache = RepeatMaskerIntervalIndex.getDefaultCacheFile(bed);
+		Random random = new Random(0);
+		try (Writer writer = new BufferedWriter(new FileWriter(bed))) {
+			for (int contig = 0; contig < CONTIGS; contig++) {
+				int pos = 10000;
+				for (int i = 0; i < RECORDS_PER_CONTIG; i++) {
+					// repeats cover around half the genome with occasional long repeats
+					int length = 10 + random.nextInt(random.nextInt(16) == 0 ? 10000 : 600);
+					pos += random.nextInt(2 * length);
+					int cls = random.nextInt(CLASSES.length);
+					writer.write(String.format("chr%d\t%d\t%d\trepeat%d\t%d\t%s\t10.0\t1.0\t1.0\t(1000)\t%s\t1\t%d\t(0)\t%d\n",
+							contig + 1, pos, pos + length, random.nextInt(1000), random.nextInt(5000), random.nextBoolean() ? "+" : "-", CLASSES[cls], length, i));
+				}
+			}
+		}
+		tree = loadIntervalTree();
+		index = RepeatMaskerIntervalIndex.load(bed, cache);
+		queryContig = new String[QUERIES];
+		queryStart = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			queryContig[i] = "chr" + (1 + random.nextInt(CONTIGS));
+			queryStart[i] = random.nextInt(RECORDS_PER_CONTIG * 400);
+		}
+		randomQuery = new int[QUERIES];
+		Integer[] order = new Integer[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			randomQuery[i] = i;
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing((Integer i) -> queryContig[i]).thenComparingInt(i -> queryStart[i]));
+		sortedQuery = Arrays.stream(order).mapToInt(i -> i).toArray();
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(bed.toPath());
+		Files.deleteIfExists(cache.toPath());
+	}
+	@TearDown(Level.Iteration)
+	public void releaseMappedCaches() {
+		// mapped buffers are only unmapped when garbage collected
+		System.gc();
+	}
+	private Map<String, IntervalTree<RepeatMaskerFeature>> loadIntervalTree() throws IOException {
+		Map<String, IntervalTree<RepeatMaskerFeature>> lookup = new HashMap<>();
+		try (AbstractFeatureReader<BEDFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(bed.getPath(), new RepeatMaskerBEDCodec(), false)) {
+			for (BEDFeature rawfeat : reader.iterator()) {
+				RepeatMaskerFeature feat = (RepeatMaskerFeature)rawfeat;
+				feat.setRepeatAlignmentSummaryInformation(null);
+				lookup.computeIfAbsent(feat.getContig(), k -> new IntervalTree<>()).put(feat.getStart(), feat.getEnd(), feat);
+			}
+		}
+		return lookup;
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Map<String, IntervalTree<RepeatMaskerFeature>> loadIntervalTreeFromBed() throws IOException {
+		return loadIntervalTree();
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public RepeatMaskerIntervalIndex loadIndexFromBed() throws IOException {
+		return RepeatMaskerIntervalIndex.parse(bed);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public RepeatMaskerIntervalIndex loadIndexFromCache() throws IOException {
+		return RepeatMaskerIntervalIndex.load(bed, cache);
+	}
+	private int queryTree(int[] queries) {
+		int count = 0;
+		for (int q : queries) {
+			IntervalTree<RepeatMaskerFeature> t = tree.get(queryContig[q]);
+			Iterator<IntervalTree.Node<RepeatMaskerFeature>> it = t.overlappers(queryStart[q], queryStart[q] + 300);
+			while (it.hasNext()) {
+				count += it.next().getValue().getRepeatClass().length();
+			}
+		}
+		return count;
+	}
+	private int queryIndex(int[] queries) {
+		int count = 0;
+		RepeatMaskerIntervalIndex.Cursor cursor = index.cursor();
+		for (int q : queries) {
+			cursor.seek(queryContig[q], queryStart[q], queryStart[q] + 300);
+			while (cursor.next()) {
+				count += cursor.getRepeatClass().length();
+			}
+		}
+		return count;
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int sortedQueryIntervalTree() {
+		return queryTree(sortedQuery);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int sortedQueryIndexCursor() {
+		return queryIndex(sortedQuery);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int randomQueryIntervalTree() {
+		return queryTree(randomQuery);
+	}
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(QUERIES)
+	public int randomQueryIndexCursor() {
+		return queryIndex(randomQuery);
+	}
+}
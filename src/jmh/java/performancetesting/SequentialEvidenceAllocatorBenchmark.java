@@ -0,0 +1,59 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import htsjdk.samtools.SAMRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of discordant read pair evidence to overlapping variant calls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequentialEvidenceAllocatorBenchmark extends BenchmarkHelper {
+	private static final int FRAGMENT_SIZE = 4;
+	@Param({"32", "96"})
+	public int gridSize;
+	@Param({"false", "true"})
+	public boolean assignEvidenceToSingleBreakpoint;
+	private ProcessingContext pc;
+	private StubSAMEvidenceSource ses;
+	private List<VariantContextDirectedEvidence> calls;
+	@Setup
+	public void setup() {
+		pc = getContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().minScore = 0;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		ses = new StubSAMEvidenceSource(pc, null, 0, 0, FRAGMENT_SIZE);
+		for (int i = 1; i < gridSize; i++) {
+			for (int j = 1; j < gridSize; j++) {
+				SAMRecord[] dp = withReadName(String.format("read-%d-%d", i, j), DP(0, i, "1M", true, 1, j, "1M", false));
+				ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+				ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+			}
+		}
+		ses.evidence.sort(DirectedEvidenceOrder.ByNatural);
+		AggregateEvidenceSource es = new AggregateEvidenceSource(pc, ImmutableList.of(ses), null, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
+		calls = Lists.newArrayList(new VariantCallIterator(es));
+		calls.sort(VariantContextDirectedEvidence.ByBreakendStartEnd);
+	}
+	@Benchmark
+	public int allocate() {
+		SequentialEvidenceAllocator allocator = new SequentialEvidenceAllocator(pc, calls.iterator(), ses.evidence.iterator(), ImmutableList.<DirectedEvidence>of().iterator(), FRAGMENT_SIZE, assignEvidenceToSingleBreakpoint);
+		int count = 0;
+		while (allocator.hasNext()) {
+			count += allocator.next().support.size();
+		}
+		return count;
+	}
+}
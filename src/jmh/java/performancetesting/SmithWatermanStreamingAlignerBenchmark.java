@@ -0,0 +1,94 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.alignment.Aligner;
+import au.edu.wehi.idsv.alignment.AlignerFactory;
+import au.edu.wehi.idsv.alignment.SmithWatermanStreamingAligner;
+import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Realignment of soft clips against a single 5Mb chromosome.
+ *
+ * The fullContig benchmark aligns a single read across the entire chromosome
+ * and is the per-read cost of unseeded Smith-Waterman alignment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmithWatermanStreamingAlignerBenchmark {
+	private static final int CONTIG_LENGTH = 5000000;
+	private static final int READS = 10000;
+	@Param({"1", "4"})
+	public int threads;
+	private InMemoryReferenceSequenceFile reference;
+	private List<FastqRecord> reads;
+	private SmithWatermanStreamingAligner sa;
+	@Setup(Level.Trial)
+	public void setup() {
+		Random rng = new Random(BenchmarkHelper.SEED);
+		byte[] contig = BenchmarkHelper.randomBases(rng, CONTIG_LENGTH).getBytes();
+		reference = new InMemoryReferenceSequenceFile(new String[] { "contig" }, new byte[][] { contig });
+		reads = new ArrayList<>(READS);
+		for (int i = 0; i < READS; i++) {
+			int length = 20 + rng.nextInt(81);
+			int start = rng.nextInt(CONTIG_LENGTH - length);
+			byte[] seq = new byte[length];
+			System.arraycopy(contig, start, seq, 0, length);
+			// introduce sequencing errors
+			for (int j = 0; j < length; j++) {
+				if (rng.nextInt(100) == 0) {
+					seq[j] = (byte)"ACGT".charAt(rng.nextInt(4));
+				}
+			}
+			if (rng.nextBoolean()) {
+				SequenceUtil.reverseComplement(seq);
+			}
+			reads.add(new FastqRecord("read" + i, new String(seq), "", BenchmarkHelper.S(BenchmarkHelper.getPolyA(length))));
+		}
+		sa = new SmithWatermanStreamingAligner(AlignerFactory.create(), reference, 0, threads,
+				SmithWatermanStreamingAligner.DEFAULT_SEED_KMER, SmithWatermanStreamingAligner.DEFAULT_SEED_STRIDE,
+				SmithWatermanStreamingAligner.DEFAULT_MAX_SEED_OCCURRENCES, SmithWatermanStreamingAligner.DEFAULT_BAND_WIDTH);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sa.close();
+	}
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int seeded() throws IOException {
+		int records = 0;
+		for (FastqRecord fq : reads) {
+			sa.asyncAlign(fq);
+			while (sa.processedAlignmentRecords() > 0) {
+				sa.getAlignment();
+				records++;
+			}
+		}
+		sa.flush();
+		while (sa.processedAlignmentRecords() > 0) {
+			sa.getAlignment();
+			records++;
+		}
+		return records;
+	}
+	@Benchmark
+	@Warmup(iterations = 1, batchSize = 1)
+	@Measurement(iterations = 3, batchSize = 1)
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object fullContig() {
+		Aligner aligner = AlignerFactory.create();
+		return aligner.align_smith_waterman(reads.get(0).getReadBases(), reference.getSequence("contig").getBases());
+	}
+}
@@ -0,0 +1,87 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import au.edu.wehi.idsv.alignment.Minimap2StreamingAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
+import gridss.SoftClipsToSplitReads;
+import htsjdk.samtools.fastq.FastqRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process realignment of soft clipped bases, as performed by SoftClipsToSplitReads.
+ *
+ * Both aligners align the same soft clip fastq against the bundled small.fa test index.
+ * A quarter of the soft clips are random sequence with no reference hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingAlignerBenchmark {
+	private static final int SOFT_CLIPS = 20000;
+	private static final int BATCH_SIZE = 10000;
+	@Param({"BWAMEM", "MINIMAP2"})
+	public SoftClipsToSplitReads.Aligner aligner;
+	private List<FastqRecord> softClips;
+	private StreamingAligner sa;
+	@Setup(Level.Trial)
+	public void setup() {
+		Random rng = new Random(BenchmarkHelper.SEED);
+		int contigLength = BenchmarkHelper.SMALL_FA.getSequenceDictionary().getSequence(BenchmarkHelper.RANDOM_CONTIG).getSequenceLength();
+		softClips = new ArrayList<>(SOFT_CLIPS);
+		for (int i = 0; i < SOFT_CLIPS; i++) {
+			int length = 20 + rng.nextInt(81);
+			String seq;
+			if (i % 4 == 0) {
+				seq = BenchmarkHelper.randomBases(rng, length);
+			} else {
+				seq = BenchmarkHelper.referenceBases(BenchmarkHelper.RANDOM_CONTIG, 1 + rng.nextInt(contigLength - length), length);
+			}
+			softClips.add(new FastqRecord("sc" + i, seq, "", BenchmarkHelper.S(BenchmarkHelper.getPolyA(length))));
+		}
+		switch (aligner) {
+			case BWAMEM:
+				sa = new BwaStreamingAligner(BenchmarkHelper.SMALL_FA_FILE, BenchmarkHelper.SMALL_FA.getSequenceDictionary(), 1, BATCH_SIZE * 150);
+				break;
+			case MINIMAP2:
+				sa = new Minimap2StreamingAligner(BenchmarkHelper.SMALL_FA_FILE, BenchmarkHelper.SMALL_FA.getSequenceDictionary(), 1, BATCH_SIZE * 150);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported aligner " + aligner);
+		}
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sa.close();
+	}
+	/**
+	 * Aligns every soft clip, consuming alignments as they become available
+	 * @return number of alignment records returned
+	 */
+	@Benchmark
+	@OperationsPerInvocation(SOFT_CLIPS)
+	public int align() throws IOException {
+		int records = 0;
+		for (FastqRecord fq : softClips) {
+			sa.asyncAlign(fq);
+			while (sa.processedAlignmentRecords() > 0) {
+				sa.getAlignment();
+				records++;
+			}
+		}
+		sa.flush();
+		while (sa.processedAlignmentRecords() > 0) {
+			sa.getAlignment();
+			records++;
+		}
+		return records;
+	}
+}
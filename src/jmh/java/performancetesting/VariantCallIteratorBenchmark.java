@@ -0,0 +1,67 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.*;
+import htsjdk.samtools.SAMRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maximal clique variant calling of a dense evidence region across all
+ * breakpoint orientations and breakend directions, as performed for each
+ * chunk by VariantCaller.
+ *
+ * Breakpoint orientations are unevenly represented so the per-direction
+ * clique callers have differing amounts of work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class VariantCallIteratorBenchmark extends BenchmarkHelper {
+	private static final int FRAGMENT_SIZE = 4;
+	@Param({"96"})
+	public int gridSize;
+	private ProcessingContext pc;
+	private List<DirectedEvidence> evidence;
+	@Setup
+	public void setup() {
+		pc = getContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().minScore = 0;
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, null, 0, 0, FRAGMENT_SIZE);
+		Random rng = new Random(SEED);
+		for (int i = 1; i < gridSize; i++) {
+			for (int j = 1; j < gridSize; j++) {
+				// half the evidence is forward-backward
+				int orientation = rng.nextBoolean() ? 1 : rng.nextInt(4);
+				SAMRecord[] dp = withReadName(String.format("read-%d-%d", i, j), DP(0, 10 * i, "1M", (orientation & 1) != 0, 1, 10 * j, "1M", (orientation & 2) != 0));
+				ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+				ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+			}
+			for (int j = 0; j < gridSize / 4; j++) {
+				SAMRecord[] oea = withReadName(String.format("oea-%d-%d", i, j), OEA(0, 10 * i + j, "1M", rng.nextBoolean()));
+				ses.evidence.add(NonReferenceReadPair.create(oea[0], oea[1], ses));
+			}
+		}
+		ses.evidence.removeIf(e -> e == null);
+		ses.evidence.sort(DirectedEvidenceOrder.ByNatural);
+		evidence = new ArrayList<>(ses.evidence);
+	}
+	@Benchmark
+	public int callVariants() {
+		int count = 0;
+		try (VariantCallIterator it = new VariantCallIterator(pc, evidence.iterator())) {
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		}
+		return count;
+	}
+}
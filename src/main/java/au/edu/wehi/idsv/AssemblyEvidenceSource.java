@@ -3,11 +3,14 @@ package au.edu.wehi.idsv;
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
 import au.edu.wehi.idsv.debruijn.positional.PositionalAssembler;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
 import au.edu.wehi.idsv.sam.CigarUtil;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.sam.SamTags;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.SharedFileSystemWorkQueue;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -19,8 +22,8 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -83,36 +86,59 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			threadpool = MoreExecutors.newDirectExecutorService();
 		}
 		invalidateSummaryCache();
-		if (getContext().getConfig().getVisualisation().assemblyTelemetry) {
+		if (getContext().getConfig().getVisualisation().assemblyTelemetry && !getContext().useSharedWorkQueue()) {
 			telemetry = new AssemblyTelemetry(getContext().getFileSystemContext().getAssemblyTelemetry(getFile(), jobNodeIndex), getContext().getDictionary());
 		}
 		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
 		List<File> assembledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
-		for (int i = 0; i < chunks.size(); i++) {
-			if (i % jobNodes == jobNodeIndex) {
-				QueryInterval[] chunk = chunks.get(i);
-				File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
-				int chunkNumber = i;
-				assembledChunk.add(f);
-				if (!f.exists()) {
-					tasks.add(threadpool.submit(() -> {
-						assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
-						return null;
-					}));
+		SharedFileSystemWorkQueue queue = null;
+		if (getContext().useSharedWorkQueue()) {
+			// chunks are allocated dynamically across all jobs sharing the working directory
+			for (int i = 0; i < chunks.size(); i++) {
+				assembledChunk.add(getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i));
+			}
+			queue = new SharedFileSystemWorkQueue();
+			log.info(String.format("Assembling using shared work queue as %s", queue.getNodeId()));
+			try {
+				// every job has the same job index so regions and telemetry are written per chunk
+				// the merged output marks completion since chunks are deleted once merged
+				queue.execute(assembledChunk, getFile(), (i, out) -> assembleSharedChunk(out, i, chunks.get(i)),
+						threadpool, getContext().getWorkerThreadCount());
+			} catch (RuntimeException e) {
+				queue.close();
+				log.error(e, "Fatal error during assembly ");
+				throw e;
+			}
+		} else {
+			List<Future<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i++) {
+				if (i % jobNodes == jobNodeIndex) {
+					QueryInterval[] chunk = chunks.get(i);
+					File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
+					int chunkNumber = i;
+					assembledChunk.add(f);
+					if (!f.exists()) {
+						tasks.add(threadpool.submit(() -> {
+							assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions, telemetry);
+							return null;
+						}));
+					}
 				}
 			}
+			runTasks(tasks);
 		}
-		runTasks(tasks);
 		if (telemetry != null) {
 			telemetry.close();
 			telemetry = null;
 		}
-		excludedRegions.write(getContext().getFileSystemContext().getAssemblyExcludedRegions(getFile(), jobNodeIndex), "excludedDueToGraphComplexity");
-		safetyRegions.write(getContext().getFileSystemContext().getAssemblySafetyRegions(getFile(), jobNodeIndex), "subsetOfContigsCalledDueToGraphComplexity");
-		downsampledRegions.write(getContext().getFileSystemContext().getAssemblyDownsampledRegions(getFile(), jobNodeIndex), "subsetOfReadsAssembled");
+		if (queue == null) {
+			FileSystemContext fsc = getContext().getFileSystemContext();
+			writeRegions(excludedRegions, safetyRegions, downsampledRegions,
+					fsc.getAssemblyExcludedRegions(getFile(), jobNodeIndex),
+					fsc.getAssemblySafetyRegions(getFile(), jobNodeIndex),
+					fsc.getAssemblyDownsampledRegions(getFile(), jobNodeIndex));
+		}
 		log.info(String.format("Breakend assembly complete (node %d, %d total)", jobNodeIndex, jobNodes));
-		List<File> deduplicatedChunks = assembledChunk;
 		long secondaryNotSplit = source.stream().mapToLong(ses -> ses.getMetrics().getIdsvMetrics().SECONDARY_NOT_SPLIT).sum();
 		if (secondaryNotSplit > 0) {
 			log.warn(String.format("Found %d secondary alignments that were not split read alignments. GRIDSS no longer supports multi-mapping alignment. These reads will be ignored.", secondaryNotSplit));
@@ -121,10 +147,118 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			log.info("Not merging assembly files since not all chunks were assembled.");
 			return;
 		}
+		if (queue != null) {
+			// only one job merges. The others wait for the merged output.
+			try {
+				queue.runOnce(getFile(), () -> {
+					SharedFileSystemWorkQueue.gatherTimings(assembledChunk, getContext().getFileSystemContext().getAssemblyChunkTimings(getFile()), gridss.Defaults.DELETE_TEMPORARY_FILES);
+					gatherChunkRegionsAndTelemetry(chunks.size());
+					mergeChunks(assembledChunk, true);
+					return null;
+				});
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			} finally {
+				queue.close();
+			}
+		} else {
+			mergeChunks(assembledChunk, gridss.Defaults.OUTPUT_TO_TEMP_FILE);
+		}
+	}
+	private static void writeRegions(IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions,
+			File excludedBed, File safetyBed, File downsampledBed) throws IOException {
+		excludedRegions.write(excludedBed, "excludedDueToGraphComplexity");
+		safetyRegions.write(safetyBed, "subsetOfContigsCalledDueToGraphComplexity");
+		downsampledRegions.write(downsampledBed, "subsetOfReadsAssembled");
+	}
+	/**
+	 * Assembles a chunk allocated by the shared work queue.
+	 * The chunk regions and telemetry are written before the chunk output so they
+	 * exist for every completed chunk regardless of which job assembled it.
+	 */
+	private void assembleSharedChunk(File output, int chunkNumber, QueryInterval[] qi) throws IOException {
+		FileSystemContext fsc = getContext().getFileSystemContext();
+		IntervalBed excludedRegions = new IntervalBed(getContext().getLinear());
+		IntervalBed safetyRegions = new IntervalBed(getContext().getLinear());
+		IntervalBed downsampledRegions = new IntervalBed(getContext().getLinear());
+		AssemblyTelemetry chunkTelemetry = null;
+		if (getContext().getConfig().getVisualisation().assemblyTelemetry) {
+			File telemetryFile = fsc.getAssemblyChunkTelemetry(getFile(), chunkNumber);
+			// telemetry is appended so remove any output from an abandoned attempt
+			FileHelper.delete(telemetryFile, true);
+			chunkTelemetry = new AssemblyTelemetry(telemetryFile, getContext().getDictionary());
+		}
+		File tmpout;
+		try {
+			tmpout = assembleChunkUnsorted(output, chunkNumber, qi, excludedRegions, safetyRegions, downsampledRegions, chunkTelemetry);
+		} finally {
+			if (chunkTelemetry != null) {
+				chunkTelemetry.close();
+			}
+		}
+		writeRegions(excludedRegions, safetyRegions, downsampledRegions,
+				fsc.getAssemblyChunkExcludedRegions(getFile(), chunkNumber),
+				fsc.getAssemblyChunkSafetyRegions(getFile(), chunkNumber),
+				fsc.getAssemblyChunkDownsampledRegions(getFile(), chunkNumber));
+		completeChunk(output, tmpout);
+	}
+	/**
+	 * Merges the regions and telemetry of every chunk into the job index 0 outputs
+	 */
+	private void gatherChunkRegionsAndTelemetry(int chunkCount) throws IOException {
+		FileSystemContext fsc = getContext().getFileSystemContext();
+		List<IntervalBed> excluded = new ArrayList<>();
+		List<IntervalBed> safety = new ArrayList<>();
+		List<IntervalBed> downsampled = new ArrayList<>();
+		List<File> chunkFiles = new ArrayList<>();
+		for (int i = 0; i < chunkCount; i++) {
+			File excludedBed = fsc.getAssemblyChunkExcludedRegions(getFile(), i);
+			File safetyBed = fsc.getAssemblyChunkSafetyRegions(getFile(), i);
+			File downsampledBed = fsc.getAssemblyChunkDownsampledRegions(getFile(), i);
+			if (!excludedBed.exists() || !safetyBed.exists() || !downsampledBed.exists()) {
+				log.warn(String.format("Missing assembly regions for chunk %d. Chunk was not assembled using the shared work queue.", i));
+				continue;
+			}
+			excluded.add(new IntervalBed(getContext().getLinear(), excludedBed));
+			safety.add(new IntervalBed(getContext().getLinear(), safetyBed));
+			downsampled.add(new IntervalBed(getContext().getLinear(), downsampledBed));
+			chunkFiles.add(excludedBed);
+			chunkFiles.add(safetyBed);
+			chunkFiles.add(downsampledBed);
+		}
+		writeRegions(
+				IntervalBed.merge(getContext().getLinear(), excluded),
+				IntervalBed.merge(getContext().getLinear(), safety),
+				IntervalBed.merge(getContext().getLinear(), downsampled),
+				fsc.getAssemblyExcludedRegions(getFile(), 0),
+				fsc.getAssemblySafetyRegions(getFile(), 0),
+				fsc.getAssemblyDownsampledRegions(getFile(), 0));
+		if (getContext().getConfig().getVisualisation().assemblyTelemetry) {
+			File telemetryFile = fsc.getAssemblyTelemetry(getFile(), 0);
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(telemetryFile))) {
+				for (int i = 0; i < chunkCount; i++) {
+					File chunkTelemetry = fsc.getAssemblyChunkTelemetry(getFile(), i);
+					if (chunkTelemetry.exists()) {
+						Files.copy(chunkTelemetry.toPath(), os);
+						chunkFiles.add(chunkTelemetry);
+					}
+				}
+			}
+		}
+		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+			for (File f : chunkFiles) {
+				FileHelper.delete(f, true);
+			}
+		}
+	}
+	private void mergeChunks(List<File> assembledChunk, boolean outputToTempFile) throws IOException {
+		List<File> deduplicatedChunks = assembledChunk;
 		log.info("Merging assembly files");
 		// Merge chunk files
 		File out = getFile();
-		File tmpout = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(getFile()) : out;
+		File tmpout = outputToTempFile ? FileSystemContext.getWorkingFileFor(getFile()) : out;
 		CommandLineProgramHelper gather = new CommandLineProgramHelper(new picard.sam.GatherBamFiles());
 		for (File f : deduplicatedChunks) {
 			gather.addArg("INPUT", f.getPath());
@@ -176,7 +310,15 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		}
 		log.info("Breakend assembly complete.");
 	}
-	private void assembleChunk(File output, int chunkNumber, QueryInterval[] qi, IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) throws IOException {
+	private void assembleChunk(File output, int chunkNumber, QueryInterval[] qi, IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions, AssemblyTelemetry telemetry) throws IOException {
+		File tmpout = assembleChunkUnsorted(output, chunkNumber, qi, excludedRegions, safetyRegions, downsampledRegions, telemetry);
+		completeChunk(output, tmpout);
+	}
+	/**
+	 * Assembles the given chunk
+	 * @return unsorted assembly output
+	 */
+	private File assembleChunkUnsorted(File output, int chunkNumber, QueryInterval[] qi, IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions, AssemblyTelemetry telemetry) throws IOException {
 		AssemblyIdGenerator assemblyNameGenerator = new SequentialIdGenerator(String.format(getContext().getConfig().getAssembly().contigNamePrefix, chunkNumber));
 		String chuckName = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
 			getContext().getDictionary().getSequence(qi[0].referenceIndex).getSequenceName(), qi[0].start,
@@ -189,12 +331,12 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			if (getContext().getAssemblyParameters().writeFiltered) {
 				try (SAMFileWriter filteredWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(getHeader(), false, filteredout)) {
 					for (BreakendDirection direction : BreakendDirection.values()) {
-						assembleChunk(writer, filteredWriter, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
+						assembleChunk(writer, filteredWriter, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions, telemetry);
 					}
 				}
 			} else {
 				for (BreakendDirection direction : BreakendDirection.values()) {
-					assembleChunk(writer, null, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
+					assembleChunk(writer, null, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions, telemetry);
 				}
 			}
 		} catch (Exception e) {
@@ -207,10 +349,13 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			timer.stop();
 			log.info(String.format("Completed assembly on %s in %ds (%s)", chuckName, timer.elapsed(TimeUnit.SECONDS), timer.toString()));
 		}
+		return tmpout;
+	}
+	private void completeChunk(File output, File tmpout) throws IOException {
 		SAMFileUtil.sort(getContext().getFileSystemContext(), tmpout, output, SortOrder.coordinate);
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			tmpout.delete();
-			filteredout.delete();
+			FileSystemContext.getWorkingFileFor(output, "filtered.").delete();
 		}
 		if (gridss.Defaults.DEFENSIVE_GC) {
 			log.info("Requesting defensive GC to ensure OS file handles are closed");
@@ -228,9 +373,10 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		return expanded;
 	}
 	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator,
-							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) {
+							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions, AssemblyTelemetry telemetry) {
 		QueryInterval[] expanded = getExpanded(intervals);
-		try (CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded, EvidenceSortOrder.SAMRecordStartPosition)) {
+		try (MetricScope scope = RuntimeMetrics.chunk("assembly", chunkNumber, direction, getContext().getDictionary(), intervals);
+				CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded, EvidenceSortOrder.SAMRecordStartPosition)) {
 			Iterator<DirectedEvidence> throttledIt = throttled(input, downsampledRegions);
 			PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, throttledIt, direction, excludedRegions, safetyRegions);
 			if (telemetry != null) {
@@ -355,7 +501,10 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 				Math.max(ap.downsampling.minimumDensityWindowSize, getMaxConcordantFragmentSize()),
 				ap.downsampling.acceptDensityPortion * ap.downsampling.targetEvidenceDensity,
 				ap.downsampling.targetEvidenceDensity,
-				true, false);
+				true, false,
+				ap.downsampling.densityWindowBins,
+				ap.downsampling.reorderBufferSize,
+				ap.downsampling.randomSeed);
 		getContext().registerBuffer(AssemblyEvidenceSource.class.getName() + ".throttle", dit);
 		return dit;
 	}
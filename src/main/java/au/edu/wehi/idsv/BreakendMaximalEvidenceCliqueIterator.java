@@ -69,11 +69,20 @@ public class BreakendMaximalEvidenceCliqueIterator implements Iterator<VariantCo
 		assert(lgc.getReferenceIndex(activeEnd) == referenceIndex);
 		int start = lgc.getReferencePosition(activeStart);
 		int end = lgc.getReferencePosition(activeEnd);
-		return createRecord(referenceIndex, start, end, ScalingHelper.toUnscaledWeight(activeScore));
+		return createRecord(referenceIndex, start, end, activeScore);
 	}
-	private VariantContextDirectedEvidence createRecord(int referenceIndex, int start, int end, double qual) {
+	private VariantContextDirectedEvidence createRecord(int referenceIndex, int start, int end, long scaledWeight) {
 		BreakendSummary breakend = new BreakendSummary(referenceIndex, direction, (start + end) / 2, start, end);
 		String id = idGenerator.generate(breakend);
+		return toVariant(context, id, scaledWeight, breakend);
+	}
+	/**
+	 * Creates the variant call for a breakend maximal clique
+	 * @param id clique identifier
+	 * @param scaledWeight scaled clique weight
+	 */
+	static VariantContextDirectedEvidence toVariant(ProcessingContext context, String id, long scaledWeight, BreakendSummary breakend) {
+		double qual = ScalingHelper.toUnscaledWeight(scaledWeight);
 		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(context);
 		builder.attribute(VcfSvConstants.BREAKEND_EVENT_ID_KEY, id);
 		builder.id(id + BREAKEND_ID_SUFFIX);
@@ -42,7 +42,24 @@ public class DirectedEvidenceDensityThrottlingIterator extends DensityThrottling
 			double maxDensity,
 			boolean throttleReadPairs,
 			boolean throttleSingleReads){
-		super(it, windowSize, acceptDensity, maxDensity);
+		this(throttled, dictionary, lgc, it, iteratorSortOrder, windowSize, acceptDensity, maxDensity, throttleReadPairs, throttleSingleReads,
+				DEFAULT_WINDOW_BINS, 1, 0);
+	}
+	public DirectedEvidenceDensityThrottlingIterator(
+			IntervalBed throttled,
+			SAMSequenceDictionary dictionary,
+			LinearGenomicCoordinate lgc,
+			Iterator<DirectedEvidence> it,
+			SAMEvidenceSource.EvidenceSortOrder iteratorSortOrder,
+			int windowSize,
+			double acceptDensity,
+			double maxDensity,
+			boolean throttleReadPairs,
+			boolean throttleSingleReads,
+			int windowBins,
+			int reorderBufferSize,
+			long seed){
+		super(it, windowSize, acceptDensity, maxDensity, windowBins, reorderBufferSize, seed);
 		this.iteratorSortOrder = iteratorSortOrder;
 		this.lgc = lgc;
 		this.dictionary = dictionary;
@@ -60,6 +77,11 @@ public class DirectedEvidenceDensityThrottlingIterator extends DensityThrottling
 		}
 	}
 
+	@Override
+	protected double getScore(DirectedEvidence record) {
+		return record.getBreakendQual();
+	}
+
 	@Override
 	protected boolean excludedFromThrottling(DirectedEvidence record) {
 		return (!throttleReadPairs && record instanceof NonReferenceReadPair) ||
@@ -63,11 +63,18 @@ public class FileSystemContext {
 	private static final String FORMAT_REALIGN_SAM = "%1$s/%2$s.realign.%3$d" + SAM_SUFFIX;
 	private static final String FORMAT_BREAKPOINT_VCF = "%1$s/%2$s.breakpoint" + VCF_SUFFIX;
 	private static final String FORMAT_ASSEMBLY_CHUNK_SAM = "%1$s/%2$s.assembly.chunk%3$d" + SAM_SUFFIX;
+	private static final String FORMAT_ASSEMBLY_CHUNK_TIMINGS = "%1$s/%2$s.assembly.chunk_timings.tsv";
+	private static final String FORMAT_ASSEMBLY_CHUNK_TELEMETRY = "%1$s/%2$s.assembly.chunk%3$d.events.csv";
+	private static final String FORMAT_ASSEMBLY_CHUNK_EXCLUDED_REGIONS = "%1$s/%2$s.assembly.chunk%3$d.excluded.bed";
+	private static final String FORMAT_ASSEMBLY_CHUNK_SAFETY_REGIONS = "%1$s/%2$s.assembly.chunk%3$d.subsetCalled.bed";
+	private static final String FORMAT_ASSEMBLY_CHUNK_DOWNSAMPLED_REGIONS = "%1$s/%2$s.assembly.chunk%3$d.downsampled.bed";
 	private static final String FORMAT_ASSEMBLY_TELEMETRY = "%1$s/%2$s.events_%3$d.csv";
 	private static final String FORMAT_ASSEMBLY_EXCLUDED_REGIONS = "%1$s/%2$s.excluded_%3$d.bed";
 	private static final String FORMAT_ASSEMBLY_SAFETY_REGIONS = "%1$s/%2$s.subsetCalled_%3$d.bed";
 	private static final String FORMAT_ASSEMBLY_DOWNSAMPLED_REGIONS = "%1$s/%2$s.downsampled_%3$d.bed";
 	private static final String FORMAT_VARIANT_CALL_CHUNK_VCF = "%1$s/%2$s.breakpoint.chunk%3$d" + VCF_SUFFIX;
+	private static final String FORMAT_VARIANT_CALL_CHUNK_TIMINGS = "%1$s/%2$s.breakpoint.chunk_timings.tsv";
+	private static final String FORMAT_VARIANT_CALL_CHUNK_CLIQUES = "%1$s/%2$s.breakpoint.chunk%3$d.cliques";
 	/**
 	 * Gets the idsv intermediate working directory for the given input
 	 */
@@ -149,6 +156,21 @@ public class FileSystemContext {
 	public File getAssemblyChunkBam(File input, int chunk) {
 		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_SAM, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
+	public File getAssemblyChunkTimings(File input) {
+		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_TIMINGS, getIntermediateDirectory(input), getSource(input).getName()));
+	}
+	public File getAssemblyChunkTelemetry(File assembly, int chunk) {
+		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_TELEMETRY, getIntermediateDirectory(assembly), getSource(assembly).getName(), chunk));
+	}
+	public File getAssemblyChunkExcludedRegions(File assembly, int chunk) {
+		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_EXCLUDED_REGIONS, getIntermediateDirectory(assembly), getSource(assembly).getName(), chunk));
+	}
+	public File getAssemblyChunkSafetyRegions(File assembly, int chunk) {
+		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_SAFETY_REGIONS, getIntermediateDirectory(assembly), getSource(assembly).getName(), chunk));
+	}
+	public File getAssemblyChunkDownsampledRegions(File assembly, int chunk) {
+		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_DOWNSAMPLED_REGIONS, getIntermediateDirectory(assembly), getSource(assembly).getName(), chunk));
+	}
 	public File getAssemblyTelemetry(File assembly, int nodeIndex) {
 		return getFile(String.format(FORMAT_ASSEMBLY_TELEMETRY, getIntermediateDirectory(assembly), getSource(assembly).getName(), nodeIndex));
 	}
@@ -164,4 +186,10 @@ public class FileSystemContext {
 	public File getVariantCallChunkVcf(File input, int chunk) {
 		return getFile(String.format(FORMAT_VARIANT_CALL_CHUNK_VCF, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
+	public File getVariantCallChunkCliques(File input, int chunk) {
+		return getFile(String.format(FORMAT_VARIANT_CALL_CHUNK_CLIQUES, getIntermediateDirectory(input), getSource(input).getName(), chunk));
+	}
+	public File getVariantCallChunkTimings(File input) {
+		return getFile(String.format(FORMAT_VARIANT_CALL_CHUNK_TIMINGS, getIntermediateDirectory(input), getSource(input).getName()));
+	}
 }
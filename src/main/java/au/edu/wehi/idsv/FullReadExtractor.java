@@ -23,7 +23,7 @@ public class FullReadExtractor extends ReadExtractor {
         try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
             SAMFileHeader header = reader.getFileHeader();
             try (AsyncBufferedIterator<SAMRecord> asyncIt = new AsyncBufferedIterator<>(reader.iterator(), input.getName())) {
-                ProgressLoggingSAMRecordIterator it = new ProgressLoggingSAMRecordIterator(asyncIt, new ProgressLogger(log));
+                ProgressLoggingSAMRecordIterator it = new ProgressLoggingSAMRecordIterator(asyncIt, new ProgressLogger(log), input.getName());
                 try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, tmpOut)) {
                     while (it.hasNext()) {
                         SAMRecord r = it.next();
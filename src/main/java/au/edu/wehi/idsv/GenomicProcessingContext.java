@@ -45,6 +45,7 @@ public class GenomicProcessingContext implements Closeable {
 	private IntervalBed blacklist;
 	private boolean filterDuplicates = true;
 	private int workerThreads = 1;
+	private boolean sharedWorkQueue = false;
 	/**
 	 * Create a new genomic processing context
 	 * @param fileSystemContext file system context
@@ -290,6 +291,18 @@ public class GenomicProcessingContext implements Closeable {
 		this.workerThreads = workerThreads;
 	}
 
+	/**
+	 * Chunks are distributed across all processes sharing the working directory
+	 * @see au.edu.wehi.idsv.util.SharedFileSystemWorkQueue
+	 */
+	public boolean useSharedWorkQueue() {
+		return sharedWorkQueue;
+	}
+
+	public void setSharedWorkQueue(boolean sharedWorkQueue) {
+		this.sharedWorkQueue = sharedWorkQueue;
+	}
+
 	public IntervalBed getBlacklistedRegions() {
 		return blacklist;
 	}
@@ -3,88 +3,249 @@ package au.edu.wehi.idsv;
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
+import au.edu.wehi.idsv.util.FileHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static au.edu.wehi.idsv.sam.ChimericAlignment.getChimericAlignments;
 
+/**
+ * Extracts reads overlapping the target regions using the BAM index.
+ *
+ * Extraction is performed in two passes: the target intervals are queried, then
+ * the mates and split read alignments of the extracted reads are queried.
+ * In each pass with enough intervals, the intervals are split into batches of
+ * consecutive intervals which are queried concurrently. The BAM index chunks of all intervals in a batch
+ * are coalesced into a single query. Each worker thread has its own reader so the
+ * BAM index is loaded at most once per thread.
+ *
+ * Each batch writes its records to a coordinate sorted temporary file. Records returned
+ * by the queries of two batches are only written by the first batch so the batch
+ * output of each pass can be concatenated in genomic order. The concatenated output of
+ * both passes is then merged.
+ */
 public class IndexedReadExtractor extends ReadExtractor {
     private static final Log log = Log.getInstance(IndexedReadExtractor.class);
+    /**
+     * Number of batches to process per worker thread. Batches containing many
+     * reads are balanced by the other worker threads processing more batches.
+     */
+    private static final int BATCHES_PER_THREAD = 4;
+    /**
+     * Minimum number of intervals in each batch. Querying a small number of intervals
+     * is faster as a single query than split across threads.
+     */
+    static final int DEFAULT_MIN_INTERVALS_PER_BATCH = 1000;
+    private final int minIntervalsPerBatch;
     public IndexedReadExtractor(LinearGenomicCoordinate lgc, IntervalBed bed, boolean extractMates, boolean extractSplits) {
+        this(lgc, bed, extractMates, extractSplits, DEFAULT_MIN_INTERVALS_PER_BATCH);
+    }
+    IndexedReadExtractor(LinearGenomicCoordinate lgc, IntervalBed bed, boolean extractMates, boolean extractSplits, int minIntervalsPerBatch) {
         super(lgc, bed, extractMates, extractSplits);
+        this.minIntervalsPerBatch = Math.max(1, minIntervalsPerBatch);
     }
 
     @Override
     public void extract(File input, File output, int workerThreads) throws IOException {
-        extract(input, output, getRegionBed().asQueryInterval());
+        extract(input, output, getRegionBed().asQueryInterval(), Math.max(1, workerThreads));
     }
-    private void extract(File input, File output, QueryInterval[] intervals) throws IOException {
-        IntervalBed remoteLocations = new IntervalBed(getLinearGenomicCoordinate());
-        boolean shouldLookupUnmapped = false;
-        File regionOut = FileSystemContext.getWorkingFileFor(output);
-        File offTargetOut =  FileSystemContext.getWorkingFileFor(output, "mate_splits");
-        try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
+    private void extract(File input, File output, QueryInterval[] intervals, int workerThreads) throws IOException {
+        // the index of each contig is loaded once instead of once per query interval
+        SamReaderFactory readerFactory = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.CACHE_FILE_BASED_INDEXES);
+        try (SamReader reader = readerFactory.open(input)) {
             if (!reader.hasIndex()) {
                 throw new RuntimeException("Missing BAM index for " + input.getName());
             }
-            SAMFileHeader header = reader.getFileHeader();
+        }
+        List<SamReader> openReaders = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<SamReader> readers = ThreadLocal.withInitial(() -> {
+            SamReader reader = readerFactory.open(input);
+            openReaders.add(reader);
+            return reader;
+        });
+        File regionOut = FileSystemContext.getWorkingFileFor(output);
+        File offTargetOut = FileSystemContext.getWorkingFileFor(output, "mate_splits");
+        List<File> regionBatchOut = new ArrayList<>();
+        List<File> offTargetBatchOut = new ArrayList<>();
+        ExecutorService threadpool = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("IndexedReadExtractor-%d").build());
+        try {
             log.info(String.format("Extracting %d intervals.", intervals.length));
-            try (SAMRecordIterator it = reader.query(intervals, false)) {
-                //ProgressLoggingSAMRecordIterator it = new ProgressLoggingSAMRecordIterator(it, new ProgressLogger(log));
-                try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, regionOut)) {
-                    while (it.hasNext()) {
-                        SAMRecord r = it.next();
-                        if (overlapsRegionBed(r)) {
-                            writer.addAlignment(r);
-                            if (shouldExtractMates() && r.getReadPairedFlag()) {
-                                if (r.getMateUnmappedFlag()) {
-                                    shouldLookupUnmapped = true;
-                                } else {
-                                    remoteLocations.addInterval(r.getMateReferenceIndex(), r.getMateAlignmentStart(), r.getMateAlignmentStart());
-                                }
+            List<QueryInterval[]> batches = batch(intervals, workerThreads, minIntervalsPerBatch);
+            List<Future<BatchResult>> tasks = new ArrayList<>();
+            for (int i = 0; i < batches.size(); i++) {
+                File batchOut = FileSystemContext.getWorkingFileFor(output, String.format("gridss.tmp.region%d.", i));
+                regionBatchOut.add(batchOut);
+                QueryInterval previous = lastInterval(batches, i - 1);
+                QueryInterval[] batch = batches.get(i);
+                tasks.add(threadpool.submit(() -> extractRegions(readers.get(), batch, previous, batchOut)));
+            }
+            // partner lookups from every batch are combined so each location is only queried once
+            List<IntervalBed> remoteLocations = new ArrayList<>();
+            boolean shouldLookupUnmapped = false;
+            for (BatchResult result : getAll(tasks)) {
+                remoteLocations.add(result.remoteLocations);
+                shouldLookupUnmapped |= result.shouldLookupUnmapped;
+            }
+            QueryInterval[] offTarget = IntervalBed.merge(getLinearGenomicCoordinate(), remoteLocations).asQueryInterval();
+            log.info(String.format("Querying %d intervals for mates and split reads.", offTarget.length));
+            batches = batch(offTarget, workerThreads, minIntervalsPerBatch);
+            List<Future<Void>> offTargetTasks = new ArrayList<>();
+            for (int i = 0; i < batches.size(); i++) {
+                File batchOut = FileSystemContext.getWorkingFileFor(output, String.format("gridss.tmp.mate_splits%d.", i));
+                offTargetBatchOut.add(batchOut);
+                QueryInterval previous = lastInterval(batches, i - 1);
+                QueryInterval[] batch = batches.get(i);
+                offTargetTasks.add(threadpool.submit(() -> extractOffTarget(readers.get(), batch, previous, batchOut)));
+            }
+            if (shouldLookupUnmapped) {
+                // unmapped reads sort after all mapped reads
+                File unmappedOut = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.mate_splits_unmapped.");
+                offTargetBatchOut.add(unmappedOut);
+                offTargetTasks.add(threadpool.submit(() -> extractOffTarget(readers.get(), null, null, unmappedOut)));
+            }
+            getAll(offTargetTasks);
+        } finally {
+            threadpool.shutdownNow();
+            for (SamReader reader : openReaders) {
+                CloserUtil.close(reader);
+            }
+        }
+        BamFileIoUtils.gatherWithBlockCopying(regionBatchOut, regionOut, false, false);
+        BamFileIoUtils.gatherWithBlockCopying(offTargetBatchOut, offTargetOut, false, false);
+        for (File f : Iterables.concat(regionBatchOut, offTargetBatchOut)) {
+            FileHelper.delete(f, true);
+        }
+        SAMFileUtil.merge(ImmutableList.of(regionOut, offTargetOut), output);
+        Files.delete(regionOut.toPath());
+        Files.delete(offTargetOut.toPath());
+    }
+
+    /**
+     * Splits the given intervals into batches of consecutive intervals
+     * @param minIntervalsPerBatch minimum number of intervals in each batch
+     */
+    static List<QueryInterval[]> batch(QueryInterval[] intervals, int workerThreads, int minIntervalsPerBatch) {
+        List<QueryInterval[]> batches = new ArrayList<>();
+        int batchCount = workerThreads == 1 ? 1 : Math.min(intervals.length / minIntervalsPerBatch, workerThreads * BATCHES_PER_THREAD);
+        batchCount = Math.max(1, batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            int start = (int)((long)intervals.length * i / batchCount);
+            int end = (int)((long)intervals.length * (i + 1) / batchCount);
+            batches.add(Arrays.copyOfRange(intervals, start, end));
+        }
+        return batches;
+    }
+
+    private static QueryInterval lastInterval(List<QueryInterval[]> batches, int batchIndex) {
+        // skip over any empty batches
+        for (int i = batchIndex; i >= 0; i--) {
+            QueryInterval[] batch = batches.get(i);
+            if (batch.length > 0) {
+                return batch[batch.length - 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether the record was returned by the query of the preceding batch.
+     * Intervals are sorted and disjoint so a record returned by both queries must
+     * overlap the final interval of the preceding batch.
+     */
+    private static boolean inPreviousBatch(SAMRecord r, QueryInterval previous) {
+        return previous != null
+                && r.getReferenceIndex() == previous.referenceIndex
+                && (previous.end <= 0 || r.getAlignmentStart() <= previous.end);
+    }
+
+    private BatchResult extractRegions(SamReader reader, QueryInterval[] intervals, QueryInterval previous, File output) throws IOException {
+        BatchResult result = new BatchResult(new IntervalBed(getLinearGenomicCoordinate()));
+        SAMFileHeader header = reader.getFileHeader();
+        try (SAMRecordIterator it = reader.query(intervals, false)) {
+            try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, output)) {
+                while (it.hasNext()) {
+                    SAMRecord r = it.next();
+                    if (overlapsRegionBed(r) && !inPreviousBatch(r, previous)) {
+                        writer.addAlignment(r);
+                        if (shouldExtractMates() && r.getReadPairedFlag()) {
+                            if (r.getMateUnmappedFlag()) {
+                                result.shouldLookupUnmapped = true;
+                            } else {
+                                result.remoteLocations.addInterval(r.getMateReferenceIndex(), r.getMateAlignmentStart(), r.getMateAlignmentStart());
                             }
+                        }
+                        if (shouldExtractSplits()) {
                             List<ChimericAlignment> splits = getChimericAlignments(r);
-                            if (shouldExtractSplits() && !splits.isEmpty()) {
-                                for (ChimericAlignment ca : splits) {
-                                    remoteLocations.addInterval(getLinearGenomicCoordinate().getDictionary().getSequenceIndex(ca.rname), ca.pos, ca.pos);
-                                }
+                            for (ChimericAlignment ca : splits) {
+                                result.remoteLocations.addInterval(getLinearGenomicCoordinate().getDictionary().getSequenceIndex(ca.rname), ca.pos, ca.pos);
                             }
                         }
                     }
                 }
             }
-            // iterator over remote targets
-            QueryInterval[] offTarget = remoteLocations.asQueryInterval();
-            log.info(String.format("Querying %d intervals for mates and split reads.", offTarget.length));
-            try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, offTargetOut)) {
-                try (SAMRecordIterator it = reader.query(remoteLocations.asQueryInterval(), false)) {
-                    while (it.hasNext()) {
-                        SAMRecord r = it.next();
-                        if (!overlapsRegionBed(r) && shouldExtract(r)) {
-                            writer.addAlignment(r);
-                        }
-                    }
-                }
-                if (shouldLookupUnmapped) {
-                    try (SAMRecordIterator it = reader.queryUnmapped()) {
-                        while (it.hasNext()) {
-                            SAMRecord r = it.next();
-                            if (shouldExtract(r)) {
-                                writer.addAlignment(r);
-                            }
-                        }
+        }
+        return result;
+    }
+
+    /**
+     * Extracts the mates and split read alignments of the reads overlapping the target regions.
+     * @param intervals intervals to query. Unmapped reads are queried if null.
+     */
+    private Void extractOffTarget(SamReader reader, QueryInterval[] intervals, QueryInterval previous, File output) throws IOException {
+        SAMFileHeader header = reader.getFileHeader();
+        try (SAMRecordIterator it = intervals == null ? reader.queryUnmapped() : reader.query(intervals, false)) {
+            try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, output)) {
+                while (it.hasNext()) {
+                    SAMRecord r = it.next();
+                    if (!overlapsRegionBed(r) && shouldExtract(r) && !inPreviousBatch(r, previous)) {
+                        writer.addAlignment(r);
                     }
                 }
             }
         }
-        SAMFileUtil.merge(ImmutableList.of(regionOut, offTargetOut), output);
-        Files.delete(regionOut.toPath());
-        Files.delete(offTargetOut.toPath());
+        return null;
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> f : tasks) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            log.error(e, "Fatal error during read extraction");
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    private static class BatchResult {
+        private final IntervalBed remoteLocations;
+        private boolean shouldLookupUnmapped = false;
+        private BatchResult(IntervalBed remoteLocations) {
+            this.remoteLocations = remoteLocations;
+        }
     }
 }
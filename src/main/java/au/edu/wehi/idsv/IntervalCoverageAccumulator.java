@@ -4,8 +4,6 @@ import au.edu.wehi.idsv.bed.BedWriter;
 import au.edu.wehi.idsv.util.IntervalAccumulator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap.Entry;
-import it.unimi.dsi.fastutil.objects.ObjectBidirectionalIterator;
 
 import java.io.File;
 import java.io.IOException;
@@ -49,26 +47,54 @@ public class IntervalCoverageAccumulator {
 		return coverage;
 	}
 	public void add(SAMRecord record, ReadGcSummary summary, double readWeight) {
+		add(summary.referenceIndex, getStart(method, record, summary), getEnd(method, record, summary), readWeight);
+	}
+	/**
+	 * Adds coverage to the given interval.
+	 *
+	 * Coverage of different contigs can be added concurrently but
+	 * coverage of each contig must be added by a single thread.
+	 * @param referenceIndex contig
+	 * @param start start position (inclusive)
+	 * @param end end position (inclusive)
+	 * @param weight coverage weight
+	 */
+	public void add(int referenceIndex, int start, int end, double weight) {
+		coverage[referenceIndex].add(start, end, weight);
+	}
+	/**
+	 * Start position of the coverage interval of the given read
+	 */
+	public static int getStart(CoverageCalculationMethod method, SAMRecord record, ReadGcSummary summary) {
 		switch (method) {
 		case FRAGMENT:
-			coverage[summary.referenceIndex].add(summary.fragmentStart, summary.fragmentEnd, readWeight);
-			break;
+			return summary.fragmentStart;
 		case READ:
+		default:
 			// TODO: use actual read alignment CIGAR
-			coverage[summary.referenceIndex].add(record.getAlignmentStart(), record.getAlignmentEnd(), readWeight);
-			break;
+			return record.getAlignmentStart();
+		}
+	}
+	/**
+	 * End position of the coverage interval of the given read
+	 */
+	public static int getEnd(CoverageCalculationMethod method, SAMRecord record, ReadGcSummary summary) {
+		switch (method) {
+		case FRAGMENT:
+			return summary.fragmentEnd;
+		case READ:
+		default:
+			return record.getAlignmentEnd();
 		}
 	}
 	public void writeToBed(File bed) throws IOException {
 		try (BedWriter writer = new BedWriter(dictionary, bed)) {
 			for (int i = 0; i < coverage.length; i++) {
-				ObjectBidirectionalIterator<Entry> it = coverage[i].iterator();
-				while (it.hasNext()) {
-					Entry e = it.next();
-					int start = e.getIntKey();
-					int binWidth = coverage[i].getBinSize(start);
-					int end = start + binWidth - 1;
-					writer.write(i, start, end, coverage[i].getMeanValue(start));
+				IntervalAccumulator ia = coverage[i];
+				for (int bin = 0; bin < ia.getBinCount(); bin++) {
+					int start = ia.getBinStart(bin);
+					int end = start + ia.getBinWidth(bin) - 1;
+					writer.write(i, start, end, ia.getBinMeanValue(bin));
 				}
 			}
 		}
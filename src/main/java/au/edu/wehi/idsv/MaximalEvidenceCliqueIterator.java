@@ -104,7 +104,14 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 		if (lowDir != targetLowDir || highDir != targetHighDir) return null;
 		return node;
 	}
-	private VariantContextDirectedBreakpoint toVariant(String event, RectangleGraphNode node, BreakpointSummary breakpoint, boolean isHighBreakend) {
+	/**
+	 * Creates the variant call for one side of a maximal clique
+	 * @param event clique identifier
+	 * @param scaledWeight scaled clique weight
+	 * @param breakpoint clique breakpoint from the perspective of the low breakend
+	 * @param isHighBreakend create the call for the high breakend
+	 */
+	static VariantContextDirectedBreakpoint toVariant(ProcessingContext context, String event, long scaledWeight, BreakpointSummary breakpoint, boolean isHighBreakend) {
 		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(context);
 		builder.attribute(VcfSvConstants.BREAKEND_EVENT_ID_KEY, event);
 		builder.attribute(VcfSvConstants.MATE_BREAKEND_ID_KEY, event + (isHighBreakend ? BREAKPOINT_ID_SUFFIX_LOW : BREAKPOINT_ID_SUFFIX_HIGH));
@@ -113,7 +120,6 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 			breakpoint = breakpoint.remoteBreakpoint();
 		}
 		builder.breakpoint(breakpoint, "");
-		long scaledWeight = node.weight;
 		double weight = ScalingHelper.toUnscaledWeight(scaledWeight);
 		builder.phredScore(weight);
 		builder.attribute(VcfInfoAttributes.CALLED_QUAL, weight);
@@ -152,8 +158,8 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 			RectangleGraphNode node = calc.next();
 			BreakpointSummary breakpoint = toBreakpointSummary(node);
 			String id = idGenerator.generate(breakpoint);
-			VariantContextDirectedBreakpoint result = toVariant(id, node, breakpoint, false); 
-			lastHigh = toVariant(id, node, breakpoint, true);
+			VariantContextDirectedBreakpoint result = toVariant(context, id, node.weight, breakpoint, false);
+			lastHigh = toVariant(context, id, node.weight, breakpoint, true);
 			return result;
 		}
 		return endOfData();
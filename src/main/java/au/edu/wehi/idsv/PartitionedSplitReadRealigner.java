@@ -0,0 +1,204 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.alignment.StreamingAligner;
+import au.edu.wehi.idsv.sam.SAMFileHeaderUtil;
+import au.edu.wehi.idsv.util.AsyncBufferedIterator;
+import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Performs split read realignment of disjoint genomic partitions concurrently.
+ *
+ * Each partition is processed by its own StreamingSplitReadRealigner. The streaming aligner
+ * of each partition is obtained from the given factory and is expected to share the
+ * underlying aligner with the other partitions.
+ *
+ * Partition output is written to temporary files which are concatenated in genomic order
+ * so the output ordering matches the single-threaded realigner without requiring a re-sort.
+ * Reads are assigned to the partition containing their alignment start position.
+ * Reads without any reference position are processed after all genomic partitions.
+ *
+ * The input must be coordinate sorted and indexed.
+ */
+public class PartitionedSplitReadRealigner extends SplitReadRealigner {
+    private static final Log log = Log.getInstance(PartitionedSplitReadRealigner.class);
+    private final GenomicProcessingContext pc;
+    private final Supplier<StreamingAligner> alignerFactory;
+    private final int maxBufferedRecords;
+    private final List<QueryInterval[]> partitions;
+    private final int partitionThreads;
+
+    /**
+     * @param pc processing context
+     * @param alignerFactory creates the streaming aligner for each partition
+     * @param maxBufferedRecords maximum number of records to buffer in each partition
+     * @param partitions genomic partitions in genomic order
+     * @param partitionThreads number of partitions to process concurrently
+     */
+    public PartitionedSplitReadRealigner(GenomicProcessingContext pc, Supplier<StreamingAligner> alignerFactory, int maxBufferedRecords, List<QueryInterval[]> partitions, int partitionThreads) {
+        super(pc.getReference());
+        this.pc = pc;
+        this.alignerFactory = alignerFactory;
+        this.maxBufferedRecords = maxBufferedRecords;
+        this.partitions = partitions;
+        this.partitionThreads = partitionThreads;
+    }
+
+    @Override
+    public void createSupplementaryAlignments(final File input, final File output, final File outputModified) throws IOException {
+        SamReaderFactory readerFactory = SamReaderFactory.makeDefault().referenceSequence(pc.getReferenceFile());
+        SAMFileHeader header;
+        try (SamReader reader = readerFactory.open(input)) {
+            if (!reader.hasIndex()) {
+                throw new IllegalArgumentException(String.format("Partitioned realignment requires %s to be indexed.", input));
+            }
+            header = reader.getFileHeader();
+        }
+        boolean unsortedRecordsOutputToSameFile = outputModified == null || output.equals(outputModified);
+        SAMFileHeader outputHeader = header.clone();
+        if (unsortedRecordsOutputToSameFile) {
+            outputHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        }
+        SAMFileHeader unsortedHeader = header.clone();
+        unsortedHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        unsortedHeader = SAMFileHeaderUtil.minimal(unsortedHeader);
+        List<File> partitionOutput = new ArrayList<>();
+        List<File> partitionModifiedOutput = new ArrayList<>();
+        // final partition contains the reads without a reference position
+        for (int i = 0; i <= partitions.size(); i++) {
+            partitionOutput.add(FileSystemContext.getWorkingFileFor(output, String.format("gridss.tmp.partition%d.", i)));
+            if (!unsortedRecordsOutputToSameFile) {
+                partitionModifiedOutput.add(FileSystemContext.getWorkingFileFor(outputModified, String.format("gridss.tmp.partition%d.", i)));
+            }
+        }
+        Stopwatch timer = Stopwatch.createStarted();
+        long startCpuTime = getProcessCpuTime();
+        ExecutorService threadpool = Executors.newFixedThreadPool(partitionThreads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SplitReadRealigner-%d").build());
+        try {
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i <= partitions.size(); i++) {
+                QueryInterval[] partition = i < partitions.size() ? partitions.get(i) : null;
+                File out = partitionOutput.get(i);
+                File modifiedOut = unsortedRecordsOutputToSameFile ? null : partitionModifiedOutput.get(i);
+                SAMFileHeader modifiedHeader = unsortedHeader;
+                tasks.add(threadpool.submit(() -> {
+                    realignPartition(readerFactory, input, partition, outputHeader, out, modifiedHeader, modifiedOut);
+                    return null;
+                }));
+            }
+            runTasks(tasks);
+        } finally {
+            threadpool.shutdownNow();
+        }
+        gather(partitionOutput, outputHeader, output);
+        if (!unsortedRecordsOutputToSameFile) {
+            gather(partitionModifiedOutput, unsortedHeader, outputModified);
+        }
+        timer.stop();
+        long cpuTime = getProcessCpuTime() - startCpuTime;
+        long wallTime = timer.elapsed(TimeUnit.NANOSECONDS);
+        log.info(String.format("Realigned %d partitions using %d threads in %s. CPU utilisation: %.1f cores (%d available).",
+                partitions.size() + 1, partitionThreads, timer, wallTime > 0 && cpuTime >= 0 ? cpuTime / (double)wallTime : 0, Runtime.getRuntime().availableProcessors()));
+        for (File f : partitionOutput) {
+            FileHelper.delete(f, true);
+        }
+        for (File f : partitionModifiedOutput) {
+            FileHelper.delete(f, true);
+        }
+    }
+
+    private void realignPartition(SamReaderFactory readerFactory, File input, QueryInterval[] partition,
+                                  SAMFileHeader outputHeader, File output, SAMFileHeader unsortedHeader, File outputModified) throws IOException {
+        StreamingAligner aligner = alignerFactory.get();
+        try {
+            StreamingSplitReadRealigner realigner = new StreamingSplitReadRealigner(pc, aligner, maxBufferedRecords);
+            realigner.copySettings(this);
+            SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+            SAMFileWriter modifiedWriter = null;
+            try (SamReader reader = readerFactory.open(input);
+                 SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(outputHeader, true, output)) {
+                modifiedWriter = outputModified == null ? writer : writerFactory.makeSAMOrBAMWriter(unsortedHeader, true, outputModified);
+                try (CloseableIterator<SAMRecord> it = partition == null ? reader.queryUnmapped() : reader.query(partition, false)) {
+                    Iterator<SAMRecord> partitionIt = it;
+                    if (partition != null) {
+                        // records overlapping the start of the partition belong to the previous partition
+                        partitionIt = Iterators.filter(it, r -> QueryIntervalUtil.overlaps(partition, r.getReferenceIndex(), r.getAlignmentStart()));
+                    }
+                    try (AsyncBufferedIterator<SAMRecord> bufferedIt = new AsyncBufferedIterator<>(partitionIt, input.getName())) {
+                        realigner.process(bufferedIt, writer, modifiedWriter);
+                    }
+                }
+            } finally {
+                if (modifiedWriter != null && outputModified != null) {
+                    CloserUtil.close(modifiedWriter);
+                }
+            }
+        } finally {
+            aligner.close();
+        }
+    }
+
+    private void runTasks(List<Future<Void>> tasks) {
+        Exception firstException = null;
+        for (Future<Void> f : tasks) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                if (firstException == null) {
+                    firstException = e;
+                }
+            }
+        }
+        if (firstException != null) {
+            log.error(firstException, "Fatal error during split read realignment");
+            throw new RuntimeException(firstException);
+        }
+    }
+
+    /**
+     * Concatenates the given partition output files
+     */
+    private static void gather(List<File> parts, SAMFileHeader header, File output) throws IOException {
+        if (BamFileIoUtils.isBamFile(output)) {
+            BamFileIoUtils.gatherWithBlockCopying(parts, output, false, false);
+            return;
+        }
+        SamReaderFactory readerFactory = SamReaderFactory.makeDefault();
+        try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, output)) {
+            for (File f : parts) {
+                try (SamReader reader = readerFactory.open(f)) {
+                    for (SAMRecord r : reader) {
+                        writer.addAlignment(r);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
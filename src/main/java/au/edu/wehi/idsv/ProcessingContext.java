@@ -4,6 +4,7 @@ import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
 import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import au.edu.wehi.idsv.configuration.SoftClipConfiguration;
 import au.edu.wehi.idsv.configuration.VariantCallingConfiguration;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.vcf.GridssVcfConstants;
 import au.edu.wehi.idsv.visualisation.BufferTracker;
@@ -76,6 +77,7 @@ public class ProcessingContext extends GenomicProcessingContext {
 		this.calculateMetricsRecordCount = calculateMetricsRecordCount;
 	}
 	public void registerBuffer(String context, TrackedBuffer obj) {
+		RuntimeMetrics.registerBuffer(context, obj);
 		if (bufferTracker != null) {
 			bufferTracker.register(context, obj);
 		}
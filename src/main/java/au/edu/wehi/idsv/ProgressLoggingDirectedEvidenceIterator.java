@@ -1,5 +1,7 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.ThroughputMonitor;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.ProgressLoggerInterface;
@@ -10,10 +12,18 @@ public class ProgressLoggingDirectedEvidenceIterator<T extends DirectedEvidence>
 	private final ProgressLoggerInterface logger;
 	private final Iterator<T> iterator;
 	private final GenomicProcessingContext processContext;
+	private final ThroughputMonitor throughput;
 	public ProgressLoggingDirectedEvidenceIterator(GenomicProcessingContext processContext, Iterator<T> iterator, ProgressLoggerInterface logger) {
+		this(processContext, iterator, logger, iterator.getClass().getSimpleName());
+	}
+	/**
+	 * @param name iterator name used when reporting runtime metrics
+	 */
+	public ProgressLoggingDirectedEvidenceIterator(GenomicProcessingContext processContext, Iterator<T> iterator, ProgressLoggerInterface logger, String name) {
 		this.iterator = iterator;
 		this.logger = logger;
 		this.processContext = processContext;
+		this.throughput = RuntimeMetrics.throughput(name);
 	}
 	@Override
 	public boolean hasNext() {
@@ -26,10 +36,12 @@ public class ProgressLoggingDirectedEvidenceIterator<T extends DirectedEvidence>
 		if (bs != null) {
 			logger.record(processContext.getDictionary().getSequence(bs.referenceIndex).getSequenceName(), bs.start);
 		}
+		throughput.record();
 		return n;
 	}
 	@Override
 	public void close() {
+		throughput.close();
 		CloserUtil.close(iterator);
 	}
 }
@@ -1,5 +1,7 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.ThroughputMonitor;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
@@ -10,9 +12,17 @@ import java.util.Iterator;
 public class ProgressLoggingSAMRecordIterator implements CloseableIterator<SAMRecord> {
 	private final ProgressLoggerInterface logger;
 	private final Iterator<SAMRecord> iterator;
+	private final ThroughputMonitor throughput;
 	public ProgressLoggingSAMRecordIterator(Iterator<SAMRecord> iterator, ProgressLoggerInterface logger) {
+		this(iterator, logger, iterator.getClass().getSimpleName());
+	}
+	/**
+	 * @param name iterator name used when reporting runtime metrics
+	 */
+	public ProgressLoggingSAMRecordIterator(Iterator<SAMRecord> iterator, ProgressLoggerInterface logger, String name) {
 		this.iterator = iterator;
 		this.logger = logger;
+		this.throughput = RuntimeMetrics.throughput(name);
 	}
 	@Override
 	public boolean hasNext() {
@@ -24,10 +34,12 @@ public class ProgressLoggingSAMRecordIterator implements CloseableIterator<SAMRe
 		if (logger != null) {
 			logger.record(n);
 		}
+		throughput.record();
 		return n;
 	}
 	@Override
 	public void close() {
+		throughput.close();
 		CloserUtil.close(iterator);
 	}
 }
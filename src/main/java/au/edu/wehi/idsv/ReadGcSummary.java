@@ -15,6 +15,16 @@ public class ReadGcSummary {
 	public final int fragmentEnd;
 	public final double gcPercentage;
 	public ReadGcSummary(SAMRecord record, ReferenceSequence refSeq, int defaultFragmentSize, ReadPairConcordanceCalculator rpcc) {
+		this(record, defaultFragmentSize, rpcc, refSeq, null);
+	}
+	/**
+	 * Calculates the fragment GC using the precomputed reference GC counts
+	 * @param gcCounts GC counts of the contig the read is aligned to
+	 */
+	public ReadGcSummary(SAMRecord record, ReferenceGcCounts.Contig gcCounts, int defaultFragmentSize, ReadPairConcordanceCalculator rpcc) {
+		this(record, defaultFragmentSize, rpcc, null, gcCounts);
+	}
+	private ReadGcSummary(SAMRecord record, int defaultFragmentSize, ReadPairConcordanceCalculator rpcc, ReferenceSequence refSeq, ReferenceGcCounts.Contig gcCounts) {
 		if (record.getReadUnmappedFlag()) {
 			throw new IllegalArgumentException("Read must be mapped.");
 		}
@@ -27,7 +37,11 @@ public class ReadGcSummary {
     		this.fragmentStart = record.getAlignmentStart();
     		this.fragmentEnd = fragmentStart + fragmentSize - 1;
     	}
-    	this.gcPercentage = getReferenceGCPercentage(fragmentStart -1, fragmentEnd, refSeq);    	
+    	if (gcCounts != null) {
+    		this.gcPercentage = gcCounts.getGcProportion(fragmentStart - 1, fragmentEnd, UNDEFINED_GC);
+    	} else {
+    		this.gcPercentage = getReferenceGCPercentage(fragmentStart -1, fragmentEnd, refSeq);
+    	}
 	}
 	private static double getReferenceGCPercentage(int zeroBasedStartInclusive, int zeroBasedEndExclusive, ReferenceSequence refSeq) {
     	byte[] ref = refSeq.getBases();
@@ -0,0 +1,265 @@
+package au.edu.wehi.idsv;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cumulative reference GC and AT base counts enabling constant time
+ * calculation of the GC content of arbitrary reference intervals.
+ *
+ * Each contig is divided into 64 base blocks. Each block stores the number of
+ * GC and AT bases preceding the block and a bitmask of the GC and AT bases
+ * in the block.
+ *
+ * Counts are calculated for each contig as it is encountered. Counts for the
+ * entire reference can be cached as a binary file which is memory mapped on
+ * subsequent loads.
+ */
+public class ReferenceGcCounts {
+	private static final Log log = Log.getInstance(ReferenceGcCounts.class);
+	public static final String CACHE_EXTENSION = ".gc";
+	private static final int MAGIC = 0x47524743; // GRGC
+	private static final int VERSION = 1;
+	private static final int BLOCK_SHIFT = 6;
+	private static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+	/**
+	 * Packed prefix counts, GC bitmask, AT bitmask
+	 */
+	private static final int BLOCK_SIZE = 3;
+	private final List<Contig> cached;
+	private Contig last = null;
+	private ReferenceGcCounts(List<Contig> cached) {
+		this.cached = cached;
+	}
+	/**
+	 * Creates a lookup that calculates counts from the reference bases as each contig is encountered.
+	 */
+	public ReferenceGcCounts() {
+		this(null);
+	}
+	/**
+	 * Returns the GC counts for the given reference contig
+	 * @param refSeq full contig reference sequence
+	 */
+	public Contig getContig(ReferenceSequence refSeq) {
+		Contig c = last;
+		if (c != null && c.contigIndex == refSeq.getContigIndex() && c.length == refSeq.length()) {
+			return c;
+		}
+		c = null;
+		if (cached != null && refSeq.getContigIndex() >= 0 && refSeq.getContigIndex() < cached.size()) {
+			c = cached.get(refSeq.getContigIndex());
+			if (c.length != refSeq.length()) {
+				log.warn(String.format("Ignoring cached GC counts for %s: cached length %d does not match reference length %d", refSeq.getName(), c.length, refSeq.length()));
+				c = null;
+			}
+		}
+		if (c == null) {
+			c = create(refSeq);
+		}
+		last = c;
+		return c;
+	}
+	/**
+	 * Calculates the GC counts of the given contig
+	 */
+	public static Contig create(ReferenceSequence refSeq) {
+		byte[] bases = refSeq.getBases();
+		LongBuffer blocks = LongBuffer.allocate(BLOCK_SIZE * blockCount(bases.length));
+		fill(bases, blocks);
+		return new Contig(refSeq.getContigIndex(), bases.length, blocks);
+	}
+	private static int blockCount(int length) {
+		// always include a trailing block so the prefix count at the end of the contig can be looked up
+		return (length >> BLOCK_SHIFT) + 1;
+	}
+	private static void fill(byte[] bases, LongBuffer out) {
+		long gcCount = 0;
+		long atCount = 0;
+		for (int block = 0; block < blockCount(bases.length); block++) {
+			long gcMask = 0;
+			long atMask = 0;
+			int offset = block << BLOCK_SHIFT;
+			int end = Math.min(bases.length, offset + BLOCK_MASK + 1);
+			for (int i = offset; i < end; i++) {
+				switch (bases[i]) {
+					case 'G':
+					case 'C':
+					case 'g':
+					case 'c':
+						gcMask |= 1L << (i - offset);
+						break;
+					case 'A':
+					case 'T':
+					case 'a':
+					case 't':
+						atMask |= 1L << (i - offset);
+						break;
+				}
+			}
+			out.put((gcCount << 32) | atCount);
+			out.put(gcMask);
+			out.put(atMask);
+			gcCount += Long.bitCount(gcMask);
+			atCount += Long.bitCount(atMask);
+		}
+	}
+	/**
+	 * Loads the GC counts of the given reference from the given binary cache if the cache
+	 * exists and is up to date.
+	 * @return cached counts, or a lookup that calculates counts as each contig is encountered
+	 */
+	public static ReferenceGcCounts load(File referenceFile, File cache) throws IOException {
+		if (cache != null && cache.exists()) {
+			ReferenceGcCounts counts = readCache(cache, referenceFile);
+			if (counts != null) {
+				log.info("Loaded reference GC counts from ", cache);
+				return counts;
+			}
+			log.info("Ignoring out of date reference GC cache ", cache);
+		}
+		return new ReferenceGcCounts();
+	}
+	/**
+	 * Default binary cache location for the given reference genome
+	 */
+	public static File getDefaultCacheFile(File referenceFile) {
+		return new File(GenomicProcessingContext.getGridssCacheFileForReference(referenceFile).getPath() + CACHE_EXTENSION);
+	}
+	/**
+	 * Writes the GC counts of the entire reference to the given binary cache
+	 */
+	public static void writeCache(ReferenceSequenceFile reference, File referenceFile, File cache) throws IOException {
+		List<SAMSequenceRecord> sequences = reference.getSequenceDictionary().getSequences();
+		File tmp = new File(cache.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(referenceFile.length());
+			out.writeLong(referenceFile.lastModified());
+			out.writeInt(sequences.size());
+			for (SAMSequenceRecord seq : sequences) {
+				out.writeUTF(seq.getSequenceName());
+				out.writeInt(seq.getSequenceLength());
+			}
+			for (SAMSequenceRecord seq : sequences) {
+				byte[] bases = reference.getSequence(seq.getSequenceName()).getBases();
+				if (bases.length != seq.getSequenceLength()) {
+					throw new IllegalArgumentException(String.format("Length of %s does not match sequence dictionary", seq.getSequenceName()));
+				}
+				LongBuffer blocks = LongBuffer.allocate(BLOCK_SIZE * blockCount(bases.length));
+				fill(bases, blocks);
+				for (int i = 0; i < blocks.capacity(); i++) {
+					out.writeLong(blocks.get(i));
+				}
+			}
+		}
+		Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	/**
+	 * Memory maps the given binary cache
+	 * @return counts or null if the cache was not created from the given reference
+	 */
+	private static ReferenceGcCounts readCache(File cache, File referenceFile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(cache, "r")) {
+			if (raf.readInt() != MAGIC
+					|| raf.readInt() != VERSION
+					|| raf.readLong() != referenceFile.length()
+					|| raf.readLong() != referenceFile.lastModified()) {
+				return null;
+			}
+			int contigCount = raf.readInt();
+			int[] lengths = new int[contigCount];
+			long blockBytes = 0;
+			for (int i = 0; i < contigCount; i++) {
+				raf.readUTF();
+				lengths[i] = raf.readInt();
+				blockBytes += 8L * BLOCK_SIZE * blockCount(lengths[i]);
+			}
+			long offset = raf.getFilePointer();
+			if (raf.length() != offset + blockBytes) {
+				return null;
+			}
+			List<Contig> contigs = new ArrayList<>(contigCount);
+			FileChannel channel = raf.getChannel();
+			for (int i = 0; i < contigCount; i++) {
+				long bytes = 8L * BLOCK_SIZE * blockCount(lengths[i]);
+				ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+				contigs.add(new Contig(i, lengths[i], mapped.asLongBuffer()));
+				offset += bytes;
+			}
+			return new ReferenceGcCounts(contigs);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+	public static class Contig {
+		private final int contigIndex;
+		private final int length;
+		private final LongBuffer blocks;
+		private Contig(int contigIndex, int length, LongBuffer blocks) {
+			this.contigIndex = contigIndex;
+			this.length = length;
+			this.blocks = blocks;
+		}
+		public int length() {
+			return length;
+		}
+		private long prefixCounts(int zeroBasedPosition) {
+			int block = zeroBasedPosition >> BLOCK_SHIFT;
+			long bitsBefore = (1L << (zeroBasedPosition & BLOCK_MASK)) - 1;
+			long prefix = blocks.get(BLOCK_SIZE * block);
+			long gc = (prefix >>> 32) + Long.bitCount(blocks.get(BLOCK_SIZE * block + 1) & bitsBefore);
+			long at = (prefix & 0xFFFFFFFFL) + Long.bitCount(blocks.get(BLOCK_SIZE * block + 2) & bitsBefore);
+			return (gc << 32) | at;
+		}
+		/**
+		 * Number of G or C bases in the given interval
+		 */
+		public int getGcCount(int zeroBasedStartInclusive, int zeroBasedEndExclusive) {
+			checkBounds(zeroBasedStartInclusive, zeroBasedEndExclusive);
+			return (int)((prefixCounts(zeroBasedEndExclusive) >>> 32) - (prefixCounts(zeroBasedStartInclusive) >>> 32));
+		}
+		/**
+		 * Number of A or T bases in the given interval
+		 */
+		public int getAtCount(int zeroBasedStartInclusive, int zeroBasedEndExclusive) {
+			checkBounds(zeroBasedStartInclusive, zeroBasedEndExclusive);
+			return (int)((prefixCounts(zeroBasedEndExclusive) & 0xFFFFFFFFL) - (prefixCounts(zeroBasedStartInclusive) & 0xFFFFFFFFL));
+		}
+		/**
+		 * Proportion of unambiguous bases in the given interval that are G or C.
+		 * @return GC proportion, or the given default if the interval contains no unambiguous bases
+		 */
+		public double getGcProportion(int zeroBasedStartInclusive, int zeroBasedEndExclusive, double undefinedGc) {
+			if (zeroBasedEndExclusive <= zeroBasedStartInclusive) {
+				return undefinedGc;
+			}
+			checkBounds(zeroBasedStartInclusive, zeroBasedEndExclusive);
+			long start = prefixCounts(zeroBasedStartInclusive);
+			long end = prefixCounts(zeroBasedEndExclusive);
+			long gcCount = (end >>> 32) - (start >>> 32);
+			long atCount = (end & 0xFFFFFFFFL) - (start & 0xFFFFFFFFL);
+			if (gcCount + atCount == 0) {
+				return undefinedGc;
+			}
+			return gcCount / (double)(gcCount + atCount);
+		}
+		private void checkBounds(int zeroBasedStartInclusive, int zeroBasedEndExclusive) {
+			if (zeroBasedStartInclusive < 0 || zeroBasedEndExclusive > length || zeroBasedStartInclusive > zeroBasedEndExclusive) {
+				throw new ArrayIndexOutOfBoundsException(String.format("Interval [%d, %d) outside of contig of length %d", zeroBasedStartInclusive, zeroBasedEndExclusive, length));
+			}
+		}
+	}
+}
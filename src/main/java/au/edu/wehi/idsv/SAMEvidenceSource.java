@@ -28,7 +28,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Structural variation evidence based on read pairs from a single SAM/BAM.  
@@ -330,14 +329,11 @@ public class SAMEvidenceSource extends EvidenceSource {
 			// the supplementary alignment scoring will be inconsistent since it is based
 			// on the length of the primary alignment soft clip.
 			r.setTransientAttribute("OSA", r.getStringAttribute(SAMTag.SA.name()));
-			r.setAttribute(SAMTag.SA.name(), ChimericAlignment.getChimericAlignments(r).stream()
-					.filter(ca -> isInReference(r, ca, dict))
-					.filter(ca -> !getBlacklistedRegions().overlaps(
+			ChimericAlignment.retainChimericAlignments(r, ca -> isInReference(r, ca, dict)
+					&& !getBlacklistedRegions().overlaps(
 							dict.getSequence(ca.rname).getSequenceIndex(),
 							ca.pos,
-							ca.pos + ca.cigar.getReferenceLength() - 1))
-					.map(ca -> ca.toString())
-					.collect(Collectors.joining(";")));
+							ca.pos + ca.cigar.getReferenceLength() - 1));
 		}
 		return r;
 	}
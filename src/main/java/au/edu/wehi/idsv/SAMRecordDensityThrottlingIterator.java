@@ -29,6 +29,10 @@ public class SAMRecordDensityThrottlingIterator extends DensityThrottlingIterato
 		return lgc.getLinearCoordinate(record.getReferenceIndex(), record.getAlignmentStart());
 	}
 	@Override
+	protected double getScore(SAMRecord record) {
+		return record.getMappingQuality();
+	}
+	@Override
 	protected boolean excludedFromThrottling(SAMRecord record) {
 		return record.getReadUnmappedFlag();
 	}
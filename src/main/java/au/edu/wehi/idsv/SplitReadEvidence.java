@@ -138,7 +138,7 @@ public class SplitReadEvidence extends SingleReadEvidence implements DirectedBre
 		if (getSAMRecord().getSupplementaryAlignmentFlag()) {
 			ChimericAlignment caThis = new ChimericAlignment(getSAMRecord());
 			// The first record should be the primary
-			ChimericAlignment caPrimary = ChimericAlignment.getChimericAlignments(getSAMRecord().getStringAttribute(SAMTag.SA.name())).get(0);
+			ChimericAlignment caPrimary = ChimericAlignment.getChimericAlignments(getSAMRecord()).get(0);
 			ChimericAlignment osaPrimary = caPrimary;
 			String osa = (String)getSAMRecord().getTransientAttribute("OSA");
 			if (osa != null) {
@@ -34,6 +34,22 @@ public abstract class SplitReadRealigner {
 
     public abstract void createSupplementaryAlignments(File input, File output, File unorderedOutput) throws IOException;
 
+    /**
+     * Copies the realignment settings of the given realigner
+     */
+    protected void copySettings(SplitReadRealigner from) {
+        this.fallBackBaseQuality = from.fallBackBaseQuality;
+        this.eidgen = from.eidgen;
+        this.workerThreads = from.workerThreads;
+        this.minSoftClipLength = from.minSoftClipLength;
+        this.minSoftClipQuality = from.minSoftClipQuality;
+        this.realignExistingSplitReads = from.realignExistingSplitReads;
+        this.realignEntireRecord = from.realignEntireRecord;
+        this.processSecondaryAlignments = from.processSecondaryAlignments;
+        this.adjustPrimary = from.adjustPrimary;
+        this.writeOA = from.writeOA;
+    }
+
     protected boolean shouldDropInputRecord(SAMRecord r) {
         if ((isRealignEntireRecord() || isRealignExistingSplitReads()) && r.getSupplementaryAlignmentFlag()) {
             // drop existing supp alignments
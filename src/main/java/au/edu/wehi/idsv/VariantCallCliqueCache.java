@@ -0,0 +1,306 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.graph.ScalingHelper;
+import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
+import au.edu.wehi.idsv.vcf.VcfSvConstants;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary cache of the maximal evidence cliques called in each variant calling chunk.
+ *
+ * Cliques are written before the minimum score and filtered call output settings
+ * are applied so changes to these settings can be applied to the cached cliques
+ * without reprocessing the evidence.
+ *
+ * Scoring settings are part of the cache key. Evidence weights determine which
+ * maximal cliques are called, so changing the scoring model changes the cliques
+ * themselves and cannot be replayed by rescoring cached cliques.
+ *
+ * Each cache file is keyed by the configuration settings, evidence files and chunk intervals
+ * from which the cliques were called and is ignored if any of these change.
+ * Each breakpoint clique is stored once and both breakend calls are regenerated from
+ * the clique breakpoint, weight and identifier.
+ */
+public class VariantCallCliqueCache {
+	private static final Log log = Log.getInstance(VariantCallCliqueCache.class);
+	private static final int MAGIC = 0x47524351; // GRCQ
+	private static final int VERSION = 1;
+	private static final byte RECORD_END = 0;
+	private static final byte RECORD_BREAKPOINT = 1;
+	private static final byte RECORD_BREAKEND = 2;
+	/**
+	 * Configuration settings that do not change the maximal cliques called.
+	 * scoring.* settings change evidence weights and hence the cliques so are not ignored.
+	 */
+	private static final Set<String> IGNORED_SETTINGS = ImmutableSet.of(
+			"terminateOnFirstError",
+			"variantcalling.minScore",
+			"variantcalling.writeFiltered",
+			"variantcalling.cacheCliques",
+			"variantcalling.minReads",
+			"variantcalling.breakpointLowQuality",
+			"variantcalling.breakendLowQuality",
+			"variantcalling.breakendMaxAssemblySupportBias",
+			"variantcalling.includeSupportingReadNames",
+			"variantcalling.simplecalls");
+	private static final String IGNORED_SETTINGS_PREFIX = "visualisation.";
+	private final ProcessingContext context;
+	private final HashCode sourceKey;
+	public VariantCallCliqueCache(ProcessingContext context, List<SAMEvidenceSource> samEvidence, List<AssemblyEvidenceSource> assemblyEvidence) {
+		this.context = context;
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putInt(VERSION);
+		for (String setting : context.getConfig().getSettings()) {
+			String key = setting.substring(0, setting.indexOf('='));
+			if (IGNORED_SETTINGS.contains(key) || key.startsWith(IGNORED_SETTINGS_PREFIX)) continue;
+			putString(hasher, setting);
+		}
+		for (SAMSequenceRecord seq : context.getDictionary().getSequences()) {
+			putString(hasher, seq.getSequenceName());
+			hasher.putInt(seq.getSequenceLength());
+		}
+		putFile(hasher, context.getReferenceFile());
+		putFile(hasher, context.getBlacklist());
+		hasher.putBoolean(context.isFilterDuplicates());
+		hasher.putInt(context.getCategoryCount());
+		for (int i = 0; i < context.getCategoryCount(); i++) {
+			putString(hasher, String.valueOf(context.getCategoryLabel(i)));
+		}
+		FileSystemContext fsc = context.getFileSystemContext();
+		hasher.putInt(samEvidence.size());
+		for (SAMEvidenceSource ses : samEvidence) {
+			hasher.putInt(ses.getSourceCategory());
+			hasher.putInt(ses.getMinConcordantFragmentSize());
+			hasher.putInt(ses.getMaxConcordantFragmentSize());
+			putFile(hasher, ses.getFile());
+			if (ses.getFile() != null) {
+				putFile(hasher, ses.getSVFile());
+				putFile(hasher, fsc.getIdsvMetrics(ses.getFile()));
+				putFile(hasher, fsc.getInsertSizeMetrics(ses.getFile()));
+				putFile(hasher, fsc.getMapqMetrics(ses.getFile()));
+				putFile(hasher, fsc.getCigarMetrics(ses.getFile()));
+				putFile(hasher, fsc.getTagMetrics(ses.getFile()));
+				putFile(hasher, fsc.getCoverageBlacklistBed(ses.getFile()));
+			}
+		}
+		hasher.putInt(assemblyEvidence.size());
+		for (AssemblyEvidenceSource aes : assemblyEvidence) {
+			putFile(hasher, aes.getFile());
+			if (aes.getFile() != null) {
+				putFile(hasher, aes.getSVFile());
+			}
+		}
+		this.sourceKey = hasher.hash();
+	}
+	private static void putString(Hasher hasher, String s) {
+		hasher.putInt(s.length());
+		hasher.putString(s, StandardCharsets.UTF_8);
+	}
+	private static void putFile(Hasher hasher, File file) {
+		if (file == null) {
+			hasher.putByte((byte)0);
+			return;
+		}
+		hasher.putByte((byte)1);
+		putString(hasher, file.getAbsolutePath());
+		boolean exists = file.exists();
+		hasher.putBoolean(exists);
+		if (exists) {
+			hasher.putLong(file.length());
+			hasher.putLong(file.lastModified());
+		}
+	}
+	/**
+	 * Cache key of the given chunk
+	 */
+	public byte[] getKey(QueryInterval[] chunk) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putBytes(sourceKey.asBytes());
+		hasher.putInt(chunk.length);
+		for (QueryInterval qi : chunk) {
+			hasher.putInt(qi.referenceIndex);
+			hasher.putInt(qi.start);
+			hasher.putInt(qi.end);
+		}
+		return hasher.hash().asBytes();
+	}
+	/**
+	 * Opens the cached calls of the given chunk.
+	 * @param file cache file
+	 * @param chunk chunk intervals
+	 * @return calls in the order they were originally called, or null if the cache does not exist or is out of date
+	 */
+	public CloseableIterator<VariantContextDirectedEvidence> open(File file, QueryInterval[] chunk) throws IOException {
+		if (!file.exists()) return null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+		try {
+			byte[] expectedKey = getKey(chunk);
+			byte[] key = new byte[expectedKey.length];
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.info("Ignoring unrecognised clique cache ", file);
+				in.close();
+				return null;
+			}
+			in.readFully(key);
+			if (!Arrays.equals(key, expectedKey)) {
+				log.info("Ignoring out of date clique cache ", file);
+				in.close();
+				return null;
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new Reader(file, in);
+	}
+	/**
+	 * Creates a cache of the calls of the given chunk.
+	 * The cache file is only written once the writer is completed.
+	 * @param file cache file
+	 * @param chunk chunk intervals
+	 */
+	public Writer create(File file, QueryInterval[] chunk) throws IOException {
+		return new Writer(file, getKey(chunk));
+	}
+	private class Reader extends AbstractIterator<VariantContextDirectedEvidence> implements CloseableIterator<VariantContextDirectedEvidence> {
+		private final File file;
+		private final DataInputStream in;
+		private VariantContextDirectedEvidence pendingHigh = null;
+		private long records = 0;
+		public Reader(File file, DataInputStream in) {
+			this.file = file;
+			this.in = in;
+		}
+		@Override
+		protected VariantContextDirectedEvidence computeNext() {
+			if (pendingHigh != null) {
+				VariantContextDirectedEvidence result = pendingHigh;
+				pendingHigh = null;
+				return result;
+			}
+			try {
+				byte type = in.readByte();
+				switch (type) {
+					case RECORD_BREAKPOINT:
+						records++;
+						String event = in.readUTF();
+						BreakpointSummary bp = new BreakpointSummary(readBreakend(in), readBreakend(in));
+						long weight = in.readLong();
+						pendingHigh = MaximalEvidenceCliqueIterator.toVariant(context, event, weight, bp, true);
+						return MaximalEvidenceCliqueIterator.toVariant(context, event, weight, bp, false);
+					case RECORD_BREAKEND:
+						records++;
+						String id = in.readUTF();
+						BreakendSummary be = readBreakend(in);
+						return BreakendMaximalEvidenceCliqueIterator.toVariant(context, id, in.readLong(), be);
+					case RECORD_END:
+						if (in.readLong() != records) {
+							throw new IOException("Record count mismatch");
+						}
+						return endOfData();
+					default:
+						throw new IOException("Unknown record type " + type);
+				}
+			} catch (IOException e) {
+				throw new RuntimeIOException(String.format("Error reading clique cache %s", file), e);
+			}
+		}
+		@Override
+		public void close() {
+			CloserUtil.close(in);
+		}
+	}
+	private static BreakendSummary readBreakend(DataInputStream in) throws IOException {
+		int referenceIndex = in.readInt();
+		BreakendDirection direction = BreakendDirection.values()[in.readByte()];
+		int nominal = in.readInt();
+		int start = in.readInt();
+		int end = in.readInt();
+		return new BreakendSummary(referenceIndex, direction, nominal, start, end);
+	}
+	private static void writeBreakend(DataOutputStream out, int referenceIndex, BreakendDirection direction, int nominal, int start, int end) throws IOException {
+		out.writeInt(referenceIndex);
+		out.writeByte(direction.ordinal());
+		out.writeInt(nominal);
+		out.writeInt(start);
+		out.writeInt(end);
+	}
+	public static class Writer implements Closeable {
+		private final File file;
+		private final File tmp;
+		private final DataOutputStream out;
+		private long records = 0;
+		private boolean completed = false;
+		private Writer(File file, byte[] key) throws IOException {
+			this.file = file;
+			this.tmp = FileSystemContext.getWorkingFileFor(file, "gridss.tmp.");
+			this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(key);
+		}
+		/**
+		 * Adds the given maximal clique call.
+		 * The high breakend of each breakpoint is not written as it is regenerated from the low breakend.
+		 */
+		public void add(VariantContextDirectedEvidence call) throws IOException {
+			long weight = ScalingHelper.toScaledWeight(call.getAttributeAsDouble(VcfInfoAttributes.CALLED_QUAL.attribute(), 0));
+			if (call instanceof VariantContextDirectedBreakpoint) {
+				if (call.getID().endsWith(MaximalEvidenceCliqueIterator.BREAKPOINT_ID_SUFFIX_HIGH)) return;
+				BreakpointSummary bp = ((VariantContextDirectedBreakpoint)call).getBreakendSummary();
+				out.writeByte(RECORD_BREAKPOINT);
+				out.writeUTF(call.getAttributeAsString(VcfSvConstants.BREAKEND_EVENT_ID_KEY, ""));
+				writeBreakend(out, bp.referenceIndex, bp.direction, bp.nominal, bp.start, bp.end);
+				writeBreakend(out, bp.referenceIndex2, bp.direction2, bp.nominal2, bp.start2, bp.end2);
+				out.writeLong(weight);
+			} else {
+				BreakendSummary be = call.getBreakendSummary();
+				out.writeByte(RECORD_BREAKEND);
+				out.writeUTF(call.getAttributeAsString(VcfSvConstants.BREAKEND_EVENT_ID_KEY, ""));
+				writeBreakend(out, be.referenceIndex, be.direction, be.nominal, be.start, be.end);
+				out.writeLong(weight);
+			}
+			records++;
+		}
+		/**
+		 * Writes the cache file
+		 */
+		public void complete() throws IOException {
+			out.writeByte(RECORD_END);
+			out.writeLong(records);
+			out.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			completed = true;
+		}
+		/**
+		 * Closes the writer. The cache file is not written if the writer has not been completed.
+		 */
+		@Override
+		public void close() {
+			if (!completed) {
+				CloserUtil.close(out);
+				tmp.delete();
+			}
+		}
+	}
+}
@@ -1,8 +1,6 @@
 package au.edu.wehi.idsv;
 
-import au.edu.wehi.idsv.util.BatchingIterator;
-import au.edu.wehi.idsv.util.DuplicatingIterable;
-import au.edu.wehi.idsv.util.FlatMapIterator;
+import au.edu.wehi.idsv.util.PartitioningIterable;
 import au.edu.wehi.idsv.visualisation.StateTracker;
 import au.edu.wehi.idsv.visualisation.TrackedState;
 import com.google.common.collect.ImmutableList;
@@ -28,9 +26,21 @@ import java.util.concurrent.LinkedBlockingDeque;
 public class VariantCallIterator implements CloseableIterator<VariantContextDirectedEvidence> {
 	private static final Log log = Log.getInstance(VariantCallIterator.class);
 	private static final int ITERATOR_BUFFER_SIZE = 256;
+	/**
+	 * Number of evidence batches each clique caller can lag behind the evidence stream
+	 */
+	private static final int PARTITION_BATCHES_IN_FLIGHT = 16;
 	private final VariantContextDirectedEvidence endOfStream;
 	private final ProcessingContext processContext;
-	private final DuplicatingIterable<List<DirectedEvidence>> iterable;
+	private final PartitioningIterable<DirectedEvidence> iterable;
+	/**
+	 * Clique caller partition for each breakpoint orientation, indexed by local direction ordinal * 2 + remote direction ordinal
+	 */
+	private final int[] breakpointPartition = new int[4];
+	/**
+	 * Breakend clique caller partition for each direction. null if breakends are not called.
+	 */
+	private final int[] breakendPartition;
 	private final QueryInterval[] filterInterval;
 	private final BlockingDeque<VariantContextDirectedEvidence> outBuffer = new LinkedBlockingDeque<>(ITERATOR_BUFFER_SIZE);
 	private VariantContextDirectedEvidence outBufferHeadNextValidRecord = null;
@@ -48,13 +58,29 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 		this.processContext = processContext;
 		boolean callBreakends = processContext.getVariantCallingParameters().callBreakends;
 		this.activeIterators = callBreakends ? 6 : 4;
-		this.iterable = new DuplicatingIterable<>(activeIterators, new BatchingIterator<>(evidence, ITERATOR_BUFFER_SIZE), 2);
+		this.breakendPartition = callBreakends ? new int[2] : null;
+		int partitionCount = 0;
+		for (BreakendDirection localDir : BreakendDirection.values()) {
+			for (BreakendDirection remoteDir : BreakendDirection.values()) {
+				breakpointPartition[localDir.ordinal() * 2 + remoteDir.ordinal()] = partitionCount++;
+			}
+			if (callBreakends) {
+				breakendPartition[localDir.ordinal()] = partitionCount++;
+			}
+		}
+		// evidence is routed once to the clique caller for its orientation
+		// so each caller can proceed at its own pace
+		this.iterable = new PartitioningIterable<>(activeIterators, evidence, this::route, ITERATOR_BUFFER_SIZE, PARTITION_BATCHES_IN_FLIGHT);
 		this.filterInterval = interval;
+		List<Iterator<DirectedEvidence>> partitions = new ArrayList<>();
+		for (int i = 0; i < activeIterators; i++) {
+			partitions.add(this.iterable.iterator());
+		}
 		for (BreakendDirection localDir : BreakendDirection.values()) {
 			for (BreakendDirection remoteDir : BreakendDirection.values()) {
 				MaximalEvidenceCliqueIterator it = new MaximalEvidenceCliqueIterator(
 						processContext,
-						new FlatMapIterator<>(this.iterable.iterator()),
+						partitions.get(breakpointPartition[localDir.ordinal() * 2 + remoteDir.ordinal()]),
 						localDir,
 						remoteDir,
 						new SequentialIdGenerator(String.format("gridss%d%s%s_", Math.max(intervalNumber, 0), localDir.toChar(), remoteDir.toChar())));
@@ -63,13 +89,29 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 			if (callBreakends) {
 				BreakendMaximalEvidenceCliqueIterator it = new BreakendMaximalEvidenceCliqueIterator(
 						processContext,
-						new FlatMapIterator<>(this.iterable.iterator()),
+						partitions.get(breakendPartition[localDir.ordinal()]),
 						localDir,
 						new SequentialIdGenerator(String.format("gridss%d%s_", Math.max(intervalNumber, 0), localDir.toChar())));
 				async.add(new AsyncDirectionalIterator(it, localDir, null));
 			}
 		}
 	}
+	/**
+	 * Determines which clique callers consider the given evidence
+	 * @return partition bitmask
+	 */
+	private int route(DirectedEvidence e) {
+		BreakendSummary bs = e.getBreakendSummary();
+		int partitions = 0;
+		if (bs instanceof BreakpointSummary) {
+			BreakpointSummary bp = (BreakpointSummary)bs;
+			partitions |= 1 << breakpointPartition[bp.direction.ordinal() * 2 + bp.direction2.ordinal()];
+		}
+		if (breakendPartition != null && !(e instanceof DirectedBreakpoint)) {
+			partitions |= 1 << breakendPartition[bs.direction.ordinal()];
+		}
+		return partitions;
+	}
 	public VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence) {
 		this(processContext, evidence, null, -1);
 	}
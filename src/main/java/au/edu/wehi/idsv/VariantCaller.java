@@ -1,11 +1,17 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.SharedFileSystemWorkQueue;
 import au.edu.wehi.idsv.vcf.VcfFileUtil;
+import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 
 import java.io.File;
@@ -14,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -43,26 +50,65 @@ public class VariantCaller {
 		}
 		AggregateEvidenceSource es = new AggregateEvidenceSource(processContext, samEvidence, assemblyEvidence, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
 		List<QueryInterval[]> chunks = processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
+		VariantCallCliqueCache cache = processContext.getVariantCallingParameters().cacheCliques ? new VariantCallCliqueCache(processContext, samEvidence, assemblyEvidence) : null;
 		List<File> calledChunk = new ArrayList<>();
+		if (processContext.useSharedWorkQueue()) {
+			// chunks are allocated dynamically across all jobs sharing the working directory
+			for (int i = 0; i < chunks.size(); i++) {
+				calledChunk.add(processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i));
+			}
+			try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue()) {
+				log.info(String.format("Calling using shared work queue as %s", queue.getNodeId()));
+				// the merged output marks completion since chunks are deleted once merged
+				queue.execute(calledChunk, vcf, (i, out) -> callChunk(out, es, i, chunks.get(i), cache, getCliqueCacheFile(vcf, cache, i)), threadpool, processContext.getWorkerThreadCount());
+				// only one job merges. The others wait for the merged output.
+				queue.runOnce(vcf, () -> {
+					SharedFileSystemWorkQueue.gatherTimings(calledChunk, processContext.getFileSystemContext().getVariantCallChunkTimings(vcf), gridss.Defaults.DELETE_TEMPORARY_FILES);
+					mergeChunks(vcf, calledChunk, true);
+					return null;
+				});
+			} catch (RuntimeException e) {
+				log.error(e, "Fatal error during breakpoint identification ");
+				throw e;
+			} catch (Exception e) {
+				log.error(e, "Fatal error during breakpoint identification ");
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		List<Future<Void>> tasks = new ArrayList<>();
 		
 		for (int i = 0; i < chunks.size(); i++) {
 			QueryInterval[] chunk = chunks.get(i);
 			File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
+			File cliques = getCliqueCacheFile(vcf, cache, i);
 			int chunkNumber = i;
 			calledChunk.add(f);
 			if (!f.exists()) {
-				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk); return null; }));
+				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk, cache, cliques); return null; }));
 			}
 		}
 		runTasks(tasks);
-		
+		mergeChunks(vcf, calledChunk, false);
+	}
+	private File getCliqueCacheFile(File vcf, VariantCallCliqueCache cache, int chunkNumber) {
+		return cache == null ? null : processContext.getFileSystemContext().getVariantCallChunkCliques(vcf, chunkNumber);
+	}
+	private void mergeChunks(File vcf, List<File> calledChunk, boolean outputToTempFile) throws IOException {
 		log.info("Merging identified breakpoints");
 		File mergedOut = FileSystemContext.getWorkingFileFor(vcf, "gridss.merged.");
 		VcfFileUtil.concat(processContext.getReference().getSequenceDictionary(), calledChunk, mergedOut);
 		
 		log.info("Sorting identified breakpoints");
-		VcfFileUtil.sort(processContext, mergedOut, vcf);
+		if (outputToTempFile) {
+			// output must only exist once complete
+			File sortedOut = FileSystemContext.getWorkingFileFor(vcf, "gridss.sorted.");
+			FileHelper.delete(sortedOut, true);
+			VcfFileUtil.sort(processContext, mergedOut, sortedOut);
+			FileHelper.move(sortedOut, vcf, true);
+		} else {
+			VcfFileUtil.sort(processContext, mergedOut, vcf);
+		}
 		// clean up chunked
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			for (File f : calledChunk) {
@@ -88,25 +134,65 @@ public class VariantCaller {
 			throw new RuntimeException(firstException);
 		}
 	}
-	private void callChunk(File output, AggregateEvidenceSource es, int chunkNumber, QueryInterval[] chunk) {
+	private boolean shouldWrite(VariantContextDirectedEvidence call) {
+		// If we're under min score with all possible evidence allocated, we're definitely going to fail
+		// when we restrict evidence to single breakpoint support
+		return call.getBreakendQual() >= processContext.getVariantCallingParameters().minScore || processContext.getVariantCallingParameters().writeFiltered;
+	}
+	/**
+	 * Writes the calls in the given clique cache
+	 * @return true if the calls were written, false if the cache is missing or out of date
+	 */
+	private boolean replayChunk(File output, VariantCallCliqueCache cache, File cliques, QueryInterval[] chunk) {
+		try (CloseableIterator<VariantContextDirectedEvidence> it = cache.open(cliques, chunk)) {
+			if (it == null) return false;
+			try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(output, false)) {
+				while (it.hasNext()) {
+					VariantContextDirectedEvidence loc = it.next();
+					if (shouldWrite(loc)) {
+						vcfWriter.add(loc);
+					}
+				}
+			}
+			return true;
+		} catch (IOException | RuntimeIOException e) {
+			// partially written output will be overwritten by the recalculated calls
+			log.warn(e, "Unable to read clique cache ", cliques, ". Recalculating maximal cliques.");
+			return false;
+		}
+	}
+	private void callChunk(File output, AggregateEvidenceSource es, int chunkNumber, QueryInterval[] chunk, VariantCallCliqueCache cache, File cliques) {
 		try {
 			String chunkMsg = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
 					processContext.getDictionary().getSequence(chunk[0].referenceIndex).getSequenceName(), chunk[0].start,
 					processContext.getDictionary().getSequence(chunk[chunk.length - 1].referenceIndex).getSequenceName(), chunk[chunk.length - 1].end);
 			String msg = "calling maximal cliques in " + chunkMsg;
+			Stopwatch timer = Stopwatch.createStarted();
 			File tmp = new File(output.getParent(), "gridss.tmp." + output.getName());
-			try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber)) {
-				try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
-					log.info("Start ", msg);
-					try (AsyncBufferedIterator<VariantContextDirectedEvidence> it = new AsyncBufferedIterator<>(rawit, "VariantCaller " + chunkMsg)) {
-						while (it.hasNext()) {
-							VariantContextDirectedEvidence loc = it.next();
-							if (loc.getBreakendQual() >= processContext.getVariantCallingParameters().minScore || processContext.getVariantCallingParameters().writeFiltered) {
-								// If we're under min score with all possible evidence allocated, we're definitely going to fail
-								// when we restrict evidence to single breakpoint support
-								vcfWriter.add(loc);
+			try (MetricScope scope = RuntimeMetrics.chunk("variantCalling", chunkNumber, null, processContext.getDictionary(), chunk)) {
+				if (cliques != null && replayChunk(tmp, cache, cliques, chunk)) {
+					msg = "replaying cached maximal cliques in " + chunkMsg;
+				} else {
+					try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber);
+							VariantCallCliqueCache.Writer cacheWriter = cliques == null ? null : cache.create(cliques, chunk)) {
+						try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
+							log.info("Start ", msg);
+							try (AsyncBufferedIterator<VariantContextDirectedEvidence> it = new AsyncBufferedIterator<>(rawit, "VariantCaller " + chunkMsg)) {
+								while (it.hasNext()) {
+									VariantContextDirectedEvidence loc = it.next();
+									if (cacheWriter != null) {
+										// cache all calls so the score thresholds can be changed
+										cacheWriter.add(loc);
+									}
+									if (shouldWrite(loc)) {
+										vcfWriter.add(loc);
+									}
+								}
 							}
 						}
+						if (cacheWriter != null) {
+							cacheWriter.complete();
+						}
 					}
 				}
 			}
@@ -115,12 +201,15 @@ public class VariantCaller {
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
-			log.info("Complete ", msg);
+			timer.stop();
+			log.info(String.format("Complete %s in %ds (%s)", msg, timer.elapsed(TimeUnit.SECONDS), timer.toString()));
 			if (gridss.Defaults.DEFENSIVE_GC) {
 				log.info("Requesting defensive GC to ensure OS file handles are closed");
 				System.gc();
 				System.runFinalization();
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		} catch (OutOfMemoryError oom) {
 			log.error(oom);
 			System.exit(1);
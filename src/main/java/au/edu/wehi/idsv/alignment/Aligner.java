@@ -1,5 +1,11 @@
 package au.edu.wehi.idsv.alignment;
 
+/**
+ * Smith-Waterman aligner.
+ *
+ * Implementations are shared across threads and must support concurrent alignment.
+ * libssw alignment can be serialised by setting the sswjni.sync system property.
+ */
 public interface Aligner {
 	/**
 	 * Performs Smith-Waterman alignment of the given sequence against the given reference 
@@ -0,0 +1,148 @@
+package au.edu.wehi.idsv.alignment;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming aligner that buffers input records and aligns them in batches
+ * on a single driver thread. Alignments are returned in input order.
+ */
+public abstract class BatchingStreamingAlignerBase implements StreamingAligner {
+    private static final Log log = Log.getInstance(BatchingStreamingAlignerBase.class);
+    private final String alignerName;
+    private final ThreadPoolExecutor driver;
+    private final int bufferSizeInBytes;
+    private final Queue<FastqRecord> inputBuffer = new LinkedBlockingDeque<>();
+    private final Queue<SAMRecord> outputBuffer = new LinkedBlockingDeque<>();
+    private final AtomicInteger outstandingRecords = new AtomicInteger(0);
+    private final AtomicInteger outstandingBases = new AtomicInteger(0);
+    private final AtomicInteger queuedBases = new AtomicInteger(0);
+
+    /**
+     * Hacky queue that will force the calling thread to block until the task can be queued
+     */
+    private static class AlwaysBlockingQueue<E> extends ArrayBlockingQueue<E> {
+        public AlwaysBlockingQueue(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public boolean offer(E e)  {
+            try {
+                put(e);
+                return true;
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param alignerName aligner name used for the driver thread and error messages
+     * @param bufferSizeInBases number of base pairs of sequence to buffer.
+     *                          This buffer is evenly split across the input buffer and buffer sent to the aligner.
+     *                          Actual invocations of the aligner will be with a buffer half this size.
+     */
+    protected BatchingStreamingAlignerBase(String alignerName, int bufferSizeInBases) {
+        this.alignerName = alignerName;
+        this.bufferSizeInBytes = bufferSizeInBases / 2 + 1;
+        this.driver = new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new AlwaysBlockingQueue<Runnable>(1),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(alignerName + "Driver").build());
+    }
+
+    /**
+     * Aligns the given batch of records.
+     * @return alignments in input order
+     */
+    protected abstract List<SAMRecord> align(List<FastqRecord> batch);
+
+    /**
+     * Align the given records.
+     *
+     * @implNote This method currently uses a buffered synchronous implementation.
+     * @param fq
+     */
+    @Override
+    public void asyncAlign(FastqRecord fq) {
+        inputBuffer.add(fq);
+        outstandingRecords.incrementAndGet();
+        outstandingBases.addAndGet(fq.getReadBases().length);
+        int queuedBytes = queuedBases.addAndGet(fq.getReadBases().length);
+        if (queuedBytes >= bufferSizeInBytes) {
+            processInput();
+        }
+    }
+
+    // synchronized to ensure record ordering is stable
+    private synchronized Future<List<SAMRecord>> processInput() {
+        final ArrayList<FastqRecord> inFlightBuffer = new ArrayList<>(inputBuffer.size() + 16);
+        int basesSent = 0;
+        while (!inputBuffer.isEmpty()) {
+            FastqRecord fq = inputBuffer.poll();
+            queuedBases.addAndGet(-fq.getReadBases().length);
+            inFlightBuffer.add(fq);
+            basesSent += fq.getReadBases().length;
+        }
+        if (inFlightBuffer.size() > 0) {
+            final int actualBasesSent = basesSent;
+            return driver.submit(() -> {
+                List<SAMRecord> results = align(inFlightBuffer);
+                outputBuffer.addAll(results);
+                outstandingBases.addAndGet(-actualBasesSent);
+                outstandingRecords.addAndGet(-inFlightBuffer.size());
+                return results;
+            });
+        }
+        return null;
+    }
+
+    @Override
+    public void flush() {
+        Future<List<SAMRecord>> future = processInput();
+        if (future != null) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                log.error(e, "Exception flushing " + alignerName + " results.");
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public int processedAlignmentRecords() {
+        return outputBuffer.size();
+    }
+
+    @Override
+    public int outstandingAlignmentRecord() {
+        return outstandingRecords.get();
+    }
+
+    @Override
+    public SAMRecord getAlignment() {
+        SAMRecord result = outputBuffer.poll();
+        if (result == null) {
+            throw new IllegalStateException("Call flush() or check processedAlignmentRecords() to ensure records are available.");
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        this.driver.shutdown();
+    }
+}
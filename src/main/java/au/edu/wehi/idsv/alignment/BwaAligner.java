@@ -1,6 +1,8 @@
 package au.edu.wehi.idsv.alignment;
 
 import au.edu.wehi.idsv.Defaults;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import htsjdk.samtools.*;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -111,8 +113,10 @@ public class BwaAligner implements Closeable {
 
     public List<SAMRecord> align(Collection<FastqRecord> input) {
         List<byte[]> inputs = new ArrayList<>(input.size());
+        long bases = 0;
         for (FastqRecord fq : input) {
             inputs.add(fq.getReadBases());
+            bases += fq.getReadBases().length;
         }
         log.debug(String.format("Aligning %d sequences using BWA JNI", inputs.size()));
         if (Defaults.EXPORT_INPROCESS_ALIGNMENTS) {
@@ -133,18 +137,25 @@ public class BwaAligner implements Closeable {
             } catch (IOException e) {
             }
         }
-        List<List<BwaMemAlignment>> bwaResult = aligner.alignSeqs(inputs);
-        if (bwaResult.size() != input.size()) {
-            throw new IllegalStateException(String.format("bwa returned alignments for %d reads, when input with %d reads.", bwaResult.size(), input.size()));
-        }
-        List<SAMRecord> samResult = new ArrayList<>((int)(input.size() * 1.3)); // conservatively guess 30% of alignments are split read alignments
-        int i = 0;
-        for (FastqRecord fq : input) {
-            List<BwaMemAlignment> bma = bwaResult.get(i++);
-            List<SAMRecord> alignments = transform(fq, bma);
-            samResult.addAll(alignments);
+        try (MetricScope scope = RuntimeMetrics.alignerBatch("bwa", inputs.size(), bases)) {
+            List<List<BwaMemAlignment>> bwaResult;
+            // bwa is internally multi-threaded so batches from streaming aligners
+            // sharing this aligner are aligned one at a time
+            synchronized (aligner) {
+                bwaResult = aligner.alignSeqs(inputs);
+            }
+            if (bwaResult.size() != input.size()) {
+                throw new IllegalStateException(String.format("bwa returned alignments for %d reads, when input with %d reads.", bwaResult.size(), input.size()));
+            }
+            List<SAMRecord> samResult = new ArrayList<>((int)(input.size() * 1.3)); // conservatively guess 30% of alignments are split read alignments
+            int i = 0;
+            for (FastqRecord fq : input) {
+                List<BwaMemAlignment> bma = bwaResult.get(i++);
+                List<SAMRecord> alignments = transform(fq, bma);
+                samResult.addAll(alignments);
+            }
+            return samResult;
         }
-        return samResult;
     }
 
     public List<SAMRecord> transform(FastqRecord fq, List<BwaMemAlignment> bma) {
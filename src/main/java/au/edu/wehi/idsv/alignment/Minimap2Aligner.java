@@ -0,0 +1,191 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.*;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.hellbender.utils.minimap2.MiniMap2Aligner;
+import org.broadinstitute.hellbender.utils.minimap2.MiniMap2Alignment;
+import org.broadinstitute.hellbender.utils.minimap2.MiniMap2Index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Wrapper for the minimap2 JNI aligner that returns SAMRecords
+ *
+ * Unlike bwa, concurrent alignment calls are not serialised. Each JNI alignment call
+ * allocates its own minimap2 thread buffer and only reads the shared index and mapping
+ * options, which minimap2 documents as safe for concurrent mapping.
+ */
+public class Minimap2Aligner implements Closeable {
+    private static final Log log = Log.getInstance(Minimap2Aligner.class);
+    public static final String INDEX_FILE_EXTENSION = ".mmi";
+    private final MiniMap2Index index;
+    private final MiniMap2Aligner aligner;
+    private final SAMSequenceDictionary dict;
+    private final SAMFileHeader header;
+    private final int threads;
+    private final ExecutorService threadpool;
+
+    public MiniMap2Aligner getAligner() {
+        return this.aligner;
+    }
+
+    /**
+     * @param reference Reference genome
+     * @param dict sequence dictionary for reference genome
+     * @param threads number of minimap2 threads. Each batch is split into this many contiguous
+     *                sub-batches which are aligned concurrently.
+     */
+    public Minimap2Aligner(File reference, SAMSequenceDictionary dict, int threads) {
+        this.index = getMinimap2IndexFor(reference);
+        this.dict = dict;
+        this.header = getMinimalHeader(dict);
+        this.aligner = new MiniMap2Aligner(this.index, MiniMap2Aligner.Preset.SR);
+        this.threads = Math.max(1, threads);
+        this.threadpool = this.threads == 1 ? null : Executors.newFixedThreadPool(this.threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("minimap2-%d").build());
+        try {
+            ensureMatchingReferences(this.index, dict);
+        } catch (IllegalArgumentException e) {
+            // don't leak the index since it's huge
+            close();
+            throw e;
+        }
+    }
+
+    public static File getMinimap2IndexFileFor(File reference) {
+        return new File(reference.getAbsolutePath() + INDEX_FILE_EXTENSION);
+    }
+
+    public static MiniMap2Index getMinimap2IndexFor(File reference) {
+        File image = getMinimap2IndexFileFor(reference);
+        String path = image.getAbsolutePath();
+        if (image.exists()) {
+            log.info("Loading minimap2 index from " + image);
+        } else {
+            // The JNI interface does not expose index serialisation so we can't write the index ourselves
+            log.warn("Unable to find " + image + ". Indexing reference genome in memory."
+                    + " Use 'minimap2 -x sr -d " + image + " " + reference + "' to create a reusable index.");
+            path = reference.getAbsolutePath();
+        }
+        System.err.flush(); // ensure our warning error message gets to the console as we're possible about to die in C code
+        return new MiniMap2Index(path);
+    }
+
+    private static SAMFileHeader getMinimalHeader(SAMSequenceDictionary dict) {
+        SAMFileHeader header = new SAMFileHeader();
+        for (SAMSequenceRecord ref : dict.getSequences()) {
+            header.addSequence(ref);
+        }
+        return header;
+    }
+
+    public static void ensureMatchingReferences(MiniMap2Index index, SAMSequenceDictionary dict) {
+        List<String> indexNames = index.getRefNames();
+        List<String> refNames = Lists.transform(dict.getSequences(), SAMSequenceRecord::getSequenceName);
+        if (!indexNames.equals(refNames)) {
+            throw new IllegalArgumentException("minimap2 index and reference genome sequences do not match");
+        }
+    }
+
+    public List<SAMRecord> align(Collection<FastqRecord> input) {
+        List<FastqRecord> reads = input instanceof List ? (List<FastqRecord>)input : new ArrayList<>(input);
+        long bases = 0;
+        for (FastqRecord fq : reads) {
+            bases += fq.getReadLength();
+        }
+        log.debug(String.format("Aligning %d sequences using minimap2 JNI", reads.size()));
+        try (MetricScope scope = RuntimeMetrics.alignerBatch("minimap2", reads.size(), bases)) {
+            if (threadpool == null || reads.size() < 2 * threads) {
+                return align(reads, 0, reads.size());
+            }
+            // contiguous sub-batches ensure the output ordering matches the input ordering
+            List<Future<List<SAMRecord>>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                int start = (int)((long)reads.size() * i / threads);
+                int end = (int)((long)reads.size() * (i + 1) / threads);
+                futures.add(threadpool.submit(() -> align(reads, start, end)));
+            }
+            List<SAMRecord> samResult = new ArrayList<>((int)(reads.size() * 1.3));
+            for (Future<List<SAMRecord>> f : futures) {
+                samResult.addAll(f.get());
+            }
+            return samResult;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private List<SAMRecord> align(List<FastqRecord> reads, int start, int end) {
+        List<FastqRecord> batch = reads.subList(start, end);
+        List<List<MiniMap2Alignment>> mmResult = aligner.alignSeqs(batch, FastqRecord::getReadBases);
+        if (mmResult.size() != batch.size()) {
+            throw new IllegalStateException(String.format("minimap2 returned alignments for %d reads, when input with %d reads.", mmResult.size(), batch.size()));
+        }
+        List<SAMRecord> samResult = new ArrayList<>((int)(batch.size() * 1.3)); // conservatively guess 30% of alignments are split read alignments
+        int i = 0;
+        for (FastqRecord fq : batch) {
+            samResult.addAll(transform(fq, mmResult.get(i++)));
+        }
+        return samResult;
+    }
+
+    public List<SAMRecord> transform(FastqRecord fq, List<MiniMap2Alignment> mma) {
+        List<SAMRecord> result = new ArrayList<>(mma.size() == 0 ? 1 : mma.size());
+        for (MiniMap2Alignment alignment : mma) {
+            // Secondary alignments are not reported by bwa and are not supported by GRIDSS split read identification
+            if (alignment.getRefId() >= 0 && (alignment.getSAMFlag() & SAMFlag.SECONDARY_ALIGNMENT.intValue()) == 0) {
+                result.add(createAlignment(fq, alignment));
+            }
+        }
+        if (result.size() == 0) {
+            SAMRecord r = SAMRecordUtil.createSAMRecord(header, fq, false);
+            r.setReadUnmappedFlag(true);
+            result.add(r);
+        } else {
+            SAMRecordUtil.reinterpretAsSplitReadAlignment(result, true);
+        }
+        return result;
+    }
+
+    private SAMRecord createAlignment(FastqRecord fq, MiniMap2Alignment alignment) {
+        SAMRecord r = SAMRecordUtil.createSAMRecord(header, fq, (alignment.getSAMFlag() & SAMFlag.READ_REVERSE_STRAND.intValue()) != 0);
+        r.setFlags(alignment.getSAMFlag());
+        r.setReferenceIndex(alignment.getRefId());
+        r.setAlignmentStart(alignment.getRefStart() + 1);
+        // we always have the full read sequence so supplementary alignments are soft clipped
+        r.setCigarString(alignment.getCigar().replace('H', 'S'));
+        if (r.getCigar().getReadLength() != fq.getReadLength()) {
+            throw new IllegalStateException(String.format("Read length is %d, cigar is %s", fq.getReadLength(), r.getCigarString()));
+        }
+        r.setMappingQuality(alignment.getMapQ());
+        r.setAttribute(SAMTag.NM.name(), alignment.getNM());
+        return r;
+    }
+
+    @Override
+    public void close() {
+        if (threadpool != null) {
+            threadpool.shutdown();
+        }
+        // Same as BwaAligner: the index can't be closed whilst any alignment is in progress
+        // and is released on process exit.
+    }
+}
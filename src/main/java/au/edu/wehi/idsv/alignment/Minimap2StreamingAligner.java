@@ -0,0 +1,65 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.fastq.FastqRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs minimap2 through a JNI interface.
+ *
+ * Records are batched and returned in the same order as BwaStreamingAligner.
+ */
+public class Minimap2StreamingAligner extends BatchingStreamingAlignerBase {
+    private final Minimap2Aligner aligner;
+    private final boolean ownsAligner;
+    public Minimap2Aligner getAligner() {
+        return this.aligner;
+    }
+
+    /**
+     *
+     * @param reference Reference genome. The minimap2 index is loaded from the .mmi file alongside the reference.
+     * @param dict sequence dictionary for reference genome
+     * @param threads number of minimap2 threads
+     * @param bufferSizeInBases number of base pairs of sequence to buffer.
+     *                          This buffer is evenly split across the input buffer and buffer to run to minimap2.
+     *                          Actual invocations to minimap2 will be with a buffer half this size.
+     */
+    public Minimap2StreamingAligner(File reference, SAMSequenceDictionary dict, int threads, int bufferSizeInBases) {
+        this(new Minimap2Aligner(reference, dict, threads), true, bufferSizeInBases);
+    }
+
+    /**
+     * Creates a streaming aligner that aligns using the given aligner.
+     * The aligner can be shared by multiple streaming aligners and is not closed when this streaming aligner is closed.
+     *
+     * @param aligner minimap2 aligner
+     * @param bufferSizeInBases number of base pairs of sequence to buffer.
+     */
+    public Minimap2StreamingAligner(Minimap2Aligner aligner, int bufferSizeInBases) {
+        this(aligner, false, bufferSizeInBases);
+    }
+
+    private Minimap2StreamingAligner(Minimap2Aligner aligner, boolean ownsAligner, int bufferSizeInBases) {
+        super("minimap2", bufferSizeInBases);
+        this.aligner = aligner;
+        this.ownsAligner = ownsAligner;
+    }
+
+    @Override
+    protected List<SAMRecord> align(List<FastqRecord> batch) {
+        return aligner.align(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (ownsAligner) {
+            this.aligner.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+
+import java.util.Arrays;
+
+/**
+ * Exact kmer seed lookup table for a single reference sequence.
+ *
+ * Reference kmers are sampled every stride bases whereas every read kmer is looked up.
+ * Any exact match of at least k + stride - 1 bases between the read and the reference
+ * is therefore guaranteed to contain a seed hit.
+ *
+ * Each seed is packed into a single long containing the kmer in the high 32 bits and
+ * the reference position in the low 32 bits. The sorted seed array can then be
+ * binary searched for all positions of a kmer.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ReferenceSeedIndex {
+	/**
+	 * Maximum kmer size that can be packed into the seed encoding
+	 */
+	public static final int MAX_K = 16;
+	/**
+	 * Callback for each seed hit
+	 */
+	public interface SeedHitConsumer {
+		/**
+		 * @param readOffset zero-based offset of the first base of the kmer in the read
+		 * @param referenceOffset zero-based offset of the first base of the kmer in the reference
+		 */
+		void hit(int readOffset, int referenceOffset);
+	}
+	private final int k;
+	private final int stride;
+	private final int maxOccurrences;
+	private final long[] seeds;
+	/**
+	 * Indexes the given reference sequence
+	 * @param reference reference bases
+	 * @param k kmer size
+	 * @param stride interval between indexed reference kmers
+	 * @param maxOccurrences kmers with more than this number of indexed occurrences are ignored
+	 */
+	public ReferenceSeedIndex(byte[] reference, int k, int stride, int maxOccurrences) {
+		if (k <= 0 || k > MAX_K) throw new IllegalArgumentException(String.format("k must be between 1 and %d", MAX_K));
+		if (stride <= 0) throw new IllegalArgumentException("stride must be positive");
+		this.k = k;
+		this.stride = stride;
+		this.maxOccurrences = maxOccurrences;
+		long[] packed = new long[reference.length / stride + 1];
+		int count = 0;
+		long kmer = 0;
+		int validBases = 0;
+		for (int i = 0; i < reference.length; i++) {
+			if (KmerEncodingHelper.isAmbiguous(reference[i])) {
+				validBases = 0;
+				continue;
+			}
+			kmer = nextKmer(kmer, reference[i]);
+			validBases++;
+			int start = i - k + 1;
+			if (validBases >= k && start % stride == 0) {
+				packed[count++] = (kmer << 32) | start;
+			}
+		}
+		this.seeds = Arrays.copyOf(packed, count);
+		Arrays.sort(this.seeds);
+	}
+	private long nextKmer(long kmer, byte base) {
+		return ((kmer << 2) | KmerEncodingHelper.picardBaseToEncoded(base)) & ((1L << (2 * k)) - 1);
+	}
+	public int getK() {
+		return k;
+	}
+	public int getStride() {
+		return stride;
+	}
+	/**
+	 * Number of indexed reference kmers
+	 */
+	public int size() {
+		return seeds.length;
+	}
+	/**
+	 * Finds all seed hits for the given sequence
+	 * @param seq read bases
+	 * @param consumer callback for each hit
+	 * @return number of hits
+	 */
+	public int findHits(byte[] seq, SeedHitConsumer consumer) {
+		int hits = 0;
+		long kmer = 0;
+		int validBases = 0;
+		for (int i = 0; i < seq.length; i++) {
+			if (KmerEncodingHelper.isAmbiguous(seq[i])) {
+				validBases = 0;
+				continue;
+			}
+			kmer = nextKmer(kmer, seq[i]);
+			validBases++;
+			if (validBases >= k) {
+				long key = kmer << 32;
+				int first = lowerBound(key);
+				// reference positions never reach 0xFFFFFFFF so this is an exclusive upper bound
+				int last = lowerBound(key | 0xFFFFFFFFL);
+				if (last - first <= maxOccurrences) {
+					for (int j = first; j < last; j++) {
+						consumer.hit(i - k + 1, (int)seeds[j]);
+						hits++;
+					}
+				}
+			}
+		}
+		return hits;
+	}
+	private int lowerBound(long key) {
+		int index = Arrays.binarySearch(seeds, key);
+		if (index < 0) return -index - 1;
+		// positions are unique so there are no duplicate keys
+		return index;
+	}
+}
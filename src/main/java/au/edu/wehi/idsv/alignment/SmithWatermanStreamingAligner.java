@@ -2,66 +2,251 @@ package au.edu.wehi.idsv.alignment;
 
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Queue;
+import java.util.concurrent.*;
 
 /**
- * Performs full Smith-Waterman align across an entire chromosome. Only suitable for very small chromosomes.
+ * Performs Smith-Waterman alignment against a single chromosome.
  *
+ * By default, each read is aligned to the forward strand of the entire chromosome.
+ * This is only suitable for very small chromosomes.
+ *
+ * Seeded alignment indexes the chromosome with an exact kmer seed table and
+ * aligns each read only within a band around the best cluster of seed hits
+ * across both strands. Reads without any seed hits are reported as unmapped.
+ *
+ * Reads are aligned in parallel on a worker pool with alignments returned in input order.
+ * The Smith-Waterman aligner is shared by all worker threads so must be thread-safe.
  */
 public class SmithWatermanStreamingAligner implements StreamingAligner {
+	public static final int DEFAULT_SEED_KMER = 13;
+	public static final int DEFAULT_SEED_STRIDE = 4;
+	public static final int DEFAULT_MAX_SEED_OCCURRENCES = 64;
+	public static final int DEFAULT_BAND_WIDTH = 32;
 	private final Aligner aligner;
 	private final int referenceIndex;
-	private final ReferenceLookup reference;
-	private final Queue<SAMRecord> buffer = new ArrayDeque<>();
+	private final byte[] ref;
+	/**
+	 * Reference seeds. Null if every read is aligned to the entire chromosome.
+	 */
+	private final ReferenceSeedIndex seeds;
+	private final int bandWidth;
 	private final SAMFileHeader header;
+	private final ExecutorService threadpool;
+	private final Executor executor;
+	/**
+	 * In-flight alignments in input order. Access must be synchronised on the queue.
+	 */
+	private final Queue<Future<SAMRecord>> buffer = new ArrayDeque<>();
+	/**
+	 * Completed alignments in input order. Access must be synchronised on buffer.
+	 */
+	private final Queue<SAMRecord> completed = new ArrayDeque<>();
 
 	public SmithWatermanStreamingAligner(Aligner aligner, ReferenceLookup reference, int referenceIndex) {
+		this(aligner, reference, referenceIndex, 1);
+	}
+
+	/**
+	 * Creates an aligner that aligns every read to the entire chromosome.
+	 * @param aligner Smith-Waterman aligner
+	 * @param reference reference genome
+	 * @param referenceIndex index of the chromosome to align to
+	 * @param threads number of worker threads. Alignment is performed on the calling thread if less than 2.
+	 */
+	public SmithWatermanStreamingAligner(Aligner aligner, ReferenceLookup reference, int referenceIndex, int threads) {
+		this(aligner, reference, referenceIndex, threads, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Creates an aligner that only aligns reads around their reference seed hits.
+	 * @param aligner Smith-Waterman aligner
+	 * @param reference reference genome
+	 * @param referenceIndex index of the chromosome to align to
+	 * @param threads number of worker threads. Alignment is performed on the calling thread if less than 2.
+	 * @param seedKmer seed kmer size. Reads are aligned to the entire chromosome if this is 0.
+	 * @param seedStride interval between indexed reference seeds.
+	 *                   Reads are guaranteed to be seeded if they contain an exact match of at least seedKmer + seedStride - 1 bases.
+	 * @param maxSeedOccurrences seeds occurring more than this many times in the chromosome are ignored
+	 * @param bandWidth number of bases either side of the seed hits to include in the Smith-Waterman alignment
+	 */
+	public SmithWatermanStreamingAligner(Aligner aligner, ReferenceLookup reference, int referenceIndex, int threads,
+			int seedKmer, int seedStride, int maxSeedOccurrences, int bandWidth) {
 		this.aligner = aligner;
 		this.referenceIndex = referenceIndex;
-		this.reference = reference;
+		this.ref = reference.getSequence(reference.getSequenceDictionary().getSequence(referenceIndex).getSequenceName()).getBases();
+		this.seeds = seedKmer <= 0 ? null : new ReferenceSeedIndex(ref, seedKmer, seedStride, maxSeedOccurrences);
+		this.bandWidth = bandWidth;
 		this.header = new SAMFileHeader();
-		this.header.setSequenceDictionary(this.reference.getSequenceDictionary());
+		this.header.setSequenceDictionary(reference.getSequenceDictionary());
+		if (threads > 1) {
+			this.threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SmithWaterman-%d").build());
+			this.executor = this.threadpool;
+		} else {
+			this.threadpool = null;
+			this.executor = MoreExecutors.directExecutor();
+		}
 	}
 
 	@Override
 	public void asyncAlign(FastqRecord fq) throws IOException {
-		byte[] ref = reference.getSequence(reference.getSequenceDictionary().getSequence(referenceIndex).getSequenceName()).getBases();
+		FutureTask<SAMRecord> task = new FutureTask<>(() -> align(fq));
+		synchronized (buffer) {
+			buffer.add(task);
+		}
+		executor.execute(task);
+	}
+
+	/**
+	 * Best cluster of seed hits
+	 */
+	private static class SeedCluster {
+		private int hits = 0;
+		private int minDiagonal;
+		private int maxDiagonal;
+		private boolean reverseComplement;
+	}
+
+	private SAMRecord align(FastqRecord fq) {
+		if (seeds == null) {
+			return alignToChromosome(fq);
+		}
+		byte[] forward = fq.getReadBases();
+		byte[] reverse = Arrays.copyOf(forward, forward.length);
+		SequenceUtil.reverseComplement(reverse);
+		SeedCluster best = new SeedCluster();
+		findBestCluster(forward, false, best);
+		findBestCluster(reverse, true, best);
+		SAMRecord r = SAMRecordUtil.createSAMRecord(header, fq, best.reverseComplement);
+		if (best.hits == 0) {
+			r.setReadUnmappedFlag(true);
+			return r;
+		}
+		byte[] seq = r.getReadBases();
+		int start = Math.max(0, best.minDiagonal - bandWidth);
+		int end = Math.min(ref.length, best.maxDiagonal + seq.length + bandWidth);
+		Alignment alignment = aligner.align_smith_waterman(seq, Arrays.copyOfRange(ref, start, end));
+		r.setReferenceIndex(referenceIndex);
+		r.setReadNegativeStrandFlag(best.reverseComplement);
+		r.setAlignmentStart(start + alignment.getStartPosition() + 1);
+		r.setCigarString(alignment.getCigar());
+		return r;
+	}
+
+	private SAMRecord alignToChromosome(FastqRecord fq) {
 		Alignment alignment = aligner.align_smith_waterman(fq.getReadBases(), ref);
 		SAMRecord r = SAMRecordUtil.createSAMRecord(header, fq, false);
 		r.setReferenceIndex(referenceIndex);
 		r.setAlignmentStart(alignment.getStartPosition() + 1);
 		r.setCigarString(alignment.getCigar());
-		buffer.add(r);
+		return r;
+	}
+
+	/**
+	 * Updates the best cluster if the given sequence has a seed hit cluster with more hits.
+	 * Seed hits are clustered by alignment diagonal with clusters spanning at most bandWidth diagonals.
+	 */
+	private void findBestCluster(byte[] seq, boolean reverseComplement, SeedCluster best) {
+		IntArrayList diagonals = new IntArrayList();
+		seeds.findHits(seq, (readOffset, referenceOffset) -> diagonals.add(referenceOffset - readOffset));
+		if (diagonals.size() <= best.hits) return;
+		int[] d = diagonals.toIntArray();
+		Arrays.sort(d);
+		int clusterStart = 0;
+		for (int i = 0; i < d.length; i++) {
+			while (d[i] - d[clusterStart] > bandWidth) {
+				clusterStart++;
+			}
+			int hits = i - clusterStart + 1;
+			if (hits > best.hits) {
+				best.hits = hits;
+				best.minDiagonal = d[clusterStart];
+				best.maxDiagonal = d[i];
+				best.reverseComplement = reverseComplement;
+			}
+		}
 	}
 
 	@Override
 	public void flush() throws IOException {
+		Future<?>[] outstanding;
+		synchronized (buffer) {
+			outstanding = buffer.toArray(new Future<?>[0]);
+		}
+		for (Future<?> f : outstanding) {
+			get(f);
+		}
+		drainCompleted();
+	}
 
+	/**
+	 * Moves completed alignments from the head of the in-flight buffer to the output buffer
+	 */
+	private void drainCompleted() {
+		synchronized (buffer) {
+			while (!buffer.isEmpty() && buffer.peek().isDone()) {
+				completed.add(get(buffer.remove()));
+			}
+		}
 	}
 
 	@Override
 	public int processedAlignmentRecords() {
-		return buffer.size();
+		synchronized (buffer) {
+			drainCompleted();
+			return completed.size();
+		}
 	}
 
 	@Override
 	public int outstandingAlignmentRecord() {
-		return 0;
+		synchronized (buffer) {
+			return buffer.size();
+		}
 	}
 
 	@Override
 	public SAMRecord getAlignment() {
-		return buffer.remove();
+		SAMRecord result;
+		synchronized (buffer) {
+			if (completed.isEmpty()) {
+				drainCompleted();
+			}
+			result = completed.poll();
+		}
+		if (result == null) {
+			throw new IllegalStateException("Call flush() or check processedAlignmentRecords() to ensure records are available.");
+		}
+		return result;
+	}
+
+	private static <T> T get(Future<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
-
+		if (threadpool != null) {
+			threadpool.shutdown();
+		}
 	}
 }
@@ -0,0 +1,240 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static au.edu.wehi.idsv.bed.PanelOfNormalsRecords.*;
+
+/**
+ * Indexed binary panel of normals containing both breakpoint and single breakend counts.
+ *
+ * The file consists of a header containing the sequence dictionary, the record offset
+ * of the first record of each chromosome, and the maximum breakend width followed by
+ * the records sorted by the position of the first breakend.
+ * Breakpoints are stored only once, from the perspective of the lower breakend.
+ *
+ * Records are memory mapped so overlap queries only touch the records near the query position.
+ * Each mapping is limited to 2GB so records are mapped in fixed size segments.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PanelOfNormals implements Closeable {
+	public static final String FILE_EXTENSION = ".gridsspon";
+	private static final int MAGIC = 0x47504f4e; // GPON
+	private static final int VERSION = 1;
+	/**
+	 * Number of records in each memory mapped segment. Must be a power of 2.
+	 */
+	static final int DEFAULT_SEGMENT_RECORDS = 1 << 24;
+	private final SAMSequenceDictionary dictionary;
+	private final long[] referenceOffset;
+	private final int maxWidth;
+	private final int recordCount;
+	private final RandomAccessFile file;
+	private final IntBuffer[] segments;
+	private final int segmentShift;
+	private final int segmentMask;
+
+	public PanelOfNormals(File pon) throws IOException {
+		this(pon, DEFAULT_SEGMENT_RECORDS);
+	}
+
+	PanelOfNormals(File pon, int segmentRecords) throws IOException {
+		if (Integer.bitCount(segmentRecords) != 1 || (long)segmentRecords * RECORD_SIZE * 4 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Segment record count must be a power of 2 no larger than 2GB");
+		}
+		this.file = new RandomAccessFile(pon, "r");
+		try {
+			this.segmentShift = Integer.numberOfTrailingZeros(segmentRecords);
+			this.segmentMask = segmentRecords - 1;
+			this.dictionary = readHeader(pon);
+			this.referenceOffset = new long[dictionary.size() + 1];
+			for (int i = 0; i < referenceOffset.length; i++) {
+				referenceOffset[i] = file.readLong();
+			}
+			this.maxWidth = file.readInt();
+			long totalRecords = referenceOffset[dictionary.size()];
+			if (totalRecords > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(String.format("%s contains more than %d records", pon, Integer.MAX_VALUE));
+			}
+			this.recordCount = (int)totalRecords;
+			long recordStart = file.getFilePointer();
+			this.segments = new IntBuffer[(int)((totalRecords + segmentMask) >>> segmentShift)];
+			for (int i = 0; i < segments.length; i++) {
+				long first = (long)i << segmentShift;
+				long count = Math.min(segmentRecords, totalRecords - first);
+				MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, recordStart + first * RECORD_SIZE * 4, count * RECORD_SIZE * 4);
+				segments[i] = mapped.asIntBuffer();
+			}
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private SAMSequenceDictionary readHeader(File pon) throws IOException {
+		if (file.readInt() != MAGIC) {
+			throw new IllegalArgumentException(pon + " is not a GRIDSS binary panel of normals.");
+		}
+		int version = file.readInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException(String.format("Unsupported panel of normals version %d in %s", version, pon));
+		}
+		int dictSize = file.readInt();
+		List<SAMSequenceRecord> sequences = new ArrayList<>(dictSize);
+		for (int i = 0; i < dictSize; i++) {
+			String name = file.readUTF();
+			int length = file.readInt();
+			sequences.add(new SAMSequenceRecord(name, length));
+		}
+		return new SAMSequenceDictionary(sequences);
+	}
+
+	/**
+	 * Writes the given records as a binary panel of normals
+	 * @param records records sorted by PanelOfNormalsRecords ordering
+	 */
+	public static void write(File pon, SAMSequenceDictionary dictionary, PanelOfNormalsRecords records) throws IOException {
+		int[] record = new int[RECORD_SIZE];
+		long[] referenceOffset = new long[dictionary.size() + 1];
+		int maxWidth = 0;
+		try (PanelOfNormalsRunMerger.RecordSource it = records.asRecordSource()) {
+			long offset = 0;
+			int lastReferenceIndex = -1;
+			while (it.next(record)) {
+				int referenceIndex = record[REFERENCE_INDEX];
+				for (int i = lastReferenceIndex + 1; i <= referenceIndex; i++) {
+					referenceOffset[i] = offset;
+				}
+				lastReferenceIndex = referenceIndex;
+				maxWidth = Math.max(maxWidth, record[END] - record[START] + 1);
+				offset++;
+			}
+			for (int i = lastReferenceIndex + 1; i < referenceOffset.length; i++) {
+				referenceOffset[i] = offset;
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pon)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dictionary.size());
+			for (SAMSequenceRecord seq : dictionary.getSequences()) {
+				out.writeUTF(seq.getSequenceName());
+				out.writeInt(seq.getSequenceLength());
+			}
+			for (long offset : referenceOffset) {
+				out.writeLong(offset);
+			}
+			out.writeInt(maxWidth);
+			records.write(out);
+		}
+	}
+
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return dictionary;
+	}
+
+	public int size() {
+		return recordCount;
+	}
+
+	/**
+	 * Gets the record at the given index
+	 */
+	public void get(int index, int[] record) {
+		for (int i = 0; i < RECORD_SIZE; i++) {
+			record[i] = field(index, i);
+		}
+	}
+
+	/**
+	 * Gets the given field of the record at the given index
+	 */
+	private int field(int index, int field) {
+		// segments are at most 2GB so the offset within the segment cannot overflow
+		return segments[index >>> segmentShift].get((index & segmentMask) * RECORD_SIZE + field);
+	}
+
+	/**
+	 * Gets a record source over every record in the panel of normals
+	 */
+	public PanelOfNormalsRunMerger.RecordSource asRecordSource() {
+		return new PanelOfNormalsRunMerger.RecordSource() {
+			private int index = 0;
+			@Override
+			public boolean next(int[] record) {
+				if (index >= recordCount) return false;
+				get(index++, record);
+				return true;
+			}
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Total count of all panel of normals entries overlapping the given breakend.
+	 * Breakpoints match only panel of normal breakpoints that overlap at both breakends.
+	 * Single breakends match only panel of normal single breakends.
+	 */
+	public int countOverlapping(BreakendSummary be) {
+		if (be instanceof BreakpointSummary && ((BreakpointSummary)be).isHighBreakend()) {
+			be = ((BreakpointSummary)be).remoteBreakpoint();
+		}
+		if (be.referenceIndex < 0 || be.referenceIndex >= dictionary.size()) return 0;
+		int first = (int)referenceOffset[be.referenceIndex];
+		int last = (int)referenceOffset[be.referenceIndex + 1];
+		// records ending before the query starts cannot overlap
+		int index = lowerBound(first, last, be.start - maxWidth + 1);
+		int count = 0;
+		for (; index < last; index++) {
+			if (field(index, START) > be.end) break;
+			if (field(index, END) < be.start) continue;
+			if (field(index, DIRECTION) != be.direction.ordinal()) continue;
+			if (be instanceof BreakpointSummary) {
+				BreakpointSummary bp = (BreakpointSummary)be;
+				if (field(index, REFERENCE_INDEX2) != bp.referenceIndex2
+						|| field(index, DIRECTION2) != bp.direction2.ordinal()
+						|| field(index, START2) > bp.end2
+						|| field(index, END2) < bp.start2) {
+					continue;
+				}
+			} else if (field(index, REFERENCE_INDEX2) >= 0) {
+				continue;
+			}
+			count += field(index, COUNT);
+		}
+		return count;
+	}
+
+	/**
+	 * First record index in the given range with a start position of at least the given position
+	 */
+	private int lowerBound(int first, int last, int start) {
+		while (first < last) {
+			int mid = (first + last) >>> 1;
+			if (field(mid, START) < start) {
+				first = mid + 1;
+			} else {
+				last = mid;
+			}
+		}
+		return first;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,182 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Primitive buffer of panel of normals breakend and breakpoint counts.
+ *
+ * Each record is stored as RECORD_SIZE consecutive ints so large numbers of
+ * records can be sorted, aggregated and merged without per-record objects.
+ * Single breakends have a remote reference index of -1.
+ *
+ * Records are ordered by the first breakend start then end so the ordering
+ * is consistent with BreakendSummary.ByStartEnd.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PanelOfNormalsRecords {
+	public static final int REFERENCE_INDEX = 0;
+	public static final int DIRECTION = 1;
+	public static final int NOMINAL = 2;
+	public static final int START = 3;
+	public static final int END = 4;
+	public static final int REFERENCE_INDEX2 = 5;
+	public static final int DIRECTION2 = 6;
+	public static final int NOMINAL2 = 7;
+	public static final int START2 = 8;
+	public static final int END2 = 9;
+	public static final int COUNT = 10;
+	public static final int RECORD_SIZE = 11;
+	/**
+	 * Field comparison order. Count is not part of the record key.
+	 */
+	private static final int[] SORT_ORDER = { REFERENCE_INDEX, START, END, NOMINAL, DIRECTION, REFERENCE_INDEX2, START2, END2, NOMINAL2, DIRECTION2 };
+	private int[] data = new int[RECORD_SIZE * 1024];
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public void add(BreakendSummary be, int count) {
+		ensureCapacity(size + 1);
+		encode(be, count, data, size * RECORD_SIZE);
+		size++;
+	}
+
+	public void add(int[] record, int offset) {
+		ensureCapacity(size + 1);
+		System.arraycopy(record, offset, data, size * RECORD_SIZE, RECORD_SIZE);
+		size++;
+	}
+
+	private void ensureCapacity(int records) {
+		if (records * RECORD_SIZE > data.length) {
+			data = Arrays.copyOf(data, Math.max(records, 2 * size) * RECORD_SIZE);
+		}
+	}
+
+	/**
+	 * Sorts the records and combines identical records by summing their counts
+	 */
+	public void sortAndAggregate() {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i * RECORD_SIZE;
+		}
+		IntArrays.quickSort(order, (a, b) -> compare(data, a, data, b));
+		int[] sorted = new int[Math.max(size, 1) * RECORD_SIZE];
+		int sortedSize = 0;
+		for (int i = 0; i < size; i++) {
+			if (sortedSize > 0 && compare(sorted, (sortedSize - 1) * RECORD_SIZE, data, order[i]) == 0) {
+				sorted[(sortedSize - 1) * RECORD_SIZE + COUNT] += data[order[i] + COUNT];
+			} else {
+				System.arraycopy(data, order[i], sorted, sortedSize * RECORD_SIZE, RECORD_SIZE);
+				sortedSize++;
+			}
+		}
+		data = sorted;
+		size = sortedSize;
+	}
+
+	/**
+	 * Writes all records to the given stream
+	 */
+	public void write(DataOutput out) throws IOException {
+		for (int i = 0; i < size * RECORD_SIZE; i++) {
+			out.writeInt(data[i]);
+		}
+	}
+
+	/**
+	 * Writes the records as a sorted run suitable for merging with PanelOfNormalsRunMerger.
+	 * Records must be sorted.
+	 */
+	public void writeRun(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeLong(size);
+			write(out);
+		}
+	}
+
+	/**
+	 * Gets a record source over the records in this buffer. Records must be sorted.
+	 */
+	public PanelOfNormalsRunMerger.RecordSource asRecordSource() {
+		return new PanelOfNormalsRunMerger.RecordSource() {
+			private int offset = 0;
+			@Override
+			public boolean next(int[] record) {
+				if (offset >= size * RECORD_SIZE) return false;
+				System.arraycopy(data, offset, record, 0, RECORD_SIZE);
+				offset += RECORD_SIZE;
+				return true;
+			}
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	public static void encode(BreakendSummary be, int count, int[] record, int offset) {
+		record[offset + REFERENCE_INDEX] = be.referenceIndex;
+		record[offset + DIRECTION] = be.direction.ordinal();
+		record[offset + NOMINAL] = be.nominal;
+		record[offset + START] = be.start;
+		record[offset + END] = be.end;
+		if (be instanceof BreakpointSummary) {
+			BreakpointSummary bp = (BreakpointSummary)be;
+			record[offset + REFERENCE_INDEX2] = bp.referenceIndex2;
+			record[offset + DIRECTION2] = bp.direction2.ordinal();
+			record[offset + NOMINAL2] = bp.nominal2;
+			record[offset + START2] = bp.start2;
+			record[offset + END2] = bp.end2;
+		} else {
+			record[offset + REFERENCE_INDEX2] = -1;
+			record[offset + DIRECTION2] = 0;
+			record[offset + NOMINAL2] = 0;
+			record[offset + START2] = 0;
+			record[offset + END2] = 0;
+		}
+		record[offset + COUNT] = count;
+	}
+
+	public static BreakendSummary decode(int[] record, int offset) {
+		BreakendDirection[] directions = BreakendDirection.values();
+		if (isSingleBreakend(record, offset)) {
+			return new BreakendSummary(record[offset + REFERENCE_INDEX], directions[record[offset + DIRECTION]],
+					record[offset + NOMINAL], record[offset + START], record[offset + END]);
+		}
+		return new BreakpointSummary(
+				record[offset + REFERENCE_INDEX], directions[record[offset + DIRECTION]], record[offset + NOMINAL], record[offset + START], record[offset + END],
+				record[offset + REFERENCE_INDEX2], directions[record[offset + DIRECTION2]], record[offset + NOMINAL2], record[offset + START2], record[offset + END2]);
+	}
+
+	public static boolean isSingleBreakend(int[] record, int offset) {
+		return record[offset + REFERENCE_INDEX2] < 0;
+	}
+
+	/**
+	 * Compares the keys of the given records
+	 */
+	public static int compare(int[] a, int aOffset, int[] b, int bOffset) {
+		for (int field : SORT_ORDER) {
+			int cmp = Integer.compare(a[aOffset + field], b[bOffset + field]);
+			if (cmp != 0) return cmp;
+		}
+		return 0;
+	}
+
+	public static void read(DataInput in, int[] record) throws IOException {
+		for (int i = 0; i < RECORD_SIZE; i++) {
+			record[i] = in.readInt();
+		}
+	}
+}
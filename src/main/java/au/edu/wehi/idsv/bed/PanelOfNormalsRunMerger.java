@@ -0,0 +1,159 @@
+package au.edu.wehi.idsv.bed;
+
+import java.io.*;
+import java.util.List;
+
+import static au.edu.wehi.idsv.bed.PanelOfNormalsRecords.COUNT;
+import static au.edu.wehi.idsv.bed.PanelOfNormalsRecords.RECORD_SIZE;
+
+/**
+ * Streaming k-way merge of sorted panel of normals record runs.
+ *
+ * Identical records from different runs are combined into a single record
+ * with the sum of their counts.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PanelOfNormalsRunMerger implements Closeable {
+	/**
+	 * Source of sorted panel of normals records
+	 */
+	public interface RecordSource extends Closeable {
+		/**
+		 * Reads the next record
+		 * @param record array of at least RECORD_SIZE to write the record to
+		 * @return false if there are no more records
+		 */
+		boolean next(int[] record) throws IOException;
+	}
+	private final RecordSource[] sources;
+	/**
+	 * Current record of each source
+	 */
+	private final int[][] current;
+	/**
+	 * Binary min-heap of source indices ordered by current record
+	 */
+	private final int[] heap;
+	private int heapSize = 0;
+
+	public PanelOfNormalsRunMerger(List<? extends RecordSource> sources) throws IOException {
+		this.sources = sources.toArray(new RecordSource[0]);
+		this.current = new int[this.sources.length][RECORD_SIZE];
+		this.heap = new int[this.sources.length];
+		for (int i = 0; i < this.sources.length; i++) {
+			if (this.sources[i].next(current[i])) {
+				heap[heapSize++] = i;
+				siftUp(heapSize - 1);
+			}
+		}
+	}
+
+	/**
+	 * Reads the next merged record
+	 * @param record array of at least RECORD_SIZE to write the record to
+	 * @return false if all sources have been exhausted
+	 */
+	public boolean next(int[] record) throws IOException {
+		if (heapSize == 0) return false;
+		System.arraycopy(current[heap[0]], 0, record, 0, RECORD_SIZE);
+		advanceHead();
+		while (heapSize > 0 && PanelOfNormalsRecords.compare(current[heap[0]], 0, record, 0) == 0) {
+			record[COUNT] += current[heap[0]][COUNT];
+			advanceHead();
+		}
+		return true;
+	}
+
+	private void advanceHead() throws IOException {
+		int source = heap[0];
+		if (!sources[source].next(current[source])) {
+			heap[0] = heap[--heapSize];
+		}
+		if (heapSize > 0) {
+			siftDown(0);
+		}
+	}
+
+	private boolean less(int i, int j) {
+		return PanelOfNormalsRecords.compare(current[heap[i]], 0, current[heap[j]], 0) < 0;
+	}
+
+	private void swap(int i, int j) {
+		int tmp = heap[i];
+		heap[i] = heap[j];
+		heap[j] = tmp;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0 && less(i, (i - 1) / 2)) {
+			swap(i, (i - 1) / 2);
+			i = (i - 1) / 2;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && less(left, smallest)) smallest = left;
+			if (right < heapSize && less(right, smallest)) smallest = right;
+			if (smallest == i) return;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	/**
+	 * Merges the given sources into a single sorted run
+	 */
+	public static void merge(List<? extends RecordSource> sources, File output) throws IOException {
+		int[] record = new int[RECORD_SIZE];
+		long count = 0;
+		try (PanelOfNormalsRunMerger merger = new PanelOfNormalsRunMerger(sources);
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+			// placeholder record count
+			out.writeLong(0);
+			while (merger.next(record)) {
+				for (int i = 0; i < RECORD_SIZE; i++) {
+					out.writeInt(record[i]);
+				}
+				count++;
+			}
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+			raf.writeLong(count);
+		}
+	}
+
+	/**
+	 * Opens a sorted run written by PanelOfNormalsRecords.writeRun() or merge()
+	 */
+	public static RecordSource openRun(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long count = in.readLong();
+		return new RecordSource() {
+			private long remaining = count;
+			@Override
+			public boolean next(int[] record) throws IOException {
+				if (remaining <= 0) return false;
+				PanelOfNormalsRecords.read(in, record);
+				remaining--;
+				return true;
+			}
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (RecordSource source : sources) {
+			source.close();
+		}
+	}
+}
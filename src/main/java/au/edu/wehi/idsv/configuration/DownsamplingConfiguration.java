@@ -9,6 +9,9 @@ public class DownsamplingConfiguration {
 		acceptDensityPortion = config.getDouble("acceptDensityPortion");
 		targetEvidenceDensity = config.getDouble("targetEvidenceDensity");
 		minimumDensityWindowSize = config.getInt("minimumDensityWindowSize");
+		densityWindowBins = config.getInt("densityWindowBins");
+		reorderBufferSize = config.getInt("reorderBufferSize");
+		randomSeed = config.getLong("randomSeed");
 	}
 	/**
 	 * Evidence per base to assemble without filtering
@@ -22,4 +25,20 @@ public class DownsamplingConfiguration {
 	 * Minimum window size for density calculation 
 	 */
 	public int minimumDensityWindowSize;
+	/**
+	 * Number of bins used to track evidence density within the window.
+	 * 0 (the default) tracks the exact density using a bin per base.
+	 * Fewer bins expire evidence from the window in steps of the bin width.
+	 */
+	public int densityWindowBins;
+	/**
+	 * Maximum number of evidence in the same density bin considered together when
+	 * downsampling. The highest scoring evidence in the reorder buffer is retained.
+	 * A reorder buffer size of 1 (the default) downsamples uniformly at random.
+	 */
+	public int reorderBufferSize;
+	/**
+	 * Random seed used for downsampling
+	 */
+	public long randomSeed;
 }
\ No newline at end of file
@@ -10,6 +10,9 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Configuration settings container for gridss
@@ -98,6 +101,7 @@ public class GridssConfiguration {
 	private final VariantCallingConfiguration variantCalling;
 	private final ScoringConfiguration scoring;
 	private File sourceConfigurationFile;
+	private final Configuration settings;
 	public GridssConfiguration() throws ConfigurationException {
 		this((File)null, new File("."));
 		sourceConfigurationFile = null;
@@ -125,6 +129,7 @@ public class GridssConfiguration {
 		useReadGroupSampleNameCategoryLabel = config.getBoolean("useReadGroupSampleNameCategoryLabel");
 		hashEvidenceID = config.getBoolean("hashEvidenceID");
 		sourceConfigurationFile = null;
+		settings = config;
 	}
 	public static Configuration LoadConfiguration(File configuration) throws ConfigurationException {
 		CompositeConfiguration config = new CompositeConfiguration();
@@ -167,4 +172,19 @@ public class GridssConfiguration {
 	public File getSourceConfigurationFile() {
 		return sourceConfigurationFile;
 	}
+	/**
+	 * Configuration settings this configuration was loaded from
+	 * @return key=value pairs sorted by key
+	 */
+	public List<String> getSettings() {
+		List<String> keys = Lists.newArrayList(settings.getKeys());
+		Collections.sort(keys);
+		List<String> result = new ArrayList<>();
+		for (String key : keys) {
+			for (String value : settings.getStringArray(key)) {
+				result.add(String.format("%s=%s", key, value));
+			}
+		}
+		return result;
+	}
 }
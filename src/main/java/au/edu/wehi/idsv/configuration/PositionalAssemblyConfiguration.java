@@ -14,6 +14,7 @@ public class PositionalAssemblyConfiguration {
 		forceFullMemoizationRecalculationAt = config.getFloat("forceFullMemoizationRecalculationAt");
 		safetyModePathCountThreshold = config.getInt("safetyModePathCountThreshold");
 		safetyModeContigsToCall = config.getInt("safetyModeContigsToCall");
+		concurrentSubgraphCalling = config.getBoolean("concurrentSubgraphCalling");
 		if (retainWidthMultiple < 1) {
 			throw new IllegalArgumentException("retainWidthMultiple must be at least 1");
 		}
@@ -75,4 +76,9 @@ public class PositionalAssemblyConfiguration {
 	 * Number of memoized paths to enter safety mode
 	 */
 	public final int safetyModePathCountThreshold;
+	/**
+	 * Memoize disjoint subgraphs of the assembly graph concurrently.
+	 * Contigs are called in the same order as when the entire graph is memoized as a whole. 
+	 */
+	public final boolean concurrentSubgraphCalling;
 }
\ No newline at end of file
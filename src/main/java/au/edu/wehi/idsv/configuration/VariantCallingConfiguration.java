@@ -30,7 +30,13 @@ public class VariantCallingConfiguration {
 		breakendMaxAssemblySupportBias = config.getDouble("breakendMaxAssemblySupportBias");
 		callFullyAnchoredAssemblyVariants = config.getBoolean("callFullyAnchoredAssemblyVariants");
 		ignoreMissingAssemblyFile = config.getBoolean("ignoreMissingAssemblyFile");
+		cacheCliques = config.getBoolean("cacheCliques");
 	}
+	/**
+	 * Persist the maximal cliques of each chunk so subsequent calling with
+	 * different score thresholds does not require evidence to be reprocessed
+	 */
+	public boolean cacheCliques;
 	/**
 	 * Ignore missing assembly file
 	 */
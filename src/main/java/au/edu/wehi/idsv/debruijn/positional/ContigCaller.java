@@ -9,6 +9,25 @@ import java.util.Set;
 
 public abstract class ContigCaller {
 	public abstract ArrayDeque<KmerPathSubnode> bestContig(int unprocessedPosition);
+	/**
+	 * Calls the best contig before the given position
+	 * @param unprocessedPosition
+	 * @param contigStartsBefore position contig must start before
+	 * @return
+	 */
+	public abstract ArrayDeque<KmerPathSubnode> callBestContigStartingBefore(int unprocessedPosition, int contigStartsBefore);
+	/**
+	 * Returns the earliest path start still in the frontier
+	 * @return
+	 */
+	public abstract int frontierStart(int unprocessedPosition);
+	/**
+	 * Returns the longest path still in the frontier
+	 * @param unprocessedPosition
+	 * @param startingBefore position frontier path must start before
+	 * @return
+	 */
+	public abstract ArrayDeque<KmerPathSubnode> frontierPath(int unprocessedPosition, int startingBefore);
 	/**
 	 * Exports the internal state for debugging purposes
 	 * @param file
@@ -32,6 +51,13 @@ public abstract class ContigCaller {
 		this.maxEvidenceSupportIntervalWidth = maxEvidenceSupportIntervalWidth;
 	}
 	public abstract boolean sanityCheck();
+	public abstract boolean sanityCheck(Set<KmerPathNode> loadedGraph);
+	public abstract boolean sanityCheckFrontier(int unprocessedPosition);
+	/**
+	 * Checks that the memoization matches that of the given caller
+	 * @param caller caller to compare to
+	 */
+	public abstract void sanityCheckMatches(MemoizedContigCaller caller);
 	public abstract int memoizedNodeCount();
 	public abstract int tracking_frontierSize();
 	public abstract MemoizationStats tracking_lastRemoval();
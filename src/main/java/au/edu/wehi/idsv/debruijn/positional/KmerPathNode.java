@@ -709,7 +709,7 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 			assert(removed);
 		}
 		nextList = null;
-		for (KmerPathNode n : prevList) {
+		for (KmerPathNode n : prev()) {
 			boolean removed = CollectionUtil.removeByReference(n.nextList, this);
 			assert(removed);
 		}
@@ -176,7 +176,7 @@ public class MemoizedContigCaller extends ContigCaller {
 	 * we need node B to have a valid successor C and there to exist a node X such that ... ?
 	 * 
 	 */
-	private void advanceFrontier(int unprocessedPosition) {
+	void advanceFrontier(int unprocessedPosition) {
 		// Can only advance frontier if all possible successors are guaranteed to be loaded
 		while (!frontier.isEmptyFrontier() && frontier.peekFrontier().node.lastEnd() < unprocessedPosition - 1) {
 			TraversalNode tn = frontier.pollFrontier();
@@ -187,6 +187,20 @@ public class MemoizedContigCaller extends ContigCaller {
 			sanityCheckFrontier(unprocessedPosition);
 		}
 	}
+	/**
+	 * Determines whether advancing the frontier to the given position requires any nodes to be visited
+	 */
+	boolean requiresFrontierAdvance(int unprocessedPosition) {
+		return nextFrontierEnd() < unprocessedPosition - 1;
+	}
+	/**
+	 * End position of the next frontier node to be visited.
+	 * @return Integer.MAX_VALUE if the frontier is empty
+	 */
+	int nextFrontierEnd() {
+		if (frontier.isEmptyFrontier()) return Integer.MAX_VALUE;
+		return frontier.peekFrontier().node.lastEnd();
+	}
 	/**
 	 * Visits the given frontier node.
 	 *
@@ -305,7 +319,7 @@ public class MemoizedContigCaller extends ContigCaller {
 		TraversalNode tn = contigByScore.first();
 		return tn;
 	}
-	private ArrayDeque<KmerPathSubnode> asUnanchoredPath(TraversalNode tn) {
+	static ArrayDeque<KmerPathSubnode> asUnanchoredPath(TraversalNode tn) {
 		if (tn == null) return null;
 		ArrayDeque<KmerPathSubnode> contig = tn.toSubnodeNextPath();
 		if (contig.peekFirst().isReference()) {
@@ -325,12 +339,7 @@ public class MemoizedContigCaller extends ContigCaller {
 		if (tn == null) return null;
 		return asUnanchoredPath(tn);
 	}
-	/**
-	 * Calls the best contig before the given position
-	 * @param unprocessedPosition
-	 * @param contigStartsBefore position contig must start before
-	 * @return
-	 */
+	@Override
 	public ArrayDeque<KmerPathSubnode> callBestContigStartingBefore(int unprocessedPosition, int contigStartsBefore) {
 		advanceFrontier(unprocessedPosition);
 		ensureContigByScoreBeforePosition(contigStartsBefore);
@@ -346,21 +355,13 @@ public class MemoizedContigCaller extends ContigCaller {
 			contigByScoreBeforePosition_startPosition = contigStartsBefore;
 		}
 	}
-	/**
-	 * Returns the earliest path start still in the frontier
-	 * @return
-	 */
+	@Override
 	public int frontierStart(int unprocessedPosition) {
 		advanceFrontier(unprocessedPosition);
 		if (frontierByPathStart.isEmpty()) return unprocessedPosition;
 		return frontierByPathStart.first().pathFirstStart();
 	}
-	/**
-	 * Returns the longest path still in the frontier 
-	 * @param unprocessedPosition
-	 * @param startingBefore position frontier path must start before
-	 * @return
-	 */
+	@Override
 	public ArrayDeque<KmerPathSubnode> frontierPath(int unprocessedPosition, int startingBefore) {
 		if (!frontierByPathStart.isEmpty() && frontierByPathStart.first().pathFirstStart() < startingBefore) {
 			// We could have an early frontier path because we just haven't performed the memoization yet
@@ -371,6 +372,58 @@ public class MemoizedContigCaller extends ContigCaller {
 		}
 		return null;
 	}
+	/**
+	 * Highest scoring memoized path. The frontier is not advanced.
+	 * @return highest scoring path, null if no paths have been memoized
+	 */
+	TraversalNode bestMemoizedPath() {
+		if (contigByScore.isEmpty()) return null;
+		return contigByScore.first();
+	}
+	/**
+	 * Highest scoring memoized path starting before the given position. The frontier is not advanced.
+	 * @param contigStartsBefore position path must start before
+	 * @return highest scoring path, null if no such path has been memoized
+	 */
+	TraversalNode bestMemoizedPathStartingBefore(int contigStartsBefore) {
+		ensureContigByScoreBeforePosition(contigStartsBefore);
+		if (contigByScoreBeforePosition.isEmpty()) return null;
+		return contigByScoreBeforePosition.first();
+	}
+	/**
+	 * Frontier path with the earliest start position. The frontier is not advanced.
+	 * @return earliest starting frontier path, null if the frontier is empty
+	 */
+	TraversalNode firstFrontierPath() {
+		if (frontierByPathStart.isEmpty()) return null;
+		return frontierByPathStart.first();
+	}
+	/**
+	 * Merges the memoization of the given caller into this caller.
+	 * 
+	 * The graphs memoized by the two callers must be disjoint and
+	 * not connected by any edge. The given caller must not be used
+	 * after the merge.
+	 * 
+	 * @param caller caller to absorb
+	 */
+	void absorb(MemoizedContigCaller caller) {
+		assert(caller.anchoredScore == anchoredScore);
+		for (TraversalNode tn : caller.contigByScore) {
+			contigByScore.add(tn);
+		}
+		for (TraversalNode tn : caller.frontierByPathStart) {
+			frontierByPathStart.add(tn);
+		}
+		frontier.absorb(caller.frontier);
+		// lazily recalculated on next use
+		contigByScoreBeforePosition_startPosition = Integer.MIN_VALUE;
+		contigByScoreBeforePosition = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new TraversalNodeByScoreDescPathFirstIdentity() : new TreeSet<>(TraversalNode.ByScoreDescPathFirstEndSubnode);
+		maxVisitedEndPosition = Math.max(maxVisitedEndPosition, caller.maxVisitedEndPosition);
+		if (Defaults.SANITY_CHECK_MEMOIZATION) {
+			sanityCheck();
+		}
+	}
 	@Override
 	public int memoizedNodeCount() {
 		return frontier.memoizedNodeCount();
@@ -395,6 +448,7 @@ public class MemoizedContigCaller extends ContigCaller {
 			}
 		}
 	}
+	@Override
 	public boolean sanityCheck(Set<KmerPathNode> loadedGraph) {
 		for (KmerPathNode node : loadedGraph) {
 			if (!frontier.isMemoized(node)) {
@@ -435,6 +489,7 @@ public class MemoizedContigCaller extends ContigCaller {
 	/*
 	 * Checks that all possible frontier nodes have indeed been traversed 
 	 */
+	@Override
 	public boolean sanityCheckFrontier(int unprocessedPosition) {
 		for (TraversalNode tn : frontierByPathStart) {
 			assert(tn.node.lastEnd() + 1 >= unprocessedPosition);
@@ -482,18 +537,28 @@ public class MemoizedContigCaller extends ContigCaller {
 	 * 
 	 * @param caller caller to compare to
 	 */
+	@Override
 	public void sanityCheckMatches(MemoizedContigCaller caller) {
+		sanityCheckMatches(contigByScore, frontierByPathStart, caller);
+	}
+	static void sanityCheckMatches(Iterable<TraversalNode> contigs, Iterable<TraversalNode> frontierPaths, MemoizedContigCaller caller) {
 		NavigableSet<TraversalNode> set1 = new TreeSet<>(TraversalNode.ByKmerScoreStartEnd);
 		NavigableSet<TraversalNode> set2 = new TreeSet<>(TraversalNode.ByKmerScoreStartEnd);
-		set1.addAll(contigByScore);
+		contigs.forEach(set1::add);
 		set2.addAll(caller.contigByScore);
 		sanityCheckMatches(set1, set2);
 		set1 = new TreeSet<>(TraversalNode.ByKmerScoreStartEnd);
 		set2 = new TreeSet<>(TraversalNode.ByKmerScoreStartEnd);
-		set1.addAll(frontierByPathStart);
+		frontierPaths.forEach(set1::add);
 		set2.addAll(caller.frontierByPathStart);
 		sanityCheckMatches(set1, set2);
 	}
+	Iterable<TraversalNode> tracking_memoizedPaths() {
+		return contigByScore;
+	}
+	Iterable<TraversalNode> tracking_frontierPaths() {
+		return frontierByPathStart;
+	}
 	public static void sanityCheckMatches(NavigableSet<TraversalNode> set1, NavigableSet<TraversalNode> set2) {
 		for (TraversalNode tn : set1) {
 			sanityCheckContains(tn, set2);
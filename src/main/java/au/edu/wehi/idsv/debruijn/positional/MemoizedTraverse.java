@@ -415,6 +415,23 @@ public class MemoizedTraverse {
 		}
 		return null;
 	}
+	/**
+	 * Merges the memoization of the given traversal into this traversal.
+	 * The nodes memoized by the two traversals must be disjoint.
+	 * Memoization callbacks are not invoked for the merged paths.
+	 * @param traverse traversal to merge
+	 */
+	public void absorb(MemoizedTraverse traverse) {
+		for (Entry<KmerPathNode, AbstractInt2ObjectSortedMap<TraversalNode>> entry : traverse.memoized.entrySet()) {
+			AbstractInt2ObjectSortedMap<TraversalNode> existing = memoized.put(entry.getKey(), entry.getValue());
+			assert(existing == null);
+		}
+		for (TraversalNode tn : traverse.frontier) {
+			frontier.add(tn);
+		}
+		traverse.memoized.clear();
+		traverse.frontier.clear();
+	}
 	/**
 	 * Adds the given node into the frontier for revisitation
 	 * @param node node to recalculate
@@ -5,6 +5,7 @@ import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.debruijn.DeBruijnGraphBase;
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
 import au.edu.wehi.idsv.graph.ScalingHelper;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
 import au.edu.wehi.idsv.model.Models;
 import au.edu.wehi.idsv.util.FilenameUtil;
 import au.edu.wehi.idsv.util.IntervalUtil;
@@ -90,7 +91,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	private int lastUnderlyingStartPosition = Integer.MIN_VALUE;
 	private int lastNextPosition = Integer.MIN_VALUE;
 	private RangeSet<Integer> toFlush = TreeRangeSet.create();
-	private MemoizedContigCaller bestContigCaller;
+	private ContigCaller bestContigCaller;
 	private int contigsCalled = 0;
 	private int contigsCalledInSafetyMode = 0;
 	private long consumed = 0;
@@ -186,7 +187,11 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		initialiseBestCaller();
 	}
 	private void initialiseBestCaller() {
-		this.bestContigCaller = new MemoizedContigCaller(ANCHORED_SCORE, maxEvidenceSupportIntervalWidth);
+		if (aes.getContext().getAssemblyParameters().positional.concurrentSubgraphCalling) {
+			this.bestContigCaller = new SubgraphPartitionedContigCaller(ANCHORED_SCORE, maxEvidenceSupportIntervalWidth, true);
+		} else {
+			this.bestContigCaller = new MemoizedContigCaller(ANCHORED_SCORE, maxEvidenceSupportIntervalWidth);
+		}
 		for (KmerPathNode n : graphByPosition) {
 			bestContigCaller.add(n);
 		}
@@ -233,11 +238,12 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 				} while (forcedContig != null);
 				if (!called.isEmpty()) {
 					//log.debug(String.format("Forced %d contigs in interval %s:%d-%d(%d)", called.size(), contigName, loadedStart, frontierStart, nextPosition()));
+					long currentTime = System.nanoTime();
 					if (getTelemetry() != null) {
-						long currentTime = System.nanoTime();
 						getTelemetry().flushContigs(referenceIndex, loadedStart, frontierStart, called.size(), currentTime - telemetryLastflushContigs);
-						telemetryLastflushContigs = currentTime;
 					}
+					RuntimeMetrics.assemblyWindow("flushContigs", contigName, loadedStart, frontierStart, called.size(), false, currentTime - telemetryLastflushContigs);
+					telemetryLastflushContigs = currentTime;
 					return;
 				}
 			}
@@ -322,11 +328,12 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 				}
 			}
 			removeFromGraph(toRemove);
+			long currentTime = System.nanoTime();
 			if (getTelemetry() != null) {
-				long currentTime = System.nanoTime();
 				getTelemetry().flushReferenceNodes(referenceIndex, startPosition, endPosition, toRemove.size(), currentTime - telemetryLastflushReferenceNodes);
-				telemetryLastflushReferenceNodes = currentTime;
 			}
+			RuntimeMetrics.assemblyWindow("flushReferenceNodes", contigName, startPosition, endPosition, toRemove.size(), false, currentTime - telemetryLastflushReferenceNodes);
+			telemetryLastflushReferenceNodes = currentTime;
 		}
 	}
 	/**
@@ -437,11 +444,12 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 			toFlush.add(Range.closedOpen(lastNextPosition, nextPosition()));
 			filtered = true;
 		}
+		long currentTime = System.nanoTime();
 		if (getTelemetry() != null) {
-			long currentTime = System.nanoTime();
 			getTelemetry().loadGraph(referenceIndex, lastNextPosition, nextPosition(), count, filtered, currentTime - telemetryLastloadGraphs);
-			telemetryLastloadGraphs = currentTime;
 		}
+		RuntimeMetrics.assemblyWindow("load", contigName, lastNextPosition, nextPosition(), count, filtered, currentTime - telemetryLastloadGraphs);
+		telemetryLastloadGraphs = currentTime;
 		if (Defaults.SANITY_CHECK_ASSEMBLY_GRAPH) {
 			sanityCheckDisjointNodeIntervals();
 			sanityCheckGraphMatchesEvidence();
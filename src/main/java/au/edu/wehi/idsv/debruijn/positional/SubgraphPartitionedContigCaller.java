@@ -0,0 +1,404 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import au.edu.wehi.idsv.Defaults;
+import au.edu.wehi.idsv.visualisation.PositionalDeBruijnGraphTracker.MemoizationStats;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Calls optimal contigs from a positional de Bruijn graph by
+ * independently memoizing each weakly connected subgraph.
+ *
+ * Memoization of a node depends only on its predecessors so the
+ * memoization of disjoint subgraphs can be advanced concurrently.
+ * Each subgraph has its own MemoizedContigCaller and the globally
+ * best contig is the best of the subgraph best contigs. Since all
+ * path orderings are total, contigs are called in the same order
+ * as a single MemoizedContigCaller over the entire graph.
+ *
+ * Subgraphs are merged when a node connecting them is added. Subgraphs
+ * are not split on node removal; a subgraph is only discarded once
+ * all of its nodes have been removed.
+ *
+ * Subgraphs are indexed by their best memoized path, first frontier path
+ * and next frontier node to visit so calls only need to consider the
+ * subgraphs that have changed since the previous call.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SubgraphPartitionedContigCaller extends ContigCaller {
+	private static final Log log = Log.getInstance(SubgraphPartitionedContigCaller.class);
+	/**
+	 * Frontier advancement is purely computational thus uses a shared pool
+	 * sized to the number of processors. A dedicated pool is required as
+	 * assembly itself is run on the worker thread pool and blocking on
+	 * subtasks scheduled on the same fixed size pool can deadlock.
+	 */
+	private static final ExecutorService threadpool = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SubgraphContigCaller-%d").build());
+	private final int anchoredScore;
+	private final boolean concurrent;
+	private final IdentityHashMap<KmerPathNode, Subgraph> lookup = new IdentityHashMap<>();
+	/**
+	 * Subgraphs in order of creation
+	 */
+	private final Set<Subgraph> subgraphs = new LinkedHashSet<>();
+	/**
+	 * Subgraphs modified since they were last indexed. Modified subgraphs
+	 * are removed from the index before modification as index keys
+	 * are invalidated by the removal of the nodes they reference.
+	 */
+	private final Set<Subgraph> modified = new LinkedHashSet<>();
+	private final NavigableSet<Subgraph> byBestPath = new TreeSet<>(Subgraph.ByBestPath);
+	private final NavigableSet<Subgraph> byFrontierPathStart = new TreeSet<>(Subgraph.ByFrontierPathStart);
+	private final NavigableSet<Subgraph> byFrontierEnd = new TreeSet<>(Subgraph.ByFrontierEnd);
+	private long nextSubgraphId = 0;
+	private MemoizationStats lastRemovalStats = new MemoizationStats();
+	private static class Subgraph {
+		/**
+		 * Creation order. Ties are broken in creation order.
+		 */
+		private final long id;
+		private final MemoizedContigCaller caller;
+		private final Set<KmerPathNode> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+		/**
+		 * Index keys as of when the subgraph was last indexed
+		 */
+		private TraversalNode bestPath = null;
+		private TraversalNode frontierPath = null;
+		private int frontierEnd = Integer.MAX_VALUE;
+		public Subgraph(long id, MemoizedContigCaller caller) {
+			this.id = id;
+			this.caller = caller;
+		}
+		private static final Comparator<Subgraph> ByBestPath = (a, b) -> {
+			int cmp = TraversalNode.ByScoreDescPathFirstEndSubnode.compare(a.bestPath, b.bestPath);
+			return cmp != 0 ? cmp : Long.compare(a.id, b.id);
+		};
+		private static final Comparator<Subgraph> ByFrontierPathStart = (a, b) -> {
+			int cmp = TraversalNode.ByPathFirstStartScoreEndSubnode.compare(a.frontierPath, b.frontierPath);
+			return cmp != 0 ? cmp : Long.compare(a.id, b.id);
+		};
+		private static final Comparator<Subgraph> ByFrontierEnd = (a, b) -> {
+			int cmp = Integer.compare(a.frontierEnd, b.frontierEnd);
+			return cmp != 0 ? cmp : Long.compare(a.id, b.id);
+		};
+	}
+	/**
+	 * @param anchoredScore scoring bonus for anchoring the start/end of a contig at a reference node
+	 * @param maxEvidenceSupportIntervalWidth
+	 * @param concurrent advance the memoization of subgraphs concurrently
+	 */
+	public SubgraphPartitionedContigCaller(int anchoredScore, int maxEvidenceSupportIntervalWidth, boolean concurrent) {
+		super(maxEvidenceSupportIntervalWidth);
+		this.anchoredScore = anchoredScore;
+		this.concurrent = concurrent;
+	}
+	@Override
+	public void add(KmerPathNode node) {
+		Subgraph sg = null;
+		for (KmerPathNode adj : Iterables.concat(node.prev(), node.next())) {
+			Subgraph adjsg = lookup.get(adj);
+			if (adjsg != null && adjsg != sg) {
+				sg = merge(sg, adjsg);
+			}
+		}
+		if (sg == null) {
+			sg = new Subgraph(nextSubgraphId++, new MemoizedContigCaller(anchoredScore, maxEvidenceSupportIntervalWidth));
+			subgraphs.add(sg);
+		}
+		invalidate(sg);
+		sg.caller.add(node);
+		sg.nodes.add(node);
+		lookup.put(node, sg);
+	}
+	/**
+	 * Merges the smaller subgraph into the larger subgraph
+	 * @return merged subgraph
+	 */
+	private Subgraph merge(Subgraph a, Subgraph b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.nodes.size() < b.nodes.size()) {
+			Subgraph tmp = a;
+			a = b;
+			b = tmp;
+		}
+		invalidate(a);
+		discard(b);
+		a.caller.absorb(b.caller);
+		for (KmerPathNode n : b.nodes) {
+			lookup.put(n, a);
+		}
+		a.nodes.addAll(b.nodes);
+		return a;
+	}
+	@Override
+	public void remove(KmerPathNode node) {
+		Subgraph sg = lookup.remove(node);
+		if (sg == null) return;
+		invalidate(sg);
+		sg.caller.remove(node);
+		sg.nodes.remove(node);
+		lastRemovalStats = sg.caller.tracking_lastRemoval();
+		if (sg.nodes.isEmpty()) {
+			discard(sg);
+		}
+	}
+	@Override
+	public void remove(Set<KmerPathNode> nodes) {
+		Map<Subgraph, Set<KmerPathNode>> bySubgraph = new IdentityHashMap<>();
+		for (KmerPathNode node : nodes) {
+			Subgraph sg = lookup.get(node);
+			if (sg != null) {
+				bySubgraph.computeIfAbsent(sg, x -> Collections.newSetFromMap(new IdentityHashMap<>())).add(node);
+			}
+		}
+		for (Map.Entry<Subgraph, Set<KmerPathNode>> entry : bySubgraph.entrySet()) {
+			Subgraph sg = entry.getKey();
+			// subgraph node removal only requires knowledge of nodes in that subgraph
+			// as no edges exist between subgraphs
+			invalidate(sg);
+			sg.caller.remove(entry.getValue());
+			lastRemovalStats = sg.caller.tracking_lastRemoval();
+			for (KmerPathNode node : entry.getValue()) {
+				lookup.remove(node);
+				sg.nodes.remove(node);
+			}
+			if (sg.nodes.isEmpty()) {
+				discard(sg);
+			}
+		}
+	}
+	private void invalidate(Subgraph sg) {
+		if (modified.add(sg)) {
+			unindex(sg);
+		}
+	}
+	private void discard(Subgraph sg) {
+		unindex(sg);
+		modified.remove(sg);
+		subgraphs.remove(sg);
+	}
+	private void unindex(Subgraph sg) {
+		if (sg.bestPath != null) byBestPath.remove(sg);
+		if (sg.frontierPath != null) byFrontierPathStart.remove(sg);
+		if (sg.frontierEnd != Integer.MAX_VALUE) byFrontierEnd.remove(sg);
+		sg.bestPath = null;
+		sg.frontierPath = null;
+		sg.frontierEnd = Integer.MAX_VALUE;
+	}
+	private void index(Subgraph sg) {
+		sg.bestPath = sg.caller.bestMemoizedPath();
+		sg.frontierPath = sg.caller.firstFrontierPath();
+		sg.frontierEnd = sg.caller.nextFrontierEnd();
+		if (sg.bestPath != null) byBestPath.add(sg);
+		if (sg.frontierPath != null) byFrontierPathStart.add(sg);
+		if (sg.frontierEnd != Integer.MAX_VALUE) byFrontierEnd.add(sg);
+	}
+	/**
+	 * Updates the index keys of all modified subgraphs
+	 */
+	private void reindex() {
+		for (Subgraph sg : modified) {
+			index(sg);
+		}
+		modified.clear();
+	}
+	/**
+	 * Advances the memoization frontier of all subgraphs.
+	 * Subgraphs requiring advancement are memoized concurrently.
+	 */
+	private void advanceFrontier(int unprocessedPosition) {
+		reindex();
+		List<Subgraph> toAdvance = new ArrayList<>();
+		for (Subgraph sg : byFrontierEnd) {
+			if (!sg.caller.requiresFrontierAdvance(unprocessedPosition)) break;
+			toAdvance.add(sg);
+		}
+		for (Subgraph sg : toAdvance) {
+			invalidate(sg);
+		}
+		advanceFrontier(toAdvance, unprocessedPosition);
+		reindex();
+	}
+	private void advanceFrontier(List<Subgraph> toAdvance, int unprocessedPosition) {
+		if (!concurrent || toAdvance.size() <= 1) {
+			for (Subgraph sg : toAdvance) {
+				sg.caller.advanceFrontier(unprocessedPosition);
+			}
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>(toAdvance.size());
+		// keep the first subgraph for the calling thread
+		for (Subgraph sg : toAdvance.subList(1, toAdvance.size())) {
+			futures.add(threadpool.submit(() -> sg.caller.advanceFrontier(unprocessedPosition)));
+		}
+		RuntimeException firstException = null;
+		try {
+			toAdvance.get(0).caller.advanceFrontier(unprocessedPosition);
+		} catch (RuntimeException e) {
+			firstException = e;
+		}
+		// All tasks must complete before we return as the subgraphs
+		// are not safe to modify while memoization is in progress
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (firstException == null) firstException = new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (firstException == null) {
+					if (e.getCause() instanceof RuntimeException) {
+						firstException = (RuntimeException)e.getCause();
+					} else if (e.getCause() instanceof Error) {
+						throw (Error)e.getCause();
+					} else {
+						firstException = new RuntimeException(e.getCause());
+					}
+				}
+			}
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+	private static TraversalNode min(TraversalNode a, TraversalNode b, Comparator<TraversalNode> order) {
+		if (a == null) return b;
+		if (b == null) return a;
+		return order.compare(a, b) <= 0 ? a : b;
+	}
+	private TraversalNode firstFrontierPath() {
+		reindex();
+		if (byFrontierPathStart.isEmpty()) return null;
+		return byFrontierPathStart.first().frontierPath;
+	}
+	@Override
+	public ArrayDeque<KmerPathSubnode> bestContig(int unprocessedPosition) {
+		advanceFrontier(unprocessedPosition);
+		if (byBestPath.isEmpty()) return null;
+		TraversalNode best = byBestPath.first().bestPath;
+		// Can only call best contig when at least maxEvidenceWidth
+		// bases exist between the end of the contig and the start of
+		// the closest incomplete contig in any subgraph
+		TraversalNode frontierFirst = firstFrontierPath();
+		if (frontierFirst != null) {
+			unprocessedPosition = Math.min(unprocessedPosition, frontierFirst.pathFirstStart());
+		}
+		if (best.node.lastEnd() >= unprocessedPosition - maxEvidenceSupportIntervalWidth - 1) {
+			return null;
+		}
+		return MemoizedContigCaller.asUnanchoredPath(best);
+	}
+	@Override
+	public ArrayDeque<KmerPathSubnode> callBestContigStartingBefore(int unprocessedPosition, int contigStartsBefore) {
+		advanceFrontier(unprocessedPosition);
+		TraversalNode best = null;
+		for (Subgraph sg : subgraphs) {
+			best = min(best, sg.caller.bestMemoizedPathStartingBefore(contigStartsBefore), TraversalNode.ByScoreDescPathFirstEndSubnode);
+		}
+		if (best == null) return null;
+		return MemoizedContigCaller.asUnanchoredPath(best);
+	}
+	@Override
+	public int frontierStart(int unprocessedPosition) {
+		advanceFrontier(unprocessedPosition);
+		TraversalNode first = firstFrontierPath();
+		if (first == null) return unprocessedPosition;
+		return first.pathFirstStart();
+	}
+	@Override
+	public ArrayDeque<KmerPathSubnode> frontierPath(int unprocessedPosition, int startingBefore) {
+		TraversalNode first = firstFrontierPath();
+		if (first != null && first.pathFirstStart() < startingBefore) {
+			// We could have an early frontier path because we just haven't performed the memoization yet
+			advanceFrontier(unprocessedPosition);
+			first = firstFrontierPath();
+			if (first != null && first.pathFirstStart() < startingBefore) {
+				return MemoizedContigCaller.asUnanchoredPath(first);
+			}
+		}
+		return null;
+	}
+	/**
+	 * Number of disjoint subgraphs currently tracked
+	 */
+	public int tracking_subgraphCount() {
+		return subgraphs.size();
+	}
+	@Override
+	public int memoizedNodeCount() {
+		return subgraphs.stream().mapToInt(sg -> sg.caller.memoizedNodeCount()).sum();
+	}
+	@Override
+	public int tracking_frontierSize() {
+		return subgraphs.stream().mapToInt(sg -> sg.caller.tracking_frontierSize()).sum();
+	}
+	@Override
+	public MemoizationStats tracking_lastRemoval() {
+		return lastRemovalStats;
+	}
+	@Override
+	public void exportState(File file) throws IOException {
+		int i = 0;
+		for (Subgraph sg : subgraphs) {
+			sg.caller.exportState(new File(file.getParentFile(), file.getName() + ".subgraph" + Integer.toString(i++) + ".csv"));
+		}
+	}
+	@Override
+	public boolean sanityCheck() {
+		for (Subgraph sg : subgraphs) {
+			assert(!sg.nodes.isEmpty());
+			for (KmerPathNode node : sg.nodes) {
+				assert(lookup.get(node) == sg);
+				for (KmerPathNode adj : Iterables.concat(node.prev(), node.next())) {
+					Subgraph adjsg = lookup.get(adj);
+					assert(adjsg == null || adjsg == sg);
+				}
+			}
+			assert(sg.caller.sanityCheck());
+		}
+		assert(lookup.size() == subgraphs.stream().mapToInt(sg -> sg.nodes.size()).sum());
+		return true;
+	}
+	@Override
+	public boolean sanityCheck(Set<KmerPathNode> loadedGraph) {
+		for (KmerPathNode node : loadedGraph) {
+			if (!lookup.containsKey(node)) {
+				log.error(String.format("Sanity check failure. Node %s not in any subgraph.", node));
+			}
+			assert(lookup.containsKey(node));
+		}
+		return sanityCheck();
+	}
+	@Override
+	public boolean sanityCheckFrontier(int unprocessedPosition) {
+		for (Subgraph sg : subgraphs) {
+			assert(sg.caller.sanityCheckFrontier(unprocessedPosition));
+		}
+		return true;
+	}
+	@Override
+	public void sanityCheckMatches(MemoizedContigCaller caller) {
+		MemoizedContigCaller.sanityCheckMatches(
+				Iterables.concat(subgraphs.stream().map(sg -> sg.caller.tracking_memoizedPaths()).collect(Collectors.toList())),
+				Iterables.concat(subgraphs.stream().map(sg -> sg.caller.tracking_frontierPaths()).collect(Collectors.toList())),
+				caller);
+		if (Defaults.SANITY_CHECK_MEMOIZATION) {
+			assert(sanityCheck());
+		}
+	}
+}
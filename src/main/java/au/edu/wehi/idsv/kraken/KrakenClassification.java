@@ -1,66 +1,225 @@
 package au.edu.wehi.idsv.kraken;
 
-import joptsimple.internal.Strings;
-import org.apache.commons.lang3.tuple.Pair;
-
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Kraken2 classification of a single sequence.
+ *
+ * Fields are scanned directly from the raw bytes of the kraken2 output line.
+ * The per-kmer LCA mappings are only decoded when first requested.
+ */
 public class KrakenClassification {
-    private final String line;
+    private final byte[] buffer;
+    private final int lineStart;
+    private final int lineEnd;
+    /**
+     * Start offset of the LCA mapping field in buffer
+     */
+    private final int kmerStart;
     public final boolean isClassified;
     public final String sequenceId;
     public final int taxonomyId;
     public final int sequenceLength;
     public final int sequenceLength2;
-    public final List<KrakenKmerClassification> kmerTaxonomyIds;
-    public final List<KrakenKmerClassification> kmerTaxonomyIds2;
+    /**
+     * Decoded LCA mapping stored as consecutive taxonomy ID and kmer count pairs for both reads.
+     * Lazily populated.
+     */
+    private int[] kmers;
+    /**
+     * Number of LCA mapping pairs of the first read
+     */
+    private int read1KmerClassifications;
 
-    public String toKrakenOutput() { return line; }
+    public String toKrakenOutput() { return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8); }
+
+    /**
+     * Writes the original kraken2 output line without the trailing newline
+     */
+    public void writeKrakenOutput(OutputStream os) throws IOException {
+        os.write(buffer, lineStart, lineEnd - lineStart);
+    }
 
     public KrakenClassification(String line) {
-        this.line = line;
-        String[] fields = line.split("\t");
+        this(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the kraken2 output line stored in the given buffer.
+     * The line is copied so the buffer is not retained.
+     * @param buffer buffer containing the line
+     * @param start line start offset
+     * @param end line end offset (exclusive) not including any line terminator
+     */
+    public KrakenClassification(byte[] buffer, int start, int end) {
+        this(Arrays.copyOfRange(buffer, start, end));
+    }
+
+    private KrakenClassification(byte[] buffer) {
+        int start = 0;
+        int end = buffer.length;
+        this.buffer = buffer;
+        this.lineStart = start;
+        this.lineEnd = end;
         // "C"/"U": a one letter code indicating that the sequence was either classified or unclassified.
-        this.isClassified = "C".equals(fields[0]);
+        int fieldEnd = nextTab(start);
+        this.isClassified = fieldEnd - start == 1 && buffer[start] == 'C';
         // The sequence ID, obtained from the FASTA/FASTQ header.
-        this.sequenceId = fields[1];
+        int fieldStart = fieldEnd + 1;
+        fieldEnd = nextTab(fieldStart);
+        this.sequenceId = new String(buffer, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8);
         // The taxonomy ID Kraken 2 used to label the sequence; this is 0 if the sequence is unclassified.
-        this.taxonomyId = Integer.parseInt(fields[2]);
+        fieldStart = fieldEnd + 1;
+        fieldEnd = nextTab(fieldStart);
+        this.taxonomyId = parseInt(fieldStart, fieldEnd);
         // The length of the sequence in bp. In the case of paired read data, this will be a string containing the lengths of the two sequences in bp, separated by a pipe character, e.g. "98|94".
-        String[] lengths = fields[3].split("[|]");
-        this.sequenceLength = Integer.parseInt(lengths[0]);
-        this.sequenceLength2 = (lengths.length < 2 || Strings.isNullOrEmpty(lengths[1])) ? 0 : Integer.parseInt(lengths[1]);
-        Pair<List<KrakenKmerClassification>, List<KrakenKmerClassification>> kmers = fields.length >= 5 ? parseKmerClassifications(fields[4]) : Pair.of(Collections.emptyList(), Collections.emptyList());
-        this.kmerTaxonomyIds = kmers.getLeft();
-        this.kmerTaxonomyIds2 = kmers.getRight();
+        fieldStart = fieldEnd + 1;
+        fieldEnd = nextTab(fieldStart);
+        int pipe = indexOf('|', fieldStart, fieldEnd);
+        this.sequenceLength = parseInt(fieldStart, pipe);
+        this.sequenceLength2 = pipe + 1 >= fieldEnd ? 0 : parseInt(pipe + 1, fieldEnd);
+        this.kmerStart = Math.min(fieldEnd + 1, end);
+    }
+
+    private int nextTab(int offset) {
+        return indexOf('\t', offset, lineEnd);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) return i;
+        }
+        return to;
+    }
+
+    private int parseInt(int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Missing integer in Kraken2 output line: " + toKrakenOutput());
+        }
+        boolean negative = buffer[start] == '-';
+        int i = negative ? start + 1 : start;
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer '" + new String(buffer, start, end - start, StandardCharsets.UTF_8) + "' in Kraken2 output line: " + toKrakenOutput());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static final int READ_SEPARATOR_LENGTH = 3;
+
+    /**
+     * Checks for the "|:|" paired read separator at the given offset
+     */
+    private boolean isReadSeparator(int offset) {
+        return offset + READ_SEPARATOR_LENGTH <= lineEnd
+                && buffer[offset] == '|'
+                && buffer[offset + 1] == ':'
+                && buffer[offset + 2] == '|';
     }
+
     /**
      * A space-delimited list indicating the LCA mapping of each k-mer in the sequence(s). For example, "562:13 561:4 A:31 0:1 562:3" would indicate that:
      * When Kraken 2 is run against a protein database (see [Translated Search]), the LCA hitlist will contain the results of querying all six frames of each sequence. Reading frame data is separated by a "-:-" token.
      * Note that paired read data will contain a "|:|" token in this list to indicate the end of one read and the beginning of another.
-     * @param str
-     * @return
      */
-    private static Pair<List<KrakenKmerClassification>, List<KrakenKmerClassification>> parseKmerClassifications(String str) {
-        List<KrakenKmerClassification> read1 = Collections.emptyList();
-        List<KrakenKmerClassification> read2 = Collections.emptyList();
-        String[] readSplit = str.split("[|][:][|]");
-        if (!Strings.isNullOrEmpty(readSplit[0])) {
-            read1 = new ArrayList<>();
-            for (String s : readSplit[0].split(" ")) {
-                if (!Strings.isNullOrEmpty(s)) {
-                    read1.add(new KrakenKmerClassification(s));
+    private void ensureKmersParsed() {
+        if (kmers != null) return;
+        int[] result = new int[16];
+        int size = 0;
+        int read1Size = -1;
+        int tokenStart = kmerStart;
+        while (tokenStart < lineEnd) {
+            if (isReadSeparator(tokenStart)) {
+                if (read1Size < 0) {
+                    read1Size = size;
                 }
+                tokenStart += READ_SEPARATOR_LENGTH;
+                continue;
             }
-        }
-        if (readSplit.length >= 2 && !Strings.isNullOrEmpty(readSplit[1])) {
-            read2 = new ArrayList<>();
-            for (String s : readSplit[1].split(" ")) {
-                read2.add(new KrakenKmerClassification(s));
+            int tokenEnd = tokenStart;
+            while (tokenEnd < lineEnd && buffer[tokenEnd] != ' ' && !isReadSeparator(tokenEnd)) {
+                tokenEnd++;
+            }
+            if (tokenEnd > tokenStart) {
+                int colon = indexOf(':', tokenStart, tokenEnd);
+                byte first = buffer[tokenStart];
+                // skip "-:-" reading frame separators
+                if (first != '-') {
+                    if (size + 2 > result.length) {
+                        int[] grown = new int[result.length * 2];
+                        System.arraycopy(result, 0, grown, 0, size);
+                        result = grown;
+                    }
+                    result[size] = colon - tokenStart == 1 && first == 'A' ? KrakenKmerClassification.AMBIGUOUS : parseInt(tokenStart, colon);
+                    result[size + 1] = colon + 1 >= tokenEnd ? 0 : parseInt(colon + 1, tokenEnd);
+                    size += 2;
+                }
             }
+            tokenStart = tokenEnd < lineEnd && buffer[tokenEnd] == ' ' ? tokenEnd + 1 : tokenEnd;
+        }
+        if (read1Size < 0) {
+            read1Size = size;
+        }
+        int[] trimmed = new int[size];
+        System.arraycopy(result, 0, trimmed, 0, size);
+        this.read1KmerClassifications = read1Size / 2;
+        this.kmers = trimmed;
+    }
+
+    /**
+     * Number of kmer LCA mappings for the given read
+     * @param read 0 for the first read, 1 for the second read of a read pair
+     */
+    public int getKmerClassificationCount(int read) {
+        ensureKmersParsed();
+        return read == 0 ? read1KmerClassifications : kmers.length / 2 - read1KmerClassifications;
+    }
+
+    /**
+     * Taxonomy ID of the given kmer LCA mapping. Ambiguous kmers are KrakenKmerClassification.AMBIGUOUS
+     * @param read 0 for the first read, 1 for the second read of a read pair
+     * @param index LCA mapping index within the read
+     */
+    public int getKmerTaxonomyId(int read, int index) {
+        ensureKmersParsed();
+        return kmers[2 * (read == 0 ? index : read1KmerClassifications + index)];
+    }
+
+    /**
+     * Number of kmers in the given kmer LCA mapping
+     * @param read 0 for the first read, 1 for the second read of a read pair
+     * @param index LCA mapping index within the read
+     */
+    public int getKmerCount(int read, int index) {
+        ensureKmersParsed();
+        return kmers[2 * (read == 0 ? index : read1KmerClassifications + index) + 1];
+    }
+
+    private List<KrakenKmerClassification> getKmerClassifications(int read) {
+        int count = getKmerClassificationCount(read);
+        if (count == 0) return Collections.emptyList();
+        List<KrakenKmerClassification> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new KrakenKmerClassification(getKmerTaxonomyId(read, i), getKmerCount(read, i)));
         }
-        return Pair.of(read1, read2);
+        return list;
+    }
+
+    public List<KrakenKmerClassification> getKmerTaxonomyIds() {
+        return getKmerClassifications(0);
+    }
+
+    public List<KrakenKmerClassification> getKmerTaxonomyIds2() {
+        return getKmerClassifications(1);
     }
 }
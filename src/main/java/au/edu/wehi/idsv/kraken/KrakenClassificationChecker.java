@@ -1,15 +1,11 @@
 package au.edu.wehi.idsv.kraken;
 
-import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
-import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import au.edu.wehi.idsv.ncbi.NcbiTaxonomy;
 import htsjdk.samtools.util.Log;
-import org.apache.commons.collections4.iterators.ReverseListIterator;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Checks whether this read could be part of the given taxonomic subset.
@@ -33,47 +29,60 @@ public class KrakenClassificationChecker {
      */
     private final boolean[] badTaxId;
     public KrakenClassificationChecker(List<Integer> taxonomyIdOfInterest, File nodesdmp) throws IOException {
+        this(taxonomyIdOfInterest, nodesdmp, null);
+    }
+
+    /**
+     * @param taxonomyIdOfInterest taxonomy IDs of interest
+     * @param nodesdmp NCBI nodes.dmp
+     * @param taxonomyCache binary NCBI taxonomy cache. Not used if null.
+     */
+    public KrakenClassificationChecker(List<Integer> taxonomyIdOfInterest, File nodesdmp, File taxonomyCache) throws IOException {
+        this(taxonomyIdOfInterest, loadTaxonomy(nodesdmp, taxonomyCache));
+    }
+
+    public KrakenClassificationChecker(List<Integer> taxonomyIdOfInterest, NcbiTaxonomy taxonomy) {
+        this.goodTaxId = taxonomy.createInclusionLookup(taxonomyIdOfInterest);
+        this.badTaxId = setupBadTaxId(goodTaxId, taxonomy, taxonomyIdOfInterest);
+    }
+
+    private static NcbiTaxonomy loadTaxonomy(File nodesdmp, File taxonomyCache) throws IOException {
         log.info("Loading NCBI taxonomy from ", nodesdmp);
-        Map<Integer, MinimalTaxonomyNode> lookup = TaxonomyHelper.parseMinimal(nodesdmp);
-        this.goodTaxId = TaxonomyHelper.createInclusionLookup(taxonomyIdOfInterest, lookup);
-        this.badTaxId = setupBadTaxId(goodTaxId, lookup, taxonomyIdOfInterest);
+        return NcbiTaxonomy.load(nodesdmp, taxonomyCache);
     }
 
-    private boolean[] setupBadTaxId(boolean[] goodTaxId, Map<Integer, MinimalTaxonomyNode> lookup, List<Integer> taxonomyIdOfInterest) {
+    private static boolean[] setupBadTaxId(boolean[] goodTaxId, NcbiTaxonomy taxonomy, List<Integer> taxonomyIdOfInterest) {
+        boolean[] ofInterest = new boolean[goodTaxId.length];
+        for (int taxId : taxonomyIdOfInterest) {
+            ofInterest[taxId] = true;
+        }
+        boolean[] ancestors = taxonomy.addAncestors(ofInterest);
         boolean[] badTaxId = new boolean[goodTaxId.length];
         for (int i = 0 ; i < goodTaxId.length; i++) {
-            badTaxId[i] = !goodTaxId[i];
-        }
-        for (int ancestorTaxId : taxonomyIdOfInterest) {
-            int lastTaxId = -1;
-            while (ancestorTaxId != lastTaxId) {
-                badTaxId[ancestorTaxId] = false;
-                lastTaxId = ancestorTaxId;
-                ancestorTaxId = lookup.get(ancestorTaxId).parentTaxId;
-
-            }
+            badTaxId[i] = !goodTaxId[i] && !ancestors[i];
         }
         return badTaxId;
     }
 
     public boolean isOfInterest(KrakenClassification kc) {
         if (goodTaxId[kc.taxonomyId]) return true;
-        return isOfInterest(kc.kmerTaxonomyIds) || isOfInterest(kc.kmerTaxonomyIds2);
+        return isOfInterest(kc, 0) || isOfInterest(kc, 1);
     }
-    private boolean isOfInterest(List<KrakenKmerClassification> read) {
-        return !read.isEmpty() && (
-                isOfInterest(read.iterator()) || isOfInterest(new ReverseListIterator<>(read)));
+    private boolean isOfInterest(KrakenClassification kc, int read) {
+        int count = kc.getKmerClassificationCount(read);
+        return count > 0 && (
+                isOfInterest(kc, read, 0, count, 1) || isOfInterest(kc, read, count - 1, -1, -1));
     }
-    private boolean isOfInterest(Iterator<KrakenKmerClassification> it) {
+    private boolean isOfInterest(KrakenClassification kc, int read, int from, int to, int step) {
         // Traverse towards the middle of the read
         // if we find at least one good kmer and any number of ambiguous kmers
         // then we might be a split read to a taxonomic sequence of interest
         boolean foundGood = false;
-        while (it.hasNext()) {
-            KrakenKmerClassification kkc = it.next();
-            if (kkc.taxonomyId != KrakenKmerClassification.AMBIGUOUS) {
-                foundGood |= goodTaxId[kkc.taxonomyId];
-                if (badTaxId[kkc.taxonomyId]) {
+        for (int i = from; i != to; i += step) {
+            int taxonomyId = kc.getKmerTaxonomyId(read, i);
+            if (taxonomyId != KrakenKmerClassification.AMBIGUOUS) {
+                foundGood |= goodTaxId[taxonomyId];
+                if (badTaxId[taxonomyId]) {
                     break;
                 }
             }
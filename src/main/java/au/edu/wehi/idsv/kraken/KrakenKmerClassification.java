@@ -11,4 +11,8 @@ public class KrakenKmerClassification {
         taxonomyId = fields[0].equals("A") ? AMBIGUOUS : Integer.parseInt(fields[0]);
         kmerCount = (fields.length < 2 || Strings.isNullOrEmpty(fields[1])) ? 0 : Integer.parseInt(fields[1]);
     }
+    public KrakenKmerClassification(int taxonomyId, int kmerCount) {
+        this.taxonomyId = taxonomyId;
+        this.kmerCount = kmerCount;
+    }
 }
@@ -1,37 +1,101 @@
 package au.edu.wehi.idsv.kraken;
 
 import htsjdk.samtools.util.RuntimeIOException;
-import joptsimple.internal.Strings;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
 
+/**
+ * Parses kraken2 output.
+ *
+ * The input is read in line-aligned blocks of raw bytes and each block is
+ * parsed as a single task. When a thread pool is supplied, multiple blocks
+ * are parsed in parallel. Classifications are returned in input order
+ * unless the caller indicates that ordering is not required, in which case
+ * blocks are returned in order of completion.
+ */
 public class KrakenParser implements Closeable, Iterator<KrakenClassification> {
-    private final BufferedReader krakenOutput;
-    private String nextLine = null;
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+    private final InputStream krakenOutput;
+    private final Executor threadpool;
+    private final int blocksInFlight;
+    private final boolean ordered;
+    private final Predicate<KrakenClassification> filter;
+    private final int blockSize;
+    /**
+     * Blocks that have been read but not yet returned, in input order
+     */
+    private final Deque<FutureTask<List<KrakenClassification>>> pending = new ArrayDeque<>();
+    /**
+     * Parsed blocks in order of completion. Only used for unordered parsing.
+     */
+    private final LinkedBlockingQueue<FutureTask<List<KrakenClassification>>> completed = new LinkedBlockingQueue<>();
+    /**
+     * Partial line at the end of the last block read
+     */
+    private byte[] carry = new byte[0];
+    private int carryStart = 0;
+    private int carryEnd = 0;
+    private boolean eof = false;
+    private List<KrakenClassification> current = Collections.emptyList();
+    private int currentOffset = 0;
 
-    public KrakenParser(BufferedReader krakenOutput) {
+    /**
+     * Parses the given kraken2 output on the calling thread.
+     */
+    public KrakenParser(InputStream krakenOutput) {
+        this(krakenOutput, null, 1, true, null);
+    }
+
+    /**
+     * Parses the given kraken2 output
+     * @param krakenOutput kraken2 output
+     * @param threadpool thread pool to parse blocks on. Blocks are parsed on the calling thread if null.
+     * @param blocksInFlight maximum number of blocks to read ahead
+     * @param ordered return classifications in input order.
+     * @param filter only classifications matching this filter are returned.
+     *               The filter is applied on the thread pool and must be thread-safe.
+     */
+    public KrakenParser(InputStream krakenOutput, Executor threadpool, int blocksInFlight, boolean ordered, Predicate<KrakenClassification> filter) {
+        this(krakenOutput, threadpool, blocksInFlight, ordered, filter, DEFAULT_BLOCK_SIZE);
+    }
+
+    KrakenParser(InputStream krakenOutput, Executor threadpool, int blocksInFlight, boolean ordered, Predicate<KrakenClassification> filter, int blockSize) {
         this.krakenOutput = krakenOutput;
+        this.threadpool = threadpool;
+        this.blocksInFlight = Math.max(1, blocksInFlight);
+        this.ordered = ordered;
+        this.filter = filter;
+        this.blockSize = Math.max(1, blockSize);
     }
 
     @Override
     public void close() throws IOException {
+        for (FutureTask<List<KrakenClassification>> task : pending) {
+            task.cancel(false);
+        }
+        pending.clear();
         krakenOutput.close();
     }
 
     @Override
     public boolean hasNext() {
-        if (nextLine == null) {
-            try {
-                nextLine = krakenOutput.readLine();
-            } catch (IOException e) {
-                throw new RuntimeIOException(e);
+        while (currentOffset >= current.size()) {
+            fill();
+            if (pending.isEmpty()) {
+                return false;
             }
+            current = nextBlock();
+            currentOffset = 0;
         }
-        return !Strings.isNullOrEmpty(nextLine);
+        return true;
     }
 
     @Override
@@ -39,8 +103,130 @@ public class KrakenParser implements Closeable, Iterator<KrakenClassification> {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        KrakenClassification kc = new KrakenClassification(nextLine);
-        nextLine = null;
-        return kc;
+        return current.get(currentOffset++);
+    }
+
+    /**
+     * Reads blocks until the read ahead limit is reached
+     */
+    private void fill() {
+        while (!eof && pending.size() < blocksInFlight) {
+            try {
+                readBlock();
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+    }
+
+    private void readBlock() throws IOException {
+        int carryLength = carryEnd - carryStart;
+        byte[] block = new byte[Math.max(blockSize, 2 * carryLength)];
+        System.arraycopy(carry, carryStart, block, 0, carryLength);
+        int length = carryLength;
+        int lineEnd = -1;
+        while (lineEnd < 0) {
+            if (length == block.length) {
+                // line longer than the block size
+                block = Arrays.copyOf(block, 2 * block.length);
+            }
+            int searchFrom = length;
+            int read = krakenOutput.read(block, length, block.length - length);
+            if (read < 0) {
+                eof = true;
+                lineEnd = length;
+                break;
+            }
+            length += read;
+            if (length == block.length) {
+                lineEnd = lastIndexOf(block, '\n', searchFrom, length);
+            }
+        }
+        if (eof) {
+            carryStart = carryEnd = 0;
+        } else {
+            // partial line is carried over to the next block
+            carry = block;
+            carryStart = lineEnd + 1;
+            carryEnd = length;
+        }
+        if (lineEnd > 0) {
+            submit(block, lineEnd);
+        }
+    }
+
+    private static int lastIndexOf(byte[] buffer, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private void submit(byte[] block, int length) {
+        FutureTask<List<KrakenClassification>> task;
+        if (ordered) {
+            task = new FutureTask<>(() -> parse(block, length, filter));
+        } else {
+            task = new FutureTask<List<KrakenClassification>>(() -> parse(block, length, filter)) {
+                @Override
+                protected void done() {
+                    completed.add(this);
+                }
+            };
+        }
+        pending.add(task);
+        if (threadpool != null) {
+            threadpool.execute(task);
+        }
+    }
+
+    private List<KrakenClassification> nextBlock() {
+        FutureTask<List<KrakenClassification>> task;
+        try {
+            if (ordered) {
+                task = pending.poll();
+                // parse on this thread if the block has not yet been scheduled
+                task.run();
+            } else {
+                task = completed.poll();
+                if (task == null) {
+                    pending.peek().run();
+                    task = completed.take();
+                }
+                pending.remove(task);
+            }
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Parses all lines in the given block
+     */
+    private static List<KrakenClassification> parse(byte[] block, int length, Predicate<KrakenClassification> filter) {
+        List<KrakenClassification> result = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && block[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > lineStart && block[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                KrakenClassification kc = new KrakenClassification(block, lineStart, contentEnd);
+                if (filter == null || filter.test(kc)) {
+                    result.add(kc);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return result;
     }
 }
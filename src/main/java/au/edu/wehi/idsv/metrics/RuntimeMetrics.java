@@ -0,0 +1,126 @@
+package au.edu.wehi.idsv.metrics;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.visualisation.TrackedBuffer;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Structured runtime metrics reported as JDK Flight Recorder events.
+ *
+ * Events are only recorded when a flight recording is active
+ * (e.g. java -XX:StartFlightRecording=filename=gridss.jfr,settings=profile ...)
+ * and can be summarised offline using gridss.SummariseRuntimeMetrics.
+ *
+ * When Flight Recorder is not supported by the JVM, has been disabled
+ * by the gridss.jfr system property, or GRIDSS was built on a JDK without
+ * the Flight Recorder API, all methods are no-ops.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class RuntimeMetrics {
+	private static final Log log = Log.getInstance(RuntimeMetrics.class);
+	/**
+	 * Scope of a timed operation. The operation completes when the scope is closed.
+	 */
+	public interface MetricScope extends AutoCloseable {
+		@Override
+		void close();
+	}
+	/**
+	 * Tracks the number of records passing through an iterator
+	 */
+	public interface ThroughputMonitor extends AutoCloseable {
+		void record();
+		@Override
+		void close();
+	}
+	private static final MetricScope NOOP_SCOPE = () -> { };
+	private static final ThroughputMonitor NOOP_MONITOR = new ThroughputMonitor() {
+		@Override
+		public void record() {
+		}
+		@Override
+		public void close() {
+		}
+	};
+	private static final String FLIGHT_RECORDER_BACKEND = "au.edu.wehi.idsv.metrics.jfr.JfrRuntimeMetrics";
+	private static final RuntimeMetricsRecorder RECORDER = loadFlightRecorderBackend();
+	/**
+	 * Indicates whether runtime metric events can be recorded.
+	 */
+	public static final boolean ENABLED = RECORDER != null;
+	private static RuntimeMetricsRecorder loadFlightRecorderBackend() {
+		if (!gridss.Defaults.JFR_EVENTS) return null;
+		try {
+			// reflection ensures no jdk.jfr classes are loaded on JVMs without Flight Recorder support
+			Class<?> fr = Class.forName("jdk.jfr.FlightRecorder");
+			if (!(Boolean)fr.getMethod("isAvailable").invoke(null)) return null;
+			// the backend is absent when GRIDSS is built on a JDK without the Flight Recorder API
+			return (RuntimeMetricsRecorder)Class.forName(FLIGHT_RECORDER_BACKEND).getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			log.debug("Flight Recorder not available: runtime metrics disabled.");
+			return null;
+		}
+	}
+	/**
+	 * Records the processing of a chunk
+	 * @param stage processing stage
+	 * @param chunkNumber chunk number
+	 * @param direction breakend direction being processed. Can be null.
+	 * @param dict sequence dictionary
+	 * @param chunk genomic intervals in the chunk
+	 * @return scope to close once the chunk has been processed
+	 */
+	public static MetricScope chunk(String stage, int chunkNumber, BreakendDirection direction, SAMSequenceDictionary dict, QueryInterval[] chunk) {
+		if (!ENABLED) return NOOP_SCOPE;
+		return RECORDER.chunk(stage, chunkNumber, direction, dict, chunk);
+	}
+	/**
+	 * Records an incremental positional assembly operation
+	 * @param operation assembly operation
+	 * @param contig chromosome
+	 * @param start start position of the assembly window
+	 * @param end end position of the assembly window
+	 * @param count number of nodes/reads/contigs processed
+	 * @param filtered window was excluded from assembly
+	 * @param nsSinceLast nanoseconds since the previous operation of this type
+	 */
+	public static void assemblyWindow(String operation, String contig, int start, int end, int count, boolean filtered, long nsSinceLast) {
+		if (!ENABLED) return;
+		RECORDER.assemblyWindow(operation, contig, start, end, count, filtered, nsSinceLast);
+	}
+	/**
+	 * Records the alignment of a batch of reads
+	 * @param aligner aligner name
+	 * @param records number of reads in the batch
+	 * @param bases number of bases in the batch
+	 * @return scope to close once the batch has been aligned
+	 */
+	public static MetricScope alignerBatch(String aligner, int records, long bases) {
+		if (!ENABLED) return NOOP_SCOPE;
+		return RECORDER.alignerBatch(aligner, records, bases);
+	}
+	/**
+	 * Creates a throughput monitor for an iterator
+	 * @param name iterator name
+	 * @return monitor to be notified of each record
+	 */
+	public static ThroughputMonitor throughput(String name) {
+		if (!ENABLED) return NOOP_MONITOR;
+		return RECORDER.throughput(name);
+	}
+	/**
+	 * Periodically records the size of the given buffer.
+	 * Tracking stops when the buffer is garbage collected.
+	 * @param context buffer context
+	 * @param obj buffer
+	 */
+	public static void registerBuffer(String context, TrackedBuffer obj) {
+		if (!ENABLED) return;
+		obj.setTrackedBufferContext(context);
+		RECORDER.registerBuffer(obj);
+	}
+}
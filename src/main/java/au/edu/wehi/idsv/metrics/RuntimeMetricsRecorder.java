@@ -0,0 +1,24 @@
+package au.edu.wehi.idsv.metrics;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.ThroughputMonitor;
+import au.edu.wehi.idsv.visualisation.TrackedBuffer;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+
+/**
+ * Backend that records runtime metrics.
+ *
+ * The Flight Recorder backend is only compiled on JDK 11+ and is loaded
+ * by reflection so the remainder of GRIDSS builds and runs without it.
+ *
+ * @see RuntimeMetrics
+ */
+public interface RuntimeMetricsRecorder {
+	MetricScope chunk(String stage, int chunkNumber, BreakendDirection direction, SAMSequenceDictionary dict, QueryInterval[] chunk);
+	void assemblyWindow(String operation, String contig, int start, int end, int count, boolean filtered, long nsSinceLast);
+	MetricScope alignerBatch(String aligner, int records, long bases);
+	ThroughputMonitor throughput(String name);
+	void registerBuffer(TrackedBuffer obj);
+}
@@ -0,0 +1,403 @@
+package au.edu.wehi.idsv.ncbi;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Array-backed NCBI taxonomy tree.
+ *
+ * Nodes are indexed directly by taxonomy ID. In addition to the parent of each
+ * node, the pre-order (Euler tour) position of each node and the end of its
+ * subtree is stored so subtree inclusion can be determined by an interval
+ * comparison instead of walking the ancestors of every node.
+ *
+ * The taxonomy can be cached as a binary file which is memory mapped on
+ * subsequent loads.
+ */
+public class NcbiTaxonomy {
+    private static final Log log = Log.getInstance(NcbiTaxonomy.class);
+    public static final String CACHE_EXTENSION = ".gridsstax";
+    /**
+     * Parent of taxonomy IDs not in the taxonomy.
+     */
+    public static final int NOT_IN_TAXONOMY = -1;
+    private static final int MAGIC = 0x47544158; // GTAX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    /**
+     * Parent taxonomy ID of each node
+     */
+    private final IntBuffer parent;
+    /**
+     * Pre-order traversal position of each node. Nodes unreachable from a root have a position of -1.
+     */
+    private final IntBuffer enter;
+    /**
+     * Pre-order traversal position immediately after the last descendant of each node
+     */
+    private final IntBuffer exit;
+    private final int length;
+    private final int nodeCount;
+
+    private NcbiTaxonomy(IntBuffer parent, IntBuffer enter, IntBuffer exit, int nodeCount) {
+        this.parent = parent;
+        this.enter = enter;
+        this.exit = exit;
+        this.length = parent.capacity();
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Creates a taxonomy from the given parent lookup.
+     * @param parent parent taxonomy ID of each node indexed by taxonomy ID. Root nodes are their own parent.
+     *               Taxonomy IDs not in the taxonomy have a parent of NOT_IN_TAXONOMY
+     */
+    public static NcbiTaxonomy fromParents(int[] parent) {
+        int length = parent.length;
+        int nodeCount = 0;
+        // children in compressed sparse row format
+        int[] childOffset = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            if (parent[i] != NOT_IN_TAXONOMY) {
+                nodeCount++;
+                if (isChild(parent, i)) {
+                    childOffset[parent[i] + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            childOffset[i + 1] += childOffset[i];
+        }
+        int[] children = new int[childOffset[length]];
+        int[] fill = Arrays.copyOf(childOffset, length);
+        for (int i = 0; i < length; i++) {
+            if (parent[i] != NOT_IN_TAXONOMY && isChild(parent, i)) {
+                children[fill[parent[i]]++] = i;
+            }
+        }
+        int[] enter = new int[length];
+        int[] exit = new int[length];
+        Arrays.fill(enter, -1);
+        Arrays.fill(exit, -1);
+        int[] stack = new int[nodeCount + 1];
+        int[] nextChild = new int[nodeCount + 1];
+        int position = 0;
+        for (int root = 0; root < length; root++) {
+            if (parent[root] == NOT_IN_TAXONOMY || isChild(parent, root)) continue;
+            int depth = 0;
+            stack[0] = root;
+            nextChild[0] = childOffset[root];
+            enter[root] = position++;
+            while (depth >= 0) {
+                int node = stack[depth];
+                if (nextChild[depth] < childOffset[node + 1]) {
+                    int child = children[nextChild[depth]++];
+                    if (enter[child] >= 0) continue;
+                    depth++;
+                    stack[depth] = child;
+                    nextChild[depth] = childOffset[child];
+                    enter[child] = position++;
+                } else {
+                    exit[node] = position;
+                    depth--;
+                }
+            }
+        }
+        return new NcbiTaxonomy(IntBuffer.wrap(parent), IntBuffer.wrap(enter), IntBuffer.wrap(exit), nodeCount);
+    }
+
+    /**
+     * Determines whether the given node is a child of a node in the taxonomy.
+     * Nodes that are their own parent, or whose parent is missing from the taxonomy, are roots.
+     */
+    private static boolean isChild(int[] parent, int taxId) {
+        int p = parent[taxId];
+        return p != taxId && p >= 0 && p < parent.length && parent[p] != NOT_IN_TAXONOMY;
+    }
+
+    /**
+     * Parses nodes.dmp from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip
+     *
+     * Only the taxonomy ID and parent taxonomy ID fields are parsed.
+     * @param nodesdmp nodes.dmp file
+     */
+    public static NcbiTaxonomy parse(File nodesdmp) throws IOException {
+        int[] parent = new int[1 << 16];
+        Arrays.fill(parent, NOT_IN_TAXONOMY);
+        int maxTaxId = -1;
+        try (ByteReader is = new ByteReader(new FileInputStream(nodesdmp))) {
+            int lineNumber = 1;
+            int c = is.read();
+            while (c >= 0) {
+                if (c == '\n') {
+                    lineNumber++;
+                    c = is.read();
+                    continue;
+                }
+                // taxonomy ID
+                long taxId = 0;
+                int digits = 0;
+                while (c >= '0' && c <= '9') {
+                    taxId = taxId * 10 + c - '0';
+                    digits++;
+                    c = is.read();
+                }
+                // field separator
+                while (c == '\t' || c == '|') {
+                    c = is.read();
+                }
+                // parent taxonomy ID
+                long parentTaxId = 0;
+                int parentDigits = 0;
+                while (c >= '0' && c <= '9') {
+                    parentTaxId = parentTaxId * 10 + c - '0';
+                    parentDigits++;
+                    c = is.read();
+                }
+                if (digits == 0 || parentDigits == 0 || digits > 9 || parentDigits > 9) {
+                    throw new IllegalArgumentException(String.format("Unable to parse line %d of %s", lineNumber, nodesdmp));
+                }
+                // ignore remaining fields
+                while (c >= 0 && c != '\n') {
+                    c = is.read();
+                }
+                int maxId = (int)Math.max(taxId, parentTaxId);
+                if (maxId >= parent.length) {
+                    int oldLength = parent.length;
+                    parent = Arrays.copyOf(parent, Math.max(maxId + 1, 2 * oldLength));
+                    Arrays.fill(parent, oldLength, parent.length, NOT_IN_TAXONOMY);
+                }
+                parent[(int)taxId] = (int)parentTaxId;
+                maxTaxId = Math.max(maxTaxId, (int)taxId);
+            }
+        }
+        return fromParents(Arrays.copyOf(parent, maxTaxId + 1));
+    }
+
+    /**
+     * Unsynchronised buffered byte reader
+     */
+    private static class ByteReader implements Closeable {
+        private final InputStream is;
+        private final byte[] buffer = new byte[1 << 20];
+        private int offset = 0;
+        private int length = 0;
+        public ByteReader(InputStream is) {
+            this.is = is;
+        }
+        public int read() throws IOException {
+            if (offset >= length) {
+                length = is.read(buffer);
+                offset = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[offset++] & 0xff;
+        }
+        @Override
+        public void close() throws IOException {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads the NCBI taxonomy, using the given binary cache if it is up to date.
+     * If the cache is missing or out of date, nodes.dmp is parsed and the cache recreated.
+     * @param nodesdmp nodes.dmp file
+     * @param cache binary taxonomy cache file. The cache is not used if null.
+     */
+    public static NcbiTaxonomy load(File nodesdmp, File cache) throws IOException {
+        if (cache == null) {
+            return parse(nodesdmp);
+        }
+        if (cache.exists()) {
+            NcbiTaxonomy taxonomy = readCache(cache, nodesdmp);
+            if (taxonomy != null) {
+                return taxonomy;
+            }
+            log.info("Ignoring out of date NCBI taxonomy cache ", cache);
+        }
+        NcbiTaxonomy taxonomy = parse(nodesdmp);
+        try {
+            taxonomy.writeCache(cache, nodesdmp);
+        } catch (IOException e) {
+            log.warn(e, "Unable to write NCBI taxonomy cache to ", cache);
+        }
+        return taxonomy;
+    }
+
+    /**
+     * Default binary cache location for the given nodes.dmp file
+     */
+    public static File getDefaultCacheFile(File nodesdmp) {
+        return new File(nodesdmp.getPath() + CACHE_EXTENSION);
+    }
+
+    private void writeCache(File cache, File nodesdmp) throws IOException {
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nodesdmp.length());
+            out.writeLong(nodesdmp.lastModified());
+            out.writeInt(length);
+            out.writeInt(nodeCount);
+            for (IntBuffer buffer : new IntBuffer[] { parent, enter, exit }) {
+                for (int i = 0; i < length; i++) {
+                    out.writeInt(buffer.get(i));
+                }
+            }
+        }
+        Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Memory maps the given binary cache
+     * @return taxonomy or null if the cache was not created from the given nodes.dmp
+     */
+    private static NcbiTaxonomy readCache(File cache, File nodesdmp) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r")) {
+            if (raf.length() < HEADER_SIZE
+                    || raf.readInt() != MAGIC
+                    || raf.readInt() != VERSION
+                    || raf.readLong() != nodesdmp.length()
+                    || raf.readLong() != nodesdmp.lastModified()) {
+                return null;
+            }
+            int length = raf.readInt();
+            int nodeCount = raf.readInt();
+            long arraySize = 4L * length;
+            if (raf.length() != HEADER_SIZE + 3 * arraySize) {
+                return null;
+            }
+            FileChannel channel = raf.getChannel();
+            IntBuffer[] buffers = new IntBuffer[3];
+            for (int i = 0; i < buffers.length; i++) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + i * arraySize, arraySize);
+                buffers[i] = mapped.asIntBuffer();
+            }
+            return new NcbiTaxonomy(buffers[0], buffers[1], buffers[2], nodeCount);
+        }
+    }
+
+    /**
+     * Largest taxonomy ID in the taxonomy
+     */
+    public int maxTaxId() {
+        return length - 1;
+    }
+
+    /**
+     * Number of nodes in the taxonomy
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    public boolean contains(int taxId) {
+        return taxId >= 0 && taxId < length && parent.get(taxId) != NOT_IN_TAXONOMY;
+    }
+
+    /**
+     * Parent taxonomy ID of the given node
+     * @return parent taxonomy ID, or NOT_IN_TAXONOMY if the node is not in the taxonomy
+     */
+    public int getParent(int taxId) {
+        if (taxId < 0 || taxId >= length) return NOT_IN_TAXONOMY;
+        return parent.get(taxId);
+    }
+
+    /**
+     * Determines whether the given node is in the subtree rooted at the given ancestor.
+     * A node is considered to be in its own subtree.
+     */
+    public boolean isInSubtree(int taxId, int ancestorTaxId) {
+        if (!contains(taxId) || !contains(ancestorTaxId)) return false;
+        int position = enter.get(taxId);
+        return taxId == ancestorTaxId || (position >= 0 && enter.get(ancestorTaxId) <= position && position < exit.get(ancestorTaxId));
+    }
+
+    /**
+     * Creates a lookup table indicating whether that node is included, or is a child of
+     * any of the given NCBI taxonomy IDs.
+     * @param taxIds taxonomy IDs to search for
+     * @return lookup table of inclusion(true) or exclusion(false) any of the given taxonomy IDs.
+     */
+    public boolean[] createInclusionLookup(Collection<Integer> taxIds) {
+        boolean[] result = new boolean[length];
+        // coverage of each pre-order position by the subtree intervals
+        int[] delta = new int[nodeCount + 1];
+        for (int id : taxIds) {
+            if (id >= 0 && id < length) {
+                result[id] = true;
+                if (contains(id) && enter.get(id) >= 0) {
+                    delta[enter.get(id)]++;
+                    delta[exit.get(id)]--;
+                }
+            }
+        }
+        for (int i = 1; i < delta.length; i++) {
+            delta[i] += delta[i - 1];
+        }
+        for (int i = 0; i < length; i++) {
+            int position = enter.get(i);
+            if (position >= 0 && delta[position] > 0) {
+                result[i] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a lookup table indicating which taxonomy IDs do not have any children.
+     * Taxonomy IDs not in the taxonomy are considered leaves.
+     */
+    public boolean[] leafNodes() {
+        boolean[] result = new boolean[length];
+        Arrays.fill(result, true);
+        for (int i = 0; i < length; i++) {
+            int p = parent.get(i);
+            if (p >= 0 && p < length) {
+                result[p] = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Extends the given taxa to include all their ancestors
+     * @param taxa lookup table of taxa indexed by taxonomy ID
+     * @return lookup table of the given taxa and their ancestors
+     */
+    public boolean[] addAncestors(boolean[] taxa) {
+        boolean[] result = Arrays.copyOf(taxa, taxa.length);
+        // number of flagged nodes at or before each pre-order position
+        int[] flagged = new int[nodeCount + 1];
+        for (int i = 0; i < Math.min(taxa.length, length); i++) {
+            int position = enter.get(i);
+            if (taxa[i] && position >= 0) {
+                flagged[position + 1]++;
+            }
+        }
+        for (int i = 1; i < flagged.length; i++) {
+            flagged[i] += flagged[i - 1];
+        }
+        for (int i = 0; i < Math.min(taxa.length, length); i++) {
+            int position = enter.get(i);
+            if (position >= 0 && flagged[exit.get(i)] - flagged[position] > 0) {
+                result[i] = true;
+            }
+        }
+        return result;
+    }
+}
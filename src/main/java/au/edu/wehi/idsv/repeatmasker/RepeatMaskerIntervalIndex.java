@@ -0,0 +1,405 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import htsjdk.samtools.util.Log;
+import htsjdk.tribble.annotation.Strand;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Position-indexed RepeatMasker annotations.
+ *
+ * Records are stored as fixed-width primitive records sorted by contig and start
+ * position. Repeat types and classes are stored as indices into a string table.
+ * Overlap queries binary search on start position using the maximum record width
+ * of the contig to bound the search.
+ *
+ * The index can be cached as a binary file which is memory mapped on
+ * subsequent loads.
+ */
+public class RepeatMaskerIntervalIndex {
+    private static final Log log = Log.getInstance(RepeatMaskerIntervalIndex.class);
+    public static final String CACHE_EXTENSION = ".gridssrm";
+    private static final int MAGIC = 0x4752524d; // GRRM
+    private static final int VERSION = 1;
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int STRAND = 2;
+    private static final int REPEAT_TYPE = 3;
+    private static final int REPEAT_CLASS = 4;
+    private static final int RECORD_SIZE = 5;
+    private static final Strand[] STRANDS = Strand.values();
+    private final List<String> contigs;
+    private final Map<String, Integer> contigLookup = new HashMap<>();
+    /**
+     * Index of the first record of each contig
+     */
+    private final int[] contigOffset;
+    /**
+     * Width of the widest record on each contig
+     */
+    private final int[] maxWidth;
+    private final List<String> strings;
+    private final IntBuffer records;
+
+    private RepeatMaskerIntervalIndex(List<String> contigs, int[] contigOffset, int[] maxWidth, List<String> strings, IntBuffer records) {
+        this.contigs = contigs;
+        this.contigOffset = contigOffset;
+        this.maxWidth = maxWidth;
+        this.strings = strings;
+        this.records = records;
+        for (int i = 0; i < contigs.size(); i++) {
+            contigLookup.put(contigs.get(i), i);
+        }
+    }
+
+    /**
+     * Parses a bedops RepeatMasker BED file.
+     * See https://bedops.readthedocs.io/en/latest/content/reference/file-management/conversion/rmsk2bed.html#column-mapping for format
+     */
+    public static RepeatMaskerIntervalIndex parse(File repeatMaskerBed) throws IOException {
+        List<String> contigs = new ArrayList<>();
+        Map<String, Integer> contigLookup = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringLookup = new HashMap<>();
+        int[] data = new int[RECORD_SIZE * 1024];
+        int[] contigOf = new int[1024];
+        int size = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(repeatMaskerBed), StandardCharsets.US_ASCII), 1 << 20)) {
+            String line;
+            int lineNumber = 0;
+            String[] fields = new String[11];
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) continue;
+                int fieldCount = split(line, fields);
+                if (fieldCount < 3) {
+                    throw new IllegalArgumentException(String.format("Unable to parse line %d of %s", lineNumber, repeatMaskerBed));
+                }
+                if (size == contigOf.length) {
+                    contigOf = Arrays.copyOf(contigOf, 2 * size);
+                    data = Arrays.copyOf(data, 2 * size * RECORD_SIZE);
+                }
+                Integer contig = contigLookup.get(fields[0]);
+                if (contig == null) {
+                    contig = contigs.size();
+                    contigs.add(fields[0]);
+                    contigLookup.put(fields[0], contig);
+                }
+                int offset = size * RECORD_SIZE;
+                contigOf[size] = contig;
+                // BED is 0-based half-open
+                data[offset + START] = Integer.parseInt(fields[1]) + 1;
+                data[offset + END] = Integer.parseInt(fields[2]);
+                data[offset + STRAND] = parseStrand(fieldCount > 5 ? fields[5] : null).ordinal();
+                data[offset + REPEAT_TYPE] = fieldCount > 3 ? intern(fields[3], strings, stringLookup) : -1;
+                data[offset + REPEAT_CLASS] = fieldCount > 10 ? intern(fields[10], strings, stringLookup) : -1;
+                size++;
+            }
+        }
+        final int[] finalData = data;
+        final int[] finalContigOf = contigOf;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, (a, b) -> {
+            int cmp = Integer.compare(finalContigOf[a], finalContigOf[b]);
+            if (cmp == 0) cmp = Integer.compare(finalData[a * RECORD_SIZE + START], finalData[b * RECORD_SIZE + START]);
+            if (cmp == 0) cmp = Integer.compare(finalData[a * RECORD_SIZE + END], finalData[b * RECORD_SIZE + END]);
+            // later records take precedence for identical intervals
+            if (cmp == 0) cmp = Integer.compare(b, a);
+            return cmp;
+        });
+        int[] sorted = new int[size * RECORD_SIZE];
+        int[] contigOffset = new int[contigs.size() + 1];
+        int[] maxWidth = new int[contigs.size()];
+        for (int i = 0; i < size; i++) {
+            int from = order[i] * RECORD_SIZE;
+            System.arraycopy(data, from, sorted, i * RECORD_SIZE, RECORD_SIZE);
+            int contig = contigOf[order[i]];
+            contigOffset[contig + 1]++;
+            maxWidth[contig] = Math.max(maxWidth[contig], data[from + END] - data[from + START] + 1);
+        }
+        for (int i = 0; i < contigs.size(); i++) {
+            contigOffset[i + 1] += contigOffset[i];
+        }
+        return new RepeatMaskerIntervalIndex(contigs, contigOffset, maxWidth, strings, IntBuffer.wrap(sorted));
+    }
+
+    /**
+     * Splits the given line on tabs
+     * @return number of fields found. Fields beyond the size of the array are ignored.
+     */
+    private static int split(String line, String[] fields) {
+        int count = 0;
+        int start = 0;
+        while (count < fields.length) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                fields[count++] = line.substring(start);
+                break;
+            }
+            fields[count++] = line.substring(start, end);
+            start = end + 1;
+        }
+        return count;
+    }
+
+    private static Strand parseStrand(String s) {
+        if ("+".equals(s)) return Strand.POSITIVE;
+        if ("-".equals(s)) return Strand.NEGATIVE;
+        return Strand.NONE;
+    }
+
+    private static int intern(String s, List<String> strings, Map<String, Integer> lookup) {
+        Integer index = lookup.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            lookup.put(s, index);
+        }
+        return index;
+    }
+
+    /**
+     * Loads the RepeatMasker annotations, using the given binary cache if it is up to date.
+     * If the cache is missing or out of date, the BED file is parsed and the cache recreated.
+     * @param repeatMaskerBed bedops RepeatMasker BED file
+     * @param cache binary cache file. The cache is not used if null.
+     */
+    public static RepeatMaskerIntervalIndex load(File repeatMaskerBed, File cache) throws IOException {
+        if (cache == null) {
+            return parse(repeatMaskerBed);
+        }
+        if (cache.exists()) {
+            RepeatMaskerIntervalIndex index = readCache(cache, repeatMaskerBed);
+            if (index != null) {
+                return index;
+            }
+            log.info("Ignoring out of date RepeatMasker cache ", cache);
+        }
+        RepeatMaskerIntervalIndex index = parse(repeatMaskerBed);
+        try {
+            index.writeCache(cache, repeatMaskerBed);
+        } catch (IOException e) {
+            log.warn(e, "Unable to write RepeatMasker cache to ", cache);
+        }
+        return index;
+    }
+
+    /**
+     * Default binary cache location for the given RepeatMasker BED file
+     */
+    public static File getDefaultCacheFile(File repeatMaskerBed) {
+        return new File(repeatMaskerBed.getPath() + CACHE_EXTENSION);
+    }
+
+    private void writeCache(File cache, File repeatMaskerBed) throws IOException {
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(repeatMaskerBed.length());
+            out.writeLong(repeatMaskerBed.lastModified());
+            out.writeInt(contigs.size());
+            for (int i = 0; i < contigs.size(); i++) {
+                out.writeUTF(contigs.get(i));
+                out.writeInt(contigOffset[i]);
+                out.writeInt(maxWidth[i]);
+            }
+            out.writeInt(size());
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+            for (int i = 0; i < size() * RECORD_SIZE; i++) {
+                out.writeInt(records.get(i));
+            }
+        }
+        Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Memory maps the given binary cache
+     * @return index or null if the cache was not created from the given BED file
+     */
+    private static RepeatMaskerIntervalIndex readCache(File cache, File repeatMaskerBed) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r")) {
+            if (raf.readInt() != MAGIC
+                    || raf.readInt() != VERSION
+                    || raf.readLong() != repeatMaskerBed.length()
+                    || raf.readLong() != repeatMaskerBed.lastModified()) {
+                return null;
+            }
+            int contigCount = raf.readInt();
+            List<String> contigs = new ArrayList<>(contigCount);
+            int[] contigOffset = new int[contigCount + 1];
+            int[] maxWidth = new int[contigCount];
+            for (int i = 0; i < contigCount; i++) {
+                contigs.add(raf.readUTF());
+                contigOffset[i] = raf.readInt();
+                maxWidth[i] = raf.readInt();
+            }
+            int size = raf.readInt();
+            contigOffset[contigCount] = size;
+            int stringCount = raf.readInt();
+            List<String> strings = new ArrayList<>(stringCount);
+            for (int i = 0; i < stringCount; i++) {
+                strings.add(raf.readUTF());
+            }
+            long recordBytes = 4L * RECORD_SIZE * size;
+            if (raf.length() != raf.getFilePointer() + recordBytes) {
+                return null;
+            }
+            IntBuffer records = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, raf.getFilePointer(), recordBytes).asIntBuffer();
+            return new RepeatMaskerIntervalIndex(contigs, contigOffset, maxWidth, strings, records);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Number of RepeatMasker records
+     */
+    public int size() {
+        return contigOffset[contigs.size()];
+    }
+
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    /**
+     * Creates a new cursor over this index. Cursors are not thread-safe.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates over the records overlapping a query interval.
+     *
+     * When successive queries are in coordinate order, the cursor advances from the previous
+     * query position instead of performing a full binary search.
+     */
+    public class Cursor {
+        private int contig = -1;
+        private int queryStart;
+        private int queryEnd;
+        /**
+         * First record that could overlap the current query
+         */
+        private int lowerBound;
+        private int index;
+        private int last;
+
+        /**
+         * Positions the cursor before the first record overlapping the given closed interval
+         * @param contig contig name
+         * @param start 1-based start position
+         * @param end 1-based end position
+         */
+        public void seek(String contig, int start, int end) {
+            Integer contigIndex = contigLookup.get(contig);
+            if (contigIndex == null) {
+                this.contig = -1;
+                this.index = this.last = 0;
+                return;
+            }
+            int c = contigIndex;
+            int first = contigOffset[c];
+            last = contigOffset[c + 1];
+            int target = start - maxWidth[c] + 1;
+            if (c == this.contig && start >= queryStart) {
+                lowerBound = gallop(lowerBound, last, target);
+            } else {
+                lowerBound = lowerBound(first, last, target);
+            }
+            this.contig = c;
+            this.queryStart = start;
+            this.queryEnd = end;
+            this.index = lowerBound - 1;
+        }
+
+        /**
+         * Advances to the next overlapping record
+         * @return false if there are no more overlapping records
+         */
+        public boolean next() {
+            while (++index < last) {
+                int offset = index * RECORD_SIZE;
+                if (records.get(offset + START) > queryEnd) {
+                    index = last;
+                    return false;
+                }
+                if (records.get(offset + END) >= queryStart) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int getStart() {
+            return records.get(index * RECORD_SIZE + START);
+        }
+
+        public int getEnd() {
+            return records.get(index * RECORD_SIZE + END);
+        }
+
+        public Strand getStrand() {
+            return STRANDS[records.get(index * RECORD_SIZE + STRAND)];
+        }
+
+        public String getRepeatType() {
+            return getString(records.get(index * RECORD_SIZE + REPEAT_TYPE));
+        }
+
+        public String getRepeatClass() {
+            return getString(records.get(index * RECORD_SIZE + REPEAT_CLASS));
+        }
+    }
+
+    private String getString(int index) {
+        return index < 0 ? null : strings.get(index);
+    }
+
+    /**
+     * First record index in the given range with a start position of at least the given position
+     */
+    private int lowerBound(int first, int last, int start) {
+        while (first < last) {
+            int mid = (first + last) >>> 1;
+            if (records.get(mid * RECORD_SIZE + START) < start) {
+                first = mid + 1;
+            } else {
+                last = mid;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Exponential search forward from the given record index
+     */
+    private int gallop(int first, int last, int start) {
+        int step = 1;
+        int lo = first;
+        while (lo < last && records.get(lo * RECORD_SIZE + START) < start) {
+            int next = lo + step;
+            if (next >= last || records.get(next * RECORD_SIZE + START) >= start) {
+                return lowerBound(lo + 1, Math.min(next, last), start);
+            }
+            lo = next;
+            step *= 2;
+        }
+        return lo;
+    }
+}
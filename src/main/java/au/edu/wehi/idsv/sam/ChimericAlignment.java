@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * SA Z Other canonical alignments in a chimeric alignment, formatted as a semicolon-delimited
@@ -88,11 +89,220 @@ public class ChimericAlignment {
 		}
 		return list;
 	}
+	/**
+	 * Parses the given SA tag
+	 * @param sa SA tag value
+	 * @return alignments in SA tag order. The returned list is immutable.
+	 */
 	public static List<ChimericAlignment> getChimericAlignments(String sa) {
-		return getChimericAlignments(sa, ";");
+		return SATag.parse(sa).alignments;
 	}
+	/**
+	 * Gets the alignments in the SA tag of the given record.
+	 *
+	 * The parsed SA tag is cached on the record and reused until the SA tag is replaced.
+	 * @param r record
+	 * @return alignments in SA tag order. The returned list is immutable.
+	 */
 	public static List<ChimericAlignment> getChimericAlignments(SAMRecord r) {
-		return getChimericAlignments(r.getStringAttribute(SAMTag.SA.name()));
+		return SATag.get(r).alignments;
+	}
+	/**
+	 * Removes the alignments not matching the given predicate from the SA tag of the given record.
+	 *
+	 * Retained alignments are copied verbatim from the existing SA tag and the SA tag is
+	 * only replaced if at least one alignment was removed.
+	 * @param r record
+	 * @param predicate alignments to retain
+	 * @return true if the SA tag was modified, false otherwise
+	 */
+	public static boolean retainChimericAlignments(SAMRecord r, Predicate<ChimericAlignment> predicate) {
+		SATag tag = SATag.get(r);
+		if (tag.alignments.isEmpty()) return false;
+		int retained = 0;
+		boolean[] keep = new boolean[tag.alignments.size()];
+		for (int i = 0; i < keep.length; i++) {
+			keep[i] = predicate.test(tag.alignments.get(i));
+			if (keep[i]) retained++;
+		}
+		if (retained == keep.length) return false;
+		StringBuilder sb = new StringBuilder(tag.sa.length());
+		List<ChimericAlignment> alignments = new ArrayList<>(retained);
+		int[] start = new int[retained];
+		int[] end = new int[retained];
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				if (sb.length() > 0) {
+					sb.append(';');
+				}
+				start[alignments.size()] = sb.length();
+				sb.append(tag.sa, tag.start[i], tag.end[i]);
+				end[alignments.size()] = sb.length();
+				alignments.add(tag.alignments.get(i));
+			}
+		}
+		String sa = sb.toString();
+		r.setAttribute(SAMTag.SA.name(), sa);
+		r.setTransientAttribute(SATag.TRANSIENT_ATTRIBUTE, new SATag(sa, Collections.unmodifiableList(alignments), start, end));
+		return true;
+	}
+	/**
+	 * Parsed SA tag
+	 */
+	private static class SATag {
+		private static final String TRANSIENT_ATTRIBUTE = "gridss.ChimericAlignment.SA";
+		private static final SATag EMPTY = new SATag(null, Collections.emptyList(), new int[0], new int[0]);
+		private final String sa;
+		private final List<ChimericAlignment> alignments;
+		/**
+		 * Offset of each alignment within the SA tag
+		 */
+		private final int[] start;
+		private final int[] end;
+		private SATag(String sa, List<ChimericAlignment> alignments, int[] start, int[] end) {
+			this.sa = sa;
+			this.alignments = alignments;
+			this.start = start;
+			this.end = end;
+		}
+		private static SATag get(SAMRecord r) {
+			String sa = r.getStringAttribute(SAMTag.SA.name());
+			if (StringUtils.isEmpty(sa)) return EMPTY;
+			Object cached = r.getTransientAttribute(TRANSIENT_ATTRIBUTE);
+			// Attribute values are only replaced, never modified, so the cached value
+			// is current if it was parsed from the exact same String instance
+			if (cached instanceof SATag && ((SATag)cached).sa == sa) {
+				return (SATag)cached;
+			}
+			SATag tag = parse(sa);
+			r.setTransientAttribute(TRANSIENT_ATTRIBUTE, tag);
+			return tag;
+		}
+		private static SATag parse(String sa) {
+			if (StringUtils.isEmpty(sa)) return EMPTY;
+			int segments = 1;
+			for (int i = 0; i < sa.length(); i++) {
+				if (sa.charAt(i) == ';') segments++;
+			}
+			List<ChimericAlignment> alignments = new ArrayList<>(segments);
+			int[] start = new int[segments];
+			int[] end = new int[segments];
+			String rname = null;
+			int offset = 0;
+			while (offset < sa.length()) {
+				int segmentEnd = sa.indexOf(';', offset);
+				if (segmentEnd < 0) segmentEnd = sa.length();
+				int s = offset;
+				int e = segmentEnd;
+				while (s < e && Character.isWhitespace(sa.charAt(s))) s++;
+				while (e > s && (Character.isWhitespace(sa.charAt(e - 1)) || sa.charAt(e - 1) == ',')) e--;
+				if (s < e) {
+					ChimericAlignment ca = parseAlignment(sa, s, e, rname);
+					start[alignments.size()] = s;
+					end[alignments.size()] = e;
+					alignments.add(ca);
+					rname = ca.rname;
+				}
+				offset = segmentEnd + 1;
+			}
+			return new SATag(sa, Collections.unmodifiableList(alignments), start, end);
+		}
+		/**
+		 * Parses a single SA tag alignment without splitting the SA tag into substrings
+		 * @param previousRname reference name of the previous alignment in the SA tag.
+		 *                      This instance is reused if the reference name is the same.
+		 */
+		private static ChimericAlignment parseAlignment(String sa, int start, int end, String previousRname) {
+			int rnameEnd = fieldEnd(sa, start, end);
+			int posEnd = fieldEnd(sa, rnameEnd + 1, end);
+			int strandEnd = fieldEnd(sa, posEnd + 1, end);
+			int cigarEnd = fieldEnd(sa, strandEnd + 1, end);
+			if (strandEnd >= end) {
+				throw new IllegalArgumentException(String.format("Malformed SA tag alignment \"%s\"", sa.substring(start, end)));
+			}
+			String rname;
+			int rnameLength = rnameEnd - start;
+			if (previousRname != null && previousRname.length() == rnameLength && sa.regionMatches(start, previousRname, 0, rnameLength)) {
+				rname = previousRname;
+			} else {
+				rname = sa.substring(start, rnameEnd);
+			}
+			int pos = parseInt(sa, rnameEnd + 1, posEnd);
+			boolean isNegativeStrand = strandEnd - posEnd == 2 && sa.charAt(posEnd + 1) == '-';
+			Cigar cigar = parseCigar(sa, strandEnd + 1, cigarEnd);
+			int mapq = SAMRecord.UNKNOWN_MAPPING_QUALITY;
+			Integer nm = null;
+			if (cigarEnd < end) {
+				int mapqEnd = fieldEnd(sa, cigarEnd + 1, end);
+				mapq = parseInt(sa, cigarEnd + 1, mapqEnd);
+				if (mapqEnd < end) {
+					try {
+						nm = parseInt(sa, mapqEnd + 1, fieldEnd(sa, mapqEnd + 1, end));
+					} catch (NumberFormatException nfe) {
+						// swallow and fall back to null
+					}
+				}
+			}
+			if (nm == null) {
+				return new ChimericAlignment(rname, pos, isNegativeStrand, cigar, mapq);
+			}
+			return new ChimericAlignment(rname, pos, isNegativeStrand, cigar, mapq, nm);
+		}
+		private static int fieldEnd(String sa, int start, int end) {
+			int i = start;
+			while (i < end && sa.charAt(i) != ',') i++;
+			return i;
+		}
+		private static int parseInt(String sa, int start, int end) {
+			int i = start;
+			boolean negative = false;
+			if (i < end && (sa.charAt(i) == '-' || sa.charAt(i) == '+')) {
+				negative = sa.charAt(i) == '-';
+				i++;
+			}
+			if (i >= end) {
+				throw new NumberFormatException(String.format("For input string: \"%s\"", sa.substring(start, Math.max(start, end))));
+			}
+			long value = 0;
+			for (; i < end; i++) {
+				int digit = sa.charAt(i) - '0';
+				if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+					throw new NumberFormatException(String.format("For input string: \"%s\"", sa.substring(start, end)));
+				}
+				value = value * 10 + digit;
+			}
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+				throw new NumberFormatException(String.format("For input string: \"%s\"", sa.substring(start, end)));
+			}
+			return (int)value;
+		}
+		private static Cigar parseCigar(String sa, int start, int end) {
+			Cigar cigar = new Cigar();
+			if (end - start == 1 && sa.charAt(start) == '*') {
+				return cigar;
+			}
+			int length = 0;
+			boolean hasLength = false;
+			for (int i = start; i < end; i++) {
+				char c = sa.charAt(i);
+				if (c >= '0' && c <= '9') {
+					length = length * 10 + (c - '0');
+					hasLength = true;
+				} else {
+					if (!hasLength) {
+						throw new IllegalArgumentException(String.format("Malformed CIGAR string: %s", sa.substring(start, end)));
+					}
+					cigar.add(new CigarElement(length, CigarOperator.characterToEnum(c)));
+					length = 0;
+					hasLength = false;
+				}
+			}
+			if (hasLength) {
+				throw new IllegalArgumentException(String.format("Malformed CIGAR string: %s", sa.substring(start, end)));
+			}
+			return cigar;
+		}
 	}
 
 	/**
@@ -175,7 +385,16 @@ public class ChimericAlignment {
 	}
 	@Override
 	public String toString() {
-		return String.format("%s,%d,%s,%s,%d,%s", rname, pos, isNegativeStrand ? "-" : "+", cigar, mapq, nm == null ? "" : nm.toString());
+		StringBuilder sb = new StringBuilder();
+		sb.append(rname).append(',')
+			.append(pos).append(',')
+			.append(isNegativeStrand ? '-' : '+').append(',')
+			.append(cigar).append(',')
+			.append(mapq).append(',');
+		if (nm != null) {
+			sb.append(nm.intValue());
+		}
+		return sb.toString();
 	}
 	@Override
 	public int hashCode() {
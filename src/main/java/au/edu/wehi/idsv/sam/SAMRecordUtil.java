@@ -14,7 +14,6 @@ import com.google.common.collect.*;
 import com.google.common.collect.ImmutableRangeSet.Builder;
 import com.google.common.primitives.Booleans;
 import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
 import htsjdk.samtools.*;
 import htsjdk.samtools.SamPairUtil.PairOrientation;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -699,6 +698,7 @@ public class SAMRecordUtil {
 		List<SAMRecord> removed = Collections.emptyList();
 		// TODO: support secondary alignments by switching to templateBySegmentByAlignmentGroup() and handling split secondary reads
 		List<List<SAMRecord>> segments = templateBySegment(records);
+		TemplateAlignmentSummary alignments = new TemplateAlignmentSummary();
 		// FI
 		if (tags.contains(SAMTag.FI.name())) {
 			for (int i = 0; i < segments.size(); i++) {
@@ -715,12 +715,12 @@ public class SAMRecordUtil {
 		}
 		if (fixTruncated) {
 			for (int i = 0; i < segments.size(); i++) {
-				addMissingHardClipping(segments.get(i));
+				addMissingHardClipping(segments.get(i), alignments);
 			}
 		}
 		if (restoreHardClips) {
 			for (int i = 0; i < segments.size(); i++) {
-				softenHardClips(segments.get(i));
+				softenHardClips(segments.get(i), alignments);
 			}
 		}
 		if (fixDuplicates) {
@@ -740,18 +740,17 @@ public class SAMRecordUtil {
 		// Split read alignments
 		if (fixSA) {
 			for (int i = 0; i < segments.size(); i++) {
-				removed = SAMRecordUtil.reinterpretAsSplitReadAlignment(segments.get(i), recalculateSupplementary);
+				removed = SAMRecordUtil.reinterpretAsSplitReadAlignment(segments.get(i), recalculateSupplementary, alignments);
 				if (!removed.isEmpty()) {
 					records.removeAll(removed);
 				}
 			}
 		} else if (recalculateSupplementary) {
 			for (int i = 0; i < segments.size(); i++) {
-				recalculateSupplementaryFromSA(segments.get(i));
+				recalculateSupplementaryFromSA(segments.get(i), alignments);
 			}
 		}
-		if (Sets.intersection(tags,
-				ImmutableSet.of(SAMTag.CC.name(), SAMTag.CP.name(), SAMTag.HI.name(), SAMTag.IH.name())).size() > 0) {
+		if (!Collections.disjoint(tags, MULTIMAPPING_TAGS)) {
 			for (int i = 0; i < segments.size(); i++) {
 				calculateMultimappingTags(tags, segments.get(i));
 			}
@@ -774,41 +773,72 @@ public class SAMRecordUtil {
 		if (tags.contains(SAMTag.R2.name())) {
 			for (int i = 0; i < segments.size(); i++) {
 				byte[] br2 = getConsensusSequence(segments.get((i + 1) % segments.size()));
-				String r2 = br2 != null && br2 != SAMRecord.NULL_SEQUENCE &&  segments.size() > 1 ? StringUtil.bytesToString(br2) : null;
-				for (SAMRecord r : segments.get(i)) {
-					r.setAttribute(SAMTag.R2.name(), r2);
-				}
+				setSequenceAttribute(segments.get(i), SAMTag.R2.name(), br2 != null && br2 != SAMRecord.NULL_SEQUENCE &&  segments.size() > 1 ? br2 : null, false);
 			}
 		}
 		// Q2
 		if (tags.contains(SAMTag.Q2.name())) {
 			for (int i = 0; i < segments.size(); i++) {
 				byte[] bq2 = getConsensusBaseQualities(segments.get((i + 1) % segments.size()));
-				String q2 = bq2 != null && bq2 != SAMRecord.NULL_QUALS && segments.size() > 1 ? SAMUtils.phredToFastq(bq2) : null;
-				for (SAMRecord r : segments.get(i)) {
-					r.setAttribute(SAMTag.Q2.name(), q2);
-				}
+				setSequenceAttribute(segments.get(i), SAMTag.Q2.name(), bq2 != null && bq2 != SAMRecord.NULL_QUALS && segments.size() > 1 ? bq2 : null, true);
 			}
 		}
 		return removed;
 	}
-	private static final Comparator<SAMRecord> ByReadLength = Comparator.comparingInt(r -> r.getReadLength());
-	private static void addMissingHardClipping(List<SAMRecord> list) {
+	private static final Set<String> MULTIMAPPING_TAGS = ImmutableSet.of(SAMTag.CC.name(), SAMTag.CP.name(), SAMTag.HI.name(), SAMTag.IH.name());
+	/**
+	 * Sets the given sequence or base quality tag of all records.
+	 * Records already containing the given value are left untouched.
+	 */
+	private static void setSequenceAttribute(List<SAMRecord> records, String tag, byte[] value, boolean isBaseQuality) {
+		String str = null;
+		for (SAMRecord r : records) {
+			if (value == null) {
+				r.setAttribute(tag, null);
+			} else if (!sequenceAttributeEquals(r.getAttribute(tag), value, isBaseQuality)) {
+				if (str == null) {
+					str = isBaseQuality ? SAMUtils.phredToFastq(value) : StringUtil.bytesToString(value);
+				}
+				r.setAttribute(tag, str);
+			}
+		}
+	}
+	private static boolean sequenceAttributeEquals(Object attr, byte[] value, boolean isBaseQuality) {
+		if (!(attr instanceof String)) return false;
+		String str = (String)attr;
+		if (str.length() != value.length) return false;
+		for (int i = 0; i < value.length; i++) {
+			int expected = value[i] & 0xFF;
+			if (isBaseQuality) {
+				if (expected > SAMUtils.MAX_PHRED_SCORE) return false;
+				expected += 33;
+			}
+			if (str.charAt(i) != expected) return false;
+		}
+		return true;
+	}
+	private static void addMissingHardClipping(List<SAMRecord> list, TemplateAlignmentSummary alignments) {
 		if (list.isEmpty()) return;
-		SAMRecord longest = list.stream().max(ByReadLength).get();
-		String longseq = longest.getReadString();
-		if (longest.getReadNegativeStrandFlag()) {
-			longseq = SequenceUtil.reverseComplement(longseq).toUpperCase();
+		SAMRecord longest = list.get(0);
+		for (SAMRecord r : list) {
+			if (r.getReadLength() > longest.getReadLength()) {
+				longest = r;
+			}
 		}
+		// getReadString() returns "*" when no read bases are present
+		int longseqLength = longest.getReadLength() == 0 ? SAMRecord.NULL_SEQUENCE_STRING.length() : longest.getReadLength();
+		String longseq = null;
 		for (SAMRecord r : list) {
 			if (r.getReadUnmappedFlag()) continue;
-			if (r.getReadLength() == longseq.length()) continue;
+			if (r.getReadLength() == longseqLength) continue;
+			if (alignments.get(r).getReadLengthIncludingHardClipping() == longseqLength) continue;
+			if (longseq == null) {
+				longseq = longest.getReadString();
+				if (longest.getReadNegativeStrandFlag()) {
+					longseq = SequenceUtil.reverseComplement(longseq).toUpperCase();
+				}
+			}
 			List<CigarElement> cigar = r.getCigar().getCigarElements();
-			int cigarLengthWithHardClips = r.getCigar().getReadLength() + cigar.stream()
-					.filter(ce -> ce.getOperator() == CigarOperator.HARD_CLIP)
-					.mapToInt(ce -> ce.getLength())
-					.sum();
-			if (cigarLengthWithHardClips == longseq.length()) continue;
 			String seq = r.getReadString().toUpperCase();
 			String fullseq = r.getReadNegativeStrandFlag() ? SequenceUtil.reverseComplement(longseq) : longseq;
 			boolean isFixed = false;
@@ -840,40 +870,43 @@ public class SAMRecordUtil {
 	/**
 	 * Orders the records such that the primary record for a split read alignment is first
 	 */
-	private static Ordering<SAMRecord> ByBestPrimarySplitCandidate = new Ordering<SAMRecord>() {
-		public int compare(SAMRecord arg1, SAMRecord arg2) {
-			return ComparisonChain.start()
-				.compareFalseFirst(arg1.getReadUnmappedFlag(), arg2.getReadUnmappedFlag())
-				// already flagged as supp is bad  
-				.compareFalseFirst(arg1.getSupplementaryAlignmentFlag(), arg2.getSupplementaryAlignmentFlag())
-				// flagged as secondary is bad due to legacy treatment of secondary alignments as supplementary (eg bwa mem -M) 
-				.compareFalseFirst(arg1.isSecondaryAlignment(), arg2.isSecondaryAlignment()) 
-				// the record with the shorter soft clip is a better candidate
-				.compare(SAMRecordUtil.getStartClipLength(arg1) + SAMRecordUtil.getEndClipLength(arg1), SAMRecordUtil.getStartClipLength(arg2) + SAMRecordUtil.getEndClipLength(arg2))
-				// longer read is better
-				.compare(arg2.getReadLength(), arg1.getReadLength())
-				// high MAPQ is better
-				.compare(arg2.getMappingQuality(), arg1.getMappingQuality())
-				// in proper pair is better
-				.compareTrueFirst(arg1.getReadPairedFlag() && arg1.getProperPairFlag(), arg1.getReadPairedFlag() &&arg2.getProperPairFlag())
-				// lower edit distance is better
-				.compare(getNM(arg1, 0), getNM(arg2, 0))
-				// Other options are:
-				// - record is flagged as the mate of a read pair (strong support for that record to be the primary)
-				.result();
-		}
-	};
+	private static Ordering<SAMRecord> byBestPrimarySplitCandidate(TemplateAlignmentSummary alignments) {
+		return new Ordering<SAMRecord>() {
+			public int compare(SAMRecord arg1, SAMRecord arg2) {
+				return ComparisonChain.start()
+					.compareFalseFirst(arg1.getReadUnmappedFlag(), arg2.getReadUnmappedFlag())
+					// already flagged as supp is bad  
+					.compareFalseFirst(arg1.getSupplementaryAlignmentFlag(), arg2.getSupplementaryAlignmentFlag())
+					// flagged as secondary is bad due to legacy treatment of secondary alignments as supplementary (eg bwa mem -M) 
+					.compareFalseFirst(arg1.isSecondaryAlignment(), arg2.isSecondaryAlignment()) 
+					// the record with the shorter soft clip is a better candidate
+					.compare(alignments.getStartClipLength(arg1) + alignments.getEndClipLength(arg1), alignments.getStartClipLength(arg2) + alignments.getEndClipLength(arg2))
+					// longer read is better
+					.compare(arg2.getReadLength(), arg1.getReadLength())
+					// high MAPQ is better
+					.compare(arg2.getMappingQuality(), arg1.getMappingQuality())
+					// in proper pair is better
+					.compareTrueFirst(arg1.getReadPairedFlag() && arg1.getProperPairFlag(), arg1.getReadPairedFlag() &&arg2.getProperPairFlag())
+					// lower edit distance is better
+					.compare(getNM(arg1, 0), getNM(arg2, 0))
+					// Other options are:
+					// - record is flagged as the mate of a read pair (strong support for that record to be the primary)
+					.result();
+			}
+		};
+	}
 	private static int getNM(SAMRecord r, int defaultValue) {
 		Integer value = r.getIntegerAttribute(SAMTag.NM.name());
 		return value == null ? defaultValue : value;
 	}
-	private static void recalculateSupplementaryFromSA(List<SAMRecord> segments) {
+	private static void recalculateSupplementaryFromSA(List<SAMRecord> segments, TemplateAlignmentSummary alignments) {
 		HashMap<List<ChimericAlignment>, List<SAMRecord>> saLookup = new HashMap<>();
 		for (SAMRecord r : segments) {
 			List<ChimericAlignment> splitca = ChimericAlignment.getChimericAlignments(r);
 			if (splitca.isEmpty() || r.getReadUnmappedFlag()) {
 				r.setSupplementaryAlignmentFlag(false);
 			} else {
+				splitca = new ArrayList<>(splitca);
 				splitca.add(new ChimericAlignment(r));
 				splitca.sort(ChimericAlignment.ByReadOffset);
 				List<SAMRecord> saGroup = saLookup.get(splitca);
@@ -884,8 +917,9 @@ public class SAMRecordUtil {
 				saGroup.add(r);
 			}
 		}
+		Comparator<SAMRecord> byBestPrimarySplitCandidate = byBestPrimarySplitCandidate(alignments);
 		for (List<SAMRecord> split : saLookup.values()) {
-			split.sort(ByBestPrimarySplitCandidate);
+			split.sort(byBestPrimarySplitCandidate);
 			for (int i = 0; i < split.size(); i++) {
 				split.get(i).setSupplementaryAlignmentFlag(i != 0);
 			}
@@ -896,15 +930,16 @@ public class SAMRecordUtil {
 		List<ChimericAlignment> splits = ChimericAlignment.getChimericAlignments(rec);
 		// supposed to be the first split alignment
 		final ChimericAlignment primary = splits.size() == 0 ? null : splits.get(0);
+		final ChimericAlignment self = new ChimericAlignment(rec);
 		Optional<SAMRecord> best = options.stream()
 				.filter(r -> !r.getSupplementaryAlignmentFlag())
-				.filter(r -> new ChimericAlignment(rec).equals(primary))
+				.filter(r -> self.equals(primary))
 				.findFirst();
 		// try any split alignment
 		if (!best.isPresent()) {
 			best = options.stream()
 					.filter(r -> !r.getSupplementaryAlignmentFlag())
-					.filter(r -> splits.contains(new ChimericAlignment(rec)))
+					.filter(r -> splits.contains(self))
 					.findFirst();
 		}
 		// just grab the primary
@@ -942,6 +977,7 @@ public class SAMRecordUtil {
 		return true;
 	}
 
+	private static final Comparator<SAMRecord> BySecondaryFirst = Comparator.comparing(SAMRecord::isSecondaryAlignment).reversed();
 	public static void fixMates(List<List<SAMRecord>> segments, boolean mateCigar, boolean mateQuality) {
 		for (int i = 0; i < segments.size(); i++) {
 			List<SAMRecord> currentSegment = segments.get(i);
@@ -951,7 +987,7 @@ public class SAMRecordUtil {
 				nextSegment = Collections.emptyList();
 			}
 			// resort so we match up the primary records last
-			currentSegment.sort(Comparator.comparing(SAMRecord::isSecondaryAlignment).reversed());
+			currentSegment.sort(BySecondaryFirst);
 			for (SAMRecord r : currentSegment) {
 				r.removeTransientAttribute(SAMTag.MC.name());
 				if (r.getSupplementaryAlignmentFlag()) {
@@ -1090,6 +1126,9 @@ public class SAMRecordUtil {
 	}
 	// TODO support secondary alignments via CC, CP, HI, IH
 	public static List<SAMRecord> reinterpretAsSplitReadAlignment(List<SAMRecord> list, boolean updateSupplementary) {
+		return reinterpretAsSplitReadAlignment(list, updateSupplementary, new TemplateAlignmentSummary());
+	}
+	private static List<SAMRecord> reinterpretAsSplitReadAlignment(List<SAMRecord> list, boolean updateSupplementary, TemplateAlignmentSummary alignments) {
 		if (list == null || list.isEmpty()) {
 			return Collections.emptyList();
 		}
@@ -1097,12 +1136,12 @@ public class SAMRecordUtil {
 		if (list.size() == 1) {
 			list.get(0).setAttribute(SAMTag.SA.name(), null);
 		} else {
-			list.sort(ByFirstAlignedBaseReadOffset);
+			list.sort(Comparator.comparingInt(alignments::getFirstAlignedBaseReadOffset));
 			for (int i = 0; i < list.size() - 1; i++) {
 				SAMRecord r1 = list.get(i);
 				SAMRecord r2 = list.get(i + 1);
-				if (getFirstAlignedBaseReadOffset(r1) == getFirstAlignedBaseReadOffset(r2)) {
-					if (ByBestPrimarySplitCandidate.compare(r1, r2) <= 0) {
+				if (alignments.getFirstAlignedBaseReadOffset(r1) == alignments.getFirstAlignedBaseReadOffset(r2)) {
+					if (byBestPrimarySplitCandidate(alignments).compare(r1, r2) <= 0) {
 						removalList.add(list.remove(i + 1));
 					} else {
 						removalList.add(list.remove(i));
@@ -1253,27 +1292,36 @@ public class SAMRecordUtil {
 	 * @param records
 	 */
 	public static final void softenHardClips(List<SAMRecord> records) {
+		softenHardClips(records, new TemplateAlignmentSummary());
+	}
+	private static void softenHardClips(List<SAMRecord> records, TemplateAlignmentSummary alignments) {
 		for (SAMRecord r : records) {
-			hardClipToN(r);
+			if (!r.getReadUnmappedFlag() && r.getCigar() != null && alignments.get(r).hasHardClip) {
+				hardClipToN(r);
+			}
 		}
 		byte[] seq = getConsensusSequence(records);
 		byte[] qual = getConsensusBaseQualities(records);
 		for (SAMRecord r : records) {
-			Cigar c = r.getCigar();
-			if (r.getReadUnmappedFlag() || c.getReadLength() == seq.length) {
+			if (r.getReadUnmappedFlag() || alignments.get(r).readLength == seq.length) {
 				if (seq != null && seq != SAMRecord.NULL_SEQUENCE) {
-					byte[] newseq = Arrays.copyOf(seq, seq.length);
-					if (r.getReadNegativeStrandFlag()) {
-						SequenceUtil.reverseComplement(newseq);
+					// only replace the read bases if they differ from the full read sequence
+					if (!orientedEquals(r.getReadBases(), seq, r.getReadNegativeStrandFlag(), true)) {
+						byte[] newseq = Arrays.copyOf(seq, seq.length);
+						if (r.getReadNegativeStrandFlag()) {
+							SequenceUtil.reverseComplement(newseq);
+						}
+						r.setReadBases(newseq);
 					}
-					r.setReadBases(newseq);
 					r.setTransientAttribute("HC", null);
 					if (qual != null && qual != SAMRecord.NULL_QUALS) {
-						byte[] newqual = Arrays.copyOf(qual, qual.length);
-						if (r.getReadNegativeStrandFlag()) {
-							ArrayUtils.reverse(newqual);
+						if (!orientedEquals(r.getBaseQualities(), qual, r.getReadNegativeStrandFlag(), false)) {
+							byte[] newqual = Arrays.copyOf(qual, qual.length);
+							if (r.getReadNegativeStrandFlag()) {
+								ArrayUtils.reverse(newqual);
+							}
+							r.setBaseQualities(newqual);
 						}
-						r.setBaseQualities(newqual);
 					}
 				}
 			} else {
@@ -1286,6 +1334,25 @@ public class SAMRecordUtil {
 		}
 	}
 
+	/**
+	 * Determines whether the read bases or base qualities of a record match the given
+	 * values in sequencing order.
+	 *
+	 * @param complement complement the bases of negative strand records
+	 */
+	private static boolean orientedEquals(byte[] recordValue, byte[] value, boolean negativeStrand, boolean complement) {
+		if (recordValue == null || recordValue.length != value.length) return false;
+		int n = value.length;
+		for (int i = 0; i < n; i++) {
+			byte expected = value[i];
+			if (negativeStrand && complement) {
+				expected = SequenceUtil.complement(expected);
+			}
+			if (recordValue[negativeStrand ? n - 1 - i : i] != expected) return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Converts any hard clips into soft clipped N bases
 	 */
@@ -1472,10 +1539,7 @@ public class SAMRecordUtil {
 		// By convention, primary is the first SA record
 		boolean primaryUnmapped = record.isSecondaryOrSupplementary() &&
 				(alignments.size() == 0 || alignments.get(0).mapq < minMapq);
-		record.setAttribute(SAMTag.SA.name(), alignments.stream()
-				.filter(ca -> ca.mapq >= minMapq)
-				.map(ca -> ca.toString())
-				.collect(Collectors.joining(";")));
+		ChimericAlignment.retainChimericAlignments(record, ca -> ca.mapq >= minMapq);
 		return primaryUnmapped;
 	}
 
@@ -1814,11 +1878,5 @@ public class SAMRecordUtil {
 	public static boolean alignmentOverlaps(SAMRecord r1, SAMRecord r2) {
 		return !r1.getReadUnmappedFlag() && !r2.getReadUnmappedFlag() && r1.getReadNegativeStrandFlag() == r2.getReadNegativeStrandFlag() && r1.overlaps(r2);
 	}
-
-	private static final Ordering<SAMRecord> ByFirstAlignedBaseReadOffset = new Ordering<SAMRecord>() {
-		public int compare(SAMRecord arg1, SAMRecord arg2) {
-			return Ints.compare(getFirstAlignedBaseReadOffset(arg1), getFirstAlignedBaseReadOffset(arg2));
-		}
-	};
 }
 
@@ -0,0 +1,115 @@
+package au.edu.wehi.idsv.sam;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Alignment clipping of the records of a single template.
+ *
+ * The CIGAR of each record is decoded in a single pass the first time the record is
+ * summarised and the summary is reused until the CIGAR or strand of the record changes.
+ */
+class TemplateAlignmentSummary {
+	private final IdentityHashMap<SAMRecord, Alignment> lookup = new IdentityHashMap<>();
+	public Alignment get(SAMRecord r) {
+		Cigar cigar = r.getCigar();
+		boolean negativeStrand = r.getReadNegativeStrandFlag();
+		Alignment a = lookup.get(r);
+		// CIGARs are replaced, not modified, so an unchanged instance has unchanged clipping
+		if (a == null || a.cigar != cigar || a.negativeStrand != negativeStrand) {
+			a = new Alignment(cigar, negativeStrand);
+			lookup.put(r, a);
+		}
+		return a;
+	}
+	public int getStartClipLength(SAMRecord r) {
+		return get(r).startClipLength;
+	}
+	public int getEndClipLength(SAMRecord r) {
+		return get(r).endClipLength;
+	}
+	/**
+	 * @see SAMRecordUtil#getFirstAlignedBaseReadOffset(SAMRecord)
+	 */
+	public int getFirstAlignedBaseReadOffset(SAMRecord r) {
+		return get(r).getFirstAlignedBaseReadOffset();
+	}
+	public static class Alignment {
+		private final Cigar cigar;
+		private final boolean negativeStrand;
+		/**
+		 * Number of CIGAR operators
+		 */
+		public final int elements;
+		/**
+		 * Length of soft and hard clipping at the start of the alignment
+		 */
+		public final int startClipLength;
+		/**
+		 * Length of soft and hard clipping at the end of the alignment
+		 */
+		public final int endClipLength;
+		/**
+		 * Total length of hard clipping
+		 */
+		public final int hardClipLength;
+		/**
+		 * Alignment contains a hard clip operator
+		 */
+		public final boolean hasHardClip;
+		/**
+		 * Read length implied by the CIGAR excluding hard clipped bases
+		 */
+		public final int readLength;
+		private Alignment(Cigar cigar, boolean negativeStrand) {
+			this.cigar = cigar;
+			this.negativeStrand = negativeStrand;
+			List<CigarElement> list = cigar == null ? null : cigar.getCigarElements();
+			int n = list == null ? 0 : list.size();
+			int startClip = 0;
+			int endClip = 0;
+			int hardClip = 0;
+			int length = 0;
+			boolean hasHardClip = false;
+			boolean inStartClip = true;
+			for (int i = 0; i < n; i++) {
+				CigarElement ce = list.get(i);
+				CigarOperator op = ce.getOperator();
+				if (op.isClipping()) {
+					if (inStartClip) {
+						startClip += ce.getLength();
+					}
+					endClip += ce.getLength();
+					if (op == CigarOperator.HARD_CLIP) {
+						hardClip += ce.getLength();
+						hasHardClip = true;
+					}
+				} else {
+					inStartClip = false;
+					endClip = 0;
+				}
+				if (op.consumesReadBases()) {
+					length += ce.getLength();
+				}
+			}
+			this.elements = n;
+			this.startClipLength = startClip;
+			this.endClipLength = endClip;
+			this.hardClipLength = hardClip;
+			this.hasHardClip = hasHardClip;
+			this.readLength = length;
+		}
+		public int getFirstAlignedBaseReadOffset() {
+			if (elements == 0) return -1;
+			return negativeStrand ? endClipLength : startClipLength;
+		}
+		public int getReadLengthIncludingHardClipping() {
+			return readLength + hardClipLength;
+		}
+	}
+}
@@ -26,6 +26,21 @@ public class Fragment {
 			return seq;
 		}
 	}
+	public int getReferenceIndex() {
+		return referenceIndex;
+	}
+	/**
+	 * 1-based reference start position
+	 */
+	public int getStart() {
+		return start;
+	}
+	public int length() {
+		return seq.length();
+	}
+	public boolean isNegative() {
+		return negative;
+	}
 	public BreakendSummary getStartBreakend() {
 		return getBreakend(negative);
 	}
@@ -46,6 +46,12 @@ public class FragmentedChromosome extends SimulatedChromosome {
 		return new RandomFragmentIterator();
 	}
 	public void assemble(File fasta, File vcf, int fragments, boolean includeReference) throws IOException {
+		assemble(fasta, vcf, null, fragments, includeReference);
+	}
+	/**
+	 * @param layout simulated genome layout output file. Layout is not written if null.
+	 */
+	public void assemble(File fasta, File vcf, File layout, int fragments, boolean includeReference) throws IOException {
 		List<Fragment> fragList = new ArrayList<Fragment>();
 		RangeSet<Integer> invalid = calcInvalidBreakPositions(margin + fragmentLength);
 		Iterator<Fragment> it = candidateFragments();
@@ -59,6 +65,6 @@ public class FragmentedChromosome extends SimulatedChromosome {
 			fragList.add(f);
 		}
 		log.info(String.format("%d fragments created", fragList.size()));
-		assemble(fasta, vcf, fragList, includeReference);
+		assemble(fasta, vcf, layout, fragList, includeReference);
 	}
 }
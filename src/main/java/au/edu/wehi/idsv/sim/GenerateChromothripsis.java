@@ -30,7 +30,7 @@ public class GenerateChromothripsis extends SimulationGenerator {
     protected int doWork() {
         try {
         	java.util.Locale.setDefault(Locale.ROOT);
-        	IOUtil.assertFileIsReadable(REFERENCE);
+        	IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
         	GenomicProcessingContext pc = getProcessingContext();
         	FragmentedChromosome fc;
         	if (REPEATMASKER_OUTPUT == null) {
@@ -38,7 +38,7 @@ public class GenerateChromothripsis extends SimulationGenerator {
         	} else {
         		fc = new RepeatFragmentedChromosome(pc, CHR, PADDING, FRAGMENT_SIZE, REPEATMASKER_OUTPUT, CLASS_FAMILY, RANDOM_SEED);
         	}
-        	fc.assemble(FASTA, VCF, FRAGMENTS, INCLUDE_REFERENCE);
+        	fc.assemble(FASTA, VCF, LAYOUT, FRAGMENTS, INCLUDE_REFERENCE);
         } catch (Exception e) {
 			e.printStackTrace();
 			return 1;
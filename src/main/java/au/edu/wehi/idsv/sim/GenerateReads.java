@@ -0,0 +1,208 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.bed.BedpeWriter;
+import au.edu.wehi.idsv.sim.SimulatedGenomeLayout.Segment;
+import htsjdk.samtools.*;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Simulates paired-end sequencing of a simulated genome
+ *
+ * Reads are written directly as alignments to the reference genome
+ * so no aligner is required.
+ */
+@CommandLineProgramProperties(
+		summary = "Simulates paired-end sequencing of a genome generated by GenerateSimpleVariants, GenerateChromothripsis or SyntheticDelDupSimulator. "
+				+ "Reads are written as coordinate sorted alignments to the reference genome based on the layout of the simulated genome. "
+				+ "The tumour sample is a mixture of reads from the simulated genome and the reference contigs from which it was derived.",
+		oneLineSummary = "Simulates aligned paired-end reads from a simulated genome",
+		programGroup = gridss.cmdline.programgroups.Benchmarking.class
+)
+public class GenerateReads extends CommandLineProgram {
+	private static final Log log = Log.getInstance(GenerateReads.class);
+	@Argument(doc="Simulated genome")
+	public File FASTA;
+	@Argument(doc="Simulated genome layout")
+	public File LAYOUT;
+	@Argument(doc="Tumour sample alignments", shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME)
+	public File OUTPUT;
+	@Argument(doc="Normal sample alignments. The normal sample contains reads from the reference contigs from which the simulated genome was derived.", optional=true)
+	public File NORMAL_OUTPUT = null;
+	@Argument(doc="Breakpoints of the simulated genome in BEDPE format", optional=true)
+	public File TRUTH = null;
+	@Argument(doc="Tumour sample read depth", optional=true)
+	public double COVERAGE = 30;
+	@Argument(doc="Normal sample read depth", optional=true)
+	public double NORMAL_COVERAGE = 30;
+	@Argument(doc="Proportion of tumour sample reads originating from the simulated genome. Remaining reads originate from the reference.", optional=true)
+	public double TUMOUR_PURITY = 1;
+	@Argument(doc="Read length", optional=true)
+	public int READ_LENGTH = 150;
+	@Argument(doc="Mean fragment size", optional=true)
+	public double FRAGMENT_SIZE = 400;
+	@Argument(doc="Fragment size standard deviation", optional=true)
+	public double FRAGMENT_SIZE_STDDEV = 50;
+	@Argument(doc="Substitution error rate of the first sequenced base", optional=true)
+	public double READ_START_ERROR_RATE = 0.001;
+	@Argument(doc="Substitution error rate of the last sequenced base. Error rates increase linearly along the read.", optional=true)
+	public double READ_END_ERROR_RATE = 0.01;
+	@Argument(doc="Minimum number of read bases required to report an alignment", optional=true)
+	public int MIN_ALIGNMENT_LENGTH = 20;
+	@Argument(doc="Mapping quality of all alignments", optional=true)
+	public int MAPPING_QUALITY = 60;
+	@Argument(doc="Tumour sample name", optional=true)
+	public String SAMPLE = "tumour";
+	@Argument(doc="Normal sample name", optional=true)
+	public String NORMAL_SAMPLE = "normal";
+	@Argument(doc="Seed for random number generator", optional=true)
+	public int RANDOM_SEED = 1;
+	@Override
+	protected boolean requiresReference() {
+		return true;
+	}
+	@Override
+	protected String[] customCommandLineValidation() {
+		if (TUMOUR_PURITY < 0 || TUMOUR_PURITY > 1) {
+			return new String[] { "TUMOUR_PURITY must be between 0 and 1." };
+		}
+		if (READ_LENGTH <= 0) {
+			return new String[] { "READ_LENGTH must be positive." };
+		}
+		if (MIN_ALIGNMENT_LENGTH <= 0) {
+			return new String[] { "MIN_ALIGNMENT_LENGTH must be positive." };
+		}
+		return super.customCommandLineValidation();
+	}
+	@Override
+	protected int doWork() {
+		try {
+			java.util.Locale.setDefault(Locale.ROOT);
+			IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
+			IOUtil.assertFileIsReadable(FASTA);
+			IOUtil.assertFileIsReadable(LAYOUT);
+			IOUtil.assertFileIsWritable(OUTPUT);
+			SimulatedGenomeLayout layout = SimulatedGenomeLayout.read(LAYOUT);
+			try (ReferenceSequenceFile reference = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE)) {
+				SAMSequenceDictionary dict = reference.getSequenceDictionary();
+				if (dict == null) {
+					throw new IllegalArgumentException("Missing sequence dictionary for " + REFERENCE_SEQUENCE);
+				}
+				Set<String> referenceContigs = getReferenceContigs(layout, dict);
+				ReadSimulator tumour = createSimulator(dict, reference, SAMPLE, RANDOM_SEED);
+				try (SAMFileWriter writer = createWriter(tumour, OUTPUT)) {
+					try (BedpeWriter truth = TRUTH == null ? null : new BedpeWriter(dict, TRUTH);
+							ReferenceSequenceFile fasta = ReferenceSequenceFileFactory.getReferenceSequenceFile(FASTA, true, false)) {
+						if (truth != null) {
+							truth.writeHeader(true, false);
+						}
+						ReferenceSequence seq;
+						while ((seq = fasta.nextSequence()) != null) {
+							List<Segment> segments = layout.getSegments(seq.getName());
+							if (layout.getLength(seq.getName()) != seq.length()) {
+								throw new IllegalArgumentException(String.format("Layout of %s does not match simulated sequence length of %d", seq.getName(), seq.length()));
+							}
+							log.info("Simulating reads from ", seq.getName());
+							tumour.simulate(SAMPLE + "." + seq.getName() + ".", seq.getBases(), segments,
+									tumour.fragmentsForCoverage(seq.length(), TUMOUR_PURITY * COVERAGE), writer::addAlignment);
+							if (truth != null) {
+								writeBreakpoints(truth, dict, seq, segments);
+							}
+						}
+					}
+					if (TUMOUR_PURITY < 1) {
+						simulateReference(tumour, reference, referenceContigs, (1 - TUMOUR_PURITY) * COVERAGE, SAMPLE + ".", writer);
+					}
+				}
+				if (NORMAL_OUTPUT != null) {
+					ReadSimulator normal = createSimulator(dict, reference, NORMAL_SAMPLE, ~RANDOM_SEED);
+					try (SAMFileWriter writer = createWriter(normal, NORMAL_OUTPUT)) {
+						simulateReference(normal, reference, referenceContigs, NORMAL_COVERAGE, NORMAL_SAMPLE + ".", writer);
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 1;
+		}
+		return 0;
+	}
+	private ReadSimulator createSimulator(SAMSequenceDictionary dict, ReferenceSequenceFile reference, String sample, long seed) {
+		SAMFileHeader header = new SAMFileHeader(dict);
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		SAMReadGroupRecord rg = new SAMReadGroupRecord(sample);
+		rg.setSample(sample);
+		rg.setPlatform("ILLUMINA");
+		header.addReadGroup(rg);
+		return new ReadSimulator(header, reference, sample, READ_LENGTH, FRAGMENT_SIZE, FRAGMENT_SIZE_STDDEV,
+				READ_START_ERROR_RATE, READ_END_ERROR_RATE, MIN_ALIGNMENT_LENGTH, MAPPING_QUALITY, seed);
+	}
+	private SAMFileWriter createWriter(ReadSimulator simulator, File file) {
+		return new SAMFileWriterFactory()
+				.setTempDirectory(TMP_DIR.get(0))
+				.setMaxRecordsInRam(MAX_RECORDS_IN_RAM)
+				.setCreateIndex(CREATE_INDEX)
+				.makeSAMOrBAMWriter(simulator.getHeader(), false, file);
+	}
+	/**
+	 * Reference contigs from which the simulated genome was derived
+	 */
+	private static Set<String> getReferenceContigs(SimulatedGenomeLayout layout, SAMSequenceDictionary dict) {
+		Set<String> contigs = new LinkedHashSet<>();
+		for (String derivedContig : layout.getDerivedContigs()) {
+			for (Segment s : layout.getSegments(derivedContig)) {
+				if (!s.isNovel()) {
+					if (dict.getSequence(s.referenceContig) == null) {
+						throw new IllegalArgumentException(String.format("Layout contig %s not found in reference", s.referenceContig));
+					}
+					contigs.add(s.referenceContig);
+				}
+			}
+		}
+		return contigs;
+	}
+	private static void simulateReference(ReadSimulator simulator, ReferenceSequenceFile reference, Set<String> contigs, double coverage, String readNamePrefix, SAMFileWriter writer) {
+		for (String contig : contigs) {
+			ReferenceSequence seq = reference.getSequence(contig);
+			SimulatedGenomeLayout identity = new SimulatedGenomeLayout();
+			identity.appendReference(contig, contig, 1, seq.length(), false);
+			log.info("Simulating reads from reference ", contig);
+			simulator.simulate(readNamePrefix + contig + ".", seq.getBases(), identity.getSegments(contig),
+					simulator.fragmentsForCoverage(seq.length(), coverage), writer::addAlignment);
+		}
+	}
+	/**
+	 * Writes the breakpoints between consecutive reference segments of the given simulated contig
+	 */
+	private static void writeBreakpoints(BedpeWriter writer, SAMSequenceDictionary dict, ReferenceSequence seq, List<Segment> segments) throws IOException {
+		Segment last = null;
+		int breakpointCount = 0;
+		for (Segment s : segments) {
+			if (s.isNovel()) continue;
+			if (last != null) {
+				BreakpointSummary bp = new BreakpointSummary(last.getEndBreakend(dict), s.getStartBreakend(dict));
+				String untemplated = new String(seq.getBases(), last.getDerivedEnd(), s.derivedStart - last.getDerivedEnd() - 1);
+				writer.write(bp, String.format("truth_%s_%d", seq.getName(), breakpointCount++), ".", untemplated);
+			}
+			last = s;
+		}
+	}
+	public static void main(String[] argv) {
+		System.exit(new GenerateReads().instanceMain(argv));
+	}
+}
@@ -28,10 +28,10 @@ public class GenerateSimpleVariants extends SimulationGenerator {
 	protected int doWork() {
     	try {
         	java.util.Locale.setDefault(Locale.ROOT);
-        	IOUtil.assertFileIsReadable(REFERENCE);
+        	IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
         	GenomicProcessingContext pc = getProcessingContext();
         	SimpleVariantChromosome gen = new SimpleVariantChromosome(pc, CHR, PADDING, RANDOM_SEED);
-        	gen.assemble(FASTA, VCF, INCLUDE_REFERENCE, TYPE, SIZE, COPIES == null ? Integer.MAX_VALUE : COPIES);
+        	gen.assemble(FASTA, VCF, LAYOUT, INCLUDE_REFERENCE, TYPE, SIZE, COPIES == null ? Integer.MAX_VALUE : COPIES);
         } catch (Exception e) {
 			e.printStackTrace();
 			return 1;
@@ -0,0 +1,283 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import au.edu.wehi.idsv.sim.SimulatedGenomeLayout.Segment;
+import com.google.common.collect.ImmutableSet;
+import htsjdk.samtools.*;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.SequenceUtil;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Generates paired-end reads from a simulated genome.
+ *
+ * Reads are aligned directly from the simulated genome layout: the longest
+ * reference segment covered by a read is reported as the primary alignment and
+ * any other reference segments of sufficient length as supplementary alignments.
+ * Reads entirely in novel sequence are unmapped.
+ *
+ * All random choices are made from a single seeded random number generator
+ * so output is deterministic.
+ */
+public class ReadSimulator {
+	private static final byte[] BASES = new byte[] { 'A', 'C', 'G', 'T' };
+	private static final int MAX_BASE_QUALITY = 41;
+	private static final int MIN_BASE_QUALITY = 2;
+	private static final Set<String> TAGS = ImmutableSet.of(SAMTag.SA.name(), SAMTag.MC.name(), SAMTag.MQ.name());
+	private final SAMFileHeader header;
+	private final ReferenceSequenceFile reference;
+	private final Map<String, byte[]> referenceBases = new HashMap<>();
+	private final Random rng;
+	private final int readLength;
+	private final double fragmentSizeMean;
+	private final double fragmentSizeStdDev;
+	private final double readStartErrorRate;
+	private final double readEndErrorRate;
+	private final int minAlignmentLength;
+	private final int mappingQuality;
+	private final String readGroup;
+	private long templateCount = 0;
+	/**
+	 * @param header output header. Sequence dictionary must match the reference genome
+	 * @param reference reference genome
+	 * @param readGroup read group of all reads. No read group is assigned if null
+	 * @param readLength length of each read
+	 * @param fragmentSizeMean mean fragment size
+	 * @param fragmentSizeStdDev fragment size standard deviation
+	 * @param readStartErrorRate substitution error rate at the first sequenced base
+	 * @param readEndErrorRate substitution error rate at the last sequenced base.
+	 * Error rate increases linearly along the read.
+	 * @param minAlignmentLength minimum number of bases required to report an alignment to a reference segment
+	 * @param mappingQuality mapping quality of all alignments
+	 * @param seed random seed
+	 */
+	public ReadSimulator(SAMFileHeader header, ReferenceSequenceFile reference, String readGroup,
+			int readLength, double fragmentSizeMean, double fragmentSizeStdDev,
+			double readStartErrorRate, double readEndErrorRate,
+			int minAlignmentLength, int mappingQuality, long seed) {
+		if (readLength <= 0) throw new IllegalArgumentException("readLength must be positive");
+		if (minAlignmentLength <= 0) throw new IllegalArgumentException("minAlignmentLength must be positive");
+		this.header = header;
+		this.reference = reference;
+		this.readGroup = readGroup;
+		this.readLength = readLength;
+		this.fragmentSizeMean = fragmentSizeMean;
+		this.fragmentSizeStdDev = fragmentSizeStdDev;
+		this.readStartErrorRate = readStartErrorRate;
+		this.readEndErrorRate = readEndErrorRate;
+		this.minAlignmentLength = minAlignmentLength;
+		this.mappingQuality = mappingQuality;
+		this.rng = new Random(seed);
+	}
+	public SAMFileHeader getHeader() {
+		return header;
+	}
+	/**
+	 * Number of read pairs required to sequence a contig of the given length to the given depth
+	 */
+	public long fragmentsForCoverage(int contigLength, double coverage) {
+		return Math.round(coverage * contigLength / (2.0 * readLength));
+	}
+	/**
+	 * Generates read pairs from the given simulated contig.
+	 * Fragments spanning ambiguous bases are not sequenced.
+	 * @param readNamePrefix read name prefix
+	 * @param bases simulated contig sequence
+	 * @param segments layout of the simulated contig
+	 * @param fragments number of fragments to sequence
+	 * @param out alignment output. Records are not sorted.
+	 */
+	public void simulate(String readNamePrefix, byte[] bases, List<Segment> segments, long fragments, Consumer<SAMRecord> out) {
+		if (bases.length < readLength) return;
+		int[] segmentStart = new int[segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			segmentStart[i] = segments.get(i).derivedStart;
+		}
+		for (long i = 0; i < fragments; i++) {
+			int fragmentLength = (int)Math.round(fragmentSizeMean + rng.nextGaussian() * fragmentSizeStdDev);
+			fragmentLength = Math.min(bases.length, Math.max(readLength, fragmentLength));
+			// 0-based
+			int start = rng.nextInt(bases.length - fragmentLength + 1);
+			boolean flip = rng.nextBoolean();
+			if (isAmbiguous(bases, start, start + fragmentLength)) continue;
+			byte[] read1 = errors(bases, start, false);
+			byte[] read2 = errors(bases, start + fragmentLength - readLength, true);
+			String readName = readNamePrefix + Long.toString(templateCount++);
+			List<SAMRecord> records = new ArrayList<>(4);
+			align(readName, !flip, read1, start + 1, false, segments, segmentStart, records);
+			align(readName, flip, read2, start + fragmentLength - readLength + 1, true, segments, segmentStart, records);
+			SAMRecordUtil.calculateTemplateTags(records, TAGS, false, true, false, true, false, false);
+			setProperPairFlag(records);
+			records.forEach(out);
+		}
+	}
+	private static boolean isAmbiguous(byte[] bases, int start, int end) {
+		for (int i = start; i < end; i++) {
+			switch (bases[i]) {
+				case 'A':
+				case 'C':
+				case 'G':
+				case 'T':
+				case 'a':
+				case 'c':
+				case 'g':
+				case 't':
+					break;
+				default:
+					return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Sequences the given bases
+	 * @param start 0-based start offset of the read
+	 * @param reverse read is sequenced from the reverse strand
+	 * @return read bases followed by base qualities in the orientation of the contig
+	 */
+	private byte[] errors(byte[] bases, int start, boolean reverse) {
+		byte[] result = new byte[2 * readLength];
+		for (int i = 0; i < readLength; i++) {
+			// sequencing cycle
+			int cycle = reverse ? readLength - 1 - i : i;
+			double errorRate = readLength == 1 ? readStartErrorRate : readStartErrorRate + (readEndErrorRate - readStartErrorRate) * cycle / (readLength - 1);
+			byte base = (byte)Character.toUpperCase(bases[start + i]);
+			if (rng.nextDouble() < errorRate) {
+				byte error = BASES[rng.nextInt(BASES.length - 1)];
+				if (error == base) {
+					error = BASES[BASES.length - 1];
+				}
+				base = error;
+			}
+			result[i] = base;
+			result[readLength + i] = phred(errorRate);
+		}
+		return result;
+	}
+	private static byte phred(double errorRate) {
+		if (errorRate <= 0) return MAX_BASE_QUALITY;
+		int qual = (int)Math.round(-10 * Math.log10(errorRate));
+		return (byte)Math.max(MIN_BASE_QUALITY, Math.min(MAX_BASE_QUALITY, qual));
+	}
+	/**
+	 * Aligns the given read to the reference segments it overlaps
+	 * @param firstOfPair read is the first read of the pair
+	 * @param read read bases and base qualities in the orientation of the contig
+	 * @param start 1-based contig position of the first base of the read
+	 * @param reverse read was sequenced from the reverse strand of the contig
+	 */
+	private void align(String readName, boolean firstOfPair, byte[] read, int start, boolean reverse, List<Segment> segments, int[] segmentStart, List<SAMRecord> out) {
+		int end = start + readLength - 1;
+		int first = Arrays.binarySearch(segmentStart, start);
+		if (first < 0) {
+			first = -first - 2;
+		}
+		List<SAMRecord> alignments = new ArrayList<>(2);
+		SAMRecord primary = null;
+		int primaryLength = 0;
+		for (int i = first; i < segments.size() && segments.get(i).derivedStart <= end; i++) {
+			Segment s = segments.get(i);
+			if (s.isNovel()) continue;
+			int readStartOffset = Math.max(start, s.derivedStart) - start;
+			int readEndOffset = Math.min(end, s.getDerivedEnd()) - start + 1;
+			int length = readEndOffset - readStartOffset;
+			if (length < minAlignmentLength) continue;
+			SAMRecord r = createAlignment(readName, firstOfPair, read, start, reverse, s, readStartOffset, readEndOffset);
+			alignments.add(r);
+			if (length > primaryLength) {
+				primary = r;
+				primaryLength = length;
+			}
+		}
+		if (primary == null) {
+			out.add(createUnmapped(readName, firstOfPair, read, reverse));
+			return;
+		}
+		for (SAMRecord r : alignments) {
+			r.setSupplementaryAlignmentFlag(r != primary);
+		}
+		out.addAll(alignments);
+	}
+	private SAMRecord createRecord(String readName, boolean firstOfPair) {
+		SAMRecord r = new SAMRecord(header);
+		r.setReadName(readName);
+		r.setReadPairedFlag(true);
+		r.setFirstOfPairFlag(firstOfPair);
+		r.setSecondOfPairFlag(!firstOfPair);
+		if (readGroup != null) {
+			r.setAttribute(SAMTag.RG.name(), readGroup);
+		}
+		return r;
+	}
+	private SAMRecord createUnmapped(String readName, boolean firstOfPair, byte[] read, boolean reverse) {
+		SAMRecord r = createRecord(readName, firstOfPair);
+		byte[] bases = Arrays.copyOfRange(read, 0, readLength);
+		byte[] quals = Arrays.copyOfRange(read, readLength, 2 * readLength);
+		if (reverse) {
+			// unmapped reads are reported as sequenced
+			SequenceUtil.reverseComplement(bases);
+			SequenceUtil.reverseQualities(quals);
+		}
+		r.setReadBases(bases);
+		r.setBaseQualities(quals);
+		r.setReadUnmappedFlag(true);
+		r.setMappingQuality(SAMRecord.NO_MAPPING_QUALITY);
+		return r;
+	}
+	private SAMRecord createAlignment(String readName, boolean firstOfPair, byte[] read, int start, boolean reverse, Segment s, int readStartOffset, int readEndOffset) {
+		SAMRecord r = createRecord(readName, firstOfPair);
+		byte[] bases = Arrays.copyOfRange(read, 0, readLength);
+		byte[] quals = Arrays.copyOfRange(read, readLength, 2 * readLength);
+		int startClip = readStartOffset;
+		int endClip = readLength - readEndOffset;
+		int alignmentStart = s.getReferencePosition(start + readStartOffset);
+		if (s.negative) {
+			SequenceUtil.reverseComplement(bases);
+			SequenceUtil.reverseQualities(quals);
+			startClip = readLength - readEndOffset;
+			endClip = readStartOffset;
+			alignmentStart = s.getReferencePosition(start + readEndOffset - 1);
+		}
+		List<CigarElement> cigar = new ArrayList<>(3);
+		if (startClip > 0) cigar.add(new CigarElement(startClip, CigarOperator.SOFT_CLIP));
+		cigar.add(new CigarElement(readEndOffset - readStartOffset, CigarOperator.MATCH_OR_MISMATCH));
+		if (endClip > 0) cigar.add(new CigarElement(endClip, CigarOperator.SOFT_CLIP));
+		r.setReadBases(bases);
+		r.setBaseQualities(quals);
+		r.setReferenceName(s.referenceContig);
+		r.setAlignmentStart(alignmentStart);
+		r.setCigar(new Cigar(cigar));
+		r.setReadNegativeStrandFlag(reverse ^ s.negative);
+		r.setMappingQuality(mappingQuality);
+		r.setAttribute(SAMTag.NM.name(), SequenceUtil.calculateSamNmTag(r, getReferenceBases(s.referenceContig), 0));
+		return r;
+	}
+	private byte[] getReferenceBases(String contig) {
+		return referenceBases.computeIfAbsent(contig, c -> reference.getSequence(c).getBases());
+	}
+	/**
+	 * Flags read pairs with primary alignments in the expected orientation within
+	 * four standard deviations of the mean fragment size as properly paired.
+	 */
+	private void setProperPairFlag(List<SAMRecord> records) {
+		SAMRecord r1 = null;
+		SAMRecord r2 = null;
+		for (SAMRecord r : records) {
+			if (!r.getSupplementaryAlignmentFlag()) {
+				if (r.getFirstOfPairFlag()) r1 = r;
+				else r2 = r;
+			}
+		}
+		boolean proper = r1 != null && r2 != null
+				&& !r1.getReadUnmappedFlag()
+				&& !r2.getReadUnmappedFlag()
+				&& r1.getReferenceIndex().equals(r2.getReferenceIndex())
+				&& SamPairUtil.getPairOrientation(r1) == SamPairUtil.PairOrientation.FR
+				&& Math.abs(r1.getInferredInsertSize()) <= fragmentSizeMean + 4 * fragmentSizeStdDev;
+		for (SAMRecord r : records) {
+			r.setProperPairFlag(proper);
+		}
+	}
+}
@@ -43,12 +43,20 @@ public class SimpleVariantChromosome extends SimulatedChromosome {
 		this.baseGen = new RandomBaseGenerator(seed);
 	}
 	public void assemble(File fasta, File vcf, boolean includeReference, List<SvType> type, List<Integer> size, int countPerEventTypeSize) throws IOException {
+		assemble(fasta, vcf, null, includeReference, type, size, countPerEventTypeSize);
+	}
+	/**
+	 * @param layout simulated genome layout output file. Layout is not written if null.
+	 */
+	public void assemble(File fasta, File vcf, File layout, boolean includeReference, List<SvType> type, List<Integer> size, int countPerEventTypeSize) throws IOException {
 		List<Event> variantList = populateEvents(type, size, countPerEventTypeSize);
 		// ensure counts are the same
 		variantList.subList(0, variantList.size() - variantList.size() % countPerEventTypeSize);
 		List<VariantContext> list = new ArrayList<VariantContext>();
 		
-		StringBuilder sb = new StringBuilder(">variant." + getChr() + "\n");
+		String derivedContig = "variant." + getChr();
+		StringBuilder sb = new StringBuilder(">" + derivedContig + "\n");
+		SimulatedGenomeLayout genomeLayout = new SimulatedGenomeLayout();
 		
 		int genomicPosition = 0; // emitting up to and including this genomic position
 		for (Event e : variantList) {
@@ -60,10 +68,12 @@ public class SimpleVariantChromosome extends SimulatedChromosome {
 			// emit up to start location exclusive
 			String beforeAnchorSequence = new String(seq, genomicPosition, e.start - genomicPosition - 1);
 			sb.append(beforeAnchorSequence);
+			genomeLayout.appendReference(derivedContig, getChr(), genomicPosition + 1, beforeAnchorSequence.length(), false);
 			genomicPosition = e.start;
 			String refBefore =  new String(seq, genomicPosition - 1, 1);
 			String altSeq = getVariantSeq(e.type, e.size, genomicPosition, 1, 0);
 			sb.append(altSeq);
+			appendLayout(genomeLayout, derivedContig, e);
 			VariantContextBuilder builder = new VariantContextBuilder();
 			builder.id(String.format("%s.%d.%s%d", getChr(), e.start, e.type, e.size))
 				.chr(getChr())
@@ -88,6 +98,7 @@ public class SimpleVariantChromosome extends SimulatedChromosome {
 			genomicPosition += getGenomicWidth(e.type, e.size);
 		}
 		sb.append(new String(seq, genomicPosition, margin));
+		genomeLayout.appendReference(derivedContig, getChr(), genomicPosition + 1, margin, false);
 		genomicPosition += margin;
 		if (includeReference) {
 			sb.append("\n>");
@@ -95,9 +106,35 @@ public class SimpleVariantChromosome extends SimulatedChromosome {
 			sb.append("\n");
 			sb.append(new String(seq, 0, genomicPosition));
 			sb.append("\n");
+			genomeLayout.appendReference(getChr(), getChr(), 1, genomicPosition, false);
 		}
 		Files.asCharSink(fasta, StandardCharsets.US_ASCII).write(sb.toString());
 		writeVcf(vcf, list);
+		if (layout != null) {
+			genomeLayout.write(layout);
+		}
+	}
+	/**
+	 * Appends the layout of the anchor base and variant sequence of the given event
+	 */
+	private void appendLayout(SimulatedGenomeLayout genomeLayout, String derivedContig, Event e) {
+		genomeLayout.appendReference(derivedContig, getChr(), e.start, 1, false);
+		switch (e.type) {
+		case INS:
+			genomeLayout.appendNovel(derivedContig, e.size);
+			break;
+		case DEL:
+			break;
+		case INV:
+			genomeLayout.appendReference(derivedContig, getChr(), e.start + 1, e.size, true);
+			break;
+		case DUP:
+			genomeLayout.appendReference(derivedContig, getChr(), e.start + 1, e.size, false);
+			genomeLayout.appendReference(derivedContig, getChr(), e.start + 1, e.size, false);
+			break;
+		default:
+			throw new RuntimeException("NYI");
+		}
 	}
 	private int homLenBefore(SvType t, int size, int genomicPosition) {
 		int len = 0;
@@ -84,20 +84,27 @@ public class SimulatedChromosome {
 		return invalid;
 	}
 	protected void assemble(File fasta, File vcf, List<Fragment> fragList, boolean includeReference) throws IOException {
+		assemble(fasta, vcf, null, fragList, includeReference);
+	}
+	protected void assemble(File fasta, File vcf, File layout, List<Fragment> fragList, boolean includeReference) throws IOException {
 		StringBuilder sb = new StringBuilder();
+		SimulatedGenomeLayout genomeLayout = new SimulatedGenomeLayout();
 		if (includeReference) {
 			sb.append(">");
 			sb.append( getChr());
 			sb.append("\n");
 			sb.append(new String(seq, StandardCharsets.US_ASCII));
 			sb.append("\n");
+			genomeLayout.appendReference(getChr(), getChr(), 1, seq.length, false);
 		}
-		sb.append(">chromothripsis." + getChr() + "\n");
+		String derivedContig = "chromothripsis." + getChr();
+		sb.append(">" + derivedContig + "\n");
 		List<IdsvVariantContext> calls = Lists.newArrayList();
 		Fragment last = null;
 		for (int i = 0; i < fragList.size(); i++) {
 			Fragment f = fragList.get(i);
 			sb.append(f.getSequence());
+			genomeLayout.appendReference(derivedContig, getChr(), f.getStart(), f.length(), f.isNegative());
 			if (last != null) {
 				BreakpointSummary bp = new BreakpointSummary(last.getEndBreakend(), f.getStartBreakend());
 				String event = String.format("truth_%d_", i);
@@ -113,6 +120,9 @@ public class SimulatedChromosome {
 			writer.add(vc);
 		}
 		writer.close();
+		if (layout != null) {
+			genomeLayout.write(layout);
+		}
 	}
 	protected IdsvVariantContextBuilder create(BreakpointSummary bp, String event) {
 		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(context);
@@ -0,0 +1,196 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import htsjdk.samtools.SAMSequenceDictionary;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Origin of each base of a simulated genome.
+ *
+ * Each derived contig is composed of consecutive segments, each of which is either
+ * copied from the reference (in either orientation) or novel sequence.
+ *
+ * The layout is written as a tab-separated file with one segment per line:
+ * derived contig, 1-based derived start, length, reference contig, 1-based reference start, strand.
+ * Novel sequence segments have a reference contig and strand of '.'
+ */
+public class SimulatedGenomeLayout {
+	private static final String NOVEL = ".";
+	private static final String HEADER = "#derivedContig\tderivedStart\tlength\treferenceContig\treferenceStart\tstrand";
+	private final Map<String, List<Segment>> segments = new LinkedHashMap<>();
+	public static class Segment {
+		public final String derivedContig;
+		/**
+		 * 1-based start position on the derived contig
+		 */
+		public final int derivedStart;
+		public final int length;
+		/**
+		 * Reference contig the segment was copied from. Null for novel sequence.
+		 */
+		public final String referenceContig;
+		/**
+		 * 1-based start position of the segment on the reference contig
+		 */
+		public final int referenceStart;
+		/**
+		 * Segment is the reverse complement of the reference sequence
+		 */
+		public final boolean negative;
+		public Segment(String derivedContig, int derivedStart, int length, String referenceContig, int referenceStart, boolean negative) {
+			this.derivedContig = derivedContig;
+			this.derivedStart = derivedStart;
+			this.length = length;
+			this.referenceContig = referenceContig;
+			this.referenceStart = referenceStart;
+			this.negative = negative;
+		}
+		public boolean isNovel() {
+			return referenceContig == null;
+		}
+		/**
+		 * 1-based end position (inclusive) on the derived contig
+		 */
+		public int getDerivedEnd() {
+			return derivedStart + length - 1;
+		}
+		/**
+		 * 1-based end position (inclusive) on the reference contig
+		 */
+		public int getReferenceEnd() {
+			return referenceStart + length - 1;
+		}
+		/**
+		 * Reference position of the given derived contig position
+		 */
+		public int getReferencePosition(int derivedPosition) {
+			int offset = derivedPosition - derivedStart;
+			return negative ? getReferenceEnd() - offset : referenceStart + offset;
+		}
+		/**
+		 * Reference breakend at the start of the segment
+		 */
+		public BreakendSummary getStartBreakend(SAMSequenceDictionary dict) {
+			int referenceIndex = dict.getSequenceIndex(referenceContig);
+			return negative ? new BreakendSummary(referenceIndex, BreakendDirection.Forward, getReferenceEnd())
+					: new BreakendSummary(referenceIndex, BreakendDirection.Backward, referenceStart);
+		}
+		/**
+		 * Reference breakend at the end of the segment
+		 */
+		public BreakendSummary getEndBreakend(SAMSequenceDictionary dict) {
+			int referenceIndex = dict.getSequenceIndex(referenceContig);
+			return negative ? new BreakendSummary(referenceIndex, BreakendDirection.Backward, referenceStart)
+					: new BreakendSummary(referenceIndex, BreakendDirection.Forward, getReferenceEnd());
+		}
+		private boolean isContinuedBy(String referenceContig, int referenceStart, int length, boolean negative) {
+			if (referenceContig == null || this.referenceContig == null) {
+				return referenceContig == this.referenceContig;
+			}
+			if (!this.referenceContig.equals(referenceContig) || this.negative != negative) return false;
+			return negative ? referenceStart + length == this.referenceStart : getReferenceEnd() + 1 == referenceStart;
+		}
+		@Override
+		public String toString() {
+			return String.format("%s:%d-%d %s", derivedContig, derivedStart, getDerivedEnd(),
+					isNovel() ? NOVEL : String.format("%s:%d-%d%s", referenceContig, referenceStart, getReferenceEnd(), negative ? "-" : "+"));
+		}
+	}
+	/**
+	 * Appends bases copied from the reference to the end of the given derived contig
+	 * @param referenceStart 1-based reference start position
+	 * @param negative appended sequence is the reverse complement of the reference sequence
+	 */
+	public void appendReference(String derivedContig, String referenceContig, int referenceStart, int length, boolean negative) {
+		append(derivedContig, referenceContig, referenceStart, length, negative);
+	}
+	/**
+	 * Appends novel sequence to the end of the given derived contig
+	 */
+	public void appendNovel(String derivedContig, int length) {
+		append(derivedContig, null, 0, length, false);
+	}
+	private void append(String derivedContig, String referenceContig, int referenceStart, int length, boolean negative) {
+		if (length <= 0) return;
+		List<Segment> list = segments.computeIfAbsent(derivedContig, k -> new ArrayList<>());
+		int derivedStart = 1;
+		if (!list.isEmpty()) {
+			Segment last = list.get(list.size() - 1);
+			derivedStart = last.getDerivedEnd() + 1;
+			if (last.isContinuedBy(referenceContig, referenceStart, length, negative)) {
+				list.set(list.size() - 1, new Segment(derivedContig, last.derivedStart, last.length + length,
+						referenceContig, negative ? referenceStart : last.referenceStart, negative));
+				return;
+			}
+		}
+		list.add(new Segment(derivedContig, derivedStart, length, referenceContig, referenceStart, negative));
+	}
+	public List<String> getDerivedContigs() {
+		return ImmutableList.copyOf(segments.keySet());
+	}
+	/**
+	 * Segments of the given derived contig ordered by derived position
+	 */
+	public List<Segment> getSegments(String derivedContig) {
+		List<Segment> list = segments.get(derivedContig);
+		return list == null ? ImmutableList.of() : ImmutableList.copyOf(list);
+	}
+	/**
+	 * Total length of the given derived contig
+	 */
+	public int getLength(String derivedContig) {
+		List<Segment> list = segments.get(derivedContig);
+		if (list == null || list.isEmpty()) return 0;
+		return list.get(list.size() - 1).getDerivedEnd();
+	}
+	public void write(File file) throws IOException {
+		try (BufferedWriter writer = Files.newWriter(file, StandardCharsets.US_ASCII)) {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (List<Segment> list : segments.values()) {
+				for (Segment s : list) {
+					writer.write(String.format("%s\t%d\t%d\t%s\t%d\t%s\n",
+							s.derivedContig,
+							s.derivedStart,
+							s.length,
+							s.isNovel() ? NOVEL : s.referenceContig,
+							s.isNovel() ? 0 : s.referenceStart,
+							s.isNovel() ? NOVEL : (s.negative ? "-" : "+")));
+				}
+			}
+		}
+	}
+	public static SimulatedGenomeLayout read(File file) throws IOException {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		for (String line : Files.readLines(file, StandardCharsets.US_ASCII)) {
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split("\t");
+			if (fields.length != 6) {
+				throw new IllegalArgumentException(String.format("Malformed layout line in %s: %s", file, line));
+			}
+			String derivedContig = fields[0];
+			int derivedStart = Integer.parseInt(fields[1]);
+			int length = Integer.parseInt(fields[2]);
+			if (derivedStart != layout.getLength(derivedContig) + 1) {
+				throw new IllegalArgumentException(String.format("Layout segments of %s in %s are not contiguous", derivedContig, file));
+			}
+			if (NOVEL.equals(fields[3])) {
+				layout.appendNovel(derivedContig, length);
+			} else {
+				layout.appendReference(derivedContig, fields[3], Integer.parseInt(fields[4]), length, "-".equals(fields[5]));
+			}
+		}
+		return layout;
+	}
+}
@@ -4,13 +4,10 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import org.broadinstitute.barclay.argparser.Argument;
 import picard.cmdline.CommandLineProgram;
-import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.File;
 
 public abstract class SimulationGenerator extends CommandLineProgram {
-    @Argument(doc="Reference used for alignment", shortName=StandardOptionDefinitions.REFERENCE_SHORT_NAME)
-    public File REFERENCE;
     @Argument(doc="Variant list")
     public File VCF;
     @Argument(doc="Resultant sequence")
@@ -23,8 +20,14 @@ public abstract class SimulationGenerator extends CommandLineProgram {
     public String CHR;
     @Argument(doc="Include reference chromosome in output as separate contig", optional=true)
     public boolean INCLUDE_REFERENCE = false;
+    @Argument(doc="Simulated genome layout recording the reference origin of each simulated contig base. Required as input to GenerateReads", optional=true)
+    public File LAYOUT = null;
+    @Override
+    protected boolean requiresReference() {
+    	return true;
+    }
     protected GenomicProcessingContext getProcessingContext() {
-    	GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), new File("."), MAX_RECORDS_IN_RAM), REFERENCE, null);
+    	GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), new File("."), MAX_RECORDS_IN_RAM), REFERENCE_SEQUENCE, null);
     	pc.setCommandLineProgram(this);
     	return pc;
     }
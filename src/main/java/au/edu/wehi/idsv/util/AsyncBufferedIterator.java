@@ -3,6 +3,7 @@ package au.edu.wehi.idsv.util;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
@@ -11,33 +12,73 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Wrapper iterator that uses a background thread to read from a given source iterator.
- * 
+ * Wrapper iterator that reads ahead from a given source iterator in the background.
+ *
+ * Read-ahead is performed by a shared, bounded pool of prefetch threads.
+ * Each iterator reads ahead at most bufferCount batches before releasing its
+ * prefetch thread back to the pool. Reading resumes once the consumer has taken a batch.
+ *
+ * If no read ahead task is running when the consumer finds the buffer empty,
+ * the consumer reads the next batches on the calling thread. This ensures progress
+ * even when every prefetch thread is blocked waiting on another asynchronously
+ * buffered iterator.
+ *
  * @author Daniel Cameron
  *
  */
 public class AsyncBufferedIterator<T> implements CloseableIterator<T>, PeekingIterator<T>, AutoCloseable {
-	private static AtomicInteger threadsCreated = new AtomicInteger(0);
 	private static final Log log = Log.getInstance(AsyncBufferedIterator.class);
-    private final Thread reader;
-    private final ReaderRunnable readerRunnable;
-    private final AtomicReference<Throwable> ex = new AtomicReference<Throwable>(null);
-    private final Iterator<T> underlying;
-	private final BlockingQueue<List<Object>> buffer;
-	private boolean closeCalled = false;
+	private static AtomicInteger iteratorsCreated = new AtomicInteger(0);
+	private static Executor prefetchThreadpool = Executors.newFixedThreadPool(gridss.Defaults.ASYNC_THREADS,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AsyncBufferedIterator-prefetch-%d").build());
+	/**
+	 * Thread pool used to read ahead from the underlying iterators.
+	 */
+	public static Executor getPrefetchThreadpool() { return prefetchThreadpool; }
+	public static void setPrefetchThreadpool(Executor prefetchThreadpool) {
+		AsyncBufferedIterator.prefetchThreadpool = prefetchThreadpool;
+	}
+	/**
+	 * No read ahead is scheduled
+	 */
+	private static final int IDLE = 0;
+	/**
+	 * Read ahead has been submitted to the thread pool but has not yet started
+	 */
+	private static final int SCHEDULED = 1;
+	/**
+	 * A thread is reading from the underlying iterator
+	 */
+	private static final int RUNNING = 2;
+	/**
+	 * Underlying iterator has been closed
+	 */
+	private static final int FINISHED = 3;
+	private final AtomicInteger state = new AtomicInteger(IDLE);
+	private final AtomicReference<Throwable> ex = new AtomicReference<Throwable>(null);
+	private final Iterator<T> underlying;
+	private final String description;
+	/**
+	 * Read-ahead buffer. The buffer is bounded by only reading ahead when fewer than bufferCount batches are buffered.
+	 */
+	private final BlockingQueue<List<Object>> buffer = new LinkedBlockingQueue<>();
+	private final int bufferCount;
 	private final int batchSize;
-	private final Semaphore closingCriticalSection = new Semaphore(1);
-    private PeekingIterator<Object> currentBuffer = Iterators.peekingIterator(ImmutableList.<Object>of().iterator());
+	private final CountDownLatch underlyingClosed = new CountDownLatch(1);
+	private final Object runnerLock = new Object();
+	private Thread runner = null;
+	private boolean runnerInterruptedByClose = false;
+	private volatile boolean closeCalled = false;
+	private boolean eosWritten = false;
+	private PeekingIterator<Object> currentBuffer = Iterators.peekingIterator(ImmutableList.<Object>of().iterator());
 	private static final Object eos = new Object(); // End of stream sentinel
 	/**
-	 * Creates a new iterator that traverses the given iterator on a background thread
+	 * Creates a new iterator that traverses the given iterator in the background
 	 * @param iterator iterator to traverse
 	 * @param bufferCount number of read-ahead buffers
 	 * @param batchSize size of each read-ahead buffer. A larger batch size will increase throughput and latency.
@@ -52,13 +93,10 @@ public class AsyncBufferedIterator<T> implements CloseableIterator<T>, PeekingIt
 		if (iterator == null) throw new IllegalArgumentException();
 		if (bufferCount <= 0 || batchSize <= 0) throw new IllegalArgumentException("Buffer size must be at least 1.");
 		this.underlying = iterator;
-		this.buffer = new ArrayBlockingQueue<List<Object>>(bufferCount);
+		this.bufferCount = bufferCount;
 		this.batchSize = batchSize;
-        this.readerRunnable = new ReaderRunnable();
-        this.reader = new Thread(readerRunnable, description == null ? getThreadNamePrefix() + threadsCreated.incrementAndGet() : description);
-        this.reader.setDaemon(true);
-        log.debug("Starting thread " + this.reader.getName());
-        this.reader.start();
+		this.description = description == null ? getThreadNamePrefix() + iteratorsCreated.incrementAndGet() : description;
+		schedule();
 	}
 	protected String getThreadNamePrefix() {
 		return "AsyncBufferedIterator";
@@ -67,45 +105,27 @@ public class AsyncBufferedIterator<T> implements CloseableIterator<T>, PeekingIt
 	public void close() {
 		if (closeCalled) return;
 		closeCalled = true;
-		try {
-			if (closingCriticalSection.tryAcquire()) {
-				// without closingCriticalSection, raising the interrupt at the same time
-				// the background thread is closing causes the following exception:
-				//WARNING 2018-04-12 08:58:30     AutoClosingIterator     Error closing resource.
-				//java.lang.RuntimeException: Interrupted waiting for decompression thread
-				//    at htsjdk.samtools.util.AsyncBlockCompressedInputStream.flushReadAhead(AsyncBlockCompressedInputStream.java:151)
-				//    at htsjdk.samtools.util.AsyncBlockCompressedInputStream.close(AsyncBlockCompressedInputStream.java:134)
-				//    at htsjdk.samtools.BAMFileReader.close(BAMFileReader.java:417)
-				//    at htsjdk.samtools.SamReader$PrimitiveSamReaderToSamReaderAdapter.close(SamReader.java:488)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:64)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:48)
-				//    at au.edu.wehi.idsv.util.AutoClosingIterator.close(AutoClosingIterator.java:37)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:64)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:48)
-				//    at au.edu.wehi.idsv.util.AutoClosingIterator.close(AutoClosingIterator.java:35)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:64)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:48)
-				//    at au.edu.wehi.idsv.util.AutoClosingMergedIterator.tryclose(AutoClosingMergedIterator.java:87)
-				//    at au.edu.wehi.idsv.util.AutoClosingMergedIterator.close(AutoClosingMergedIterator.java:75)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:64)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:48)
-				//    at au.edu.wehi.idsv.VariantCallIterator.close(VariantCallIterator.java:117)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:64)
-				//    at htsjdk.samtools.util.CloserUtil.close(CloserUtil.java:48)
-				//    at au.edu.wehi.idsv.util.AsyncBufferedIterator.syncClose(AsyncBufferedIterator.java:75)
-				//    at au.edu.wehi.idsv.util.AsyncBufferedIterator.access$600(AsyncBufferedIterator.java:26)
-				//    at au.edu.wehi.idsv.util.AsyncBufferedIterator$ReaderRunnable.run(AsyncBufferedIterator.java:150)
-				//    at java.lang.Thread.run(Thread.java:745)
-				//Caused by: java.lang.InterruptedException
-				//    at java.util.concurrent.locks.AbstractQueuedSynchronizer.doAcquireSharedInterruptibly(AbstractQueuedSynchronizer.java:998)
-				//    at java.util.concurrent.locks.AbstractQueuedSynchronizer.acquireSharedInterruptibly(AbstractQueuedSynchronizer.java:1304)
-				//    at java.util.concurrent.Semaphore.acquire(Semaphore.java:312)
-				//    at htsjdk.samtools.util.AsyncBlockCompressedInputStream.flushReadAhead(AsyncBlockCompressedInputStream.java:149)
-				reader.interrupt();
-				closingCriticalSection.release();
+		int s = state.get();
+		while ((s == IDLE || s == SCHEDULED) && !state.compareAndSet(s, RUNNING)) {
+			s = state.get();
+		}
+		if (s == IDLE || s == SCHEDULED) {
+			// nothing is reading from the underlying iterator so we can close it ourselves
+			finish();
+		} else if (s == RUNNING) {
+			synchronized (runnerLock) {
+				if (runner != null) {
+					// Interrupts are only raised whilst reading from the underlying iterator.
+					// Raising the interrupt whilst the underlying iterator is being closed causes
+					// htsjdk AsyncBlockCompressedInputStream to fail with
+					// "Interrupted waiting for decompression thread"
+					runnerInterruptedByClose = true;
+					runner.interrupt();
+				}
 			}
-			buffer.clear(); // flush buffer so EOS indicator can be written if writer is blocking
-			reader.join();
+		}
+		try {
+			underlyingClosed.await();
 		} catch (InterruptedException ie) { }
 	}
 	private void syncClose() {
@@ -116,16 +136,35 @@ public class AsyncBufferedIterator<T> implements CloseableIterator<T>, PeekingIt
 		throwOnCallingThread();
 		if (closeCalled) return false;
 		if (!currentBuffer.hasNext()) {
-			try {
-				currentBuffer = Iterators.peekingIterator(buffer.take().iterator());
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			}
-			// rethrow any exceptions raised on the background thread while we were blocking on the next record
+			currentBuffer = Iterators.peekingIterator(takeBatch().iterator());
+			// rethrow any exceptions raised in the background while we were blocking on the next record
 			throwOnCallingThread();
 		}
 		return currentBuffer.hasNext() && currentBuffer.peek() != eos;
 	}
+	private List<Object> takeBatch() {
+		try {
+			while (true) {
+				List<Object> batch = buffer.poll();
+				if (batch == null) {
+					int s = state.get();
+					if ((s == IDLE || s == SCHEDULED) && state.compareAndSet(s, RUNNING)) {
+						// read ahead hasn't started so we'll do it ourselves
+						readAhead();
+						continue;
+					}
+					batch = buffer.poll(1, TimeUnit.MILLISECONDS);
+				}
+				if (batch != null) {
+					// make room for the next batch
+					schedule();
+					return batch;
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
 	@SuppressWarnings("unchecked")
 	@Override
 	public T next() {
@@ -144,75 +183,133 @@ public class AsyncBufferedIterator<T> implements CloseableIterator<T>, PeekingIt
 		return (T)currentBuffer.peek();
 	}
 	private final void throwOnCallingThread() {
-        final Throwable t = this.ex.get();
-        if (t != null) {
-            if (t instanceof Error) throw (Error) t;
-            if (t instanceof RuntimeException) throw (RuntimeException) t;
-            else throw new RuntimeException(t);
-        }
-    }
+		final Throwable t = this.ex.get();
+		if (t != null) {
+			if (t instanceof Error) throw (Error) t;
+			if (t instanceof RuntimeException) throw (RuntimeException) t;
+			else throw new RuntimeException(t);
+		}
+	}
+	private boolean shouldReadAhead() {
+		return !closeCalled && buffer.size() < bufferCount;
+	}
+	private void schedule() {
+		if (shouldReadAhead() && state.compareAndSet(IDLE, SCHEDULED)) {
+			prefetchThreadpool.execute(this::runScheduled);
+		}
+	}
+	private void runScheduled() {
+		if (state.compareAndSet(SCHEDULED, RUNNING)) {
+			Thread thread = Thread.currentThread();
+			String poolThreadName = thread.getName();
+			thread.setName(description);
+			try {
+				readAhead();
+			} finally {
+				thread.setName(poolThreadName);
+			}
+		}
+	}
 	/**
-     * Reads the given iterator and passing back to the calling thread
-     * in chunks
-     */
-    private class ReaderRunnable implements Runnable {
-    	private boolean eosWritten = false;
-        public void run() {
-        	try {
-        		while (underlying.hasNext()) {
-		        	List<Object> readAhead = new ArrayList<Object>(batchSize + 1);
-		    		for (int i = 0; i < batchSize; i++) {
-		    			if (!underlying.hasNext()) break;
-		    			readAhead.add(underlying.next());
-		    		}
-		    		if (!underlying.hasNext()) {
-		    			readAhead.add(eos);
-		    			eosWritten = true;
-		    		}
-		    		buffer.put(readAhead);
-        		}
-        	} catch (InterruptedException ie) {
-        		// log.debug("Thread interrupt received - closing on background thread.");
-        	} catch (Throwable t) {
-        		// when using async I/O, htsjdk BlockCompressedInputStream
-        		// RuntimeException-wrapped InterruptedExceptionon the calling thread
-        		// (i.e., this one).
-        		boolean causedByInterruptedException = false;
-        		for (Throwable cause = t.getCause(); cause != null; cause = cause.getCause()) {
-        			if (cause instanceof InterruptedException) {
-        				causedByInterruptedException = true;
-        				break;
-        			}
-        		}
-        		if (!causedByInterruptedException) {
-        			ex.set(t);
-        			throw new RuntimeException(t);
-        		}
-        	} finally {
-        		try {
-	        		closingCriticalSection.acquire();
-	        		Thread.interrupted(); // clear thread interrupt flag so we can close the stream
-	        		syncClose();
-	        		// don't release the semaphore since we're now closed
-        		} catch (InterruptedException e2) {
-					log.warn("Thread interrupt received whilst closing underlying iterator");
+	 * Reads from the underlying iterator until the buffer is full.
+	 * Must only be called by the thread that transitioned the state to RUNNING.
+	 */
+	private void readAhead() {
+		synchronized (runnerLock) {
+			runner = Thread.currentThread();
+		}
+		boolean finished = false;
+		try {
+			while (shouldReadAhead()) {
+				List<Object> readAhead = new ArrayList<Object>(batchSize + 1);
+				for (int i = 0; i < batchSize; i++) {
+					if (!underlying.hasNext()) break;
+					readAhead.add(underlying.next());
+				}
+				if (!underlying.hasNext()) {
+					readAhead.add(eos);
+					eosWritten = true;
+					finished = true;
+				}
+				buffer.add(readAhead);
+				if (finished) break;
+			}
+			finished |= closeCalled;
+		} catch (Throwable t) {
+			// when using async I/O, htsjdk BlockCompressedInputStream
+			// RuntimeException-wrapped InterruptedException on the calling thread
+			// (i.e., this one).
+			boolean causedByInterruptedException = false;
+			for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+				if (cause instanceof InterruptedException) {
+					causedByInterruptedException = true;
+					break;
 				}
-        		try {
-	        		Thread.interrupted(); // clear thread interrupt flag again so we can write the eos indicator if needed
-        			if (!eosWritten) {
-        				buffer.put(ImmutableList.of(eos));
-        			}
-				} catch (InterruptedException e2) {
-					log.warn("Thread interrupt received whilst writing end of stream indicator");
+			}
+			if (!causedByInterruptedException || !closeCalled) {
+				ex.set(t);
+			}
+			finished = true;
+		} finally {
+			synchronized (runnerLock) {
+				runner = null;
+				if (runnerInterruptedByClose) {
+					// clear thread interrupt flag so we can close the stream
+					Thread.interrupted();
+					runnerInterruptedByClose = false;
+				}
+			}
+		}
+		if (finished) {
+			finish();
+		} else {
+			state.set(IDLE);
+			if (closeCalled) {
+				// close() was called whilst we were reading and is waiting for us to close the underlying stream
+				if (state.compareAndSet(IDLE, RUNNING)) {
+					finish();
 				}
-        	}
-        }
-    }
+			} else {
+				// the consumer could have taken a batch after we found the buffer full
+				schedule();
+			}
+		}
+	}
+	/**
+	 * Closes the underlying iterator and ensures the end of stream indicator has been written.
+	 * Must only be called by the thread that transitioned the state to RUNNING.
+	 */
+	private void finish() {
+		try {
+			syncClose();
+		} catch (Throwable t) {
+			log.warn(t, "Error closing underlying iterator for ", description);
+		}
+		if (!eosWritten) {
+			buffer.add(ImmutableList.of(eos));
+			eosWritten = true;
+		}
+		state.set(FINISHED);
+		underlyingClosed.countDown();
+	}
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException();
 	}
 	protected String getBackgroundThreadName() {
-		return this.reader.getName();
+		return description;
+	}
+	/**
+	 * Indicates whether read ahead from the underlying iterator is scheduled or in progress
+	 */
+	boolean isReadingAhead() {
+		int s = state.get();
+		return s == SCHEDULED || s == RUNNING;
+	}
+	/**
+	 * Indicates whether the underlying iterator has been closed
+	 */
+	boolean isUnderlyingClosed() {
+		return state.get() == FINISHED;
 	}
 }
@@ -3,106 +3,289 @@ package au.edu.wehi.idsv.util;
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.PeekingIterator;
-import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
-import it.unimi.dsi.fastutil.longs.LongPriorityQueue;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 /**
  * Randomly filters sorted records to limit the record density
- * 
+ *
  * All records are accepted up to a threshold value, then
  * a exponential back-off is used to randomly filter additional
  * records to ensure an average maximum number of records in
- * any given window. 
- * 
+ * any given window.
+ *
+ * Window density is tracked in a ring buffer of position bins so memory
+ * usage is independent of the record density. By default, each bin covers
+ * a single position and the window density is exact. Fewer bins reduce
+ * memory usage for large windows but expire records in steps of the bin width.
+ *
+ * Records in the same bin are buffered in a reorder buffer. The number of
+ * records retained from the buffer is determined by the exponential back-off
+ * but retention is prioritised to the highest scoring records.
+ *
  * @author Daniel Cameron
  *
  * @param <T>
  */
 public abstract class DensityThrottlingIterator<T> implements PeekingIterator<T>, TrackedBuffer {
+	/**
+	 * Track the exact window density using a bin per position
+	 */
+	public static final int DEFAULT_WINDOW_BINS = 0;
+	private static final byte STATE_EXCLUDED = 0;
+	private static final byte STATE_ACCEPTED = 1;
+	private static final byte STATE_FILTERED = 2;
 	private final Iterator<T> underlying;
 	private final double windowSize;
 	private final double acceptDensity;
 	private final double maxDensity;
-	private final LongPriorityQueue inWindow = new LongArrayFIFOQueue();
-	private final LongPriorityQueue emittedInWindow = new LongArrayFIFOQueue();
-	private final Random random = new Random(0); // Seed set for reproducible results
-	private T nextRecord = null;
-	
+	private final Random random;
+	private final long binWidth;
+	/**
+	 * Ring buffer of record counts in each bin of the window
+	 */
+	private final int[] inWindow;
+	private final int[] emittedInWindow;
+	private long inWindowCount = 0;
+	private long emittedInWindowCount = 0;
+	private long currentBin = Long.MIN_VALUE;
+	private final Object[] buffer;
+	private final byte[] bufferState;
+	private final double[] bufferScore;
+	private final boolean[] bufferBelowThreshold;
+	private final double[] bufferDensity;
+	private final int[] bufferOrder;
+	private int bufferSize = 0;
+	private int bufferOffset = 0;
+	private boolean bufferFlushed = false;
+	private long bufferBin;
+	private int bufferThrottled = 0;
+	private T lookahead = null;
+	private boolean belowThreshold = true;
+	private double density = 0;
+
 	/**
 	 * @param it iterator to filter. Cannot contain null elements
 	 * @param windowSize Size of window to track density over
-	 * @param acceptAllCount number of record in window before throttling starts
-	 * @param maxCount maximum average number of records in window 
+	 * @param acceptDensity record density in window before throttling starts
+	 * @param targetDensity maximum average record density in window
 	 */
 	public DensityThrottlingIterator(Iterator<T> it, int windowSize, double acceptDensity, double targetDensity) {
+		this(it, windowSize, acceptDensity, targetDensity, DEFAULT_WINDOW_BINS, 1, 0);
+	}
+	/**
+	 * @param it iterator to filter. Cannot contain null elements
+	 * @param windowSize Size of window to track density over
+	 * @param acceptDensity record density in window before throttling starts
+	 * @param targetDensity maximum average record density in window
+	 * @param windowBins number of bins used to track window density.
+	 * Window density is exact if this is 0 or at least the window size.
+	 * @param reorderBufferSize maximum number of records considered together when prioritising retention.
+	 * A reorder buffer size of 1 retains a uniform random sample.
+	 * @param seed random seed
+	 */
+	public DensityThrottlingIterator(Iterator<T> it, int windowSize, double acceptDensity, double targetDensity, int windowBins, int reorderBufferSize, long seed) {
+		if (windowSize <= 0) throw new IllegalArgumentException("windowSize must be positive");
+		if (windowBins < 0) throw new IllegalArgumentException("windowBins cannot be negative");
+		if (reorderBufferSize <= 0) throw new IllegalArgumentException("reorderBufferSize must be positive");
 		this.underlying = it;
 		this.windowSize = windowSize;
 		this.acceptDensity = acceptDensity;
 		this.maxDensity = targetDensity;
+		this.random = new Random(seed);
+		int bins = windowBins == 0 ? windowSize : Math.min(windowBins, windowSize);
+		this.binWidth = (windowSize + bins - 1) / bins;
+		bins = (int)((windowSize + binWidth - 1) / binWidth);
+		this.inWindow = new int[bins];
+		this.emittedInWindow = new int[bins];
+		this.buffer = new Object[reorderBufferSize];
+		this.bufferState = new byte[reorderBufferSize];
+		this.bufferScore = new double[reorderBufferSize];
+		this.bufferBelowThreshold = new boolean[reorderBufferSize];
+		this.bufferDensity = new double[reorderBufferSize];
+		this.bufferOrder = new int[reorderBufferSize];
 	}
 	protected abstract long getPosition(T record);
 	protected abstract boolean excludedFromThrottling(T record);
+	/**
+	 * Retention priority of the given record.
+	 * Higher scoring records are retained in preference to lower scoring records.
+	 */
+	protected double getScore(T record) {
+		return 0;
+	}
 	private void ensureNext() {
-		while (nextRecord == null && underlying.hasNext()) {
-			nextRecord = underlying.next();
-			if (excludedFromThrottling(nextRecord)) {
-				return;
-			}
-			long position = getPosition(nextRecord);
-			// remove records
-			while (!inWindow.isEmpty() && inWindow.firstLong() <= position - windowSize) {
-				inWindow.dequeueLong();
+		while (bufferFlushed && bufferOffset < bufferSize && bufferState[bufferOffset] == STATE_FILTERED) {
+			bufferOffset++;
+		}
+		if (bufferFlushed && bufferOffset < bufferSize) {
+			return;
+		}
+		fillBuffer();
+	}
+	private void fillBuffer() {
+		do {
+			clearBuffer();
+			while (bufferSize < buffer.length && (lookahead != null || underlying.hasNext())) {
+				T record = lookahead != null ? lookahead : underlying.next();
+				lookahead = null;
+				if (excludedFromThrottling(record)) {
+					addToBuffer(record, STATE_EXCLUDED);
+					if (bufferThrottled == 0) {
+						// nothing to reorder
+						break;
+					}
+				} else {
+					long bin = Math.floorDiv(getPosition(record), binWidth);
+					if (bufferThrottled > 0 && bin != bufferBin) {
+						lookahead = record;
+						break;
+					}
+					bufferBin = bin;
+					bufferThrottled++;
+					addToBuffer(record, isFiltered(bin) ? STATE_FILTERED : STATE_ACCEPTED);
+				}
 			}
-			while (!emittedInWindow.isEmpty() && emittedInWindow.firstLong() <= position - windowSize) {
-				emittedInWindow.dequeueLong();
+			prioritise();
+			bufferFlushed = true;
+			while (bufferOffset < bufferSize && bufferState[bufferOffset] == STATE_FILTERED) {
+				bufferOffset++;
 			}
-			inWindow.enqueue(position);
-			if (!isFiltered(position, nextRecord)) {
-				emittedInWindow.enqueue(position);
-			} else {
-				nextRecord = null;
+		} while (bufferOffset >= bufferSize && (lookahead != null || underlying.hasNext()));
+	}
+	private void clearBuffer() {
+		for (int i = 0; i < bufferSize; i++) {
+			buffer[i] = null;
+		}
+		bufferSize = 0;
+		bufferOffset = 0;
+		bufferThrottled = 0;
+		bufferFlushed = false;
+	}
+	private void addToBuffer(T record, byte state) {
+		buffer[bufferSize] = record;
+		bufferState[bufferSize] = state;
+		bufferScore[bufferSize] = state == STATE_EXCLUDED || buffer.length == 1 ? 0 : getScore(record);
+		bufferBelowThreshold[bufferSize] = isBelowUnconditionalAcceptanceThresholdInternal();
+		bufferDensity[bufferSize] = inWindowCount / windowSize;
+		bufferSize++;
+	}
+	/**
+	 * Reassigns the records accepted by the exponential back-off to the
+	 * highest scoring records in the reorder buffer.
+	 *
+	 * Since all throttled records in the buffer are in the same bin,
+	 * reassignment does not change the window density.
+	 */
+	private void prioritise() {
+		if (bufferThrottled <= 1) return;
+		int accepted = 0;
+		int n = 0;
+		for (int i = 0; i < bufferSize; i++) {
+			if (bufferState[i] != STATE_EXCLUDED) {
+				bufferOrder[n++] = i;
+				if (bufferState[i] == STATE_ACCEPTED) {
+					accepted++;
+				}
 			}
 		}
+		if (accepted == 0 || accepted == n) return;
+		// highest score first. Ties retain the records accepted by the back-off
+		IntArrays.quickSort(bufferOrder, 0, n, (a, b) -> {
+			int cmp = Double.compare(bufferScore[b], bufferScore[a]);
+			if (cmp == 0) cmp = Integer.compare(bufferState[a], bufferState[b]);
+			if (cmp == 0) cmp = Integer.compare(a, b);
+			return cmp;
+		});
+		for (int i = 0; i < n; i++) {
+			bufferState[bufferOrder[i]] = i < accepted ? STATE_ACCEPTED : STATE_FILTERED;
+		}
 	}
-	private boolean isFiltered(long position, T record) {
-		if (isBelowUnconditionalAcceptanceThreshold()) {
-			// accept all record under the threshold
-			return false;
+	private void advanceWindow(long bin) {
+		if (currentBin == Long.MIN_VALUE || bin - currentBin >= inWindow.length) {
+			Arrays.fill(inWindow, 0);
+			Arrays.fill(emittedInWindow, 0);
+			inWindowCount = 0;
+			emittedInWindowCount = 0;
+			currentBin = bin;
+			return;
 		}
-		double x = ((inWindow.size() / windowSize) - acceptDensity) / maxDensity;
-		if (Math.exp(-x) >= random.nextDouble()) {
-			// exponential back-off did not filter
-			emittedInWindow.enqueue(position);
-			return false;
+		while (currentBin < bin) {
+			currentBin++;
+			int offset = (int)Math.floorMod(currentBin, (long)inWindow.length);
+			inWindowCount -= inWindow[offset];
+			emittedInWindowCount -= emittedInWindow[offset];
+			inWindow[offset] = 0;
+			emittedInWindow[offset] = 0;
 		}
-		return true;
 	}
+	private boolean isFiltered(long bin) {
+		advanceWindow(bin);
+		int offset = (int)Math.floorMod(currentBin, (long)inWindow.length);
+		inWindow[offset]++;
+		inWindowCount++;
+		boolean filtered;
+		if (isBelowUnconditionalAcceptanceThresholdInternal()) {
+			// accept all record under the threshold
+			emittedInWindow[offset]++;
+			emittedInWindowCount++;
+			filtered = false;
+		} else {
+			double x = ((inWindowCount / windowSize) - acceptDensity) / maxDensity;
+			if (Math.exp(-x) >= random.nextDouble()) {
+				// exponential back-off did not filter
+				// Records accepted by back-off count double so throttling
+				// remains engaged until the window density decreases
+				emittedInWindow[offset] += 2;
+				emittedInWindowCount += 2;
+				filtered = false;
+			} else {
+				filtered = true;
+			}
+		}
+		return filtered;
+	}
+	private boolean isBelowUnconditionalAcceptanceThresholdInternal() {
+		return emittedInWindowCount / windowSize < acceptDensity;
+	}
+	/**
+	 * Indicates whether the density of records emitted in the window of the
+	 * most recently returned record was below the unconditional acceptance threshold
+	 */
 	public boolean isBelowUnconditionalAcceptanceThreshold() {
-		return emittedInWindow.size() / windowSize < acceptDensity;
+		return belowThreshold;
 	}
+	/**
+	 * Record density in the window of the most recently returned record
+	 */
 	public double currentDensity() {
-		return inWindow.size() / windowSize;
+		return density;
 	}
 	@Override
 	public boolean hasNext() {
 		ensureNext();
-		return nextRecord != null;
+		return bufferOffset < bufferSize;
 	}
+	@SuppressWarnings("unchecked")
 	@Override
 	public T next() {
-		ensureNext();
-		T r = nextRecord;
-		nextRecord = null;
+		if (!hasNext()) throw new NoSuchElementException();
+		T r = (T)buffer[bufferOffset];
+		belowThreshold = bufferBelowThreshold[bufferOffset];
+		density = bufferDensity[bufferOffset];
+		bufferOffset++;
 		return r;
 	}
+	@SuppressWarnings("unchecked")
 	@Override
 	public T peek() {
-		ensureNext();
-		return nextRecord;
+		if (!hasNext()) return null;
+		return (T)buffer[bufferOffset];
 	}
 	@Override
 	public void remove() {
@@ -110,16 +293,19 @@ public abstract class DensityThrottlingIterator<T> implements PeekingIterator<T>
 	}
 	private String trackedBufferName_inWindow = "densityThrottle.inWindow";
 	private String trackedBufferName_emittedInWindow = "densityThrottle.emittedInWindow";
+	private String trackedBufferName_reorder = "densityThrottle.reorder";
 	@Override
 	public void setTrackedBufferContext(String context) {
 		this.trackedBufferName_inWindow = context + ".densityThrottle.inWindow";
 		this.trackedBufferName_emittedInWindow = context + ".densityThrottle.emittedInWindow";
+		this.trackedBufferName_reorder = context + ".densityThrottle.reorder";
 	}
 	@Override
 	public List<NamedTrackedBuffer> currentTrackedBufferSizes() {
 		return ImmutableList.of(
-				new NamedTrackedBuffer(trackedBufferName_inWindow, inWindow.size()),
-				new NamedTrackedBuffer(trackedBufferName_emittedInWindow, emittedInWindow.size())
+				new NamedTrackedBuffer(trackedBufferName_inWindow, (int)inWindowCount),
+				new NamedTrackedBuffer(trackedBufferName_emittedInWindow, (int)emittedInWindowCount),
+				new NamedTrackedBuffer(trackedBufferName_reorder, bufferSize - bufferOffset)
 				);
 	}
 }
@@ -1,56 +1,71 @@
 package au.edu.wehi.idsv.util;
 
-import it.unimi.dsi.fastutil.ints.*;
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap.Entry;
-import it.unimi.dsi.fastutil.objects.ObjectBidirectionalIterator;
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSets;
+
+import java.util.Arrays;
 
 /**
  * Accumulates weighted values according to a predefined set of interval bins
+ *
+ * Once finalised, bins are stored in parallel arrays sorted by bin start position.
+ * Whole-bin contributions of integral values are accumulated in a difference array
+ * so intervals spanning many bins are added in constant time. Since integral sums
+ * are exact, this does not change the accumulated values.
+ *
  * @author Daniel Cameron
  *
  */
 public class IntervalAccumulator {
-	private final Int2DoubleSortedMap bins;
-	private Int2IntMap binWidth;
+	private final IntSortedSet binStarts;
 	private final int firstBinStart;
 	private final int lastBinEnd;
+	private int[] binStart;
+	private int[] binWidth;
+	private double[] binValue;
+	/**
+	 * Per-base value added to all bins from the given bin onwards
+	 */
+	private double[] pending;
+	private boolean hasPending = false;
+	/**
+	 * Only integral values have been added
+	 */
+	private boolean integral = true;
 	public IntervalAccumulator(int start, int end, int binSize) {
-		int[] binStart = new int[(end - start) / binSize + 1];
-		for (int i = 0; i < binStart.length; i++) {
-			binStart[i] = binSize * i + start;
+		this.binStarts = new IntRBTreeSet();
+		for (int i = 0; i < (end - start) / binSize + 1; i++) {
+			binStarts.add(binSize * i + start);
 		}
-		double[] value = new double[binStart.length];
-		this.bins = new Int2DoubleRBTreeMap(binStart, value);
 		this.firstBinStart = start;
 		this.lastBinEnd = end;
 	}
 	/**
 	 * Splits bins at the given 1-based position such that
 	 * a new bin starts at the given position.
-	 * 
-	 * Warning: must be called before add() as it resets the 
+	 *
+	 * Warning: must be called before add() as it resets the
 	 * count for the new bin to zero.
 	 */
 	public void splitBin(int position) {
 		if (binWidth != null) {
 			throw new IllegalStateException("Must be called before finaliseBins()");
 		}
-		bins.put(position, 0);
+		binStarts.add(position);
 	}
 	/**
 	 * Indicates that the bins have been finalised and no more changes will occur
 	 */
 	public void finaliseBins() {
-		// precompute bin widths
-		binWidth = new Int2IntLinkedOpenHashMap(bins.size());
-		IntBidirectionalIterator it = bins.keySet().iterator();
-		int lastStart = it.nextInt();
-		while (it.hasNext()) {
-			int start = it.nextInt();
-			binWidth.put(lastStart, start - lastStart);
-			lastStart = start;
+		binStart = binStarts.toIntArray();
+		binWidth = new int[binStart.length];
+		for (int i = 0; i < binStart.length - 1; i++) {
+			binWidth[i] = binStart[i + 1] - binStart[i];
 		}
-		binWidth.put(lastStart, lastBinEnd - lastStart + 1);
+		binWidth[binStart.length - 1] = lastBinEnd - binStart[binStart.length - 1] + 1;
+		binValue = new double[binStart.length];
+		pending = new double[binStart.length + 1];
 	}
 	/**
 	 * Add the given value at all positions in the given interval
@@ -65,25 +80,66 @@ public class IntervalAccumulator {
 		if (end < start) {
 			throw new IllegalArgumentException("end cannot be before start");
 		}
-		//double perBaseValue = value / (end - start + 1);
 		start = Math.max(start, firstBinStart);
 		end = Math.min(end, lastBinEnd);
-		int startBinStartKey = bins.headMap(start + 1).lastIntKey();
-		int endBinStartKey = bins.headMap(end + 1).lastIntKey();
-		Int2DoubleSortedMap toUpdate = bins.subMap(startBinStartKey, endBinStartKey + 1);
-		ObjectBidirectionalIterator<Int2DoubleMap.Entry> it = toUpdate.int2DoubleEntrySet().iterator();
-		int widthLeft = end - start + 1;
-		while (widthLeft > 0) {
-			assert(it.hasNext());
-			Int2DoubleMap.Entry entry = it.next();
-			int entryStartPosition = entry.getIntKey();
-			int overlap = IntervalUtil.overlapsWidthClosed(start, end, entryStartPosition, entryStartPosition + getBinSize(entryStartPosition) - 1);
-			entry.setValue(entry.getDoubleValue() + overlap * value);
-			widthLeft -= overlap;
+		if (end < start) return;
+		if (integral && value != Math.rint(value)) {
+			// non-integral sums depend on summation order so values need to be added to each bin in order
+			applyPending();
+			integral = false;
+		}
+		int startBin = binIndexContaining(start);
+		int endBin = binIndexContaining(end);
+		if (startBin == endBin) {
+			binValue[startBin] += (end - start + 1) * value;
+			return;
+		}
+		binValue[startBin] += (binStart[startBin] + binWidth[startBin] - start) * value;
+		if (endBin - startBin > 1) {
+			if (integral) {
+				pending[startBin + 1] += value;
+				pending[endBin] -= value;
+				hasPending = true;
+			} else {
+				for (int i = startBin + 1; i < endBin; i++) {
+					binValue[i] += binWidth[i] * value;
+				}
+			}
+		}
+		binValue[endBin] += (end - binStart[endBin] + 1) * value;
+	}
+	/**
+	 * Index of the bin containing the given position
+	 */
+	private int binIndexContaining(int position) {
+		int index = Arrays.binarySearch(binStart, position);
+		if (index < 0) {
+			// insertion point is the bin after the bin containing the position
+			index = -index - 2;
+		}
+		return index;
+	}
+	private void applyPending() {
+		if (!hasPending) return;
+		double perBase = 0;
+		for (int i = 0; i < binValue.length; i++) {
+			perBase += pending[i];
+			if (perBase != 0) {
+				binValue[i] += binWidth[i] * perBase;
+			}
+		}
+		Arrays.fill(pending, 0);
+		hasPending = false;
+	}
+	private int binIndex(int binStart) {
+		int index = Arrays.binarySearch(this.binStart, binStart);
+		if (index < 0) {
+			throw new IllegalArgumentException(String.format("No bin starts at %d", binStart));
 		}
+		return index;
 	}
 	public int getBinSize(int binStart) {
-		return binWidth.get(binStart);
+		return binWidth[binIndex(binStart)];
 	}
 	/**
 	 * Gets the average value for the given bin
@@ -91,12 +147,34 @@ public class IntervalAccumulator {
 	 * @return
 	 */
 	public double getMeanValue(int binStart) {
-		return bins.get(binStart) / getBinSize(binStart);
+		return getBinMeanValue(binIndex(binStart));
 	}
 	public IntSortedSet getBinStarts() {
-		return bins.keySet();
+		return IntSortedSets.unmodifiable(binStarts);
+	}
+	/**
+	 * Number of bins
+	 */
+	public int getBinCount() {
+		return binStart.length;
+	}
+	/**
+	 * Start position of the bin with the given index
+	 */
+	public int getBinStart(int binIndex) {
+		return binStart[binIndex];
 	}
-	public ObjectBidirectionalIterator<Entry> iterator() {
-		return bins.int2DoubleEntrySet().iterator();
+	/**
+	 * Width of the bin with the given index
+	 */
+	public int getBinWidth(int binIndex) {
+		return binWidth[binIndex];
+	}
+	/**
+	 * Gets the average value for the bin with the given index
+	 */
+	public double getBinMeanValue(int binIndex) {
+		applyPending();
+		return binValue[binIndex] / binWidth[binIndex];
 	}
-}
\ No newline at end of file
+}
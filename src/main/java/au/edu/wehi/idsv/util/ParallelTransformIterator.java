@@ -1,52 +1,72 @@
 package au.edu.wehi.idsv.util;
 
-import com.google.common.collect.Ordering;
-
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
 
 /**
  * Performs a given transformation operation over all elements of an iterator.
  * The transform is applied to multiple iterator elements in parallel with
  * the order of the resultant iteration unchanged.
- * 
+ *
+ * Records are transformed in contiguous batches to amortise the task
+ * scheduling overhead across multiple records. Completed batches are
+ * returned in order from a fixed-size ring of batch results.
+ *
  * This class is not thread-safe and access from multiple threads should
  * be synchronised.
- * 
+ *
  * @author Daniel Cameron
  *
  */
 public class ParallelTransformIterator<T, U> implements Iterator<U> {
-	private static class TransformResult<U> {
-		public TransformResult(final long ordinal, final U result) {
-			this.ordinal = ordinal;
-			this.result = result;
+	/**
+	 * Contiguous batch of records transformed by a single task
+	 */
+	private static class Batch {
+		private final Object[] records;
+		private int size = 0;
+		private Throwable error = null;
+		private volatile boolean completed = false;
+		public Batch(int batchSize) {
+			this.records = new Object[batchSize];
+		}
+		private void reset() {
+			size = 0;
+			error = null;
+			completed = false;
 		}
-		public final long ordinal;
-		public final U result;
-		@SuppressWarnings("rawtypes")
-		public static Ordering<TransformResult> byOrdinal = Ordering.natural().onResultOf((TransformResult tr) -> tr.ordinal);
 	}
 	protected final Iterator<T> it;
 	private final Function<T, U> f;
 	private final int lookahead;
+	private final int batchSize;
 	private final Executor threadpool;
-	private final ArrayBlockingQueue<TransformResult<U>> completed;
-	private final PriorityQueue<TransformResult<U>> results;
+	private final Batch[] ring;
+	/**
+	 * Thread waiting on batch completion
+	 */
+	private volatile Thread consumer;
 	/**
 	 * Number of records that have been read from the underlying iterator
 	 * but not yet returned from this iterator
 	 */
 	private int dispatched = 0;
 	/**
-	 * Ordinal of last record returned from this iterator
+	 * Sequence number of batch containing the next record to return
 	 */
-	private long lastOrdinal = -1;
-	
+	private long headBatch = 0;
+	/**
+	 * Offset of next record to return within the head batch
+	 */
+	private int headOffset = 0;
+	/**
+	 * Sequence number of the next batch to dispatch
+	 */
+	private long tailBatch = 0;
+
 	/**
 	 * Instantiates a new iterator
 	 * @param it underlying iterator
@@ -54,12 +74,28 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 	 * @param lookahead number of record to process in parallel
 	 */
 	public ParallelTransformIterator(final Iterator<T> it, final Function<T, U> f, final int lookahead, Executor threadpool) {
+		this(it, f, lookahead, threadpool, 1);
+	}
+	/**
+	 * Instantiates a new iterator
+	 * @param it underlying iterator
+	 * @param f transform function
+	 * @param lookahead number of record to process in parallel
+	 * @param batchSize number of contiguous records transformed by each task.
+	 * Batches are only dispatched when there is room for a full batch within the lookahead.
+	 */
+	public ParallelTransformIterator(final Iterator<T> it, final Function<T, U> f, final int lookahead, Executor threadpool, int batchSize) {
+		if (lookahead <= 0 || batchSize <= 0) throw new IllegalArgumentException("Lookahead and batch size must be at least 1.");
 		this.it = it;
 		this.f = f;
 		this.lookahead = lookahead;
-		this.completed = new ArrayBlockingQueue<TransformResult<U>>(lookahead);
-		this.results = new PriorityQueue<ParallelTransformIterator.TransformResult<U>>(TransformResult.byOrdinal);
+		this.batchSize = Math.min(batchSize, lookahead);
 		this.threadpool = threadpool;
+		// the partially consumed head batch can be in flight alongside lookahead / batchSize full batches
+		this.ring = new Batch[lookahead / this.batchSize + 1];
+		for (int i = 0; i < ring.length; i++) {
+			ring[i] = new Batch(this.batchSize);
+		}
 	}
 
 	@Override
@@ -71,46 +107,75 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 		return f.apply(t);
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public U next() {
 		if (!hasNext()) throw new NoSuchElementException();
 		// dispatching here increases our latency as we're always going to have
 		// lookahead record in our buffers, but it improves throughput as we're
-		// not waiting until we have no records dispatched before requeuing. 
+		// not waiting until we have no records dispatched before requeuing.
 		dispatch();
-		while (results.isEmpty() || results.peek().ordinal != lastOrdinal + 1) {
-			TransformResult<U> record;
-			try {
-				record = completed.take();
-			} catch (InterruptedException e) {
+		Batch batch = ring[(int)(headBatch % ring.length)];
+		awaitCompletion(batch);
+		if (batch.error != null) {
+			if (batch.error instanceof Error) throw (Error)batch.error;
+			if (batch.error instanceof RuntimeException) throw (RuntimeException)batch.error;
+			throw new RuntimeException(batch.error);
+		}
+		U result = (U)batch.records[headOffset];
+		batch.records[headOffset] = null;
+		headOffset++;
+		dispatched--;
+		if (headOffset == batch.size) {
+			batch.reset();
+			headBatch++;
+			headOffset = 0;
+		}
+		dispatch();
+		return result;
+	}
+	private void awaitCompletion(Batch batch) {
+		if (batch.completed) return;
+		consumer = Thread.currentThread();
+		while (!batch.completed) {
+			LockSupport.park(this);
+			if (Thread.interrupted()) {
 				// what's the correct interrupt handling mechanism?
 				// if we swallow then raise Thread.currentThread().interrupt();
 				// after getting our record, we might end up blocking
 				// since the worker thread doing the work might also have
 				// been interrupted
-				throw new RuntimeException(e);
+				throw new RuntimeException(new InterruptedException());
 			}
-			results.add(record);
 		}
-		U result = results.poll().result;
-		dispatched--;
-		lastOrdinal++;
-		dispatch();
-		return result;
 	}
 	/**
-	 * Dispatches records until we have lookahead records.
+	 * Dispatches batches until we have lookahead records.
 	 */
 	private void dispatch() {
-		while (dispatched < lookahead && it.hasNext()) {
-			T record = it.next();
-			dispatched++;
-			dispatch(lastOrdinal + dispatched, record);
+		while (lookahead - dispatched >= batchSize && tailBatch - headBatch < ring.length && it.hasNext()) {
+			Batch batch = ring[(int)(tailBatch % ring.length)];
+			while (batch.size < batchSize && it.hasNext()) {
+				batch.records[batch.size++] = it.next();
+			}
+			dispatched += batch.size;
+			tailBatch++;
+			dispatch(batch);
 		}
 	}
-	private void dispatch(final long ordinal, final T record) {
+	@SuppressWarnings("unchecked")
+	private void dispatch(final Batch batch) {
 		threadpool.execute(() -> {
-			completed.add(new TransformResult<U>(ordinal, transform(record)));
+			try {
+				for (int i = 0; i < batch.size; i++) {
+					batch.records[i] = transform((T)batch.records[i]);
+				}
+			} catch (Throwable t) {
+				batch.error = t;
+			} finally {
+				batch.completed = true;
+				LockSupport.unpark(consumer);
+			}
 		});
 	}
 }
@@ -0,0 +1,177 @@
+package au.edu.wehi.idsv.util;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Partitions the given iterator across multiple consuming iterators,
+ * feeding internal buffers from a background thread.
+ *
+ * Each record is routed to the partitions indicated by the bits set
+ * in the routing bitmask of that record. Records are inspected once
+ * and each consumer only receives the records routed to it, in the
+ * order of the underlying iterator.
+ *
+ * Unlike {@link DuplicatingIterable}, consumers are only coupled through
+ * the feeding thread: a consumer can run ahead of the others until the
+ * buffer of a slower consumer is full.
+ *
+ * This wrapper is thread-safe.
+ *
+ * <b>Separate consumer threads are required as
+ * iterator calls block the calling thread when sufficiently
+ * far ahead of other iterators.
+ * </b>
+ */
+public class PartitioningIterable<T> implements Iterable<T>, Closeable {
+	private static final Log log = Log.getInstance(PartitioningIterable.class);
+	private static final List<Object> endofstream = new ArrayList<>(0);
+	private static final AtomicInteger threadCount = new AtomicInteger(0);
+	private final Iterator<T> it;
+	private final ToIntFunction<T> router;
+	private final int batchSize;
+	private final List<PartitionIterator> iterators = new ArrayList<>();
+	private final List<BlockingQueue<List<Object>>> queues = new ArrayList<>();
+	private int iteratorsRequested = 0;
+	private final FeedingThread thread;
+	private volatile Exception error = null;
+	/**
+	 * Partitions an iterator
+	 * @param nPartitions number of partitions. At most 32 partitions are supported.
+	 * @param it underlying iterator
+	 * @param router routing bitmask of each record. Bit i is set if the record is to be routed to partition i.
+	 * @param batchSize number of records transferred to a consumer at a time
+	 * @param maxBatchesInFlight maximum number of batches buffered for each consumer
+	 */
+	public PartitioningIterable(int nPartitions, Iterator<T> it, ToIntFunction<T> router, int batchSize, int maxBatchesInFlight) {
+		if (it == null) throw new IllegalArgumentException();
+		if (nPartitions <= 0 || nPartitions > Integer.SIZE) throw new IllegalArgumentException(String.format("Between 1 and %d partitions supported.", Integer.SIZE));
+		if (batchSize <= 0) throw new IllegalArgumentException("batch size must be greater than zero.");
+		if (maxBatchesInFlight <= 0) throw new IllegalArgumentException("buffer size must be greater than zero.");
+		this.it = it;
+		this.router = router;
+		this.batchSize = batchSize;
+		for (int i = 0; i < nPartitions; i++) {
+			queues.add(new ArrayBlockingQueue<>(maxBatchesInFlight));
+			iterators.add(new PartitionIterator(queues.get(i)));
+		}
+		this.thread = new FeedingThread();
+		this.thread.setName(String.format("PartitioningIterable-%d", threadCount.incrementAndGet()));
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	/**
+	 * Returns the iterator for the next partition
+	 */
+	@Override
+	public synchronized Iterator<T> iterator() {
+		if (iteratorsRequested >= iterators.size()) throw new IllegalStateException(String.format("Already created %d iterators", iterators.size()));
+		return iterators.get(iteratorsRequested++);
+	}
+	/**
+	 * Stops feeding records to the consumers.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+	private class FeedingThread extends Thread {
+		@Override
+		public void run() {
+			List<List<Object>> batches = new ArrayList<>(queues.size());
+			for (int i = 0; i < queues.size(); i++) {
+				batches.add(new ArrayList<>(batchSize));
+			}
+			try {
+				while (it.hasNext()) {
+					T n = it.next();
+					int partitions = router.applyAsInt(n);
+					while (partitions != 0) {
+						int i = Integer.numberOfTrailingZeros(partitions);
+						partitions &= partitions - 1;
+						List<Object> batch = batches.get(i);
+						batch.add(n);
+						if (batch.size() >= batchSize) {
+							queues.get(i).put(batch);
+							batches.set(i, new ArrayList<>(batchSize));
+						}
+					}
+				}
+				for (int i = 0; i < queues.size(); i++) {
+					if (!batches.get(i).isEmpty()) {
+						queues.get(i).put(batches.get(i));
+					}
+				}
+				eos();
+			} catch (InterruptedException e) {
+				log.debug("Interrupted waiting to feed next record - ending stream early");
+				for (BlockingQueue<List<Object>> queue : queues) {
+					queue.clear();
+				}
+				try {
+					eos();
+				} catch (InterruptedException e1) {
+					log.error("Sanity check failure: end of stream writing should not have blocked.");
+				}
+			} catch (Exception e) {
+				log.error(e, "Error traversing iterator");
+				error = e;
+				for (BlockingQueue<List<Object>> queue : queues) {
+					queue.clear();
+				}
+				try {
+					eos();
+				} catch (InterruptedException e1) {
+					log.error("Interrupted when writing end of stream.");
+				}
+			}
+		}
+		private void eos() throws InterruptedException {
+			for (BlockingQueue<List<Object>> queue : queues) {
+				queue.put(endofstream);
+			}
+		}
+	}
+	private class PartitionIterator implements Iterator<T> {
+		private final BlockingQueue<List<Object>> queue;
+		private List<Object> batch = null;
+		private int offset = 0;
+		public PartitionIterator(BlockingQueue<List<Object>> queue) {
+			this.queue = queue;
+		}
+		private void ensureNext() {
+			while (batch != endofstream && (batch == null || offset >= batch.size())) {
+				try {
+					batch = queue.take();
+					offset = 0;
+				} catch (InterruptedException e) {
+					log.debug("Interrupted waiting for next record");
+					throw new RuntimeException(e);
+				}
+			}
+			if (error != null) {
+				throw new RuntimeException(error);
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			ensureNext();
+			return batch != endofstream;
+		}
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return (T)batch.get(offset++);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package au.edu.wehi.idsv.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.util.Log;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Distributes chunks of work across all processes sharing a working directory.
+ *
+ * Each chunk is identified by its output file and is complete once that file exists.
+ * Chunk tasks write to a working file which is moved into place once the chunk timing
+ * has been written.
+ *
+ * A chunk is claimed by atomically creating a claim file next to the chunk output.
+ * Claims are kept alive by periodically updating the claim file modification time.
+ * Claims that have not been updated within the stale claim timeout are assumed
+ * to have been abandoned by a crashed process and are reclaimed. Since staleness
+ * is determined by comparing the file modification time against the local clock,
+ * the timeout should be considerably larger than any expected clock skew between nodes.
+ *
+ * On completion, the claim is replaced by a tab-separated timing file recording the
+ * node that processed the chunk and the claim and completion times.
+ */
+public class SharedFileSystemWorkQueue implements Closeable {
+	private static final Log log = Log.getInstance(SharedFileSystemWorkQueue.class);
+	public static final String CLAIM_SUFFIX = ".claim";
+	public static final String TIMING_SUFFIX = ".timing.tsv";
+	public static final String TIMING_HEADER = "chunk\tnode\tclaimed\tcompleted\telapsedMs";
+	public static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 30 * 1000;
+	public static final long DEFAULT_STALE_CLAIM_TIMEOUT_MS = 10 * 60 * 1000;
+	private final String nodeId;
+	private final long heartbeatIntervalMs;
+	private final long staleClaimTimeoutMs;
+	private final long pollIntervalMs;
+	private final Set<File> held = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService heartbeat;
+	public SharedFileSystemWorkQueue() {
+		this(getDefaultNodeId(), DEFAULT_HEARTBEAT_INTERVAL_MS, DEFAULT_STALE_CLAIM_TIMEOUT_MS);
+	}
+	/**
+	 * @param nodeId unique identifier of this process
+	 * @param heartbeatIntervalMs interval between claim refreshes
+	 * @param staleClaimTimeoutMs time since the last claim refresh after which a claim is considered abandoned
+	 */
+	public SharedFileSystemWorkQueue(String nodeId, long heartbeatIntervalMs, long staleClaimTimeoutMs) {
+		if (heartbeatIntervalMs <= 0) throw new IllegalArgumentException("heartbeatIntervalMs must be positive");
+		if (staleClaimTimeoutMs <= heartbeatIntervalMs) throw new IllegalArgumentException("staleClaimTimeoutMs must be greater than heartbeatIntervalMs");
+		this.nodeId = nodeId.replaceAll("\\s", "_");
+		this.heartbeatIntervalMs = heartbeatIntervalMs;
+		this.staleClaimTimeoutMs = staleClaimTimeoutMs;
+		this.pollIntervalMs = Math.max(1, heartbeatIntervalMs / 2);
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WorkQueueHeartbeat-%d").build());
+		this.heartbeat.scheduleWithFixedDelay(this::refreshClaims, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Default node identifier of the form hostname:pid
+	 */
+	public static String getDefaultNodeId() {
+		// RuntimeMXBean name is pid@hostname on all mainstream JVMs
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int split = name.indexOf('@');
+		if (split > 0) {
+			return name.substring(split + 1) + ":" + name.substring(0, split);
+		}
+		return name;
+	}
+	public String getNodeId() {
+		return nodeId;
+	}
+	public static File getClaimFile(File output) {
+		return new File(output.getPath() + CLAIM_SUFFIX);
+	}
+	public static File getTimingFile(File output) {
+		return new File(output.getPath() + TIMING_SUFFIX);
+	}
+	/**
+	 * Processes chunks until every chunk output exists.
+	 * Chunks claimed by other processes are waited on and reclaimed if abandoned.
+	 * @param outputs chunk output files
+	 * @param task chunk task
+	 * @param threadpool thread pool to process chunks on
+	 * @param workers number of chunks to process concurrently
+	 */
+	public void execute(List<File> outputs, ChunkTask task, ExecutorService threadpool, int workers) {
+		execute(outputs, null, task, threadpool, workers);
+	}
+	/**
+	 * Processes chunks until every chunk output exists or the completion marker exists.
+	 * Chunks claimed by other processes are waited on and reclaimed if abandoned.
+	 *
+	 * The completion marker allows chunk outputs to be deleted once they have been
+	 * merged. Without it, processes still waiting on the queue would treat the
+	 * deleted chunks as incomplete and process them again.
+	 * @param outputs chunk output files
+	 * @param completionMarker file that exists once all chunks have been consumed. Can be null.
+	 * @param task chunk task
+	 * @param threadpool thread pool to process chunks on
+	 * @param workers number of chunks to process concurrently
+	 */
+	public void execute(List<File> outputs, File completionMarker, ChunkTask task, ExecutorService threadpool, int workers) {
+		Set<Integer> failed = ConcurrentHashMap.newKeySet();
+		List<Exception> errors = new CopyOnWriteArrayList<>();
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < Math.max(1, workers); i++) {
+			futures.add(threadpool.submit(() -> { work(outputs, completionMarker, task, failed, errors); return null; }));
+		}
+		for (Future<Void> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				errors.add(e);
+			}
+		}
+		if (!errors.isEmpty()) {
+			throw new RuntimeException(String.format("%d chunks failed", failed.size()), errors.get(0));
+		}
+	}
+	private void work(List<File> outputs, File completionMarker, ChunkTask task, Set<Integer> failed, List<Exception> errors) throws InterruptedException {
+		while (true) {
+			boolean waiting = false;
+			for (int i = 0; i < outputs.size(); i++) {
+				if (isComplete(completionMarker)) return;
+				File output = outputs.get(i);
+				if (failed.contains(i) || held.contains(getClaimFile(output)) || output.exists()) continue;
+				int chunk = i;
+				try {
+					if (!tryRunChunk(output, completionMarker, chunk, task)) {
+						waiting = true;
+					}
+				} catch (Exception e) {
+					log.error(e, String.format("Chunk %d failed on %s", chunk, nodeId));
+					failed.add(chunk);
+					errors.add(e);
+				}
+			}
+			if (!waiting) return;
+			Thread.sleep(pollIntervalMs);
+		}
+	}
+	private static boolean isComplete(File completionMarker) {
+		return completionMarker != null && completionMarker.exists();
+	}
+	/**
+	 * Runs the given task if no other process is already doing so.
+	 * @param output output file written by the task
+	 * @return true if the output exists, false if the task is running on another process
+	 */
+	public boolean runExclusive(File output, Callable<Void> task) throws Exception {
+		if (output.exists()) return true;
+		File claim = getClaimFile(output);
+		if (!tryClaim(claim)) return false;
+		try {
+			// task could have completed between our existence check and our claim
+			if (!output.exists()) {
+				task.call();
+				if (!output.exists()) {
+					throw new IllegalStateException(String.format("Task completed without writing %s", output));
+				}
+			}
+		} finally {
+			release(claim);
+		}
+		return true;
+	}
+	/**
+	 * Runs the given task on exactly one process.
+	 * Waits for completion if the task is running on another process.
+	 * @param output output file written by the task
+	 */
+	public void runOnce(File output, Callable<Void> task) throws Exception {
+		while (!runExclusive(output, task)) {
+			Thread.sleep(pollIntervalMs);
+		}
+	}
+	private boolean tryRunChunk(File output, File completionMarker, int chunk, ChunkTask task) throws Exception {
+		if (output.exists()) return true;
+		File claim = getClaimFile(output);
+		if (!tryClaim(claim)) return false;
+		long claimed = System.currentTimeMillis();
+		try {
+			// chunk could have completed (and been consumed) between our existence check and our claim
+			if (!output.exists() && !isComplete(completionMarker)) {
+				File working = getWorkingFile(output);
+				Files.deleteIfExists(working.toPath());
+				task.run(chunk, working);
+				if (!working.exists()) {
+					throw new IllegalStateException(String.format("Chunk task completed without writing %s", working));
+				}
+				long completed = System.currentTimeMillis();
+				// timing is written first so it exists for every visible chunk output
+				writeTiming(output, chunk, claimed, completed);
+				Files.move(working.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				log.debug(String.format("Chunk %d completed by %s in %dms", chunk, nodeId, completed - claimed));
+			}
+		} finally {
+			release(claim);
+		}
+		return true;
+	}
+	private File getWorkingFile(File output) {
+		return new File(output.getParentFile(), "gridss.tmp." + getSafeNodeId() + "." + Thread.currentThread().getId() + "." + output.getName());
+	}
+	private String getSafeNodeId() {
+		return nodeId.replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+	private boolean tryClaim(File claim) throws IOException {
+		byte[] content = (nodeId + "\n").getBytes(StandardCharsets.UTF_8);
+		try {
+			Files.write(claim.toPath(), content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			held.add(claim);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			// fall through to abandoned claim check
+		}
+		String previousOwner = readOwner(claim);
+		long lastModified = claim.lastModified();
+		if (previousOwner == null || lastModified == 0 || System.currentTimeMillis() - lastModified < staleClaimTimeoutMs) {
+			// claim is live or has just been released
+			return false;
+		}
+		// Only one process can successfully rename the stale claim out of the way
+		File stale = new File(claim.getPath() + ".stale." + getSafeNodeId() + "." + Thread.currentThread().getId());
+		try {
+			Files.move(claim.toPath(), stale.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		// The claim could have been released and reclaimed by another process after our staleness check.
+		// In that case we have just renamed away a live claim and must restore it.
+		if (stale.lastModified() != lastModified || !previousOwner.equals(readOwner(stale))) {
+			restoreClaim(stale, claim);
+			return false;
+		}
+		Files.deleteIfExists(stale.toPath());
+		log.warn(String.format("Reclaiming %s abandoned by %s (last updated %ds ago)", claim, previousOwner, (System.currentTimeMillis() - lastModified) / 1000));
+		try {
+			Files.write(claim.toPath(), content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			held.add(claim);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		}
+	}
+	private static void restoreClaim(File moved, File claim) throws IOException {
+		try {
+			Files.move(moved.toPath(), claim.toPath());
+		} catch (FileAlreadyExistsException e) {
+			// a third process claimed the chunk while the claim was moved away
+			log.warn(String.format("Unable to restore live claim %s held by %s", claim, readOwner(moved)));
+			Files.deleteIfExists(moved.toPath());
+		}
+	}
+	private static String readOwner(File claim) {
+		try {
+			return new String(Files.readAllBytes(claim.toPath()), StandardCharsets.UTF_8).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	private void release(File claim) throws IOException {
+		held.remove(claim);
+		if (nodeId.equals(readOwner(claim))) {
+			Files.deleteIfExists(claim.toPath());
+		}
+	}
+	private void refreshClaims() {
+		FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+		for (File claim : held) {
+			try {
+				if (nodeId.equals(readOwner(claim))) {
+					Files.setLastModifiedTime(claim.toPath(), now);
+				} else if (held.contains(claim)) {
+					log.warn(String.format("Claim %s has been taken by %s. Heartbeat interval is too long or node is unresponsive.", claim, readOwner(claim)));
+				}
+			} catch (IOException e) {
+				log.warn(e, "Unable to refresh ", claim);
+			}
+		}
+	}
+	private void writeTiming(File output, int chunk, long claimed, long completed) throws IOException {
+		String line = String.format("%d\t%s\t%d\t%d\t%d\n", chunk, nodeId, claimed, completed, completed - claimed);
+		File timing = getTimingFile(output);
+		File tmp = new File(timing.getParentFile(), "gridss.tmp." + getSafeNodeId() + "." + timing.getName());
+		Files.write(tmp.toPath(), line.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), timing.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	/**
+	 * Concatenates the per-chunk timing records of the given chunk outputs into a single file.
+	 * @param outputs chunk outputs
+	 * @param tsv timing output file
+	 * @param deleteChunkTimings delete the per-chunk timing files
+	 */
+	public static void gatherTimings(List<File> outputs, File tsv, boolean deleteChunkTimings) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(tsv.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(TIMING_HEADER);
+			writer.write('\n');
+			for (File output : outputs) {
+				File timing = getTimingFile(output);
+				if (timing.exists()) {
+					for (String line : Files.readAllLines(timing.toPath(), StandardCharsets.UTF_8)) {
+						writer.write(line);
+						writer.write('\n');
+					}
+					if (deleteChunkTimings) {
+						Files.deleteIfExists(timing.toPath());
+					}
+				}
+			}
+		}
+	}
+	@Override
+	public void close() {
+		heartbeat.shutdownNow();
+	}
+	@FunctionalInterface
+	public interface ChunkTask {
+		/**
+		 * @param chunk index of the chunk in the chunk outputs
+		 * @param output file to write the chunk output to
+		 */
+		void run(int chunk, File output) throws Exception;
+	}
+}
@@ -1,10 +1,6 @@
 package au.edu.wehi.idsv.vcf;
 
 import au.edu.wehi.idsv.alignment.StreamingAligner;
-import au.edu.wehi.idsv.alignment.StreamingAlignerIterator;
-import au.edu.wehi.idsv.util.AutoClosingIterator;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.CloseableIterator;
@@ -18,43 +14,88 @@ import joptsimple.internal.Strings;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Annotates the inserted sequence of each breakend with the alignments of that sequence.
+ *
+ * The VCF is read once by a feeder thread which extracts the inserted sequence
+ * and sends it to the aligner. Identical sequences are only aligned once.
+ * Records are passed to the consumer in a bounded queue, allowing the feeder to
+ * keep multiple aligner batches in flight while the consumer waits on earlier alignments.
+ */
 public class InsertedSequenceAnnotator implements CloseableIterator<VariantContext> {
 	public static final byte DEFAULT_QUAL_SCORE = 20;
+	/**
+	 * Maximum number of VCF records read ahead of the record currently being annotated
+	 */
+	public static final int DEFAULT_MAX_RECORDS_IN_FLIGHT = 65536;
 	private static final Log log = Log.getInstance(InsertedSequenceAnnotator.class);
 	private static final Pattern breakendRegex = Pattern.compile("^(.(?<leftins>.*))?[\\[\\]].*[\\[\\]]((?<rightins>.*).)?$");
+	private static final int POLL_INTERVAL = 100;
 	private final File vcf;
 	private final int minRealignmentLength;
 	private final boolean stripExistingBEALN;
 	private final boolean skipExistingBEALN;
-	private CloseableIterator<VariantContext> vcfStream;
-	private PeekingIterator<SAMRecord> alignerStream;
-	private Thread feedingAligner;
+	private final BlockingQueue<PendingRecord> pending;
+	/**
+	 * Inserted sequences sent to the aligner that are yet to be annotated onto every record containing that sequence
+	 */
+	private final Map<String, SequenceAlignment> inFlight = new HashMap<>();
+	private final StreamingAligner aligner;
+	private final Thread feedingAligner;
+	private volatile boolean closed = false;
 	private VariantContext nextRecord = null;
+	private SAMRecord nextAlignment = null;
+	private boolean endOfStream = false;
+	private long consumerWaitNs = 0;
+	private int alignedSequences = 0;
+	private int duplicateSequences = 0;
+
+	/**
+	 * Alignment of an inserted sequence. Shared by all in-flight records with the same inserted sequence.
+	 */
+	private static class SequenceAlignment {
+		private final String sequence;
+		private final String readName;
+		private int references = 1;
+		private List<String> annotation = null;
+		private SequenceAlignment(String sequence, String readName) {
+			this.sequence = sequence;
+			this.readName = readName;
+		}
+	}
+
+	private static class PendingRecord {
+		private final VariantContext vc;
+		private final SequenceAlignment alignment;
+		private PendingRecord(VariantContext vc, SequenceAlignment alignment) {
+			this.vc = vc;
+			this.alignment = alignment;
+		}
+	}
+	private static final PendingRecord END_OF_STREAM = new PendingRecord(null, null);
+
 	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN) {
+		this(vcf, aligner, minRealignmentLength, stripExistingBEALN, skipExistingBEALN, DEFAULT_MAX_RECORDS_IN_FLIGHT);
+	}
+	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN, int maxRecordsInFlight) {
 		this.vcf = vcf;
 		this.minRealignmentLength = minRealignmentLength;
 		this.stripExistingBEALN = stripExistingBEALN;
 		this.skipExistingBEALN = skipExistingBEALN;
-		this.vcfStream = getVcf();
-		StreamingAlignerIterator sai = new StreamingAlignerIterator(aligner);
-		this.alignerStream = Iterators.peekingIterator(sai);
-		this.feedingAligner = new Thread(() -> feedStreamingAligner(sai, aligner));
+		this.pending = new ArrayBlockingQueue<>(maxRecordsInFlight);
+		this.aligner = aligner;
+		this.feedingAligner = new Thread(this::feedStreamingAligner);
 		this.feedingAligner.setName("feedAligner");
 		this.feedingAligner.start();
 	}
 
-	private CloseableIterator<VariantContext> getVcf() {
-		VCFFileReader vcfReader = new VCFFileReader(vcf, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
-		return new AutoClosingIterator<VariantContext>(it, vcfReader);
-	}
 	private static String getBreakendSequence(VariantContext seq) {
 		if (seq.getAlternateAlleles().size() != 1) return null;
 		Allele allele = seq.getAlternateAllele(0);
@@ -85,35 +126,86 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 	private boolean shouldSkipRecord(VariantContext vc) {
 		return skipExistingBEALN && vc.hasAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute());
 	}
-	private void feedStreamingAligner(StreamingAlignerIterator wrapper, StreamingAligner aligner) {
+	/**
+	 * Gets the alignment of the given sequence, sending the sequence to the aligner if it is not already in flight.
+	 */
+	private SequenceAlignment requestAlignment(String seqstr) throws IOException {
+		synchronized (inFlight) {
+			SequenceAlignment sa = inFlight.get(seqstr);
+			if (sa != null) {
+				sa.references++;
+				duplicateSequences++;
+				return sa;
+			}
+			sa = new SequenceAlignment(seqstr, Integer.toString(alignedSequences++));
+			inFlight.put(seqstr, sa);
+			byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
+			byte[] qual = new byte[seq.length];
+			Arrays.fill(qual, DEFAULT_QUAL_SCORE);
+			aligner.asyncAlign(new FastqRecord(sa.readName, seq, null, qual));
+			return sa;
+		}
+	}
+	private void release(SequenceAlignment sa) {
+		synchronized (inFlight) {
+			if (--sa.references == 0) {
+				inFlight.remove(sa.sequence);
+			}
+		}
+	}
+	/**
+	 * Queues the record for annotation.
+	 * If the queue is full because the consumer is waiting on alignments still buffered
+	 * by the aligner, the aligner is flushed.
+	 */
+	private void enqueue(PendingRecord pr) throws IOException, InterruptedException {
+		while (!closed && !pending.offer(pr, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+			if (aligner.processedAlignmentRecords() == 0 && aligner.outstandingAlignmentRecord() > 0) {
+				log.debug("Flushing aligner as annotation queue is full.");
+				aligner.flush();
+			}
+		}
+	}
+	private void feedStreamingAligner() {
 		try {
-			try (CloseableIterator<VariantContext> it = getVcf()) {
-				while (it.hasNext()) {
-					VariantContext vc = stripIfNeeded(it.next());
-					if (shouldSkipRecord(vc)) {
-						// skip this record
-					} else {
-						String seqstr = getBreakendSequence(vc);
-						if (!Strings.isNullOrEmpty(seqstr) && seqstr.length() >= minRealignmentLength) {
-							byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
-							byte[] qual = new byte[seq.length];
-							Arrays.fill(qual, DEFAULT_QUAL_SCORE);
-							FastqRecord fq = new FastqRecord(vc.getID(), seq, null, qual);
-							aligner.asyncAlign(fq);
+			long startTime = System.nanoTime();
+			int records = 0;
+			try (VCFFileReader vcfReader = new VCFFileReader(vcf, false)) {
+				try (CloseableIterator<VariantContext> it = vcfReader.iterator()) {
+					while (it.hasNext() && !closed) {
+						VariantContext vc = stripIfNeeded(it.next());
+						records++;
+						SequenceAlignment sa = null;
+						if (!shouldSkipRecord(vc)) {
+							String seqstr = getBreakendSequence(vc);
+							if (!Strings.isNullOrEmpty(seqstr) && seqstr.length() >= minRealignmentLength) {
+								sa = requestAlignment(seqstr);
+							}
 						}
+						enqueue(new PendingRecord(vc, sa));
 					}
 				}
 			} catch (IOException e) {
 				log.warn(e);
+			} catch (InterruptedException e) {
+				log.warn(e);
+				Thread.currentThread().interrupt();
 			} finally {
 				try {
-					wrapper.flush();
-					wrapper.close();
+					aligner.flush();
 					aligner.close();
 				} catch (IOException e) {
 					log.warn(e);
 				}
+				try {
+					enqueue(END_OF_STREAM);
+				} catch (IOException | InterruptedException e) {
+					log.warn(e);
+				}
 			}
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			log.info(String.format("Read %d records and aligned %d inserted sequences (%d duplicate sequences not realigned) in %.1fs (%.0f records/s)",
+					records, alignedSequences, duplicateSequences, seconds, records / Math.max(seconds, 1e-3)));
 			log.debug("Completed async external alignment feeder thread.");
 		} catch (OutOfMemoryError oom) {
 			log.error(oom);
@@ -135,47 +227,85 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 		return result;
 	}
 	private void ensureNext() {
-		if (nextRecord != null) {
+		if (nextRecord != null || endOfStream) {
 			return;
 		}
-		if (!vcfStream.hasNext()) {
-			nextRecord = null;
-			if (alignerStream.hasNext()) {
+		PendingRecord pr;
+		try {
+			pr = pending.take();
+		} catch (InterruptedException e) {
+			log.warn(e);
+			Thread.currentThread().interrupt();
+			pr = END_OF_STREAM;
+		}
+		if (pr == END_OF_STREAM) {
+			endOfStream = true;
+			if (peekAlignment() != null) {
 				log.debug("Traversing aligner stream to enable graceful termination.");
-				while(alignerStream.hasNext()) {
+				while (peekAlignment() != null) {
 					// consume the aligner output so everything closes gracefully
+					nextAlignment = null;
 				}
 			}
+			log.info(String.format("Annotation waited %.1fs for alignments", consumerWaitNs / 1e9));
 			return;
 		}
-		nextRecord = stripIfNeeded(vcfStream.next());
-		if (!shouldSkipRecord(nextRecord)) {
-			annotateNextRecord();
+		nextRecord = pr.vc;
+		if (pr.alignment != null) {
+			annotateNextRecord(pr.alignment);
 		}
 	}
-	private void annotateNextRecord() {
-		String readName = nextRecord.getID();
-		List<SAMRecord> alignments = new ArrayList<>();
-		while (alignerStream.hasNext() && alignerStream.peek().getReadName().equals(readName)) {
-			SAMRecord r = alignerStream.next();
-			if (!r.getReadUnmappedFlag()) {
-				alignments.add(r);
+	/**
+	 * Blocks until the next alignment record is available.
+	 * @return next alignment record, or null if every record sent to the aligner has been returned
+	 */
+	private SAMRecord peekAlignment() {
+		while (nextAlignment == null) {
+			// aligners return records before updating the outstanding count
+			int outstanding = aligner.outstandingAlignmentRecord();
+			if (aligner.processedAlignmentRecords() > 0) {
+				nextAlignment = aligner.getAlignment();
+			} else if (outstanding <= 0) {
+				return null;
+			} else {
+				try {
+					Thread.sleep(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					log.warn(e);
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+		return nextAlignment;
+	}
+	private void annotateNextRecord(SequenceAlignment sa) {
+		if (sa.annotation == null) {
+			long startTime = System.nanoTime();
+			List<SAMRecord> alignments = new ArrayList<>();
+			while (peekAlignment() != null && nextAlignment.getReadName().equals(sa.readName)) {
+				SAMRecord r = nextAlignment;
+				nextAlignment = null;
+				if (!r.getReadUnmappedFlag()) {
+					alignments.add(r);
+				}
 			}
+			consumerWaitNs += System.nanoTime() - startTime;
+			sa.annotation = writeAlignmentAnnotation(alignments);
+		}
+		release(sa);
+		if (sa.annotation.isEmpty()) {
+			return;
 		}
-		VariantContextBuilder builder = new VariantContextBuilder(nextRecord);
 		List<String> existingAlignments = nextRecord.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
-		List<String> newAlignments = writeAlignmentAnnotation(alignments);
 		List<String> mergedAlignments = new ArrayList<>();
 		if (existingAlignments != null && existingAlignments.size() > 0) {
 			mergedAlignments.addAll(existingAlignments);
 		}
-		mergedAlignments.addAll(newAlignments);
-		if (mergedAlignments.size() == 0) {
-			builder.rmAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute());
-		} else {
-			builder.attribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), mergedAlignments);
-		}
-		nextRecord = builder.make();
+		mergedAlignments.addAll(sa.annotation);
+		nextRecord = new VariantContextBuilder(nextRecord)
+				.attribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), mergedAlignments)
+				.make();
 	}
 	public static List<String> writeAlignmentAnnotation(List<SAMRecord> alignments) {
 		List<String> aln = new ArrayList<>(alignments.size());
@@ -214,8 +344,7 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 	@Override
 	public void close() {
 		log.debug("Closing UntemplatedSequenceAnnotator");
-		// TODO: close feeding thread more cleanly than just shutting down the process
-		vcfStream.close();
-		//alignerStream.close();
+		closed = true;
+		pending.clear();
 	}
 }
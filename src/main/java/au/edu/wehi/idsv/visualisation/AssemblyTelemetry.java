@@ -15,11 +15,12 @@ public class AssemblyTelemetry implements Closeable {
 	private final File file;
 	private final SAMSequenceDictionary dict;
 	private BlockingQueue<String> queue;
+	private final Thread thread;
 	public AssemblyTelemetry(File telemetryFile, SAMSequenceDictionary dict) {
 		this.file = telemetryFile;
 		this.queue = new ArrayBlockingQueue<>(4096);
 		this.dict = dict;
-		Thread thread = new Thread(new WriterRunnable(), "AT:" + file.getName());
+		this.thread = new Thread(new WriterRunnable(queue), "AT:" + file.getName());
 		thread.setDaemon(true);
 		thread.start();
 	}
@@ -66,11 +67,18 @@ public class AssemblyTelemetry implements Closeable {
 		try {
 			queue.put("");
 			queue = null;
+			// wait for all telemetry to be written
+			thread.join();
 		} catch (InterruptedException e) {
 		}
 	}
 	
 	private class WriterRunnable implements Runnable {
+		// close() clears the queue field before the remaining telemetry has been written
+		private final BlockingQueue<String> queue;
+		private WriterRunnable(BlockingQueue<String> queue) {
+			this.queue = queue;
+		}
 		public void run() {
 			boolean shouldWriteHeader = !file.exists();
 			try {
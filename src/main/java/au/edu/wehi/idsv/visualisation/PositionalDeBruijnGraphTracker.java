@@ -93,7 +93,7 @@ public class PositionalDeBruijnGraphTracker implements Closeable {
 		}
 		writer.write('\n');
 	}
-	public void trackAssembly(MemoizedContigCaller caller) {
+	public void trackAssembly(ContigCaller caller) {
 		if (writer == null) return;
 		long currentTime = System.nanoTime();
 		long deltaTime = currentTime - lastTime;
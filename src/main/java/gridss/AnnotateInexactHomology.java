@@ -12,6 +12,11 @@ import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 
 public class AnnotateInexactHomology extends VcfTransformCommandLineProgram {
+	@Override
+	protected boolean requiresEvidenceStartOrder() {
+		// each call is annotated independently
+		return false;
+	}
 	@Override
 	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
 		Iterator<VariantContextDirectedEvidence> it = new ParallelTransformIterator<VariantContextDirectedEvidence, VariantContextDirectedEvidence>(
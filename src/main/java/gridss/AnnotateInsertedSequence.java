@@ -4,7 +4,9 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.VariantContextRepeatMaskerAnnotator;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
+import au.edu.wehi.idsv.alignment.Minimap2StreamingAligner;
 import au.edu.wehi.idsv.alignment.StreamingAligner;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerIntervalIndex;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.vcf.InsertedSequenceAnnotator;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
@@ -45,12 +47,14 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
     @Argument(doc="Minimum inserted sequence length for realignment. Generally, short read aligners are not able to uniquely align sequences shorter than 18-20 bases.", optional=true)
     public int MIN_SEQUENCE_LENGTH = 20;
     @Argument(doc = "Command line arguments to run external aligner. "
-            + "In-process bwa alignment is used if this value is null. "
+            + "In-process alignment using ALIGNER is used if this value is null. "
             + "Aligner output must be written to stdout and the records MUST match the input fastq order."
             + " The aligner must support using \"-\" as the input filename when reading from stdin."
             + "Java argument formatting is used with %1$s being the fastq file to align, "
             + "%2$s the reference genome, and %3$d the number of threads to use.", optional = true)
     public List<String> ALIGNER_COMMAND_LINE = null;
+    @Argument(doc = "Which in-process aligner to use when ALIGNER_COMMAND_LINE is not specified.", optional = true)
+    public SoftClipsToSplitReads.Aligner ALIGNER = SoftClipsToSplitReads.Aligner.BWAMEM;
     @Argument(doc = "Number of records to buffer when performing in-process or streaming alignment. Not applicable when performing external alignment.", optional = true)
     public int ALIGNER_BATCH_SIZE = MAX_RECORDS_IN_RAM;
     @Argument(doc = "Whether to align inserted sequences to REFERENCE_GENOME. Valid values are:" +
@@ -61,6 +65,9 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
     public AlignmentStatus ALIGNMENT = AlignmentStatus.REPLACE;
     @Argument(doc = "Annotate inserted sequences with RepeatMasker annotations. Use bedops rmsk2bed to generate the bed file from the RepeatMasker .fa.out file.", optional = true)
     public File REPEAT_MASKER_BED = null;
+    @Argument(doc = "Binary RepeatMasker index. If this file is missing or was created from a different REPEAT_MASKER_BED, it is recreated from REPEAT_MASKER_BED." +
+            " Using a cache avoids parsing REPEAT_MASKER_BED on every invocation. Typically REPEAT_MASKER_BED" + RepeatMaskerIntervalIndex.CACHE_EXTENSION, optional = true)
+    public File REPEAT_MASKER_CACHE = null;
 
     public static void main(String[] argv) {
         System.exit(new AnnotateInsertedSequence().instanceMain(argv));
@@ -104,7 +111,10 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
             Iterator<VariantContext> it;
             if (ALIGNMENT != AlignmentStatus.SKIP) {
                 StreamingAligner sa;
-                if (ALIGNER_COMMAND_LINE == null || ALIGNER_COMMAND_LINE.size() == 0) {
+                if ((ALIGNER_COMMAND_LINE == null || ALIGNER_COMMAND_LINE.size() == 0) && ALIGNER == SoftClipsToSplitReads.Aligner.MINIMAP2) {
+                    log.info("Using in-process minimap2 alignment");
+                    sa = new Minimap2StreamingAligner(REFERENCE_SEQUENCE, dict, WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+                } else if (ALIGNER_COMMAND_LINE == null || ALIGNER_COMMAND_LINE.size() == 0) {
                     log.info("Using in-process bwa alignment");
                     sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, dict, WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
                 } else {
@@ -124,7 +134,7 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
             }
             if (REPEAT_MASKER_BED != null) {
                 log.info("Loading RepeatMasker bed file from " + REPEAT_MASKER_BED);
-                VariantContextRepeatMaskerAnnotator rma = new VariantContextRepeatMaskerAnnotator(REPEAT_MASKER_BED);
+                VariantContextRepeatMaskerAnnotator rma = new VariantContextRepeatMaskerAnnotator(REPEAT_MASKER_BED, REPEAT_MASKER_CACHE);
                 log.info("RepeatMasker bed file loaded from " + REPEAT_MASKER_BED);
                 Set<String> commonContigs = Sets.intersection(Sets.newHashSet(rma.getRepeatMaskerContigs()), dict.getSequences().stream().map(s -> s.getContig()).collect(Collectors.toSet()));
                 if (commonContigs.size() < Math.min(rma.getRepeatMaskerContigs().size(), dict.size()) * 0.5) {
@@ -60,6 +60,9 @@ public class AssembleBreakends extends MultipleSamFileCommandLineProgram {
 		if (JOB_INDEX >= JOB_NODES) {
 			return new String[] { "JOB_INDEX is zero-based: JOB_INDEX must be less than JOB_NODES."};
 		}
+		if (SHARED_WORK_QUEUE && JOB_NODES > 1) {
+			return new String[] { "JOB_NODES cannot be used with SHARED_WORK_QUEUE since chunks are allocated dynamically across all jobs."};
+		}
 		return super.customCommandLineValidation();
 	}
 }
@@ -2,6 +2,7 @@ package gridss;
 
 import au.edu.wehi.idsv.*;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gridss.cmdline.GcSinglePassSamProgram;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
@@ -16,7 +17,10 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
 
 @CommandLineProgramProperties(
 		summary = "Computes reference genome coverage for a given BAM",
@@ -40,10 +44,27 @@ public class ComputeCoverage extends GcSinglePassSamProgram {
 			+ " actual aligned sequence coverage, and FRAGMENT which calculated physical coverage based on the"
 			+ " alignment of read pairs.", optional=true)
 	public CoverageCalculationMethod COVERAGE_METHOD = CoverageCalculationMethod.READ;
+	@Argument(doc="Number of worker threads used to accumulate coverage. "
+			+ "Coverage of each contig is accumulated in read order by a single worker thread"
+			+ " concurrently with reading of the input.", optional=true,
+			shortName="THREADS")
+	public int WORKER_THREADS = 1;
+	/**
+	 * Number of reads handed to a worker thread at a time
+	 */
+	private static final int BATCH_SIZE = 4096;
+	/**
+	 * Number of batches per worker waiting to be accumulated
+	 */
+	private static final int BATCHES_IN_FLIGHT_PER_WORKER = 4;
 	
 	private IntervalCoverageAccumulator ica_gc;
 	private IntervalCoverageAccumulator ica_raw;
 	private GcBiasAdjuster gcAdjust;
+	private ExecutorService[] workers;
+	private Semaphore batchesInFlight;
+	private CoverageBatch[] batches;
+	private final List<Future<?>> pending = new ArrayList<>();
 	@Override
 	protected String[] customCommandLineValidation() {
 		if (OUTPUT_GC != null) {
@@ -51,6 +72,9 @@ public class ComputeCoverage extends GcSinglePassSamProgram {
 				return new String[] { "GC_ADJUSTMENT file is required if GC_OUTPUT specified" };
 			}
 		}
+		if (WORKER_THREADS < 1) {
+			return new String[] { "WORKER_THREADS must be at least one." };
+		}
 		return super.customCommandLineValidation();
 	}
 	@Override
@@ -65,6 +89,18 @@ public class ComputeCoverage extends GcSinglePassSamProgram {
 			ica_gc = initIntervalCoverageAccumulator();
 		}
 		ica_raw = initIntervalCoverageAccumulator();
+		workers = null;
+		if (WORKER_THREADS > 1) {
+			log.info(String.format("Using %d worker threads", WORKER_THREADS));
+			ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ComputeCoverage-%d").build();
+			// Each contig is assigned to a single worker so coverage is accumulated in read order
+			workers = new ExecutorService[WORKER_THREADS];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = Executors.newSingleThreadExecutor(threadFactory);
+			}
+			batchesInFlight = new Semaphore(WORKER_THREADS * BATCHES_IN_FLIGHT_PER_WORKER);
+			batches = new CoverageBatch[getReference().getSequenceDictionary().size()];
+		}
 	}
 	private IntervalCoverageAccumulator initIntervalCoverageAccumulator() {
 		SAMSequenceDictionary dictionary = getReference().getSequenceDictionary();
@@ -83,14 +119,105 @@ public class ComputeCoverage extends GcSinglePassSamProgram {
 	@Override
 	protected void acceptRead(SAMRecord record, ReferenceSequence refSeq) {
 		if (record.getDuplicateReadFlag() && !INCLUDE_DUPLICATES) return;
-		ReadGcSummary gc = new ReadGcSummary(record, refSeq, UNPAIRED_FRAGMENT_SIZE, getReadPairConcordanceCalculator());
-		if (ica_gc != null) {
-			ica_gc.add(record, gc, gcAdjust.adjustmentMultiplier((int)gc.gcPercentage));
+		ReadGcSummary gc = new ReadGcSummary(record, getReferenceGcCounts().getContig(refSeq), UNPAIRED_FRAGMENT_SIZE, getReadPairConcordanceCalculator());
+		double gcWeight = ica_gc == null ? 0 : gcAdjust.adjustmentMultiplier((int)gc.gcPercentage);
+		if (workers == null) {
+			if (ica_gc != null) {
+				ica_gc.add(record, gc, gcWeight);
+			}
+			ica_raw.add(record, gc, 1.0);
+		} else {
+			int referenceIndex = gc.referenceIndex;
+			CoverageBatch batch = batches[referenceIndex];
+			if (batch == null) {
+				batch = new CoverageBatch(referenceIndex);
+				batches[referenceIndex] = batch;
+			}
+			batch.add(IntervalCoverageAccumulator.getStart(COVERAGE_METHOD, record, gc), IntervalCoverageAccumulator.getEnd(COVERAGE_METHOD, record, gc), gcWeight);
+			if (batch.size == BATCH_SIZE) {
+				submit(batch);
+				batches[referenceIndex] = null;
+			}
+		}
+	}
+	private void submit(CoverageBatch batch) {
+		try {
+			batchesInFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		pending.removeIf(f -> f.isDone() && checkCompleted(f));
+		pending.add(workers[batch.referenceIndex % workers.length].submit(() -> {
+			try {
+				batch.accumulate();
+			} finally {
+				batchesInFlight.release();
+			}
+		}));
+	}
+	private static boolean checkCompleted(Future<?> f) {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return true;
+	}
+	/**
+	 * Waits for all reads to be accumulated
+	 */
+	private void flushBatches() {
+		for (int i = 0; i < batches.length; i++) {
+			if (batches[i] != null) {
+				submit(batches[i]);
+				batches[i] = null;
+			}
+		}
+		try {
+			for (Future<?> f : pending) {
+				checkCompleted(f);
+			}
+		} finally {
+			pending.clear();
+			for (ExecutorService worker : workers) {
+				worker.shutdownNow();
+			}
+			workers = null;
+		}
+	}
+	private class CoverageBatch {
+		private final int referenceIndex;
+		private final int[] start = new int[BATCH_SIZE];
+		private final int[] end = new int[BATCH_SIZE];
+		private final double[] gcWeight = new double[BATCH_SIZE];
+		private int size = 0;
+		public CoverageBatch(int referenceIndex) {
+			this.referenceIndex = referenceIndex;
+		}
+		public void add(int start, int end, double gcWeight) {
+			this.start[size] = start;
+			this.end[size] = end;
+			this.gcWeight[size] = gcWeight;
+			size++;
+		}
+		public void accumulate() {
+			for (int i = 0; i < size; i++) {
+				if (ica_gc != null) {
+					ica_gc.add(referenceIndex, start[i], end[i], gcWeight[i]);
+				}
+				ica_raw.add(referenceIndex, start[i], end[i], 1.0);
+			}
 		}
-		ica_raw.add(record, gc, 1.0);
 	}
 	@Override
 	protected void finish() {
+		if (workers != null) {
+			flushBatches();
+		}
 		// Write BED files
 		try {
 			ica_raw.writeToBed(OUTPUT);
@@ -142,7 +142,9 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 					recalculateSupplementary,
 					reference),
 				batchSize,
-				threadpool);
+				threadpool,
+				// split the lookahead into enough batches to keep every worker thread busy
+				Math.max(1, batchSize / (2 * WORKER_THREADS)));
 		return new UngroupingIterator(parallelIt);
 	}
 	private static List<SAMRecord> transform(
@@ -4,6 +4,10 @@ public class Defaults {
 	public static final boolean IGNORE_FILE_TIMESTAMPS;
 	public static final int ASYNC_BUFFERS;
 	public static final int ASYNC_BUFFER_SIZE;
+	/**
+	 * Number of threads in the shared pool used to read ahead asynchronously buffered iterators 
+	 */
+	public static final int ASYNC_THREADS;
 	public static final boolean DELETE_TEMPORARY_FILES;
 	public static final int SUPPRESS_DATA_ERROR_MESSAGES_AFTER;
 	public static final boolean WRITE_ZERO_OR_EMTPY_VCF_FIELDS;
@@ -18,14 +22,21 @@ public class Defaults {
 	 * See http://stackoverflow.com/questions/2972986/how-to-unmap-a-file-from-memory-mapped-using-filechannel-in-java
 	 */
 	public static final boolean DEFENSIVE_GC;
+	/**
+	 * Emit GRIDSS-specific JDK Flight Recorder events.
+	 * Events are only recorded when a flight recording is active (e.g. -XX:StartFlightRecording)
+	 */
+	public static final boolean JFR_EVENTS;
 	static {
 		IGNORE_FILE_TIMESTAMPS = Boolean.valueOf(System.getProperty("gridss.ignoreTimestamps", "true"));
 		ASYNC_BUFFERS = Integer.parseInt(System.getProperty("gridss.async.buffers", "2"));
 		ASYNC_BUFFER_SIZE = Integer.parseInt(System.getProperty("gridss.async.buffersize", "300"));
+		ASYNC_THREADS = Integer.parseInt(System.getProperty("gridss.async.threads", Integer.toString(Math.max(4, Runtime.getRuntime().availableProcessors()))));
 		DELETE_TEMPORARY_FILES = !Boolean.valueOf(System.getProperty("gridss.keepTempFiles", "false"));
 		SUPPRESS_DATA_ERROR_MESSAGES_AFTER = Integer.parseInt(System.getProperty("gridss.logSpamLimit", "100"));
 		WRITE_ZERO_OR_EMTPY_VCF_FIELDS = Boolean.valueOf(System.getProperty("gridss.writeZeroOrEmptyVcfFields", "true"));
 		DEFENSIVE_GC = Boolean.valueOf(System.getProperty("gridss.defensiveGC", "false"));
 		OUTPUT_TO_TEMP_FILE = Boolean.valueOf(System.getProperty("gridss.output_to_temp_file", "false"));
+		JFR_EVENTS = Boolean.valueOf(System.getProperty("gridss.jfr", "true"));
 	}
 }
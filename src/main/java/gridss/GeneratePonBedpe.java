@@ -1,22 +1,18 @@
 package gridss;
 
 import au.edu.wehi.idsv.*;
-import au.edu.wehi.idsv.bed.BedpeIterator;
-import au.edu.wehi.idsv.bed.BedpeRecord;
-import au.edu.wehi.idsv.bed.BedpeWriter;
+import au.edu.wehi.idsv.bed.*;
 import au.edu.wehi.idsv.configuration.GridssConfiguration;
-import au.edu.wehi.idsv.util.AsyncBufferedIterator;
-import au.edu.wehi.idsv.util.AutoClosingIterator;
-import au.edu.wehi.idsv.util.WindowedSortingIterator;
 import au.edu.wehi.idsv.vcf.VcfFormatAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.annotation.Strand;
 import htsjdk.tribble.bed.BEDCodec;
@@ -38,11 +34,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
 
 
 @CommandLineProgramProperties(
@@ -61,6 +55,10 @@ public class GeneratePonBedpe extends CommandLineProgram {
     public File OUTPUT_BEDPE = new File("gridss_pon_breakpoint.bedpe");
 	@Argument(shortName="SBO", doc="Output BED", optional=false)
 	public File OUTPUT_BED = new File("gridss_pon_single_breakend.bed");;
+	@Argument(doc="Existing GRIDSS binary PON. New normals are added to the existing PON counts without re-reading the VCFs of the existing PON.", optional=true)
+	public File INPUT_PON = null;
+	@Argument(doc="Output binary PON containing both breakpoint and single breakend counts. The binary PON is indexed for overlap queries and can be used as the INPUT_PON of subsequent incremental PON generation.", optional=true)
+	public File OUTPUT_PON = null;
 	@Argument(shortName="NO", doc="0-based ordinals of the normal samples in the VCF.", optional=false)
     public List<Integer> NORMAL_ORDINAL = new ArrayList<>();
 	@Argument(shortName="Q", doc="Minimum variant quality score for a breakpoint variant to be considered part of the normal.", optional=true)
@@ -69,7 +67,10 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	public double MIN_BREAKEND_QUAL = 428;
 	@Argument(doc="Include imprecise calls in the panel of normals.", optional=true)
 	public boolean INCLUDE_IMPRECISE_CALLS = false;
-	private int MAX_BREAKPOINT_HOMOLOGY_LENGTH = 2000;
+	/**
+	 * Maximum number of sorted runs to merge concurrently
+	 */
+	private static final int MAX_MERGE_RUNS = 256;
 	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available with a maximum of one 1 per input file.", shortName="THREADS")
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 
@@ -84,6 +85,9 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		if (OUTPUT_BEDPE != null && OUTPUT_BEDPE.equals(INPUT_BEDPE)) {
 			return new String[] {"INPUT_BEDPE and OUTPUT_BEDPE must be different files."};
 		}
+		if (OUTPUT_PON != null && OUTPUT_PON.equals(INPUT_PON)) {
+			return new String[] {"INPUT_PON and OUTPUT_PON must be different files."};
+		}
 		if (NORMAL_ORDINAL == null || NORMAL_ORDINAL.size() == 0) {
 			return new String[] {"NORMAL_ORDINAL must be specified"};
 		}
@@ -104,8 +108,14 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			if (INPUT_BEDPE != null) {
 				IOUtil.assertFileIsReadable(INPUT_BEDPE);
 			}
+			if (INPUT_PON != null) {
+				IOUtil.assertFileIsReadable(INPUT_PON);
+			}
 			IOUtil.assertFileIsWritable(OUTPUT_BEDPE);
 			IOUtil.assertFileIsWritable(OUTPUT_BED);
+			if (OUTPUT_PON != null) {
+				IOUtil.assertFileIsWritable(OUTPUT_PON);
+			}
 			for (File f : INPUT) {
 				IOUtil.assertFileIsReadable(f);
 			}
@@ -123,26 +133,29 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			}
 			GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), TMP_DIR.get(0), MAX_RECORDS_IN_RAM), REFERENCE_SEQUENCE, null);
 			pc.setCommandLineProgram(this);
-			Iterator<Pair<BreakendSummary, Integer>> mergedIt = Iterators.mergeSorted(ImmutableList.of(
-					filteredMerge(pc, INPUT, NORMAL_ORDINAL),
-					getExistingPON(pc.getDictionary(), INPUT_BEDPE, INPUT_BED)), ByBreakendStartEnd);
-			BedpeMergingCounter pe = new BedpeMergingCounter();
-			BedMergingCounter se = new BedMergingCounter(true);
-			BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
-			BufferedWriter seWriter = Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII);
-			while(mergedIt.hasNext()) {
-				Pair<BreakendSummary, Integer> record = mergedIt.next();
-				if (record.getFirst() instanceof BreakpointSummary) {
-					Pair<BreakpointSummary, Integer> bpRecord = Pair.create((BreakpointSummary)record.getFirst(), record.getSecond());
-					writeBedpe(pe.process(bpRecord), writer);
-				} else {
-					writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.process(record));
+			List<File> runs = parseInputs(pc, INPUT, NORMAL_ORDINAL);
+			try {
+				while (runs.size() > MAX_MERGE_RUNS) {
+					// limit the number of concurrently open files
+					File merged = createRunFile();
+					List<File> toMerge = new ArrayList<>(runs.subList(0, MAX_MERGE_RUNS));
+					PanelOfNormalsRunMerger.merge(openRuns(toMerge), merged);
+					deleteRuns(toMerge);
+					runs = new ArrayList<>(runs.subList(MAX_MERGE_RUNS, runs.size()));
+					runs.add(merged);
 				}
+				try (PanelOfNormals existingPon = INPUT_PON == null ? null : new PanelOfNormals(INPUT_PON)) {
+					List<PanelOfNormalsRunMerger.RecordSource> sources = openRuns(runs);
+					if (existingPon != null) {
+						SequenceUtil.assertSequenceDictionariesEqual(existingPon.getSequenceDictionary(), pc.getDictionary());
+						sources.add(existingPon.asRecordSource());
+					}
+					sources.add(getExistingPON(pc.getDictionary(), INPUT_BEDPE, INPUT_BED));
+					writePon(pc, sources);
+				}
+			} finally {
+				deleteRuns(runs);
 			}
-			writeBedpe(pe.finish(), writer);
-			writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.finish());
-			writer.close();
-			seWriter.close();
 		} catch (IOException e) {
 			log.error(e);
 			return 1;
@@ -161,28 +174,63 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		return Pair.create(new BreakendSummary(referenceIndex, strand == Strand.FORWARD ? BreakendDirection.Forward : BreakendDirection.Backward, start, start, end), (int)score);
 	}
 
-	private Iterator<Pair<BreakendSummary, Integer>> getExistingPON(SAMSequenceDictionary dictionary, File bedpeFile, File bedFile) throws IOException {
-		if (bedpeFile == null || bedFile == null) {
-			return ImmutableList.<Pair<BreakendSummary, Integer>>of().iterator();
+	private PanelOfNormalsRunMerger.RecordSource getExistingPON(SAMSequenceDictionary dictionary, File bedpeFile, File bedFile) throws IOException {
+		PanelOfNormalsRecords records = new PanelOfNormalsRecords();
+		if (bedpeFile != null && bedFile != null) {
+			try (BedpeIterator peIt = new BedpeIterator(bedpeFile, dictionary)) {
+				while (peIt.hasNext()) {
+					BedpeRecord x = peIt.next();
+					records.add(x.bp, Integer.parseInt(x.score));
+				}
+			}
+			BEDCodec codec = new BEDCodec();
+			try (AbstractFeatureReader<BEDFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(bedFile.getPath(), codec, false)) {
+				for (BEDFeature x : reader.iterator()) {
+					Pair<BreakendSummary, Integer> pair = toPair(dictionary, x);
+					records.add(pair.getFirst(), pair.getSecond());
+				}
+			}
 		}
-		BedpeIterator peIt = new BedpeIterator(bedpeFile, dictionary);
-		Iterator<Pair<BreakendSummary, Integer>> peItTransformed = Iterators.transform(peIt, (BedpeRecord x) -> Pair.create(x.bp, Integer.parseInt(x.score)));
-		BEDCodec codec = new BEDCodec();
-		AbstractFeatureReader<BEDFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(bedFile.getPath(), codec, false);
-		Iterator<Pair<BreakendSummary, Integer>> seItTransformed = Iterators.transform(reader.iterator(), (BEDFeature x) -> toPair(dictionary, x));
-		return new AutoClosingIterator<>(Iterators.mergeSorted(ImmutableList.of(peItTransformed, seItTransformed), ByBreakendStartEnd), reader, peIt);
+		records.sortAndAggregate();
+		return records.asRecordSource();
 	}
-	private static <T> Iterable<T> expand(Pair<T, Integer> pair) {
-		List<T> result = new ArrayList<>(pair.getSecond());
-		for (int i = 0; i < pair.getSecond(); i++) {
-			result.add(pair.getFirst());
+
+	/**
+	 * Merges the given breakend counts and writes the panel of normals
+	 */
+	private void writePon(GenomicProcessingContext pc, List<PanelOfNormalsRunMerger.RecordSource> sources) throws IOException {
+		SAMSequenceDictionary dict = pc.getReference().getSequenceDictionary();
+		BedpeMergingCounter pe = new BedpeMergingCounter();
+		BedMergingCounter se = new BedMergingCounter(true);
+		PanelOfNormalsRecords ponRecords = OUTPUT_PON == null ? null : new PanelOfNormalsRecords();
+		int[] record = new int[PanelOfNormalsRecords.RECORD_SIZE];
+		try (PanelOfNormalsRunMerger merger = new PanelOfNormalsRunMerger(sources);
+				BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
+				BufferedWriter seWriter = Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII)) {
+			while (merger.next(record)) {
+				BreakendSummary be = PanelOfNormalsRecords.decode(record, 0);
+				int count = record[PanelOfNormalsRecords.COUNT];
+				if (be instanceof BreakpointSummary) {
+					writeBedpe(pe.process((BreakpointSummary)be, count), writer, ponRecords);
+				} else {
+					writeBed(dict, seWriter, se.process(Pair.create(be, count)), ponRecords);
+				}
+			}
+			writeBedpe(pe.finish(), writer, ponRecords);
+			writeBed(dict, seWriter, se.finish(), ponRecords);
+		}
+		if (ponRecords != null) {
+			ponRecords.sortAndAggregate();
+			PanelOfNormals.write(OUTPUT_PON, dict, ponRecords);
 		}
-		return result;
 	}
 
-	private void writeBed(SAMSequenceDictionary dict, BufferedWriter writer, List<Pair<BreakendSummary, Integer>> list) throws IOException {
+	private void writeBed(SAMSequenceDictionary dict, BufferedWriter writer, List<Pair<BreakendSummary, Integer>> list, PanelOfNormalsRecords ponRecords) throws IOException {
 		for (Pair<BreakendSummary, Integer> pair : list) {
 			writeBed(dict, writer, pair.getFirst(), pair.getSecond());
+			if (ponRecords != null) {
+				ponRecords.add(pair.getFirst(), pair.getSecond());
+			}
 		}
 	}
 	private void writeBed(SAMSequenceDictionary dict, BufferedWriter writer, BreakendSummary bs, int count) throws IOException {
@@ -192,37 +240,84 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		writer.write(String.format("%s\t%d\t%d\t.\t%d\t%s\n", dict.getSequence(referenceIndex).getSequenceName(), bedStart, bedEnd, count, bs.direction == BreakendDirection.Forward ? '+' : '-'));
 	}
 
-	private void writeBedpe(List<Pair<BreakpointSummary, Integer>> list, BedpeWriter writer) throws IOException {
+	private void writeBedpe(List<Pair<BreakpointSummary, Integer>> list, BedpeWriter writer, PanelOfNormalsRecords ponRecords) throws IOException {
 		for (Pair<BreakpointSummary, Integer> emitted : list) {
 			writer.write(emitted.getFirst(), ".", Integer.toString(emitted.getSecond()));
+			if (ponRecords != null) {
+				ponRecords.add(emitted.getFirst(), emitted.getSecond());
+			}
 		}
 	}
 
-	private Iterator<Pair<BreakendSummary, Integer>> filteredMerge(GenomicProcessingContext pc, List<File> file, List<Integer> ordinals) {
-    	List<CloseableIterator<Pair<BreakendSummary, Integer>>> fileIt = new ArrayList<>();
-    	for (File f : file) {
-    		fileIt.add(getFilteredIterator(pc, f, ordinals));
+	/**
+	 * Parses each input VCF in parallel into a sorted run of breakend counts
+	 * @return sorted runs
+	 */
+	private List<File> parseInputs(GenomicProcessingContext pc, List<File> files, List<Integer> ordinals) throws IOException, InterruptedException {
+		ExecutorService threadpool = Executors.newFixedThreadPool(Math.max(1, Math.min(WORKER_THREADS, files.size())),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GeneratePonBedpe-%d").build());
+		List<Future<File>> futures = new ArrayList<>();
+		for (File f : files) {
+			futures.add(threadpool.submit(() -> parseInput(pc, f, ordinals)));
 		}
-		// allocate VCF files to worker threads
-		final AtomicInteger counter = new AtomicInteger(0);
-		final int size = WORKER_THREADS;
-		final List<Iterator<Pair<BreakendSummary, Integer>>> partitioned = fileIt.stream()
-				.collect(Collectors.groupingBy(it -> counter.getAndIncrement() % size))
-				.values()
-				.stream()
-				.map(list -> list.size() == 1 ? list.get(0) : Iterators.mergeSorted(list, ByBreakendStartEnd))
-				.map(it -> new AsyncBufferedIterator<>(it,"AsyncVCF"))
-				.collect(Collectors.toList());
-		Iterator<Pair<BreakendSummary, Integer>> mergedIt = new AsyncBufferedIterator<>(Iterators.mergeSorted(partitioned, ByBreakendStartEnd), "Merged VCF reader");
-		return mergedIt;
+		threadpool.shutdown();
+		List<File> runs = new ArrayList<>();
+		try {
+			for (Future<File> future : futures) {
+				runs.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			threadpool.shutdownNow();
+			for (Future<File> future : futures) {
+				if (future.isDone() && !future.isCancelled()) {
+					try {
+						deleteRuns(ImmutableList.of(future.get()));
+					} catch (ExecutionException ignored) {
+					}
+				}
+			}
+			Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException(e.getCause());
+		}
+		return runs;
+	}
+	private File parseInput(GenomicProcessingContext pc, File file, List<Integer> ordinals) throws IOException {
+		log.debug("Parsing ", file);
+		PanelOfNormalsRecords records = new PanelOfNormalsRecords();
+		try (VCFFileReader vcfReader = new VCFFileReader(file, false)) {
+			try (CloseableIterator<VariantContext> it = vcfReader.iterator()) {
+				while (it.hasNext()) {
+					Pair<BreakendSummary, Integer> pair = getBreakendSummary(pc.getDictionary(), it.next(), ordinals);
+					if (pair != null && pair.getSecond() > 0) {
+						records.add(pair.getFirst(), pair.getSecond());
+					}
+				}
+			}
+		}
+		records.sortAndAggregate();
+		File run = createRunFile();
+		records.writeRun(run);
+		return run;
+	}
+	private File createRunFile() throws IOException {
+		File run = File.createTempFile("gridss.pon.", ".run", TMP_DIR.get(0));
+		run.deleteOnExit();
+		return run;
+	}
+	private static List<PanelOfNormalsRunMerger.RecordSource> openRuns(List<File> runs) throws IOException {
+		List<PanelOfNormalsRunMerger.RecordSource> sources = new ArrayList<>(runs.size() + 2);
+		for (File run : runs) {
+			sources.add(PanelOfNormalsRunMerger.openRun(run));
+		}
+		return sources;
 	}
-	private CloseableIterator<Pair<BreakendSummary, Integer>> getFilteredIterator(GenomicProcessingContext pc, File file, List<Integer> ordinals) {
-		VCFFileReader vcfReader = new VCFFileReader(file, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
-		Iterator<Pair<BreakendSummary, Integer>> idsvIt = Iterators.transform(it, variant -> getBreakendSummary(pc.getDictionary(), variant, ordinals));
-		Iterator<Pair<BreakendSummary, Integer>> idsvFilteredIt = Iterators.filter(idsvIt, pair -> pair != null && pair.getSecond() > 0);
-		Iterator<Pair<BreakendSummary, Integer>> bpit = new PairBreakendSummaryWindowedSortingIterator(pc.getLinear(), idsvFilteredIt, MAX_BREAKPOINT_HOMOLOGY_LENGTH);
-		return new AutoClosingIterator<>(bpit, it, vcfReader);
+	private static void deleteRuns(List<File> runs) {
+		for (File run : runs) {
+			if (!run.delete()) {
+				log.debug("Unable to delete ", run);
+			}
+		}
 	}
 	private Pair<BreakendSummary, Integer> getBreakendSummary(SAMSequenceDictionary dict, VariantContext variant, List<Integer> ordinals) {
 		IdsvVariantContext vc = IdsvVariantContext.create(dict, null, variant);
@@ -257,10 +352,4 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	public static void main(String[] argv) {
         System.exit(new GeneratePonBedpe().instanceMain(argv));
     }
-	public class PairBreakendSummaryWindowedSortingIterator extends WindowedSortingIterator<Pair<BreakendSummary, Integer>> {
-		public PairBreakendSummaryWindowedSortingIterator(LinearGenomicCoordinate lgc, Iterator<Pair<BreakendSummary, Integer>> it, long windowSize) {
-			super(it, x -> lgc.getLinearCoordinate(x.getFirst().referenceIndex, x.getFirst().start), windowSize);
-		}
-	}
-	public static Ordering<Pair<BreakendSummary, Integer>> ByBreakendStartEnd = BreakendSummary.ByStartEnd.onResultOf(p -> p.getFirst());
 }
@@ -1,6 +1,7 @@
 package gridss;
 
 import au.edu.wehi.idsv.GenomicProcessingContext;
+import au.edu.wehi.idsv.ReferenceGcCounts;
 import au.edu.wehi.idsv.alignment.BwaAligner;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
 import gridss.cmdline.ReferenceCommandLineProgram;
@@ -26,6 +27,8 @@ public class PrepareReference extends CommandLineProgram {
 	public boolean CREATE_SEQUENCE_DICTIONARY = true;
 	@Argument(doc="Creates 2-bit encoded reference cache file used by GRIDSS.", optional=true)
 	public boolean CREATE_GRIDSS_REFERENCE_CACHE = true;
+	@Argument(doc="Creates reference GC content cache file used by fragment GC metrics and coverage calculation.", optional=true)
+	public boolean CREATE_GC_CACHE = false;
 	@Argument(doc="Creates bwa index file used by the in-process bwa aligner.", optional=true)
 	public boolean CREATE_BWA_INDEX_IMAGE = true;
     @Override
@@ -50,6 +53,17 @@ public class PrepareReference extends CommandLineProgram {
 					log.info("Found " + cache);
 				}
 			}
+			File gcCache = ReferenceGcCounts.getDefaultCacheFile(REFERENCE_SEQUENCE);
+			if (CREATE_GC_CACHE) {
+				if (!gcCache.exists()) {
+					log.info("Creating reference GC cache file " + gcCache);
+					try (ReferenceSequenceFile ref = new IndexedFastaSequenceFile(REFERENCE_SEQUENCE)) {
+						ReferenceGcCounts.writeCache(ref, REFERENCE_SEQUENCE, gcCache);
+					}
+				} else {
+					log.info("Found " + gcCache);
+				}
+			}
 			File bwaImage = BwaAligner.getBwaIndexFileFor(REFERENCE_SEQUENCE);
 			if (CREATE_BWA_INDEX_IMAGE) {
 				if (!bwaImage.exists() || bwaImage.length() == 0) {
@@ -4,6 +4,7 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import au.edu.wehi.idsv.alignment.Minimap2StreamingAligner;
 import au.edu.wehi.idsv.alignment.StreamingAligner;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
@@ -112,6 +113,10 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 				int bwaBufferSizeInBases = ALIGNER_BATCH_SIZE * 25;
 				sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, bwaBufferSizeInBases);
 				break;
+			case MINIMAP2:
+				// same base-pair based buffering as bwa
+				sa = new Minimap2StreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 25);
+				break;
 			case EXTERNAL:
 			default:
 				throw new IllegalArgumentException("Aligner not supported by PreprocessForBreakendAssembly");
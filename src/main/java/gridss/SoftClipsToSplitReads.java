@@ -2,15 +2,22 @@ package gridss;
 
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.IterativeSplitReadRealigner;
+import au.edu.wehi.idsv.PartitionedSplitReadRealigner;
 import au.edu.wehi.idsv.SplitReadRealigner;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
+import au.edu.wehi.idsv.alignment.BwaAligner;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessFastqAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
+import au.edu.wehi.idsv.alignment.Minimap2Aligner;
+import au.edu.wehi.idsv.alignment.Minimap2StreamingAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import gridss.cmdline.ReferenceCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
@@ -24,6 +31,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Supplier;
 
 @CommandLineProgramProperties(
         summary = "Uses an external aligner to identify split reads by iterative alignment of soft clipped bases. "
@@ -63,7 +71,7 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 			+ " Note that I/O threads are not included in this worker thread count so CPU usage can be higher than the number of worker thread.",
     		shortName="THREADS")
     public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
-	@Argument(doc="Which aligner to use. GRIDSS supports in-process BWA alignment, as well as external aligners", optional=true)
+	@Argument(doc="Which aligner to use. GRIDSS supports in-process BWA and minimap2 alignment, as well as external aligners", optional=true)
 	public Aligner ALIGNER = Aligner.EXTERNAL;
 	@Argument(doc="Number of records to buffer when performing in-process or streaming alignment. Not applicable when performing external alignment.", optional=true)
 	public int ALIGNER_BATCH_SIZE = MAX_RECORDS_IN_RAM;
@@ -77,12 +85,19 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 	public List<String> ALIGNER_COMMAND_LINE = Lists.newArrayList(BWA_COMMAND_LINE);
 	@Argument(doc="Base quality score to sent to aligner if quality scores are missing.", optional=true)
 	public byte FALLBACK_BASE_QUALITY = 20;
+	@Argument(doc="Experimental. Number of genomic partitions to realign concurrently. "
+			+ "Each partition shares the in-process aligner and partition output is concatenated in genomic order. "
+			+ "Only applicable to in-process alignment of an indexed INPUT.", optional=true)
+	public int PARTITION_THREADS = 1;
+	@Argument(doc="Size of each genomic partition when realigning partitions concurrently.", optional=true)
+	public int PARTITION_SIZE = 10000000;
 	/**
 	 * Which aligner to perform the alignment with
 	 */
 	public enum Aligner {
     	BWAMEM,
 		EXTERNAL,
+		MINIMAP2,
 	}
 
     @Override
@@ -98,12 +113,30 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
     	try {
     		SamReaderFactory readerFactory = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE);
         	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+        	boolean partitioned = PARTITION_THREADS > 1 && canPartition(readerFactory);
         	switch (ALIGNER) {
 				case BWAMEM:
+					if (partitioned) {
+						BwaAligner sharedAligner = new BwaAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS);
+						toClose.add(sharedAligner);
+						realigner = createPartitionedRealigner(pc, () -> new BwaStreamingAligner(sharedAligner, getPartitionBatchSize() * 150));
+						break;
+					}
 					BwaStreamingAligner bwaAligner = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
 					realigner = new StreamingSplitReadRealigner(pc, bwaAligner, ALIGNER_BATCH_SIZE);
 					toClose.add(bwaAligner);
 					break;
+				case MINIMAP2:
+					if (partitioned) {
+						Minimap2Aligner sharedAligner = new Minimap2Aligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS);
+						toClose.add(sharedAligner);
+						realigner = createPartitionedRealigner(pc, () -> new Minimap2StreamingAligner(sharedAligner, getPartitionBatchSize() * 150));
+						break;
+					}
+					Minimap2StreamingAligner mmAligner = new Minimap2StreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+					realigner = new StreamingSplitReadRealigner(pc, mmAligner, ALIGNER_BATCH_SIZE);
+					toClose.add(mmAligner);
+					break;
 				case EXTERNAL:
 				default:
 					if (ALIGNER_STREAMING) {
@@ -137,6 +170,32 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
     	return 0;
 	}
     
+	private boolean canPartition(SamReaderFactory readerFactory) throws IOException {
+		if (ALIGNER != Aligner.BWAMEM && ALIGNER != Aligner.MINIMAP2) {
+			log.warn("PARTITION_THREADS is only supported for in-process alignment. Ignoring PARTITION_THREADS.");
+			return false;
+		}
+		try (SamReader reader = readerFactory.open(INPUT)) {
+			if (!reader.hasIndex()) {
+				log.warn(String.format("%s is not indexed. Ignoring PARTITION_THREADS.", INPUT));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records buffered per partition so total memory usage is comparable to a single partition
+	 */
+	private int getPartitionBatchSize() {
+		return Math.max(1, ALIGNER_BATCH_SIZE / PARTITION_THREADS);
+	}
+
+	private SplitReadRealigner createPartitionedRealigner(GenomicProcessingContext pc, Supplier<StreamingAligner> alignerFactory) {
+		List<QueryInterval[]> partitions = getReference().getIntervals(PARTITION_SIZE, 0);
+		return new PartitionedSplitReadRealigner(pc, alignerFactory, getPartitionBatchSize(), partitions, PARTITION_THREADS);
+	}
+
 	private void validateParameters() {
     	IOUtil.assertFileIsReadable(INPUT);
     	IOUtil.assertFileIsWritable(OUTPUT);
@@ -1,5 +1,6 @@
 package gridss;
 
+import au.edu.wehi.idsv.sim.SimulatedGenomeLayout;
 import htsjdk.samtools.util.Log;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
@@ -29,6 +30,8 @@ public class SyntheticDelDupSimulator extends CommandLineProgram {
     public List<Integer> SIZE;
     @Argument(doc="Event homologies. Positve indicates homology around the site, negative indicates additional inserted sequence")
     public List<Integer> INSHOM;
+    @Argument(doc="Simulated genome layout recording the reference origin of each variant contig base. Required as input to GenerateReads", optional=true)
+    public File LAYOUT = null;
 
     public static void main(String[] argv) {
         System.exit(new SyntheticDelDupSimulator().instanceMain(argv));
@@ -37,6 +40,7 @@ public class SyntheticDelDupSimulator extends CommandLineProgram {
     @Override
     protected int doWork() {
         Random rng = new Random(0);
+        SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
         try (BufferedWriter wref = new BufferedWriter(new FileWriter(REFERENCE_OUTPUT))) {
             try (BufferedWriter wvar = new BufferedWriter(new FileWriter(VARIANT_OUTPUT))) {
                 for (int i = 0; i < SIZE.size(); i++) {
@@ -51,6 +55,7 @@ public class SyntheticDelDupSimulator extends CommandLineProgram {
                     String refSeq;
                     String varSeq;
                     String type;
+                    String contig = getContigName(i, FLANKING_BASES, hombases, insbases, len < 0 ? "DEL" : "DUP", Math.abs(len));
                     if (len < 0) {
                         type = "DEL";
                         len *= -1;
@@ -58,18 +63,27 @@ public class SyntheticDelDupSimulator extends CommandLineProgram {
                         // deletion could be (hom + deletedBased), or (deletedBases + hom)
                         refSeq = leftFlank + hom + deletedBases + hom + rightFlank;
                         varSeq = leftFlank + hom + ins + rightFlank;
+                        layout.appendReference(contig, contig, 1, FLANKING_BASES + hombases, false);
+                        layout.appendNovel(contig, insbases);
+                        layout.appendReference(contig, contig, FLANKING_BASES + len + hombases + 1, FLANKING_BASES, false);
                     } else {
                         type = "DUP";
                         // DUP
                         String dupBases = getRandomBases(rng, len);
                         refSeq = leftFlank + hom + dupBases + hom + rightFlank;
                         varSeq = leftFlank + hom + dupBases + hom + ins + dupBases + hom + rightFlank;
+                        layout.appendReference(contig, contig, 1, FLANKING_BASES + hombases + len + hombases, false);
+                        layout.appendNovel(contig, insbases);
+                        layout.appendReference(contig, contig, FLANKING_BASES + hombases + 1, len + hombases + FLANKING_BASES, false);
                     }
-                    String header = ">" + getContigName(i, FLANKING_BASES, hombases, insbases, type, len);
+                    String header = ">" + contig;
                     wref.write(header + "\n" + refSeq + "\n");
                     wvar.write(header + "\n" + varSeq + "\n");
                 }
             }
+            if (LAYOUT != null) {
+                layout.write(LAYOUT);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -26,6 +26,7 @@ package gridss.analysis;
 
 import au.edu.wehi.idsv.ReadGcSummary;
 import au.edu.wehi.idsv.ReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.ReferenceGcCounts;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.metrics.MetricsFile;
@@ -44,16 +45,22 @@ import java.util.Set;
 public class GcMetricsCollector extends MultiLevelCollector<GcMetrics, Integer, Integer> {
 	private final int defaultFragmentSize; 
 	private final ReadPairConcordanceCalculator rpcc;
+	private final ReferenceGcCounts gcCounts;
     public GcMetricsCollector(final int defaultFragmentSize, final ReadPairConcordanceCalculator rpcc,
     		final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords) {
+    	this(defaultFragmentSize, rpcc, new ReferenceGcCounts(), accumulationLevels, samRgRecords);
+    }
+    public GcMetricsCollector(final int defaultFragmentSize, final ReadPairConcordanceCalculator rpcc, final ReferenceGcCounts gcCounts,
+    		final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords) {
     	this.defaultFragmentSize = defaultFragmentSize;
     	this.rpcc = rpcc;
+    	this.gcCounts = gcCounts;
         setup(accumulationLevels, samRgRecords);
     }
 
     @Override
     protected Integer makeArg(SAMRecord samRecord, ReferenceSequence refSeq) {
-    	return (int)new ReadGcSummary(samRecord, refSeq, defaultFragmentSize, rpcc).gcPercentage;
+    	return (int)new ReadGcSummary(samRecord, gcCounts.getContig(refSeq), defaultFragmentSize, rpcc).gcPercentage;
     }
 
     /** Make an InsertSizeCollector with the given arguments */
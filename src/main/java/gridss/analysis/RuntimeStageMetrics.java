@@ -0,0 +1,48 @@
+package gridss.analysis;
+
+import htsjdk.samtools.metrics.MetricBase;
+
+/**
+ * Per-stage runtime summary of a GRIDSS flight recording.
+ * 
+ * @author Daniel Cameron
+ *
+ */
+public class RuntimeStageMetrics extends MetricBase {
+	/**
+	 * Type of runtime metric event (chunk, assembly, aligner, iterator, buffer)
+	 */
+	public String CATEGORY;
+	/**
+	 * Processing stage, assembly operation, aligner, iterator or buffer name
+	 */
+	public String STAGE;
+	/**
+	 * Number of events recorded
+	 */
+	public long EVENTS = 0;
+	/**
+	 * Total time spent in this stage summed across all threads
+	 */
+	public double TOTAL_SECONDS = 0;
+	/**
+	 * Longest single event
+	 */
+	public double MAX_SECONDS = 0;
+	/**
+	 * Number of records processed
+	 */
+	public long RECORDS = 0;
+	/**
+	 * Records processed per second of stage time
+	 */
+	public Double RECORDS_PER_SECOND = null;
+	/**
+	 * Maximum heap usage reported by the garbage collector while this stage was running
+	 */
+	public Long MAX_HEAP_USED = null;
+	/**
+	 * Maximum sampled buffer size
+	 */
+	public Long MAX_BUFFER_SIZE = null;
+}
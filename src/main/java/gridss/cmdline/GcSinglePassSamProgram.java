@@ -25,6 +25,7 @@
 package gridss.cmdline;
 
 import au.edu.wehi.idsv.ReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.ReferenceGcCounts;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
 import gridss.analysis.InsertSizeDistribution;
@@ -36,6 +37,7 @@ import picard.analysis.SinglePassSamProgram;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 public abstract class GcSinglePassSamProgram extends SinglePassSamProgram {
 	private static final Log log = Log.getInstance(GcSinglePassSamProgram.class);
@@ -101,6 +103,22 @@ public abstract class GcSinglePassSamProgram extends SinglePassSamProgram {
 	public void setReference(ReferenceLookup ref) {
 		this.reference = ref;
 	}
+	private ReferenceGcCounts gcCounts;
+	/**
+	 * Reference GC counts used to calculate fragment GC.
+	 * Counts are loaded from the reference GC cache if it has been created by PrepareReference.
+	 */
+	public ReferenceGcCounts getReferenceGcCounts() {
+		if (gcCounts == null) {
+			try {
+				gcCounts = ReferenceGcCounts.load(REFERENCE_SEQUENCE, REFERENCE_SEQUENCE == null ? null : ReferenceGcCounts.getDefaultCacheFile(REFERENCE_SEQUENCE));
+			} catch (IOException e) {
+				log.warn(e, "Unable to load reference GC cache. Calculating reference GC counts.");
+				gcCounts = new ReferenceGcCounts();
+			}
+		}
+		return gcCounts;
+	}
 	@Override
 	protected String[] customCommandLineValidation() {
 		String[] val = referenceCustomCommandLineValidation();
@@ -57,6 +57,10 @@ public abstract class MultipleSamFileCommandLineProgram extends ReferenceCommand
 			+ " Note that I/O threads are not included in this worker thread count so CPU usage can be higher than the number of worker thread.",
     		shortName="THREADS")
     public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+	@Argument(doc="Distribute assembly and variant calling chunks across all jobs sharing the same WORKING_DIR."
+			+ " Chunks are claimed using lock files in the working directory and chunks abandoned by crashed jobs are reprocessed."
+			+ " Any number of jobs can be started concurrently on any node with access to the working directory.", optional=true)
+	public boolean SHARED_WORK_QUEUE = false;
 	
 	private List<SAMEvidenceSource> samEvidence = null;
     private SAMEvidenceSource constructSamEvidenceSource(File file, File nameSortedFile, String label, int minFragSize, int maxFragSize) {
@@ -213,6 +217,7 @@ public abstract class MultipleSamFileCommandLineProgram extends ReferenceCommand
 			processContext.setCommandLineProgram(this);
 			processContext.setFilterDuplicates(IGNORE_DUPLICATES);
 			processContext.setWorkerThreadCount(WORKER_THREADS);
+			processContext.setSharedWorkQueue(SHARED_WORK_QUEUE);
 			if (BLACKLIST != null) {
 				try {
 					processContext.setBlacklist(BLACKLIST);
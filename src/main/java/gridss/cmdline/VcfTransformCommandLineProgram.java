@@ -3,8 +3,9 @@ package gridss.cmdline;
 import au.edu.wehi.idsv.*;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
@@ -18,6 +19,7 @@ import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -25,6 +27,8 @@ import java.util.concurrent.ExecutorService;
 /**
  * Base class used to transform a VCF breakpoint call set given the full evidence available.
  * 
+ * The input VCF is read and decoded in a single pass. Breakend calls are transformed
+ * and all other records are passed through unchanged.
  * 
  * @author Daniel Cameron
  *
@@ -56,33 +60,107 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 			return 1;
 		}
 		log.info("Annotating variants in " + INPUT_VCF);
-		try (CloseableIterator<VariantContextDirectedEvidence> it = iterator(getBreakends(INPUT_VCF), threadpool)) {
-			saveVcf(OUTPUT_VCF, getAllCalls(INPUT_VCF, it));
+		try (VCFFileReader vcfReader = new VCFFileReader(INPUT_VCF, false)) {
+			inputHeader = vcfReader.getFileHeader();
+			try (CloseableIterator<VariantContext> vcfIt = vcfReader.iterator()) {
+				CallRouter router = new CallRouter(vcfIt);
+				try (CloseableIterator<VariantContextDirectedEvidence> it = iterator(router.getBreakends(), threadpool)) {
+					saveVcf(OUTPUT_VCF, router.getAllCalls(it));
+				}
+			}
 		}
 		log.info("Annotated variants written to " + OUTPUT_VCF);
 		return 0;
 	}
-	public CloseableIterator<VariantContextDirectedEvidence> getBreakends(File file) {
-		VCFFileReader vcfReader = new VCFFileReader(file, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
-		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
-		Iterator<VariantContextDirectedEvidence> beit = Iterators.filter(idsvIt, VariantContextDirectedEvidence.class);
-		// resort by evidence start
-		beit = new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), beit);
-		return new AutoClosingIterator<VariantContextDirectedEvidence>(beit, it, vcfReader);
+	/**
+	 * Determines whether the breakend calls passed to iterator() must be ordered by evidence start position.
+	 * Transforms that annotate each call independently of all other calls can return false to
+	 * process calls in input order without the windowed sorting of calls.
+	 */
+	protected boolean requiresEvidenceStartOrder() {
+		return true;
 	}
-	public Iterator<IdsvVariantContext> getAllCalls(File file, CloseableIterator<VariantContextDirectedEvidence> breakendCalls) {
-		VCFFileReader vcfReader = new VCFFileReader(file, false);
-		if (inputHeader != null) {
-			inputHeader = vcfReader.getFileHeader();
+	/**
+	 * Routes the records of a single pass over the input VCF.
+	 * Breakend calls are passed to the transform and all other records are
+	 * buffered until they can be merged back into the transformed calls.
+	 *
+	 * Since the VCF is coordinate sorted, and the transform must read the VCF past a call
+	 * before returning it, all records that precede a transformed call have already been read.
+	 */
+	private class CallRouter {
+		private final Iterator<IdsvVariantContext> it;
+		private final ArrayDeque<IdsvVariantContext> passThrough = new ArrayDeque<>();
+		public CallRouter(Iterator<VariantContext> vcf) {
+			this.it = Iterators.transform(vcf, variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
+		}
+		/**
+		 * Maximum distance by which transformed calls can be out of order
+		 */
+		private int getWindowSize() {
+			return SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource());
+		}
+		/**
+		 * Reads the next breakend call, buffering all other records encountered
+		 * @return next breakend call, null if the end of the VCF has been reached
+		 */
+		private synchronized VariantContextDirectedEvidence nextBreakend() {
+			while (it.hasNext()) {
+				IdsvVariantContext variant = it.next();
+				if (variant instanceof VariantContextDirectedEvidence) {
+					return (VariantContextDirectedEvidence)variant;
+				}
+				passThrough.add(variant);
+			}
+			return null;
+		}
+		/**
+		 * Returns the next buffered record that sorts before the given call
+		 * @param call call to return records before. All remaining records are returned if null.
+		 */
+		private synchronized IdsvVariantContext pollPassThrough(IdsvVariantContext call) {
+			IdsvVariantContext variant = passThrough.peek();
+			if (variant != null && (call == null || IdsvVariantContext.ByLocationStart.compare(variant, call) < 0)) {
+				return passThrough.poll();
+			}
+			return null;
+		}
+		public CloseableIterator<VariantContextDirectedEvidence> getBreakends() {
+			Iterator<VariantContextDirectedEvidence> beit = new AbstractIterator<VariantContextDirectedEvidence>() {
+				@Override
+				protected VariantContextDirectedEvidence computeNext() {
+					VariantContextDirectedEvidence call = nextBreakend();
+					return call == null ? endOfData() : call;
+				}
+			};
+			if (requiresEvidenceStartOrder()) {
+				// resort by evidence start
+				beit = new DirectEvidenceWindowedSortingIterator<>(getContext(), getWindowSize(), beit);
+			}
+			return new AutoClosingIterator<>(beit);
+		}
+		public Iterator<IdsvVariantContext> getAllCalls(Iterator<VariantContextDirectedEvidence> breakendCalls) {
+			// sort back to nominal VCF position
+			PeekingIterator<VariantContextDirectedEvidence> bpit = Iterators.peekingIterator(requiresEvidenceStartOrder()
+					? new VariantContextWindowedSortingIterator<>(getContext(), getWindowSize(), breakendCalls)
+					: breakendCalls);
+			return new AbstractIterator<IdsvVariantContext>() {
+				@Override
+				protected IdsvVariantContext computeNext() {
+					if (!bpit.hasNext()) {
+						// read any records after the last breakend call
+						while (nextBreakend() != null) {
+							// unconsumed breakend calls are dropped as per transform output
+						}
+					}
+					IdsvVariantContext variant = pollPassThrough(bpit.hasNext() ? bpit.peek() : null);
+					if (variant != null) {
+						return variant;
+					}
+					return bpit.hasNext() ? bpit.next() : endOfData();
+				}
+			};
 		}
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
-		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
-		Iterator<IdsvVariantContext> nonbeIt = Iterators.filter(idsvIt, variant -> !(variant instanceof VariantContextDirectedEvidence));
-		// sort back to nominal VCF position
-		Iterator<VariantContextDirectedEvidence> bpit = new VariantContextWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), breakendCalls);
-		Iterator<IdsvVariantContext> mergedIt = Iterators.mergeSorted(ImmutableList.of(bpit, nonbeIt), IdsvVariantContext.ByLocationStart); 
-		return new AutoClosingIterator<>(mergedIt, vcfReader, it);
 	}
 	protected void saveVcf(File file, Iterator<IdsvVariantContext> calls) throws IOException {
 		File tmp = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(file) : file;
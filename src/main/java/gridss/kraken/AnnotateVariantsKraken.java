@@ -3,6 +3,7 @@ package gridss.kraken;
 import au.edu.wehi.idsv.kraken.AnnotateKraken;
 import au.edu.wehi.idsv.kraken.KrakenParser;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
@@ -17,7 +18,11 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 
-import java.io.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CommandLineProgramProperties(
         summary = "Annotates single breakend and breakpoint inserted sequences with Kraken2 classifications",
@@ -32,30 +37,33 @@ public class AnnotateVariantsKraken extends CommandLineProgram {
 	public File OUTPUT;
 	@Argument(shortName = "K", doc="Kraken2 output file. Records must be in the same order as the VCF.")
 	public File KRAKEN_INPUT;
+	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available.", shortName="THREADS")
+	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 
 	@Override
 	protected int doWork() {
 		IOUtil.assertFileIsReadable(INPUT);
 		IOUtil.assertFileIsReadable(KRAKEN_INPUT);
 		IOUtil.assertFileIsWritable(OUTPUT);
-		try (KrakenParser parser = new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(INPUT))))) {
-			try (VCFFileReader vcfReader = new VCFFileReader(INPUT, false)) {
-				VCFHeader header = vcfReader.getFileHeader();
-				if (header.getSequenceDictionary() == null) {
-					throw new RuntimeException("INPUT VCF missing sequence definitions.");
-				}
-				try (CloseableIterator<VariantContext> it = vcfReader.iterator()) {
-					VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
-							.setReferenceDictionary(header.getSequenceDictionary())
-							.setOutputFile(OUTPUT);
-					try (VariantContextWriter vcfWriter = builder.build()) {
-						header.addMetaDataLine(VcfInfoAttributes.INSERTED_SEQUENCE_NCBI_TAXONOMY_ID.infoHeader());
-						vcfWriter.writeHeader(header);
-						try (AnnotateKraken ak = new AnnotateKraken(new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(KRAKEN_INPUT)))), it)) {
-							while (ak.hasNext()) {
-								VariantContext vc = ak.next();
-								vcfWriter.add(vc);
-							}
+		ExecutorService threadpool = WORKER_THREADS <= 1 ? null : Executors.newFixedThreadPool(WORKER_THREADS,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AnnotateVariantsKraken-%d").build());
+		try (VCFFileReader vcfReader = new VCFFileReader(INPUT, false)) {
+			VCFHeader header = vcfReader.getFileHeader();
+			if (header.getSequenceDictionary() == null) {
+				throw new RuntimeException("INPUT VCF missing sequence definitions.");
+			}
+			try (CloseableIterator<VariantContext> it = vcfReader.iterator()) {
+				VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
+						.setReferenceDictionary(header.getSequenceDictionary())
+						.setOutputFile(OUTPUT);
+				try (VariantContextWriter vcfWriter = builder.build()) {
+					header.addMetaDataLine(VcfInfoAttributes.INSERTED_SEQUENCE_NCBI_TAXONOMY_ID.infoHeader());
+					vcfWriter.writeHeader(header);
+					KrakenParser parser = new KrakenParser(new FileInputStream(KRAKEN_INPUT), threadpool, 2 * WORKER_THREADS, true, null);
+					try (AnnotateKraken ak = new AnnotateKraken(parser, it)) {
+						while (ak.hasNext()) {
+							VariantContext vc = ak.next();
+							vcfWriter.add(vc);
 						}
 					}
 				}
@@ -63,6 +71,10 @@ public class AnnotateVariantsKraken extends CommandLineProgram {
 		} catch (IOException e) {
 			log.error(e);
 			throw new RuntimeIOException(e);
+		} finally {
+			if (threadpool != null) {
+				threadpool.shutdownNow();
+			}
 		}
 		return 0;
 	}
@@ -1,8 +1,7 @@
 package gridss.kraken;
 
 import au.edu.wehi.idsv.kraken.KrakenReportLine;
-import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
-import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import au.edu.wehi.idsv.ncbi.NcbiTaxonomy;
 import au.edu.wehi.idsv.ncbi.TaxonomyLevel;
 import com.google.common.collect.Lists;
 import gridss.cmdline.ReferenceCommandLineProgram;
@@ -53,6 +52,9 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
     public List<Integer> TAXONOMY_IDS = Lists.newArrayList(NCBI_VIRUS_TAXID);
     @Argument(doc="NCBI taxonomy nodes.dmp. Download and extract from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip")
     public File NCBI_NODES_DMP;
+    @Argument(doc="Binary NCBI taxonomy cache. If this file is missing or was created from a different NCBI_NODES_DMP, it is recreated from NCBI_NODES_DMP." +
+            " Using a cache avoids parsing NCBI_NODES_DMP on every invocation. Typically NCBI_NODES_DMP" + NcbiTaxonomy.CACHE_EXTENSION, optional = true)
+    public File NCBI_TAXONOMY_CACHE;
     @Argument(doc="Kraken2 library.fna files." +
             " Downloaded by kraken2-build." +
             " Must be indexed." +
@@ -92,9 +94,9 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
                 ref.add(new IndexedFastaSequenceFile(f));
             }
             log.info("Loading NCBI taxonomy from ", NCBI_NODES_DMP);
-            Map<Integer, MinimalTaxonomyNode> taxa = TaxonomyHelper.parseMinimal(NCBI_NODES_DMP);
-            boolean[] taxIdLookup = TaxonomyHelper.createInclusionLookup(TAXONOMY_IDS, taxa);
-            boolean[] relevantTaxIdAndAncestors = TaxonomyHelper.addAncestors(taxIdLookup, taxa);
+            NcbiTaxonomy taxa = NcbiTaxonomy.load(NCBI_NODES_DMP, NCBI_TAXONOMY_CACHE);
+            boolean[] taxIdLookup = taxa.createInclusionLookup(TAXONOMY_IDS);
+            boolean[] relevantTaxIdAndAncestors = taxa.addAncestors(taxIdLookup);
             log.info("Parsing Kraken2 report from ", INPUT);
             List<KrakenReportLine> fullReport = Files.lines(INPUT.toPath())
                     .map(s -> new KrakenReportLine(s))
@@ -187,7 +189,7 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
         return "taxid_genus\tname_genus\treads_genus\ttaxid_species\tname_species\treads_species\ttaxid\tname\treads\treference";
     }
 
-    private String createSummaryLine(List<KrakenReportLine> fullReport, Map<Integer, MinimalTaxonomyNode> taxa, KrakenReportLine line, String ref) {
+    private String createSummaryLine(List<KrakenReportLine> fullReport, NcbiTaxonomy taxa, KrakenReportLine line, String ref) {
         Map<Integer, KrakenReportLine> lookup = fullReport.stream().collect(Collectors.toMap(x -> x.taxonomyId, x -> x));
         KrakenReportLine genus = line;
         KrakenReportLine species = line;
@@ -201,7 +203,7 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
                     genus = current;
                     break;
             }
-            int parent_taxid = taxa.get(current.taxonomyId).parentTaxId;
+            int parent_taxid = taxa.getParent(current.taxonomyId);
             if (parent_taxid <= 1) break;
             current = lookup.get(parent_taxid);
         }
@@ -218,7 +220,7 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
      * @param level
      * @return
      */
-    public static Int2IntMap createTaxaGroupLookup(Map<Integer, MinimalTaxonomyNode> taxa, List<KrakenReportLine> fullReport, TaxonomyLevel level) {
+    public static Int2IntMap createTaxaGroupLookup(NcbiTaxonomy taxa, List<KrakenReportLine> fullReport, TaxonomyLevel level) {
         Map<Integer, KrakenReportLine> reportLookup = fullReport.stream().collect(Collectors.toMap(krl -> krl.taxonomyId, krl -> krl));
         Int2IntMap taxaGroupLookup = new Int2IntOpenHashMap();
         for (KrakenReportLine krl : fullReport) {
@@ -229,9 +231,9 @@ public class ExtractBestSequencesBasedOnReport extends CommandLineProgram {
                     if (level.krakenAbbreviation().equals(parent.rank)) {
                         groupTaxa = parent.taxonomyId;
                     }
-                    if (taxa.get(parent.taxonomyId) == null) break;
-                    if (parent.taxonomyId == taxa.get(parent.taxonomyId).parentTaxId) break;
-                    parent = reportLookup.get(taxa.get(parent.taxonomyId).parentTaxId);
+                    if (!taxa.contains(parent.taxonomyId)) break;
+                    if (parent.taxonomyId == taxa.getParent(parent.taxonomyId)) break;
+                    parent = reportLookup.get(taxa.getParent(parent.taxonomyId));
                 }
             }
             taxaGroupLookup.put(krl.taxonomyId, groupTaxa);
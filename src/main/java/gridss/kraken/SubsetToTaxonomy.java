@@ -3,7 +3,9 @@ package gridss.kraken;
 import au.edu.wehi.idsv.kraken.KrakenClassification;
 import au.edu.wehi.idsv.kraken.KrakenClassificationChecker;
 import au.edu.wehi.idsv.kraken.KrakenParser;
+import au.edu.wehi.idsv.ncbi.NcbiTaxonomy;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -15,6 +17,8 @@ import picard.cmdline.StandardOptionDefinitions;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CommandLineProgramProperties(
         summary = "Processes Kraken2 output and subsets to only those records under the given taxonomic IDs. ",
@@ -34,6 +38,14 @@ public class SubsetToTaxonomy extends CommandLineProgram {
     public List<Integer> TAXONOMY_IDS = Lists.newArrayList(NCBI_VIRUS_TAXID);
     @Argument(doc="NCBI taxonomy nodes.dmp. Download and extract from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip")
     public File NCBI_NODES_DMP;
+    @Argument(doc="Binary NCBI taxonomy cache. If this file is missing or was created from a different NCBI_NODES_DMP, it is recreated from NCBI_NODES_DMP." +
+            " Using a cache avoids parsing NCBI_NODES_DMP on every invocation. Typically NCBI_NODES_DMP" + NcbiTaxonomy.CACHE_EXTENSION, optional = true)
+    public File NCBI_TAXONOMY_CACHE;
+    @Argument(doc="Number of worker threads to spawn. Defaults to number of cores available.", shortName="THREADS")
+    public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+    @Argument(doc="Write records in the order in which their input blocks finish parsing instead of input order."
+            + " Output record order is nondeterministic when more than one worker thread is used.", optional = true)
+    public boolean UNORDERED_OUTPUT = false;
     //@Argument(doc="Include in output if any kmer unambiguously matches the taxonomic classification.", optional = true)
     //public Boolean ANY_KMER = true;
 
@@ -53,13 +65,15 @@ public class SubsetToTaxonomy extends CommandLineProgram {
         IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsReadable(NCBI_NODES_DMP);
         IOUtil.assertFileIsWritable(OUTPUT);
-        try (KrakenParser parser = new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(INPUT))))) {
-            KrakenClassificationChecker kcc = new KrakenClassificationChecker(TAXONOMY_IDS, NCBI_NODES_DMP);
+        ExecutorService threadpool = WORKER_THREADS <= 1 ? null : Executors.newFixedThreadPool(WORKER_THREADS,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SubsetToTaxonomy-%d").build());
+        try {
+            KrakenClassificationChecker kcc = new KrakenClassificationChecker(TAXONOMY_IDS, NCBI_NODES_DMP, NCBI_TAXONOMY_CACHE);
             log.info("Performing taxonomy lookup on ", INPUT);
-            try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(OUTPUT))) {
-                while (parser.hasNext()) {
-                    KrakenClassification kc = parser.next();
-                    if (kcc.isOfInterest(kc)) {
+            try (KrakenParser parser = new KrakenParser(new FileInputStream(INPUT), threadpool, 2 * WORKER_THREADS, !UNORDERED_OUTPUT, kcc::isOfInterest)) {
+                try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(OUTPUT))) {
+                    while (parser.hasNext()) {
+                        KrakenClassification kc = parser.next();
                         switch (FORMAT) {
                             case READ_NAME:
                                 os.write(kc.sequenceId.getBytes(StandardCharsets.UTF_8));
@@ -67,7 +81,7 @@ public class SubsetToTaxonomy extends CommandLineProgram {
                                 break;
                             case KRAKEN:
                             default:
-                                os.write(kc.toKrakenOutput().getBytes(StandardCharsets.UTF_8));
+                                kc.writeKrakenOutput(os);
                                 os.write('\n');
                                 break;
                         }
@@ -77,6 +91,10 @@ public class SubsetToTaxonomy extends CommandLineProgram {
         } catch (IOException e) {
             log.error(e);
             throw new RuntimeIOException(e);
+        } finally {
+            if (threadpool != null) {
+                threadpool.shutdownNow();
+            }
         }
         return 0;
     }
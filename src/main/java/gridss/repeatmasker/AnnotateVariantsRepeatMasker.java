@@ -1,6 +1,5 @@
 package gridss.repeatmasker;
 
-import au.edu.wehi.idsv.kraken.KrakenParser;
 import au.edu.wehi.idsv.repeatmasker.AnnotateRepeatMasker;
 import au.edu.wehi.idsv.repeatmasker.RepeatMaskerCodec;
 import au.edu.wehi.idsv.repeatmasker.RepeatMaskerFeature;
@@ -52,7 +51,7 @@ public class AnnotateVariantsRepeatMasker extends CommandLineProgram {
 		IOUtil.assertFileIsReadable(INPUT);
 		IOUtil.assertFileIsReadable(REPEAT_MASKER);
 		IOUtil.assertFileIsWritable(OUTPUT);
-		try (KrakenParser parser = new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(INPUT))))) {
+		try {
 			try (VCFFileReader vcfReader = new VCFFileReader(INPUT, false)) {
 				VCFHeader header = vcfReader.getFileHeader();
 				if (header.getSequenceDictionary() == null) {
@@ -46,6 +46,15 @@ public class Defaults {
      */
     public static final int ASYNC_READ_COMPUTATIONAL_THREADS;
 
+    /**
+     * Maximum number of BGZF blocks per output stream that can be awaiting compression on the asynchronous
+     * non-blocking computational thread pool. Blocks are written in order so the output is identical
+     * to that produced when compressing on the writing thread.
+     * Set to 0 to compress on the writing thread.
+     * Default = twice the number of asynchronous read computational threads.
+     */
+    public static final int ASYNC_WRITE_BGZF_BLOCKS;
+
     /** Compression level to be used for writing BAM and other block-compressed outputs.  Default = 5. */
     public static final int COMPRESSION_LEVEL;
 
@@ -127,6 +136,7 @@ public class Defaults {
         USE_ASYNC_IO_WRITE_FOR_SAMTOOLS = getBooleanProperty("use_async_io_write_samtools", false);
         USE_ASYNC_IO_WRITE_FOR_TRIBBLE = getBooleanProperty("use_async_io_write_tribble", false);
         ASYNC_READ_COMPUTATIONAL_THREADS = getIntProperty("async_io_read_threads", Runtime.getRuntime().availableProcessors());
+        ASYNC_WRITE_BGZF_BLOCKS = getIntProperty("async_io_write_bgzf_blocks", 2 * ASYNC_READ_COMPUTATIONAL_THREADS);
         COMPRESSION_LEVEL = getIntProperty("compression_level", 5);
         DEFAULT_SAM_EXTENSION = getStringProperty("default_sam_type", "bam");
         DEFAULT_VCF_EXTENSION = getStringProperty("default_vcf_type", "vcf");
@@ -0,0 +1,618 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.util.zip.DeflaterFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for a file that is a series of gzip blocks (BGZF format).  The caller just treats it as an
+ * OutputStream, and under the covers a gzip block is written when the amount of uncompressed as-yet-unwritten
+ * bytes reaches a threshold.
+ *
+ * The advantage of BGZF over conventional gzip is that BGZF allows for seeking without having to scan through
+ * the entire file up to the position being sought.
+ *
+ * Note that the flush() method should not be called by client
+ * unless you know what you're doing, because it forces a gzip block to be written even if the
+ * number of buffered bytes has not reached threshold.  close(), on the other hand, must be called
+ * when done writing in order to force the last gzip block to be written.
+ *
+ * Full blocks are compressed asynchronously on the {@link AsyncReadTaskRunner} non-blocking thread pool
+ * and written in order, so the output is identical to that of compressing on the writing thread.
+ * Since the address of a block is not known until all preceding blocks have been compressed,
+ * getFilePointer() waits for all outstanding blocks to be written. Callers requiring the file pointer of every
+ * record should use getDeferredFilePointer() instead.
+ *
+ * c.f. http://samtools.sourceforge.net/SAM1.pdf for details of BGZF file format.
+ */
+public class BlockCompressedOutputStream
+        extends OutputStream
+        implements LocationAware
+{
+
+    private static final Log log = Log.getInstance(BlockCompressedOutputStream.class);
+
+    private static int defaultCompressionLevel = BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL;
+    private static DeflaterFactory defaultDeflaterFactory = new DeflaterFactory();
+    private static int defaultAsyncCompressionBlocks = Defaults.ASYNC_WRITE_BGZF_BLOCKS;
+
+    /**
+     * Sets the GZip compression level for subsequent BlockCompressedOutputStream object creation
+     * that do not specify the compression level.
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     */
+    public static void setDefaultCompressionLevel(final int compressionLevel) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        defaultCompressionLevel = compressionLevel;
+    }
+
+    public static int getDefaultCompressionLevel() {
+        return defaultCompressionLevel;
+    }
+
+    /**
+     * Sets the default {@link DeflaterFactory} that will be used for all instances unless specified otherwise in the constructor.
+     * If this method is not called the default is a factory that will create the JDK {@link Deflater}.
+     * @param deflaterFactory non-null default factory.
+     */
+    public static void setDefaultDeflaterFactory(final DeflaterFactory deflaterFactory) {
+        if (deflaterFactory == null) {
+            throw new IllegalArgumentException("null deflaterFactory");
+        }
+        defaultDeflaterFactory = deflaterFactory;
+    }
+
+    public static DeflaterFactory getDefaultDeflaterFactory() {
+        return defaultDeflaterFactory;
+    }
+
+    /**
+     * Sets the maximum number of blocks awaiting asynchronous compression for subsequent
+     * BlockCompressedOutputStream object creation.
+     * @param asyncCompressionBlocks maximum number of outstanding blocks. 0 compresses blocks on the writing thread.
+     */
+    public static void setDefaultAsyncCompressionBlocks(final int asyncCompressionBlocks) {
+        if (asyncCompressionBlocks < 0) {
+            throw new IllegalArgumentException("Invalid asynchronous compression block count: " + asyncCompressionBlocks);
+        }
+        defaultAsyncCompressionBlocks = asyncCompressionBlocks;
+    }
+
+    public static int getDefaultAsyncCompressionBlocks() {
+        return defaultAsyncCompressionBlocks;
+    }
+
+    private final BinaryCodec codec;
+    private final RecyclingSupplier<GzipBlock> blockSupplier = new RecyclingSupplier<>(GzipBlock::new);
+    private GzipBlock currentBlock = blockSupplier.get();
+    private int numUncompressedBytes = 0;
+    private final RecyclingSupplier<BlockDeflater> deflaterSupplier;
+    private final int asyncCompressionBlocks = defaultAsyncCompressionBlocks;
+    private final Executor compressionThreadpool = AsyncReadTaskRunner.getNonBlockingThreadpool();
+    /**
+     * Blocks submitted for compression that have not yet been written, in file order.
+     */
+    private final Deque<FutureTask<GzipBlock>> pendingBlocks = new ArrayDeque<>();
+    private Path file = null;
+    private long mBlockAddress = 0;
+    private long blocksSubmitted = 0;
+    private long blocksWritten = 0;
+    /**
+     * Addresses of blocks from firstDeferredBlock to blocksWritten inclusive.
+     * Only tracked once a deferred file pointer has been requested.
+     */
+    private Deque<Long> deferredBlockAddresses = null;
+    private long firstDeferredBlock;
+    private GZIIndex.GZIIndexer indexer;
+
+
+    // Really a local variable, but allocate once to reduce GC burden.
+    private final byte[] singleByteArray = new byte[1];
+
+    /**
+     * Uncompressed data and compressed gzip block content
+     */
+    private static class GzipBlock {
+        private final byte[] uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+        private final byte[] compressedBuffer =
+                new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
+                        BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+        private int uncompressedSize;
+        private int compressedSize;
+        private long crc;
+    }
+
+    /**
+     * Compression state for a single thread
+     */
+    private static class BlockDeflater {
+        private final Deflater deflater;
+
+        // A second deflater is created for the very unlikely case where the regular deflation actually makes
+        // things bigger, and the compressed block is too big.  It should be possible to downshift the
+        // primary deflater to NO_COMPRESSION level, recompress, and then restore it to its original setting,
+        // but in practice that doesn't work.
+        // The motivation for deflating at NO_COMPRESSION level is that it will predictably produce compressed
+        // output that is 10 bytes larger than the input, and the threshold at which a block is generated is such that
+        // the size of tbe final gzip block will always be <= 64K.  This is preferred over the previous method,
+        // which would attempt to compress up to 64K bytes, and if the resulting compressed block was too large,
+        // try compressing fewer input bytes (aka "downshifting').  The problem with downshifting is that
+        // getFilePointer might return an inaccurate value.
+        // I assume (AW 29-Oct-2013) that there is no value in using hardware-assisted deflater for no-compression mode,
+        // so just use JDK standard.
+        private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+        private final CRC32 crc32 = new CRC32();
+
+        private BlockDeflater(final DeflaterFactory deflaterFactory, final int compressionLevel) {
+            deflater = deflaterFactory.makeDeflater(compressionLevel, true);
+        }
+
+        /**
+         * Compresses the uncompressed content of the given block
+         */
+        private void deflate(final GzipBlock block) {
+            final int bytesToCompress = block.uncompressedSize;
+            // Compress the input
+            deflater.reset();
+            deflater.setInput(block.uncompressedBuffer, 0, bytesToCompress);
+            deflater.finish();
+            int compressedSize = deflater.deflate(block.compressedBuffer, 0, block.compressedBuffer.length);
+
+            // If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION
+            // and try again.  This should always fit.
+            if (!deflater.finished()) {
+                noCompressionDeflater.reset();
+                noCompressionDeflater.setInput(block.uncompressedBuffer, 0, bytesToCompress);
+                noCompressionDeflater.finish();
+                compressedSize = noCompressionDeflater.deflate(block.compressedBuffer, 0, block.compressedBuffer.length);
+                if (!noCompressionDeflater.finished()) {
+                    throw new IllegalStateException("unpossible");
+                }
+            }
+            crc32.reset();
+            crc32.update(block.uncompressedBuffer, 0, bytesToCompress);
+            block.compressedSize = compressedSize;
+            block.crc = crc32.getValue();
+        }
+    }
+
+    /**
+     * Uses default compression level, which is 5 unless changed by setCompressionLevel
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(File, int, DeflaterFactory)} to specify a custom factory.
+     */
+    public BlockCompressedOutputStream(final String filename) {
+        this(filename, defaultCompressionLevel);
+    }
+
+    /**
+     * Uses default compression level, which is 5 unless changed by setCompressionLevel
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(File, int, DeflaterFactory)} to specify a custom factory.
+     */
+    public BlockCompressedOutputStream(final File file) {
+        this(file, defaultCompressionLevel);
+    }
+
+    /**
+     * Prepare to compress at the given compression level
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     */
+    public BlockCompressedOutputStream(final String filename, final int compressionLevel) {
+        this(new File(filename), compressionLevel);
+    }
+
+    /**
+     * Prepare to compress at the given compression level
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(File, int, DeflaterFactory)} to specify a custom factory.
+     */
+    public BlockCompressedOutputStream(final File file, final int compressionLevel) {
+        this(file, compressionLevel, defaultDeflaterFactory);
+    }
+
+    /**
+     * Prepare to compress at the given compression level
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     * @param deflaterFactory custom factory to create deflaters (overrides the default)
+     */
+    public BlockCompressedOutputStream(final File file, final int compressionLevel, final DeflaterFactory deflaterFactory) {
+        this(IOUtil.toPath(file), compressionLevel, deflaterFactory);
+    }
+
+    /**
+     * Prepare to compress at the given compression level
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     * @param deflaterFactory custom factory to create deflaters (overrides the default)
+     */
+    public BlockCompressedOutputStream(final Path path, final int compressionLevel, final DeflaterFactory deflaterFactory) {
+        this.file = path;
+        codec = new BinaryCodec(path, true);
+        deflaterSupplier = createDeflaterSupplier(deflaterFactory, compressionLevel);
+    }
+
+    /**
+     * Uses default compression level, which is 5 unless changed by setCompressionLevel
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(OutputStream, File, int, DeflaterFactory)} to specify a custom factory.
+     *
+     * @param file may be null
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final File file) {
+        this(os, file, defaultCompressionLevel);
+    }
+
+    /**
+     * Uses default compression level, which is 5 unless changed by setCompressionLevel
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(OutputStream, File, int, DeflaterFactory)} to specify a custom factory.
+     *
+     * @param file may be null
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final Path file) {
+        this(os, file, defaultCompressionLevel);
+    }
+
+    /**
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(OutputStream, File, int, DeflaterFactory)} to specify a custom factory.
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final File file, final int compressionLevel) {
+        this(os, file, compressionLevel, defaultDeflaterFactory);
+    }
+
+    /**
+     * Note: this constructor uses the default {@link DeflaterFactory}, see {@link #getDefaultDeflaterFactory()}.
+     * Use {@link #BlockCompressedOutputStream(OutputStream, File, int, DeflaterFactory)} to specify a custom factory.
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final Path file, final int compressionLevel) {
+        this(os, file, compressionLevel, defaultDeflaterFactory);
+    }
+
+    /**
+     * Creates the output stream.
+     * @param os output stream to create a BlockCompressedOutputStream from
+     * @param file file to which to write the output or null if not available
+     * @param compressionLevel the compression level (0-9)
+     * @param deflaterFactory custom factory to create deflaters (overrides the default)
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final File file, final int compressionLevel, final DeflaterFactory deflaterFactory) {
+        this(os, IOUtil.toPath(file), compressionLevel, deflaterFactory);
+    }
+
+    /**
+     * Creates the output stream.
+     * @param os output stream to create a BlockCompressedOutputStream from
+     * @param file file to which to write the output or null if not available
+     * @param compressionLevel the compression level (0-9)
+     * @param deflaterFactory custom factory to create deflaters (overrides the default)
+     */
+    public BlockCompressedOutputStream(final OutputStream os, final Path file, final int compressionLevel, final DeflaterFactory deflaterFactory) {
+        this.file = file;
+        codec = new BinaryCodec(os);
+        if (file != null) {
+            codec.setOutputFileName(file.toAbsolutePath().toUri().toString());
+        }
+        deflaterSupplier = createDeflaterSupplier(deflaterFactory, compressionLevel);
+    }
+
+    private static RecyclingSupplier<BlockDeflater> createDeflaterSupplier(final DeflaterFactory deflaterFactory, final int compressionLevel) {
+        final RecyclingSupplier<BlockDeflater> supplier = new RecyclingSupplier<>(() -> new BlockDeflater(deflaterFactory, compressionLevel));
+        final BlockDeflater deflater = supplier.get();
+        log.debug("Using deflater: " + deflater.deflater.getClass().getSimpleName());
+        supplier.recycle(deflater);
+        return supplier;
+    }
+
+    /**
+     *
+     * @param location May be null.  Used for error messages, and for checking file termination.
+     * @param output May or not already be a BlockCompressedOutputStream.
+     * @return A BlockCompressedOutputStream, either by wrapping the given OutputStream, or by casting if it already
+     *         is a BCOS.
+     */
+    public static BlockCompressedOutputStream maybeBgzfWrapOutputStream(final File location, OutputStream output) {
+        if (!(output instanceof BlockCompressedOutputStream)) {
+           return new BlockCompressedOutputStream(output, location);
+        } else {
+           return (BlockCompressedOutputStream)output;
+        }
+    }
+
+    /**
+     * Adds a GZIIndexer to the block compressed output stream to be written to the specified output stream. See
+     * {@link GZIIndex} for details on the index. Note that the stream will be written to disk entirely when close()
+     * is called.
+     * @throws RuntimeException this method is called after output has already been written to the stream.
+     */
+    public void addIndexer(final OutputStream outputStream) {
+        if (blocksSubmitted != 0) {
+            throw new RuntimeException("Cannot add gzi indexer if this BlockCompressedOutput stream has already written Gzipped blocks");
+        }
+        indexer = new GZIIndex.GZIIndexer(outputStream);
+    }
+
+    /**
+     * Writes b.length bytes from the specified byte array to this output stream. The general contract for write(b)
+     * is that it should have exactly the same effect as the call write(b, 0, b.length).
+     * @param bytes the data
+     */
+    @Override
+    public void write(final byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes len bytes from the specified byte array starting at offset off to this output stream. The general
+     * contract for write(b, off, len) is that some of the bytes in the array b are written to the output stream in order;
+     * element b[off] is the first byte written and b[off+len-1] is the last byte written by this operation.
+     *
+     * @param bytes the data
+     * @param startIndex the start offset in the data
+     * @param numBytes the number of bytes to write
+     */
+    @Override
+    public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException {
+        assert(numUncompressedBytes < currentBlock.uncompressedBuffer.length);
+        while (numBytes > 0) {
+            final byte[] uncompressedBuffer = currentBlock.uncompressedBuffer;
+            final int bytesToWrite = Math.min(uncompressedBuffer.length - numUncompressedBytes, numBytes);
+            System.arraycopy(bytes, startIndex, uncompressedBuffer, numUncompressedBytes, bytesToWrite);
+            numUncompressedBytes += bytesToWrite;
+            startIndex += bytesToWrite;
+            numBytes -= bytesToWrite;
+            assert(numBytes >= 0);
+            if (numUncompressedBytes == uncompressedBuffer.length) {
+                deflateBlock();
+            }
+        }
+    }
+
+    /**
+     * WARNING: flush() affects the output format, because it causes the current contents of uncompressedBuffer
+     * to be compressed and written, even if it isn't full.  Unless you know what you're doing, don't call flush().
+     * Instead, call close(), which will flush any unwritten data before closing the underlying stream.
+     *
+     */
+    @Override
+    public void flush() throws IOException {
+        while (numUncompressedBytes > 0) {
+            deflateBlock();
+        }
+        writeCompressedBlocks(0);
+        codec.getOutputStream().flush();
+    }
+
+    /**
+     * close() must be called in order to flush any remaining buffered bytes.  An unclosed file will likely be
+     * defective.
+     *
+     */
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+
+    public void close(final boolean writeTerminatorBlock) throws IOException {
+        flush();
+        // For debugging...
+        // if (numberOfThrottleBacks > 0) {
+        //     System.err.println("In BlockCompressedOutputStream, had to throttle back " + numberOfThrottleBacks +
+        //                        " times for file " + codec.getOutputFileName());
+        // }
+        if (writeTerminatorBlock) {
+            codec.writeBytes(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        }
+        codec.close();
+        if (indexer != null) {
+            indexer.close();
+        }
+        // Can't re-open something that is not a regular file, e.g. a named pipe or an output stream
+        if (this.file == null || !Files.isRegularFile(this.file)) return;
+        if (BlockCompressedInputStream.checkTermination(this.file) !=
+                BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK) {
+            throw new IOException("Terminator block not found after closing BGZF file " + this.file);
+        }
+    }
+
+    /**
+     * Writes the specified byte to this output stream. The general contract for write is that one byte is written
+     * to the output stream. The byte to be written is the eight low-order bits of the argument b.
+     * The 24 high-order bits of b are ignored.
+     * @param bite
+     * @throws IOException
+     */
+    @Override
+    public void write(final int bite) throws IOException {
+        singleByteArray[0] = (byte)bite;
+        write(singleByteArray);
+    }
+
+    /** Encode virtual file pointer
+     * Upper 48 bits is the byte offset into the compressed stream of a block.
+     * Lower 16 bits is the byte offset into the uncompressed stream inside the block.
+     */
+    public long getFilePointer(){
+        writeCompressedBlocks(0);
+        return BlockCompressedFilePointerUtil.makeFilePointer(mBlockAddress, numUncompressedBytes);
+    }
+
+    /**
+     * Gets a placeholder for the current file pointer that can be obtained without waiting for
+     * outstanding blocks to be compressed.
+     * Deferred file pointers encode the block sequence number in place of the block address
+     * and must be converted using resolveDeferredFilePointer().
+     */
+    public long getDeferredFilePointer() {
+        if (deferredBlockAddresses == null) {
+            writeCompressedBlocks(0);
+            deferredBlockAddresses = new ArrayDeque<>();
+            deferredBlockAddresses.add(mBlockAddress);
+            firstDeferredBlock = blocksWritten;
+        }
+        return BlockCompressedFilePointerUtil.makeFilePointer(blocksSubmitted, numUncompressedBytes);
+    }
+
+    /**
+     * Converts a deferred file pointer to a virtual file pointer.
+     * Deferred file pointers must be resolved in order as the addresses of earlier blocks are discarded.
+     * @param deferredFilePointer file pointer returned by getDeferredFilePointer()
+     * @return virtual file pointer, or -1 if the block containing the file pointer has not yet been written.
+     */
+    public long resolveDeferredFilePointer(final long deferredFilePointer) {
+        final long block = BlockCompressedFilePointerUtil.getBlockAddress(deferredFilePointer);
+        if (deferredBlockAddresses == null || block < firstDeferredBlock) {
+            throw new IllegalArgumentException("Deferred file pointers must be resolved in order");
+        }
+        if (block > blocksWritten) {
+            return -1;
+        }
+        while (firstDeferredBlock < block) {
+            deferredBlockAddresses.removeFirst();
+            firstDeferredBlock++;
+        }
+        return BlockCompressedFilePointerUtil.makeFilePointer(deferredBlockAddresses.getFirst(), BlockCompressedFilePointerUtil.getBlockOffset(deferredFilePointer));
+    }
+
+    @Override
+    public long getPosition() {
+        return getFilePointer();
+    }
+
+    /**
+     * Compresses the data in the current block and writes it to the underlying file in a gzip block.
+     * Blocks are compressed asynchronously if enabled, in which case blocks are written once compression
+     * completes and the current block is replaced with an empty block.
+     */
+    private void deflateBlock() {
+        if (numUncompressedBytes == 0) {
+            return;
+        }
+        final GzipBlock block = currentBlock;
+        block.uncompressedSize = numUncompressedBytes;
+        numUncompressedBytes = 0;
+        blocksSubmitted++;
+        final FutureTask<GzipBlock> task = new FutureTask<>(() -> {
+            final BlockDeflater deflater = deflaterSupplier.get();
+            try {
+                deflater.deflate(block);
+            } finally {
+                deflaterSupplier.recycle(deflater);
+            }
+            return block;
+        });
+        pendingBlocks.add(task);
+        if (asyncCompressionBlocks > 0) {
+            currentBlock = blockSupplier.get();
+            compressionThreadpool.execute(task);
+        }
+        writeCompressedBlocks(asyncCompressionBlocks);
+    }
+
+    /**
+     * Writes pending blocks in order until no more than the given number of blocks are outstanding
+     * and the next block has not yet been compressed.
+     * @param maxOutstandingBlocks maximum number of blocks to leave pending
+     */
+    private void writeCompressedBlocks(final int maxOutstandingBlocks) {
+        while (!pendingBlocks.isEmpty() && (pendingBlocks.size() > maxOutstandingBlocks || pendingBlocks.peekFirst().isDone())) {
+            final FutureTask<GzipBlock> task = pendingBlocks.removeFirst();
+            // Compress on this thread if the task has not yet been scheduled.
+            // This is a no-op if the task has already started on the thread pool.
+            task.run();
+            final GzipBlock block;
+            try {
+                block = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeIOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                if (e.getCause() instanceof Error) throw (Error)e.getCause();
+                throw new RuntimeIOException(e.getCause());
+            }
+            writeGzipBlock(block);
+            if (block != currentBlock) {
+                blockSupplier.recycle(block);
+            }
+        }
+    }
+
+    /**
+     * Writes the entire gzip block to the underlying file
+     * @return  size of gzip block that was written.
+     */
+    private int writeGzipBlock(final GzipBlock block) {
+        final int compressedSize = block.compressedSize;
+        // Init gzip header
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_ID1);
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_ID2);
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_CM_DEFLATE);
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_FLG);
+        codec.writeInt(0); // Modification time
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_XFL);
+        codec.writeByte(BlockCompressedStreamConstants.GZIP_OS_UNKNOWN);
+        codec.writeShort(BlockCompressedStreamConstants.GZIP_XLEN);
+        codec.writeByte(BlockCompressedStreamConstants.BGZF_ID1);
+        codec.writeByte(BlockCompressedStreamConstants.BGZF_ID2);
+        codec.writeShort(BlockCompressedStreamConstants.BGZF_LEN);
+        final int totalBlockSize = compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH +
+                BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+        // I don't know why we store block size - 1, but that is what the spec says
+        codec.writeShort((short)(totalBlockSize - 1));
+        codec.writeBytes(block.compressedBuffer, 0, compressedSize);
+        codec.writeInt((int)block.crc);
+        codec.writeInt(block.uncompressedSize);
+
+        // Call out to the indexer if it exists
+        if (indexer != null) {
+            indexer.addGzipBlock(mBlockAddress, block.uncompressedSize);
+        }
+        mBlockAddress += totalBlockSize;
+        blocksWritten++;
+        if (deferredBlockAddresses != null) {
+            deferredBlockAddresses.addLast(mBlockAddress);
+        }
+        return totalBlockSize;
+    }
+}
@@ -0,0 +1,25 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import jdk.jfr.*;
+
+@Name(AlignerBatchEvent.NAME)
+@Label("Aligner Batch")
+@Category({"GRIDSS", "Alignment"})
+@Description("Alignment of a batch of reads")
+@StackTrace(false)
+public class AlignerBatchEvent extends Event implements MetricScope {
+	public static final String NAME = "gridss.AlignerBatch";
+	@Label("Aligner")
+	public String aligner;
+	@Label("Records")
+	public int records;
+	@Label("Bases")
+	public long bases;
+	@Override
+	public void close() {
+		if (shouldCommit()) {
+			commit();
+		}
+	}
+}
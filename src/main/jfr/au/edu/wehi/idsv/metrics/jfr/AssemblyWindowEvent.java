@@ -0,0 +1,30 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import jdk.jfr.*;
+
+@Name(AssemblyWindowEvent.NAME)
+@Label("Assembly Window")
+@Category({"GRIDSS", "Assembly"})
+@Description("Incremental positional assembly graph operation")
+@StackTrace(false)
+public class AssemblyWindowEvent extends Event {
+	public static final String NAME = "gridss.AssemblyWindow";
+	@Label("Operation")
+	public String operation;
+	@Label("Contig")
+	public String contig;
+	@Label("Start")
+	public int start;
+	@Label("End")
+	public int end;
+	@Label("Count")
+	@Description("Number of nodes loaded, contigs called, or reference nodes flushed")
+	public int count;
+	@Label("Filtered")
+	@Description("Window exceeded the maximum node density and was excluded from assembly")
+	public boolean filtered;
+	@Label("Elapsed")
+	@Description("Time since the previous operation of the same type")
+	@Timespan(Timespan.NANOSECONDS)
+	public long elapsed;
+}
@@ -0,0 +1,17 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import jdk.jfr.*;
+
+@Name(BufferSizeEvent.NAME)
+@Label("Buffer Size")
+@Category({"GRIDSS", "Memory"})
+@Description("Size of an intermediate buffer")
+@Period("1 s")
+@StackTrace(false)
+public class BufferSizeEvent extends Event {
+	public static final String NAME = "gridss.BufferSize";
+	@Label("Buffer")
+	public String buffer;
+	@Label("Size")
+	public long size;
+}
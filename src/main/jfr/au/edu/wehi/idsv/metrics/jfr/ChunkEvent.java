@@ -0,0 +1,27 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import jdk.jfr.*;
+
+@Name(ChunkEvent.NAME)
+@Label("Chunk")
+@Category({"GRIDSS", "Processing"})
+@Description("Processing of a genomic chunk")
+@StackTrace(false)
+public class ChunkEvent extends Event implements MetricScope {
+	public static final String NAME = "gridss.Chunk";
+	@Label("Stage")
+	public String stage;
+	@Label("Chunk")
+	public int chunk;
+	@Label("Direction")
+	public String direction;
+	@Label("Region")
+	public String region;
+	@Override
+	public void close() {
+		if (shouldCommit()) {
+			commit();
+		}
+	}
+}
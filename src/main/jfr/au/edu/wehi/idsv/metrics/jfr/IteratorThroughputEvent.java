@@ -0,0 +1,16 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import jdk.jfr.*;
+
+@Name(IteratorThroughputEvent.NAME)
+@Label("Iterator Throughput")
+@Category({"GRIDSS", "Processing"})
+@Description("Number of records passing through an iterator during the event")
+@StackTrace(false)
+public class IteratorThroughputEvent extends Event {
+	public static final String NAME = "gridss.IteratorThroughput";
+	@Label("Iterator")
+	public String iterator;
+	@Label("Records")
+	public long records;
+}
@@ -0,0 +1,159 @@
+package au.edu.wehi.idsv.metrics.jfr;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import au.edu.wehi.idsv.metrics.RuntimeMetricsRecorder;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.ThroughputMonitor;
+import au.edu.wehi.idsv.visualisation.TrackedBuffer;
+import au.edu.wehi.idsv.visualisation.TrackedBuffer.NamedTrackedBuffer;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+import jdk.jfr.FlightRecorder;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Flight Recorder implementation of RuntimeMetrics.
+ * 
+ * This class must only be loaded when Flight Recorder is available.
+ * It is only compiled on JDK 11+ and is instantiated by RuntimeMetrics by reflection.
+ * 
+ * @author Daniel Cameron
+ *
+ */
+public class JfrRuntimeMetrics implements RuntimeMetricsRecorder {
+	/**
+	 * Number of records between throughput enablement checks 
+	 */
+	private static final int THROUGHPUT_CHECK_INTERVAL = 4096;
+	/**
+	 * Minimum duration of each throughput event
+	 */
+	private static final long THROUGHPUT_EVENT_INTERVAL_NS = 1000L * 1000L * 1000L;
+	private final List<WeakReference<TrackedBuffer>> bufferObjects = new ArrayList<>();
+	private boolean bufferHookRegistered = false;
+	@Override
+	public MetricScope chunk(String stage, int chunkNumber, BreakendDirection direction, SAMSequenceDictionary dict, QueryInterval[] chunk) {
+		ChunkEvent event = new ChunkEvent();
+		if (event.isEnabled()) {
+			event.stage = stage;
+			event.chunk = chunkNumber;
+			event.direction = direction == null ? null : Character.toString(direction.toChar());
+			if (chunk != null && chunk.length > 0) {
+				event.region = String.format("%s:%d-%s:%d",
+						dict.getSequence(chunk[0].referenceIndex).getSequenceName(), chunk[0].start,
+						dict.getSequence(chunk[chunk.length - 1].referenceIndex).getSequenceName(), chunk[chunk.length - 1].end);
+			}
+		}
+		event.begin();
+		return event;
+	}
+	@Override
+	public void assemblyWindow(String operation, String contig, int start, int end, int count, boolean filtered, long nsSinceLast) {
+		AssemblyWindowEvent event = new AssemblyWindowEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.contig = contig;
+			event.start = start;
+			event.end = end;
+			event.count = count;
+			event.filtered = filtered;
+			event.elapsed = nsSinceLast;
+			event.commit();
+		}
+	}
+	@Override
+	public MetricScope alignerBatch(String aligner, int records, long bases) {
+		AlignerBatchEvent event = new AlignerBatchEvent();
+		event.aligner = aligner;
+		event.records = records;
+		event.bases = bases;
+		event.begin();
+		return event;
+	}
+	@Override
+	public ThroughputMonitor throughput(String name) {
+		return new JfrThroughputMonitor(name);
+	}
+	@Override
+	public synchronized void registerBuffer(TrackedBuffer obj) {
+		if (!bufferHookRegistered) {
+			FlightRecorder.addPeriodicEvent(BufferSizeEvent.class, this::emitBufferSizes);
+			bufferHookRegistered = true;
+		}
+		// buffer sizes are only emitted while recording so collected buffers are also removed here
+		bufferObjects.removeIf(ref -> ref.get() == null);
+		bufferObjects.add(new WeakReference<>(obj));
+	}
+	private synchronized void emitBufferSizes() {
+		Iterator<WeakReference<TrackedBuffer>> it = bufferObjects.iterator();
+		while (it.hasNext()) {
+			TrackedBuffer buffer = it.next().get();
+			if (buffer == null) {
+				it.remove();
+			} else {
+				for (NamedTrackedBuffer bufferSize : buffer.currentTrackedBufferSizes()) {
+					BufferSizeEvent event = new BufferSizeEvent();
+					event.buffer = bufferSize.name;
+					event.size = bufferSize.size;
+					event.commit();
+				}
+			}
+		}
+	}
+	/**
+	 * Emits an event covering at least THROUGHPUT_EVENT_INTERVAL_NS
+	 * to limit the recording overhead of high-throughput iterators.
+	 */
+	private static class JfrThroughputMonitor implements ThroughputMonitor {
+		private final String name;
+		private IteratorThroughputEvent event;
+		private long eventStartTime;
+		private long records = 0;
+		private int untilCheck = 0;
+		public JfrThroughputMonitor(String name) {
+			this.name = name;
+		}
+		@Override
+		public void record() {
+			if (--untilCheck <= 0) {
+				check();
+			}
+			records++;
+		}
+		private void check() {
+			untilCheck = THROUGHPUT_CHECK_INTERVAL;
+			long now = System.nanoTime();
+			if (event == null) {
+				startEvent(now);
+			} else if (now - eventStartTime >= THROUGHPUT_EVENT_INTERVAL_NS) {
+				flush();
+				startEvent(now);
+			}
+		}
+		private void startEvent(long now) {
+			IteratorThroughputEvent e = new IteratorThroughputEvent();
+			if (e.isEnabled()) {
+				e.begin();
+				event = e;
+				eventStartTime = now;
+				records = 0;
+			}
+		}
+		private void flush() {
+			if (event != null) {
+				event.iterator = name;
+				event.records = records;
+				event.commit();
+				event = null;
+			}
+		}
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package gridss;
+
+import au.edu.wehi.idsv.metrics.jfr.*;
+import gridss.analysis.RuntimeStageMetrics;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+@CommandLineProgramProperties(
+		summary = "Summarises the GRIDSS runtime metrics in a JDK Flight Recorder recording into a per-stage time and memory report. "
+				+ "Recordings can be created by running GRIDSS with the -XX:StartFlightRecording=filename=gridss.jfr JVM argument.",
+		oneLineSummary = "Summarises GRIDSS runtime metrics in a JDK Flight Recorder recording.",
+		programGroup = gridss.cmdline.programgroups.Metrics.class
+)
+public class SummariseRuntimeMetrics extends CommandLineProgram {
+	private static final Log log = Log.getInstance(SummariseRuntimeMetrics.class);
+	private static final String HEAP_SUMMARY_EVENT = "jdk.GCHeapSummary";
+	@Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "Flight recording (.jfr)")
+	public File INPUT;
+	@Argument(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "Runtime summary metrics file")
+	public File OUTPUT;
+
+	@Override
+	protected int doWork() {
+		IOUtil.assertFileIsReadable(INPUT);
+		IOUtil.assertFileIsWritable(OUTPUT);
+		try {
+			MetricsFile<RuntimeStageMetrics, Integer> mf = getMetricsFile();
+			for (RuntimeStageMetrics m : summarise(INPUT.toPath())) {
+				mf.addMetric(m);
+			}
+			mf.write(OUTPUT);
+		} catch (IOException e) {
+			log.error(e);
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Summarises the GRIDSS runtime metric events in the given recording
+	 * @param recording flight recording
+	 * @return summary metrics for each stage
+	 */
+	public static List<RuntimeStageMetrics> summarise(Path recording) throws IOException {
+		Map<String, StageAccumulator> stages = new TreeMap<>();
+		TreeMap<Long, Long> heapUsed = new TreeMap<>();
+		try (RecordingFile rf = new RecordingFile(recording)) {
+			while (rf.hasMoreEvents()) {
+				RecordedEvent e = rf.readEvent();
+				long start = toNanos(e.getStartTime());
+				long end = toNanos(e.getEndTime());
+				switch (e.getEventType().getName()) {
+					case HEAP_SUMMARY_EVENT:
+						heapUsed.merge(end, e.getLong("heapUsed"), Math::max);
+						break;
+					case ChunkEvent.NAME:
+						stage(stages, "chunk", e.getString("stage")).add(start, end, 0);
+						break;
+					case AssemblyWindowEvent.NAME:
+						stage(stages, "assembly", e.getString("operation")).add(end - e.getLong("elapsed"), end, e.getInt("count"));
+						break;
+					case AlignerBatchEvent.NAME:
+						stage(stages, "aligner", e.getString("aligner")).add(start, end, e.getInt("records"));
+						break;
+					case IteratorThroughputEvent.NAME:
+						stage(stages, "iterator", e.getString("iterator")).add(start, end, e.getLong("records"));
+						break;
+					case BufferSizeEvent.NAME:
+						stage(stages, "buffer", e.getString("buffer")).addSample(e.getLong("size"));
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		List<RuntimeStageMetrics> result = new ArrayList<>(stages.size());
+		for (StageAccumulator acc : stages.values()) {
+			result.add(acc.toMetrics(heapUsed));
+		}
+		return result;
+	}
+	private static StageAccumulator stage(Map<String, StageAccumulator> stages, String category, String name) {
+		return stages.computeIfAbsent(category + "\t" + name, k -> new StageAccumulator(category, name));
+	}
+	private static long toNanos(Instant instant) {
+		return instant.getEpochSecond() * 1000000000L + instant.getNano();
+	}
+	private static class StageAccumulator {
+		private final RuntimeStageMetrics metrics = new RuntimeStageMetrics();
+		private final List<long[]> intervals = new ArrayList<>();
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+		public StageAccumulator(String category, String name) {
+			metrics.CATEGORY = category;
+			metrics.STAGE = name;
+		}
+		public void add(long start, long end, long records) {
+			long duration = Math.max(0, end - start);
+			metrics.EVENTS++;
+			metrics.RECORDS += records;
+			totalNanos += duration;
+			maxNanos = Math.max(maxNanos, duration);
+			intervals.add(new long[] { start, end });
+		}
+		public void addSample(long size) {
+			metrics.EVENTS++;
+			metrics.MAX_BUFFER_SIZE = metrics.MAX_BUFFER_SIZE == null ? size : Math.max(metrics.MAX_BUFFER_SIZE, size);
+		}
+		public RuntimeStageMetrics toMetrics(TreeMap<Long, Long> heapUsed) {
+			metrics.TOTAL_SECONDS = totalNanos / 1e9;
+			metrics.MAX_SECONDS = maxNanos / 1e9;
+			if (totalNanos > 0 && metrics.RECORDS > 0) {
+				metrics.RECORDS_PER_SECOND = metrics.RECORDS / metrics.TOTAL_SECONDS;
+			}
+			for (long[] interval : intervals) {
+				for (long used : heapUsed.subMap(interval[0], true, interval[1], true).values()) {
+					metrics.MAX_HEAP_USED = metrics.MAX_HEAP_USED == null ? used : Math.max(metrics.MAX_HEAP_USED, used);
+				}
+			}
+			return metrics;
+		}
+	}
+
+	public static void main(String[] argv) {
+		System.exit(new SummariseRuntimeMetrics().instanceMain(argv));
+	}
+}
@@ -1,5 +1,6 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
@@ -7,6 +8,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -41,6 +44,42 @@ public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 		assertTrue(assemblyFile.exists());
 	}
 	@Test
+	public void should_write_breakend_bam_using_shared_work_queue() throws IOException {
+		createInput(RP(0, 1, 2, 1));
+		ProcessingContext pc = getCommandlineContext();
+		pc.setSharedWorkQueue(true);
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		aes.assembleBreakends(null);
+		assertTrue(assemblyFile.exists());
+		assertTrue(pc.getFileSystemContext().getAssemblyChunkTimings(assemblyFile).exists());
+	}
+	@Test
+	public void shared_work_queue_should_merge_regions_of_chunks_assembled_by_other_jobs() throws IOException {
+		createInput(RP(0, 1, 2, 1));
+		ProcessingContext pc = getCommandlineContext();
+		pc.setSharedWorkQueue(true);
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		FileSystemContext fsc = pc.getFileSystemContext();
+		// chunk 0 has already been assembled by another job
+		try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(aes.getHeader(), true, fsc.getAssemblyChunkBam(assemblyFile, 0))) {
+		}
+		IntervalBed excluded = new IntervalBed(pc.getLinear());
+		excluded.addInterval(0, 10, 20);
+		excluded.write(fsc.getAssemblyChunkExcludedRegions(assemblyFile, 0), "test");
+		new IntervalBed(pc.getLinear()).write(fsc.getAssemblyChunkSafetyRegions(assemblyFile, 0), "test");
+		new IntervalBed(pc.getLinear()).write(fsc.getAssemblyChunkDownsampledRegions(assemblyFile, 0), "test");
+		aes.assembleBreakends(null);
+		assertTrue(assemblyFile.exists());
+		IntervalBed merged = new IntervalBed(pc.getLinear(), fsc.getAssemblyExcludedRegions(assemblyFile, 0));
+		assertTrue(merged.overlaps(0, 10, 20));
+		assertTrue(fsc.getAssemblySafetyRegions(assemblyFile, 0).exists());
+		assertTrue(fsc.getAssemblyDownsampledRegions(assemblyFile, 0).exists());
+	}
+	@Test
 	public void breakend_bam_should_be_coordinate_sorted() throws IOException {
 		createInput(RP(0, 1, 2, 1));
 		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
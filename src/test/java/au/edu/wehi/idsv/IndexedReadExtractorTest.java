@@ -0,0 +1,119 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.bed.IntervalBed;
+import com.google.common.collect.Ordering;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class IndexedReadExtractorTest extends IntermediateFilesTest {
+    private static LinearGenomicCoordinate lgc = new PaddedLinearGenomicCoordinate(getSequenceDictionary(), LCCB);
+
+    private IntervalBed createRegions() {
+        IntervalBed bed = new IntervalBed(lgc);
+        for (int i = 0; i < 20; i++) {
+            bed.addInterval(0, 100 + 200 * i, 150 + 200 * i);
+        }
+        return bed;
+    }
+
+    private List<SAMRecord> createReads() {
+        List<SAMRecord> reads = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // half the pairs have a read overlapping a target region
+            SAMRecord[] dp = DP(0, 100 + 100 * i, "10M", true, 1, 1000 + 100 * i, "10M", false);
+            reads.add(dp[0]);
+            reads.add(dp[1]);
+        }
+        // spans multiple target regions
+        reads.add(withName("long", Read(0, 120, "1000M"))[0]);
+        reads.add(withName("split", withAttr("SA", "polyACGT,5000,+,10S10M,0,0", Read(0, 2100, "10M10S")))[0]);
+        reads.add(withName("split", withAttr("SA", "polyA,2100,+,10M10S,0,0", onNegative(Read(1, 5000, "10S10M"))))[0]);
+        reads.add(withName("offtarget", Read(2, 5000, "10M"))[0]);
+        return reads;
+    }
+
+    private List<String> extract(int workerThreads) throws IOException {
+        File out = new File(testFolder.getRoot(), "extracted" + workerThreads + ".bam");
+        // one interval per batch so small region sets are still split across threads
+        new IndexedReadExtractor(lgc, createRegions(), true, true, 1).extract(input, out, workerThreads);
+        List<SAMRecord> records = getRecords(out);
+        assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(records));
+        return records.stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void should_extract_reads_mates_and_splits() throws IOException {
+        createInput(createReads());
+        List<String> result = extract(1);
+        // 20 on-target pairs, the long read and the split read
+        assertEquals(20 * 2 + 1 + 2, result.size());
+    }
+
+    @Test
+    public void should_match_single_threaded_output() throws IOException {
+        createInput(createReads());
+        List<String> expected = extract(1);
+        for (int threads : new int[] { 2, 3, 8 }) {
+            assertEquals(expected, extract(threads));
+        }
+    }
+
+    @Test
+    public void should_not_duplicate_reads_overlapping_multiple_batches() throws IOException {
+        createInput(createReads());
+        List<String> result = extract(8);
+        assertEquals(result.size(), new HashSet<>(result).size());
+    }
+
+    @Test
+    public void should_extract_unmapped_mates() throws IOException {
+        SAMRecord[] oea = OEA(0, 110, "10M", true);
+        // mate without a reference position
+        oea[1].setReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+        oea[1].setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+        createInput(oea);
+        assertEquals(2, extract(1).size());
+        assertEquals(2, extract(4).size());
+    }
+
+    @Test
+    public void should_match_single_threaded_output_with_default_batching() throws IOException {
+        createInput(createReads());
+        List<String> expected = extract(1);
+        File out = new File(testFolder.getRoot(), "extracted_default.bam");
+        new IndexedReadExtractor(lgc, createRegions(), true, true).extract(input, out, 8);
+        assertEquals(expected, getRecords(out).stream().map(SAMRecord::getSAMString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void should_only_batch_when_enough_intervals_per_batch() {
+        QueryInterval[] intervals = new QueryInterval[100];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = new QueryInterval(0, 100 * i + 1, 100 * i + 10);
+        }
+        assertEquals(1, IndexedReadExtractor.batch(intervals, 8, 1000).size());
+        assertEquals(1, IndexedReadExtractor.batch(intervals, 8, 51).size());
+        assertEquals(2, IndexedReadExtractor.batch(intervals, 8, 50).size());
+        assertEquals(32, IndexedReadExtractor.batch(intervals, 8, 1).size());
+        assertEquals(1, IndexedReadExtractor.batch(intervals, 1, 1).size());
+    }
+
+    @Test
+    public void should_allow_empty_regions() throws IOException {
+        createInput(createReads());
+        File out = new File(testFolder.getRoot(), "extracted.bam");
+        new IndexedReadExtractor(lgc, new IntervalBed(lgc), true, true).extract(input, out, 4);
+        assertEquals(0, getRecords(out).size());
+    }
+}
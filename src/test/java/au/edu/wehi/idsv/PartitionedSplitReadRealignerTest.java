@@ -0,0 +1,116 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.alignment.AlignerFactory;
+import au.edu.wehi.idsv.alignment.Minimap2Aligner;
+import au.edu.wehi.idsv.alignment.Minimap2StreamingAligner;
+import au.edu.wehi.idsv.alignment.SmithWatermanStreamingAligner;
+import com.google.common.collect.Ordering;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedSplitReadRealignerTest extends IntermediateFilesTest {
+    private SplitReadRealigner createPartitionedRealigner(int partitionSize, int threads) {
+        List<QueryInterval[]> partitions = getContext().getReference().getIntervals(partitionSize, 0);
+        return new PartitionedSplitReadRealigner(getContext(), () -> new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, 2), 10, partitions, threads);
+    }
+
+    private SplitReadRealigner createStreamingRealigner() {
+        return new StreamingSplitReadRealigner(getContext(), new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, 2), 10);
+    }
+
+    private List<SAMRecord> createSoftClippedReads() {
+        List<SAMRecord> reads = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            // soft clipped bases align to the RANDOM contig
+            int refIndex = i % 3;
+            SAMRecord r = withSequence(S(RANDOM).substring(50 * i, 50 * i + 50) + S(RANDOM).substring(5000 + 50 * i, 5000 + 50 * i + 50),
+                    Read(refIndex, 1 + 150 * i, "50M50S"))[0];
+            r.setReadName("r" + i);
+            reads.add(r);
+        }
+        SAMRecord unmapped = withSequence(S(RANDOM).substring(0, 100), Read(0, 1, "100M"))[0];
+        unmapped.setReadName("unmapped");
+        unmapped.setReadUnmappedFlag(true);
+        unmapped.setReferenceIndex(-1);
+        unmapped.setAlignmentStart(0);
+        unmapped.setCigarString("*");
+        unmapped.setMappingQuality(0);
+        reads.add(unmapped);
+        return reads;
+    }
+
+    private static List<String> asStrings(List<SAMRecord> records) {
+        return records.stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void should_match_streaming_realigner_output() throws IOException {
+        createInput(createSoftClippedReads());
+        File expectedFile = new File(testFolder.getRoot(), "expected.bam");
+        File actualFile = new File(testFolder.getRoot(), "actual.bam");
+        createStreamingRealigner().createSupplementaryAlignments(input, expectedFile, expectedFile);
+        createPartitionedRealigner(1000, 4).createSupplementaryAlignments(input, actualFile, actualFile);
+        List<SAMRecord> expected = getRecords(expectedFile);
+        List<SAMRecord> actual = getRecords(actualFile);
+        assertEquals(121, actual.size());
+        assertEquals(asStrings(expected), asStrings(actual));
+    }
+
+    @Test
+    public void should_match_streaming_realigner_output_with_shared_minimap2_aligner() throws IOException {
+        createInput(createSoftClippedReads());
+        File expectedFile = new File(testFolder.getRoot(), "expected.bam");
+        File actualFile = new File(testFolder.getRoot(), "actual.bam");
+        try (Minimap2StreamingAligner streaming = new Minimap2StreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 1, 10 * 150)) {
+            new StreamingSplitReadRealigner(getContext(), streaming, 10).createSupplementaryAlignments(input, expectedFile, expectedFile);
+        }
+        try (Minimap2Aligner shared = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            List<QueryInterval[]> partitions = getContext().getReference().getIntervals(1000, 0);
+            new PartitionedSplitReadRealigner(getContext(), () -> new Minimap2StreamingAligner(shared, 10 * 150), 10, partitions, 4)
+                    .createSupplementaryAlignments(input, actualFile, actualFile);
+        }
+        List<SAMRecord> actual = getRecords(actualFile);
+        // soft clips were realigned
+        assertTrue(actual.size() > 61);
+        assertEquals(asStrings(getRecords(expectedFile)), asStrings(actual));
+    }
+
+    @Test
+    public void should_concatenate_partitions_in_coordinate_order() throws IOException {
+        createInput(createSoftClippedReads());
+        File outputModified = new File(testFolder.getRoot(), "modified.sam");
+        createPartitionedRealigner(1000, 3).createSupplementaryAlignments(input, output, outputModified);
+        List<SAMRecord> result = getRecords(output);
+        assertEquals(61, result.size());
+        assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(result));
+        assertEquals(60, getRecords(outputModified).size());
+    }
+
+    @Test
+    public void should_assign_reads_to_partition_containing_alignment_start() throws IOException {
+        // read overlaps the partition boundary
+        SAMRecord r = withSequence(S(RANDOM).substring(0, 50) + S(RANDOM).substring(5000, 5050), Read(0, 980, "50M50S"))[0];
+        createInput(r);
+        createPartitionedRealigner(1000, 2).createSupplementaryAlignments(input, output, output);
+        assertEquals(2, getRecords(output).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_require_indexed_input() throws IOException {
+        createInput(createSoftClippedReads());
+        new File(input.getAbsolutePath().replaceAll("\\.bam$", ".bai")).delete();
+        new File(input.getAbsolutePath() + ".bai").delete();
+        createPartitionedRealigner(1000, 2).createSupplementaryAlignments(input, output, output);
+    }
+}
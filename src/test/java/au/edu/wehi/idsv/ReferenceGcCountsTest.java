@@ -0,0 +1,125 @@
+package au.edu.wehi.idsv;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReferenceGcCountsTest extends IntermediateFilesTest {
+	private static final byte[] BASES = "ACGTNacgtn".getBytes();
+	private static ReferenceSequence randomContig(Random rng, int contigIndex, int length) {
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++) {
+			b[i] = BASES[rng.nextInt(BASES.length)];
+		}
+		return new ReferenceSequence("contig" + contigIndex, contigIndex, b);
+	}
+	private static int count(ReferenceSequence refSeq, int start, int end, String bases) {
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			if (bases.indexOf(refSeq.getBases()[i]) >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+	private static void assertMatchesBases(ReferenceSequence refSeq, ReferenceGcCounts.Contig c) {
+		int len = refSeq.length();
+		for (int start = 0; start <= len; start += 7) {
+			for (int end = start; end <= len; end += 5) {
+				int gc = count(refSeq, start, end, "GCgc");
+				int at = count(refSeq, start, end, "ATat");
+				assertEquals(gc, c.getGcCount(start, end));
+				assertEquals(at, c.getAtCount(start, end));
+				assertEquals(gc + at == 0 ? -1 : gc / (double)(gc + at), c.getGcProportion(start, end, -1), 0);
+			}
+		}
+	}
+	@Test
+	public void should_match_reference_bases() {
+		Random rng = new Random(0);
+		for (int len : new int[] { 0, 1, 63, 64, 65, 127, 128, 129, 1000 }) {
+			ReferenceSequence refSeq = randomContig(rng, 0, len);
+			assertMatchesBases(refSeq, ReferenceGcCounts.create(refSeq));
+		}
+	}
+	@Test
+	public void should_count_block_boundaries() {
+		byte[] b = new byte[192];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte)(i % 64 == 63 || i % 64 == 0 ? 'G' : 'A');
+		}
+		ReferenceGcCounts.Contig c = ReferenceGcCounts.create(new ReferenceSequence("test", 0, b));
+		assertEquals(1, c.getGcCount(0, 1));
+		assertEquals(0, c.getGcCount(1, 63));
+		assertEquals(2, c.getGcCount(63, 65));
+		assertEquals(6, c.getGcCount(0, 192));
+		assertEquals(1, c.getGcCount(191, 192));
+		assertEquals(186, c.getAtCount(0, 192));
+	}
+	@Test
+	public void should_return_default_for_undefined_gc() {
+		ReferenceGcCounts.Contig c = ReferenceGcCounts.create(new ReferenceSequence("test", 0, "NNNNACGT".getBytes()));
+		assertEquals(-1, c.getGcProportion(0, 4, -1), 0);
+		assertEquals(-1, c.getGcProportion(4, 4, -1), 0);
+		assertEquals(0.5, c.getGcProportion(0, 8, -1), 0);
+	}
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void should_not_allow_queries_past_contig_end() {
+		ReferenceGcCounts.create(new ReferenceSequence("test", 0, "ACGT".getBytes())).getGcCount(0, 5);
+	}
+	@Test
+	public void should_match_ReadGcSummary_reference_scan() {
+		ReferenceSequence refSeq = SMALL_FA.getSequence("random");
+		ReferenceGcCounts.Contig c = new ReferenceGcCounts().getContig(refSeq);
+		ReadPairConcordanceCalculator rpcc = new FixedSizeReadPairConcordanceCalculator(0, 300);
+		for (int pos = 1; pos < refSeq.length() - 100; pos += 13) {
+			SAMRecord r = Read(refSeq.getContigIndex(), pos, "50M");
+			assertEquals(new ReadGcSummary(r, refSeq, 100, rpcc).gcPercentage, new ReadGcSummary(r, c, 100, rpcc).gcPercentage, 0);
+			SAMRecord[] dp = DP(refSeq.getContigIndex(), pos, "50M", true, refSeq.getContigIndex(), pos + 40, "50M", false);
+			assertTrue(rpcc.isConcordant(dp[0]));
+			assertEquals(new ReadGcSummary(dp[0], refSeq, 100, rpcc).gcPercentage, new ReadGcSummary(dp[0], c, 100, rpcc).gcPercentage, 0);
+		}
+	}
+	@Test
+	public void should_load_cache() throws IOException {
+		File fa = testFolder.newFile("test.fa");
+		File fai = testFolder.newFile("test.fa.fai");
+		Files.copy(SMALL_FA_FILE.toPath(), fa.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(new File(SMALL_FA_FILE.getAbsolutePath() + ".fai").toPath(), fai.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(new File(SMALL_FA_FILE.getAbsolutePath() + ".dict").toPath(), new File(testFolder.getRoot(), "test.fa.dict").toPath());
+		File cache = ReferenceGcCounts.getDefaultCacheFile(fa);
+		try (IndexedFastaSequenceFile ref = new IndexedFastaSequenceFile(fa)) {
+			ReferenceGcCounts.writeCache(ref, fa, cache);
+			ReferenceGcCounts loaded = ReferenceGcCounts.load(fa, cache);
+			for (int i = 0; i < ref.getSequenceDictionary().size(); i++) {
+				ReferenceSequence refSeq = ref.getSequence(ref.getSequenceDictionary().getSequence(i).getSequenceName());
+				ReferenceGcCounts.Contig c = loaded.getContig(refSeq);
+				assertTrue(c == loaded.getContig(refSeq));
+				assertEquals(refSeq.length(), c.length());
+				int len = refSeq.length();
+				assertEquals(count(refSeq, 0, len, "GCgc"), c.getGcCount(0, len));
+				assertEquals(count(refSeq, 0, len, "ATat"), c.getAtCount(0, len));
+				assertEquals(count(refSeq, len / 3, len / 2, "GCgc"), c.getGcCount(len / 3, len / 2));
+			}
+		}
+	}
+	@Test
+	public void should_ignore_out_of_date_cache() throws IOException {
+		Random rng = new Random(0);
+		File fa = testFolder.newFile("test.fa");
+		File cache = new File(testFolder.getRoot(), "test.fa.gc");
+		Files.write(cache.toPath(), new byte[] { 1, 2, 3, 4 });
+		ReferenceGcCounts counts = ReferenceGcCounts.load(fa, cache);
+		ReferenceSequence refSeq = randomContig(rng, 0, 100);
+		assertMatchesBases(refSeq, counts.getContig(refSeq));
+	}
+}
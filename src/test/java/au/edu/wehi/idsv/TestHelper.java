@@ -30,6 +30,8 @@ import htsjdk.samtools.util.ProgressLoggerInterface;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.CompositeConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.lang3.StringUtils;
@@ -313,9 +315,23 @@ public class TestHelper {
 		}
 		return defaultConfig;
 	}
+	/**
+	 * Default configuration with the given property overridden
+	 */
+	public static Configuration getDefaultConfig(String key, Object value) {
+		BaseConfiguration override = new BaseConfiguration();
+		override.setProperty(key, value);
+		CompositeConfiguration config = new CompositeConfiguration();
+		config.addConfiguration(override);
+		config.addConfiguration(getDefaultConfig());
+		return config;
+	}
 	public static GridssConfiguration getConfig(File workingDirectory) {
+		return getConfig(workingDirectory, getDefaultConfig());
+	}
+	public static GridssConfiguration getConfig(File workingDirectory, Configuration settings) {
 		GridssConfiguration config;
-		config = new GridssConfiguration(getDefaultConfig(), workingDirectory);
+		config = new GridssConfiguration(settings, workingDirectory);
 		config.minAnchorShannonEntropy = 0;
 		config.minMapq = 10;
 		config.getAssembly().minReads = 2;
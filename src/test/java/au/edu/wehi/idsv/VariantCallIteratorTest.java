@@ -10,7 +10,9 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -129,4 +131,34 @@ public class VariantCallIteratorTest extends IntermediateFilesTest {
 		ExecutorService threadpool = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Test275-%d").build());
 		vc.callBreakends(new File(testFolder.getRoot(), "out275.vcf"), threadpool);
 	}
+	@Test
+	public void should_match_unpartitioned_clique_calling() {
+		List<DirectedEvidence> list = new ArrayList<DirectedEvidence>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 200; i++) {
+			list.add(new MockDirectedBreakpoint(new BreakpointSummary(0, rng.nextBoolean() ? FWD : BWD, 10 + i, 10 + i, 20 + i + rng.nextInt(10),
+					1, rng.nextBoolean() ? FWD : BWD, 30 + i, 30 + i, 40 + i + rng.nextInt(10))));
+			BreakendDirection dir = rng.nextBoolean() ? FWD : BWD;
+			list.add(SCE(dir, Read(0, 10 + i, dir == FWD ? "10M10S" : "10S10M")));
+		}
+		list.sort(DirectedEvidenceOrder.ByNatural);
+		// every clique caller considering the full evidence stream
+		List<String> expected = new ArrayList<>();
+		for (BreakendDirection localDir : BreakendDirection.values()) {
+			for (BreakendDirection remoteDir : BreakendDirection.values()) {
+				Lists.newArrayList(new MaximalEvidenceCliqueIterator(getContext(), list.iterator(), localDir, remoteDir,
+						new SequentialIdGenerator(String.format("gridss0%s%s_", localDir.toChar(), remoteDir.toChar()))))
+						.forEach(v -> expected.add(v.getID() + " " + v.getBreakendSummary() + " " + v.getPhredScaledQual()));
+			}
+			Lists.newArrayList(new BreakendMaximalEvidenceCliqueIterator(getContext(), list.iterator(), localDir,
+					new SequentialIdGenerator(String.format("gridss0%s_", localDir.toChar()))))
+					.forEach(v -> expected.add(v.getID() + " " + v.getBreakendSummary() + " " + v.getPhredScaledQual()));
+		}
+		List<String> result = new ArrayList<>();
+		Lists.newArrayList(new VariantCallIterator(getContext(), list.iterator()))
+				.forEach(v -> result.add(v.getID() + " " + v.getBreakendSummary() + " " + v.getPhredScaledQual()));
+		Collections.sort(expected);
+		Collections.sort(result);
+		assertEquals(expected, result);
+	}
 }
@@ -1,18 +1,24 @@
 package au.edu.wehi.idsv;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.SAMRecord;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 
 public class VariantCallerTest extends IntermediateFilesTest {
@@ -87,4 +93,135 @@ public class VariantCallerTest extends IntermediateFilesTest {
 			assertEquals(3 * ((DirectedBreakpoint)ses.evidence.get(0)).getBreakpointQual(), variant.getPhredScaledQual(), 0.01);
 		}
 	}
+	@Test
+	public void should_call_cliques_using_shared_work_queue() throws IOException {
+		final int fragSize = 4;
+		final List<SAMRecord> in = new ArrayList<SAMRecord>();
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		pc.setSharedWorkQueue(true);
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		for (int i = 1; i <= 5; i++) {
+			SAMRecord[] dp = DP(0, i, "1M", true, 1, i, "1M", true);
+			ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+			ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+			in.add(dp[0]);
+			in.add(dp[1]);
+		}
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = fragSize;
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		VariantCaller vc = new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), ImmutableList.of(aes));
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService());
+		assertEquals(2 * 3, getVcf(output, null).size());
+		assertTrue(pc.getFileSystemContext().getVariantCallChunkTimings(output).exists());
+	}
+	private StubSAMEvidenceSource createCliqueEvidence(ProcessingContext pc) {
+		final int fragSize = 4;
+		final List<SAMRecord> in = new ArrayList<SAMRecord>();
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		for (int i = 1; i <= 5; i++) {
+			SAMRecord[] dp = DP(0, i, "1M", true, 1, i, "1M", true);
+			ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+			ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+			in.add(dp[0]);
+			in.add(dp[1]);
+		}
+		for (int i = 1; i <= 3; i++) {
+			SAMRecord r = withSequence("AACCGGTTAA", Read(2, 100, "5M5S"))[0];
+			r.setReadName("sc" + i);
+			ses.evidence.add(SCE(FWD, ses, r));
+			in.add(r);
+		}
+		SAMRecord r = withSequence("AACCGGTTAA", Read(2, 200, "5S5M"))[0];
+		ses.evidence.add(SCE(BWD, ses, r));
+		in.add(r);
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		return ses;
+	}
+	private static List<String> getVcfRecords(File vcf) throws IOException {
+		return Files.readLines(vcf, StandardCharsets.UTF_8).stream()
+				.filter(s -> !s.startsWith("#"))
+				.collect(Collectors.toList());
+	}
+	private List<String> callBreakends(ProcessingContext pc, StubSAMEvidenceSource ses, File vcf) throws IOException {
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = ses.getMaxConcordantFragmentSize();
+		vcf.delete();
+		new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), ImmutableList.of(aes)).callBreakends(vcf, MoreExecutors.newDirectExecutorService());
+		return getVcfRecords(vcf);
+	}
+	@Test
+	public void should_replay_cached_cliques() throws IOException {
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		pc.getVariantCallingParameters().cacheCliques = true;
+		StubSAMEvidenceSource ses = createCliqueEvidence(pc);
+		List<String> calls = callBreakends(pc, ses, output);
+		assertTrue(calls.size() > 0);
+		assertTrue(calls.stream().anyMatch(s -> s.contains(MaximalEvidenceCliqueIterator.BREAKPOINT_ID_SUFFIX_HIGH + "\t")));
+		assertTrue(calls.stream().anyMatch(s -> s.contains(BreakendMaximalEvidenceCliqueIterator.BREAKEND_ID_SUFFIX + "\t")));
+		assertTrue(pc.getFileSystemContext().getVariantCallChunkCliques(output, 0).exists());
+		// cached calls must not require any evidence
+		ses.evidence.clear();
+		assertEquals(calls, callBreakends(pc, ses, output));
+	}
+	@Test
+	public void cached_cliques_should_match_recalculation_when_score_threshold_changes() throws IOException {
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		pc.getVariantCallingParameters().cacheCliques = true;
+		StubSAMEvidenceSource ses = createCliqueEvidence(pc);
+		List<String> unfiltered = callBreakends(pc, ses, output);
+		double maxQual = unfiltered.stream().mapToDouble(s -> Double.parseDouble(s.split("\t")[5])).max().getAsDouble();
+		pc.getVariantCallingParameters().writeFiltered = false;
+		pc.getVariantCallingParameters().minScore = maxQual - 0.5;
+		List<String> replayed = callBreakends(pc, ses, output);
+		pc.getVariantCallingParameters().cacheCliques = false;
+		List<String> recalculated = callBreakends(pc, ses, new File(testFolder.getRoot(), "recalculated.vcf"));
+		assertTrue(replayed.size() > 0);
+		assertTrue(replayed.size() < unfiltered.size());
+		assertEquals(recalculated, replayed);
+	}
+	@Test
+	public void should_ignore_cached_cliques_when_evidence_changes() throws IOException {
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		pc.getVariantCallingParameters().cacheCliques = true;
+		StubSAMEvidenceSource ses = createCliqueEvidence(pc);
+		assertTrue(callBreakends(pc, ses, output).size() > 0);
+		ses.evidence.clear();
+		input.setLastModified(input.lastModified() - 10000);
+		assertEquals(0, callBreakends(pc, ses, output).size());
+	}
+	@Test
+	public void should_recalculate_cached_cliques_when_scoring_changes() throws IOException {
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		pc.getVariantCallingParameters().cacheCliques = true;
+		StubSAMEvidenceSource ses = createCliqueEvidence(pc);
+		List<String> cached = callBreakends(pc, ses, output);
+		// evidence weights determine which maximal cliques are called so cliques cannot be rescored
+		final ProcessingContext rescored = getCommandlineContext(ImmutableList.of("Normal", "Tumour"),
+				TestHelper.getConfig(testFolder.getRoot(), TestHelper.getDefaultConfig("scoring.model", "ReadCount")));
+		rescored.getVariantCallingParameters().writeFiltered = true;
+		rescored.getVariantCallingParameters().breakendMargin = 0;
+		rescored.getVariantCallingParameters().cacheCliques = true;
+		long lastModified = input.lastModified();
+		StubSAMEvidenceSource rescoredSes = createCliqueEvidence(rescored);
+		// same evidence file so only the scoring setting differs
+		input.setLastModified(lastModified);
+		List<String> replayed = callBreakends(rescored, rescoredSes, output);
+		rescored.getVariantCallingParameters().cacheCliques = false;
+		List<String> recalculated = callBreakends(rescored, rescoredSes, new File(testFolder.getRoot(), "recalculated.vcf"));
+		assertNotEquals(cached, recalculated);
+		assertEquals(recalculated, replayed);
+	}
 }
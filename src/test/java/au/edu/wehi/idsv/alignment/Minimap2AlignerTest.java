@@ -0,0 +1,169 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTag;
+import htsjdk.samtools.fastq.FastqRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static au.edu.wehi.idsv.alignment.BwaAlignerTest.hitsFor;
+import static org.junit.Assert.*;
+
+public class Minimap2AlignerTest extends TestHelper {
+    @Test
+    public void should_use_bundled_index() {
+        assertTrue(Minimap2Aligner.getMinimap2IndexFileFor(SMALL_FA_FILE).exists());
+    }
+    @Test
+    public void should_index_reference_if_missing_index() throws IOException {
+        TemporaryFolder testFolder = new TemporaryFolder();
+        try {
+            testFolder.create();
+            FileUtils.copyFileToDirectory(new File("src/test/resources/small.fa"), testFolder.getRoot());
+            File ref = new File(testFolder.getRoot(), "small.fa");
+            try (Minimap2Aligner aligner = new Minimap2Aligner(ref, SMALL_FA.getSequenceDictionary(), 1)) {
+                List<SAMRecord> result = aligner.align(ImmutableList.of(new FastqRecord("random", S(RANDOM).substring(0, 100), "", S(getPolyA(100)))));
+                assertEquals(1, result.size());
+                assertEquals(1, result.get(0).getAlignmentStart());
+            }
+        } finally {
+            testFolder.delete();
+        }
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void should_except_if_reference_mismatch() {
+        SAMSequenceDictionary dict = new SAMSequenceDictionary(ImmutableList.of(new SAMSequenceRecord("chr1", 1000)));
+        new Minimap2Aligner(SMALL_FA_FILE, dict, 1);
+    }
+    @Test
+    public void should_run_minimap2_jni() {
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            Collection<FastqRecord> input = ImmutableList.of(
+                    new FastqRecord("noHit", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"),
+                    new FastqRecord("random", S(RANDOM).substring(0, 100), "", S(getPolyA(100))));
+            List<SAMRecord> result = aligner.align(input);
+            assertEquals(1, hitsFor("noHit", result).size());
+            assertTrue(hitsFor("noHit", result).get(0).getReadUnmappedFlag());
+
+            assertEquals(1, hitsFor("random", result).size());
+            assertEquals("100M", hitsFor("random", result).get(0).getCigarString());
+            assertEquals("random", hitsFor("random", result).get(0).getReferenceName());
+            assertEquals(1, hitsFor("random", result).get(0).getAlignmentStart());
+        }
+    }
+    @Test
+    public void should_return_soft_clips() {
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            Collection<FastqRecord> input = ImmutableList.of(
+                    new FastqRecord("random", "CCCCCCCCCCCCCCCCCCCC" + S(RANDOM).substring(0, 100), "", S(getPolyA(120))));
+            List<SAMRecord> result = aligner.align(input);
+            assertEquals(1, result.size());
+            assertEquals("20S100M", result.get(0).getCigarString());
+            assertEquals(1, result.get(0).getAlignmentStart());
+        }
+    }
+    @Test
+    public void should_return_split_read_alignments() {
+        String seq = S(RANDOM).substring(1000, 1060) + S(RANDOM).substring(5000, 5040);
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            List<SAMRecord> result = aligner.align(ImmutableList.of(new FastqRecord("split", seq, "", S(getPolyA(100)))));
+            assertEquals(2, result.size());
+            for (SAMRecord r : result) {
+                assertEquals(100, r.getReadLength());
+                assertFalse(r.isSecondaryAlignment());
+                assertNotNull(r.getStringAttribute(SAMTag.SA.name()));
+            }
+            assertEquals(1, result.stream().filter(r -> !r.getSupplementaryAlignmentFlag()).count());
+        }
+    }
+    @Test
+    public void should_handle_short_reads_and_Ns() {
+        String s = S(getPolyA(120));
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            List<FastqRecord> input = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                input.add(new FastqRecord("read" + i, s.substring(0, i), "", s.substring(0, i)));
+                input.add(new FastqRecord("N" + i, getPoly(i, 'N'), "", getPolyA(i)));
+            }
+            List<SAMRecord> result = aligner.align(input);
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i, result.get(2 * i).getReadLength());
+                Assert.assertEquals(i, result.get(2 * i + 1).getReadLength());
+            }
+        }
+    }
+    @Test
+    public void multithreaded_alignment_should_match_input_order() {
+        List<FastqRecord> input = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int start = (i * 37) % 9000;
+            input.add(new FastqRecord("read" + i, S(RANDOM).substring(start, start + 100), "", S(getPolyA(100))));
+        }
+        List<SAMRecord> single;
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 1)) {
+            single = aligner.align(input);
+        }
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 4)) {
+            List<SAMRecord> multi = aligner.align(input);
+            assertEquals(single.size(), multi.size());
+            for (int i = 0; i < single.size(); i++) {
+                assertEquals(single.get(i).getSAMString(), multi.get(i).getSAMString());
+            }
+        }
+        for (int i = 0; i < input.size(); i++) {
+            assertEquals("read" + i, single.get(i).getReadName());
+        }
+    }
+    @Test
+    public void concurrent_align_calls_should_match_sequential_alignment() throws Exception {
+        List<List<FastqRecord>> batches = new ArrayList<>();
+        for (int b = 0; b < 16; b++) {
+            List<FastqRecord> batch = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int start = (b * 1013 + i * 37) % 9000;
+                String seq = i % 10 == 0
+                        ? S(RANDOM).substring(start, start + 60) + S(RANDOM).substring((start + 4000) % 9000, (start + 4000) % 9000 + 40)
+                        : S(RANDOM).substring(start, start + 100);
+                batch.add(new FastqRecord("read" + b + "_" + i, seq, "", S(getPolyA(100))));
+            }
+            batches.add(batch);
+        }
+        // one shared native aligner invoked concurrently, as done by the partitioned split read realigner
+        try (Minimap2Aligner aligner = new Minimap2Aligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2)) {
+            List<List<String>> expected = new ArrayList<>();
+            for (List<FastqRecord> batch : batches) {
+                expected.add(aligner.align(batch).stream().map(SAMRecord::getSAMString).collect(Collectors.toList()));
+            }
+            ExecutorService threadpool = Executors.newFixedThreadPool(8);
+            try {
+                for (int repeat = 0; repeat < 4; repeat++) {
+                    List<Future<List<SAMRecord>>> futures = new ArrayList<>();
+                    for (List<FastqRecord> batch : batches) {
+                        futures.add(threadpool.submit(() -> aligner.align(batch)));
+                    }
+                    for (int b = 0; b < batches.size(); b++) {
+                        assertEquals(expected.get(b), futures.get(b).get().stream().map(SAMRecord::getSAMString).collect(Collectors.toList()));
+                    }
+                }
+            } finally {
+                threadpool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.fastq.FastqRecord;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Minimap2StreamingAlignerTest extends TestHelper {
+    @Test
+    public void should_align_reads() throws IOException {
+        Minimap2StreamingAligner minimap2 = new Minimap2StreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000);
+        for (FastqRecord fq : ImmutableList.of(
+                new FastqRecord("noHit", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"),
+                new FastqRecord("polyA", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"),
+                new FastqRecord("polyACGT", "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT", "", "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT"),
+                new FastqRecord("random", S(RANDOM).substring(0, 100), "", S(getPolyA(100))))) {
+            minimap2.asyncAlign(fq);
+        }
+        minimap2.flush();
+        int i = 0;
+        while (minimap2.processedAlignmentRecords() > 0) {
+            minimap2.getAlignment();
+            i++;
+        }
+        assertTrue(i >= 4);
+    }
+    @Test(expected = IllegalStateException.class)
+    public void should_batch_records_for_processing() throws IOException {
+        Minimap2StreamingAligner minimap2 = new Minimap2StreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000);
+        for (FastqRecord fq : ImmutableList.of(
+                new FastqRecord("noHit", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"),
+                new FastqRecord("polyA", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"),
+                new FastqRecord("polyACGT", "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT", "", "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT"),
+                new FastqRecord("random", S(RANDOM).substring(0, 100), "", S(getPolyA(100))))) {
+            minimap2.asyncAlign(fq);
+        }
+        assertEquals(0, minimap2.processedAlignmentRecords());
+        minimap2.getAlignment();
+    }
+    private static void waitUntilTrue(Supplier<Boolean> condition) throws InterruptedException {
+        for (int i = 0; i < 1024; i++) {
+            if (condition.get()) {
+                break;
+            } else {
+                Thread.sleep(1);
+            }
+        }
+    }
+    @Test
+    public void counts_should_match_aligner_state_when_batch_processed() throws IOException, InterruptedException {
+        final Minimap2StreamingAligner minimap2 = new Minimap2StreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1);
+        minimap2.asyncAlign(new FastqRecord("noHit", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"));
+        waitUntilTrue(() -> minimap2.outstandingAlignmentRecord() == 0);
+        assertEquals(0, minimap2.outstandingAlignmentRecord());
+        assertEquals(1, minimap2.processedAlignmentRecords());
+        minimap2.close();
+    }
+    @Test
+    public void flush_should_force_processing_and_block_till_completed() throws IOException, InterruptedException {
+        final Minimap2StreamingAligner minimap2 = new Minimap2StreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000);
+        minimap2.asyncAlign(new FastqRecord("noHit", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"));
+        assertEquals(1, minimap2.outstandingAlignmentRecord());
+        assertEquals(0, minimap2.processedAlignmentRecords());
+        minimap2.flush();
+        assertEquals(0, minimap2.outstandingAlignmentRecord());
+        assertEquals(1, minimap2.processedAlignmentRecords());
+        minimap2.getAlignment();
+        assertEquals(0, minimap2.outstandingAlignmentRecord());
+        assertEquals(0, minimap2.processedAlignmentRecords());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceSeedIndexTest extends TestHelper {
+	private static List<int[]> hits(ReferenceSeedIndex index, String seq) {
+		List<int[]> hits = new ArrayList<>();
+		index.findHits(B(seq), (readOffset, referenceOffset) -> hits.add(new int[] { readOffset, referenceOffset }));
+		return hits;
+	}
+	@Test
+	public void should_index_every_stride_position() {
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("ACGTTGCAAGCT"), 4, 2, 10);
+		assertEquals(5, index.size());
+	}
+	@Test
+	public void should_find_all_positions_of_kmer() {
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("ACGTACGTACGT"), 4, 1, 10);
+		List<int[]> hits = hits(index, "ACGT");
+		assertEquals(3, hits.size());
+		for (int[] hit : hits) {
+			assertEquals(0, hit[0]);
+			assertEquals(0, hit[1] % 4);
+		}
+	}
+	@Test
+	public void should_report_read_offset() {
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("GGGGACGTTTTT"), 4, 1, 10);
+		List<int[]> hits = hits(index, "CCACGTCC");
+		assertEquals(1, hits.size());
+		assertEquals(2, hits.get(0)[0]);
+		assertEquals(4, hits.get(0)[1]);
+	}
+	@Test
+	public void should_guarantee_seed_for_exact_match_of_k_plus_stride() {
+		String ref = S(RANDOM).substring(0, 1000);
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B(ref), 12, 5, 10);
+		for (int i = 0; i < 900; i++) {
+			final int offset = i;
+			assertTrue(hits(index, ref.substring(i, i + 12 + 5 - 1)).stream().anyMatch(h -> h[1] - h[0] == offset));
+		}
+	}
+	@Test
+	public void should_not_seed_ambiguous_bases() {
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("ACGTNACGTACGT"), 4, 1, 10);
+		assertEquals(6, index.size());
+		assertEquals(0, hits(index, "ACNT").size());
+	}
+	@Test
+	public void should_ignore_repetitive_kmers() {
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("AAAAAAAAAACGTC"), 4, 1, 3);
+		assertEquals(0, hits(index, "AAAA").size());
+		assertEquals(1, hits(index, "ACGT").size());
+	}
+	@Test
+	public void should_handle_high_bit_kmers() {
+		// G encodes to 3 so poly-G kmers set the sign bit of the packed seed
+		ReferenceSeedIndex index = new ReferenceSeedIndex(B("TTTTGGGGGGGGGGGGGGGGTTTT"), 16, 1, 10);
+		List<int[]> hits = hits(index, "GGGGGGGGGGGGGGGG");
+		assertEquals(1, hits.size());
+		assertEquals(4, hits.get(0)[1]);
+	}
+}
@@ -0,0 +1,126 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SmithWatermanStreamingAlignerTest extends TestHelper {
+	private static final int RANDOM_CONTIG = 2;
+	private static SmithWatermanStreamingAligner seeded(int threads) {
+		return new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, RANDOM_CONTIG, threads,
+				SmithWatermanStreamingAligner.DEFAULT_SEED_KMER, SmithWatermanStreamingAligner.DEFAULT_SEED_STRIDE,
+				SmithWatermanStreamingAligner.DEFAULT_MAX_SEED_OCCURRENCES, SmithWatermanStreamingAligner.DEFAULT_BAND_WIDTH);
+	}
+	private static SAMRecord align(SmithWatermanStreamingAligner aligner, String seq) throws IOException {
+		aligner.asyncAlign(new FastqRecord("read", seq, "", S(getPolyA(seq.length()))));
+		aligner.flush();
+		assertEquals(1, aligner.processedAlignmentRecords());
+		return aligner.getAlignment();
+	}
+	@Test
+	public void should_align_to_seed_location() throws IOException {
+		SmithWatermanStreamingAligner aligner = seeded(1);
+		SAMRecord r = align(aligner, S(RANDOM).substring(1000, 1100));
+		assertFalse(r.getReadUnmappedFlag());
+		assertFalse(r.getReadNegativeStrandFlag());
+		assertEquals(RANDOM_CONTIG, (int)r.getReferenceIndex());
+		assertEquals(1001, r.getAlignmentStart());
+		assertEquals("100M", r.getCigarString());
+	}
+	@Test
+	public void should_align_reverse_strand() throws IOException {
+		SmithWatermanStreamingAligner aligner = seeded(1);
+		String seq = S(RANDOM).substring(1000, 1100);
+		SAMRecord r = align(aligner, SequenceUtil.reverseComplement(seq));
+		assertTrue(r.getReadNegativeStrandFlag());
+		assertEquals(1001, r.getAlignmentStart());
+		assertEquals("100M", r.getCigarString());
+		assertEquals(seq, r.getReadString());
+	}
+	@Test
+	public void should_soft_clip_unaligned_bases() throws IOException {
+		SmithWatermanStreamingAligner aligner = seeded(1);
+		SAMRecord r = align(aligner, "GGGGGGGGGGGGGGGGGGGG" + S(RANDOM).substring(5000, 5050));
+		assertEquals(5001, r.getAlignmentStart());
+		assertEquals("20S50M", r.getCigarString());
+	}
+	@Test
+	public void should_align_across_indel() throws IOException {
+		SmithWatermanStreamingAligner aligner = seeded(1);
+		SAMRecord r = align(aligner, S(RANDOM).substring(2000, 2050) + S(RANDOM).substring(2060, 2110));
+		assertEquals(2001, r.getAlignmentStart());
+		assertEquals("50M10D50M", r.getCigarString());
+	}
+	@Test
+	public void should_not_align_unseeded_reads() throws IOException {
+		SmithWatermanStreamingAligner aligner = seeded(1);
+		assertTrue(align(aligner, "ACGTNNNNNNNNNNACGT").getReadUnmappedFlag());
+	}
+	@Test
+	public void should_preserve_order_when_multithreaded() throws IOException {
+		// the Smith-Waterman aligner instance is shared by all worker threads
+		SmithWatermanStreamingAligner single = seeded(1);
+		SmithWatermanStreamingAligner multi = seeded(4);
+		for (int i = 0; i < 500; i++) {
+			int start = (i * 97) % 9000;
+			FastqRecord fq = new FastqRecord("read" + i, S(RANDOM).substring(start, start + 20 + i % 80), "", S(getPolyA(20 + i % 80)));
+			single.asyncAlign(fq);
+			multi.asyncAlign(fq);
+		}
+		single.flush();
+		multi.flush();
+		assertEquals(0, multi.outstandingAlignmentRecord());
+		assertEquals(500, multi.processedAlignmentRecords());
+		for (int i = 0; i < 500; i++) {
+			SAMRecord expected = single.getAlignment();
+			SAMRecord actual = multi.getAlignment();
+			assertEquals("read" + i, actual.getReadName());
+			assertEquals(expected.getSAMString(), actual.getSAMString());
+		}
+		multi.close();
+	}
+	@Test
+	public void should_align_to_entire_chromosome_by_default() throws IOException {
+		SmithWatermanStreamingAligner aligner = new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, RANDOM_CONTIG);
+		byte[] ref = SMALL_FA.getSequence(SMALL_FA.getSequenceDictionary().getSequence(RANDOM_CONTIG).getSequenceName()).getBases();
+		for (String seq : new String[] {
+				S(RANDOM).substring(1000, 1100),
+				SequenceUtil.reverseComplement(S(RANDOM).substring(1000, 1100)),
+				"ACGTNNNNNNNNNNACGT" }) {
+			SAMRecord r = align(aligner, seq);
+			Alignment expected = AlignerFactory.create().align_smith_waterman(seq.getBytes(), ref);
+			assertFalse(r.getReadUnmappedFlag());
+			assertFalse(r.getReadNegativeStrandFlag());
+			assertEquals(seq, r.getReadString());
+			assertEquals(expected.getStartPosition() + 1, r.getAlignmentStart());
+			assertEquals(expected.getCigar(), r.getCigarString());
+		}
+	}
+	@Test
+	public void should_share_aligner_across_threads_when_aligning_to_entire_chromosome() throws IOException {
+		SmithWatermanStreamingAligner single = new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, RANDOM_CONTIG, 1);
+		SmithWatermanStreamingAligner multi = new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, RANDOM_CONTIG, 4);
+		for (int i = 0; i < 100; i++) {
+			int start = (i * 97) % 9000;
+			FastqRecord fq = new FastqRecord("read" + i, S(RANDOM).substring(start, start + 20 + i % 80), "", S(getPolyA(20 + i % 80)));
+			single.asyncAlign(fq);
+			multi.asyncAlign(fq);
+		}
+		single.flush();
+		multi.flush();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(single.getAlignment().getSAMString(), multi.getAlignment().getSAMString());
+		}
+		multi.close();
+	}
+	@Test(expected = IllegalStateException.class)
+	public void getAlignment_should_require_processed_record() {
+		new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, RANDOM_CONTIG).getAlignment();
+	}
+}
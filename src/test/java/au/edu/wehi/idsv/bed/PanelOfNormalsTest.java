@@ -0,0 +1,129 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static au.edu.wehi.idsv.bed.PanelOfNormalsRecords.COUNT;
+import static au.edu.wehi.idsv.bed.PanelOfNormalsRecords.RECORD_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PanelOfNormalsTest extends TestHelper {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private static final BreakpointSummary BP = new BreakpointSummary(0, BreakendDirection.Forward, 100, 95, 105, 1, BreakendDirection.Backward, 200, 200, 200);
+	private static final BreakendSummary BE = new BreakendSummary(0, BreakendDirection.Forward, 500, 490, 510);
+
+	private static List<BreakendSummary> drain(PanelOfNormalsRunMerger.RecordSource source, List<Integer> counts) throws IOException {
+		List<BreakendSummary> result = new ArrayList<>();
+		int[] record = new int[RECORD_SIZE];
+		while (source.next(record)) {
+			result.add(PanelOfNormalsRecords.decode(record, 0));
+			counts.add(record[COUNT]);
+		}
+		return result;
+	}
+	@Test
+	public void should_round_trip_encoding() {
+		int[] record = new int[RECORD_SIZE];
+		PanelOfNormalsRecords.encode(BP, 3, record, 0);
+		assertEquals(BP, PanelOfNormalsRecords.decode(record, 0));
+		assertEquals(3, record[COUNT]);
+		PanelOfNormalsRecords.encode(BE, 1, record, 0);
+		assertTrue(PanelOfNormalsRecords.isSingleBreakend(record, 0));
+		assertEquals(BE, PanelOfNormalsRecords.decode(record, 0));
+	}
+	@Test
+	public void sortAndAggregate_should_sort_by_start_and_sum_identical_records() throws IOException {
+		PanelOfNormalsRecords records = new PanelOfNormalsRecords();
+		records.add(BE, 1);
+		records.add(BP, 1);
+		records.add(BE, 2);
+		records.add(new BreakendSummary(0, BreakendDirection.Backward, 500, 490, 510), 1);
+		records.sortAndAggregate();
+		assertEquals(3, records.size());
+		List<Integer> counts = new ArrayList<>();
+		List<BreakendSummary> result = drain(records.asRecordSource(), counts);
+		assertEquals(BP, result.get(0));
+		assertEquals(BE, result.get(1));
+		assertEquals(ImmutableList.of(1, 3, 1), counts);
+	}
+	@Test
+	public void merger_should_sum_identical_records_across_runs() throws IOException {
+		PanelOfNormalsRecords r1 = new PanelOfNormalsRecords();
+		r1.add(BP, 1);
+		r1.add(BE, 1);
+		r1.sortAndAggregate();
+		PanelOfNormalsRecords r2 = new PanelOfNormalsRecords();
+		r2.add(BE, 2);
+		r2.add(new BreakendSummary(2, BreakendDirection.Forward, 1), 1);
+		r2.sortAndAggregate();
+		File run = testFolder.newFile("r2.run");
+		r2.writeRun(run);
+		File merged = testFolder.newFile("merged.run");
+		PanelOfNormalsRunMerger.merge(ImmutableList.of(r1.asRecordSource(), PanelOfNormalsRunMerger.openRun(run)), merged);
+		List<Integer> counts = new ArrayList<>();
+		List<BreakendSummary> result;
+		try (PanelOfNormalsRunMerger.RecordSource source = PanelOfNormalsRunMerger.openRun(merged)) {
+			result = drain(source, counts);
+		}
+		assertEquals(ImmutableList.of(BP, BE, new BreakendSummary(2, BreakendDirection.Forward, 1)), result);
+		assertEquals(ImmutableList.of(1, 3, 1), counts);
+	}
+	@Test
+	public void should_count_overlapping_records() throws IOException {
+		PanelOfNormalsRecords records = new PanelOfNormalsRecords();
+		records.add(BP, 2);
+		records.add(BE, 3);
+		records.add(new BreakendSummary(0, BreakendDirection.Forward, 1000), 1);
+		records.add(new BreakendSummary(1, BreakendDirection.Forward, 1000), 4);
+		records.sortAndAggregate();
+		File file = testFolder.newFile("test" + PanelOfNormals.FILE_EXTENSION);
+		PanelOfNormals.write(file, getSequenceDictionary(), records);
+		try (PanelOfNormals pon = new PanelOfNormals(file)) {
+			assertEquals(getSequenceDictionary().size(), pon.getSequenceDictionary().size());
+			assertEquals(4, pon.size());
+			assertEquals(2, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Forward, 105, 1, BreakendDirection.Backward, 200)));
+			assertEquals(2, pon.countOverlapping(new BreakpointSummary(1, BreakendDirection.Backward, 200, 0, BreakendDirection.Forward, 95)));
+			assertEquals(0, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Forward, 106, 1, BreakendDirection.Backward, 200)));
+			assertEquals(0, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 201)));
+			assertEquals(0, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Forward, 200)));
+			assertEquals(0, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Forward, 100)));
+			assertEquals(3, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Forward, 510)));
+			assertEquals(4, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Forward, 500, 500, 1000)));
+			assertEquals(0, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Backward, 500)));
+			assertEquals(4, pon.countOverlapping(new BreakendSummary(1, BreakendDirection.Forward, 1000)));
+			assertEquals(0, pon.countOverlapping(new BreakendSummary(2, BreakendDirection.Forward, 1000)));
+		}
+	}
+	@Test
+	public void should_query_across_segments() throws IOException {
+		PanelOfNormalsRecords records = new PanelOfNormalsRecords();
+		for (int i = 1; i <= 100; i++) {
+			records.add(new BreakendSummary(i % 2, BreakendDirection.Forward, 10 * i), i);
+		}
+		records.sortAndAggregate();
+		File file = testFolder.newFile("segmented" + PanelOfNormals.FILE_EXTENSION);
+		PanelOfNormals.write(file, getSequenceDictionary(), records);
+		try (PanelOfNormals pon = new PanelOfNormals(file, 4)) {
+			assertEquals(100, pon.size());
+			List<Integer> counts = new ArrayList<>();
+			assertEquals(100, drain(pon.asRecordSource(), counts).size());
+			for (int i = 1; i <= 100; i++) {
+				assertEquals(i, pon.countOverlapping(new BreakendSummary(i % 2, BreakendDirection.Forward, 10 * i)));
+				assertEquals(0, pon.countOverlapping(new BreakendSummary((i + 1) % 2, BreakendDirection.Forward, 10 * i)));
+			}
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
 import au.edu.wehi.idsv.*;
+import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
+import au.edu.wehi.idsv.configuration.PositionalAssemblyConfiguration;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMRecord;
@@ -29,6 +31,31 @@ public class PositionalAssemblerTest extends TestHelper {
 		assertEquals(4, r.size());
 	}
 	@Test
+	public void concurrent_subgraph_calling_should_match_sequential_calling() {
+		List<List<String>> results = new ArrayList<>();
+		for (boolean concurrent : new boolean[] { false, true }) {
+			ProcessingContext pc = getContext();
+			boolean trimSelfIntersectingReads = pc.getAssemblyParameters().positional.trimSelfIntersectingReads;
+			pc.getAssemblyParameters().positional = new PositionalAssemblyConfiguration(
+					getDefaultConfig("assembly.positional.concurrentSubgraphCalling", concurrent).subset(AssemblyConfiguration.CONFIGURATION_PREFIX));
+			pc.getAssemblyParameters().positional.trimSelfIntersectingReads = trimSelfIntersectingReads;
+			assertEquals(concurrent, pc.getAssemblyParameters().positional.concurrentSubgraphCalling);
+			AssemblyEvidenceSource aes = AES(pc);
+			pc.getAssemblyParameters().k = 4;
+			List<DirectedEvidence> input = new ArrayList<DirectedEvidence>();
+			for (int i = 0; i < 16; i++) {
+				input.add(SCE(BWD, Read(0, 10 + 7 * i, "5S5M")));
+				input.add(SCE(FWD, Read(0, 10 + 11 * i, "5M5S")));
+			}
+			input.sort(DirectedEvidenceOrder.ByStartEnd);
+			List<String> calls = new ArrayList<>();
+			new PositionalAssembler(pc, aes, new SequentialIdGenerator("asm"), input.iterator(), null, null)
+				.forEachRemaining(r -> calls.add(r.getReadName() + " " + r.getAlignmentStart() + " " + r.getCigarString() + " " + r.getReadString()));
+			results.add(calls);
+		}
+		assertEquals(results.get(0), results.get(1));
+	}
+	@Test
 	public void should_assemble_simple_forward_soft_clips() {
 		ProcessingContext pc = getContext();
 		pc.getAssemblyParameters().anchorLength = 1;
@@ -0,0 +1,158 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import au.edu.wehi.idsv.util.IntervalUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SubgraphPartitionedContigCallerTest extends ContigCallerTest {
+	@Override
+	public ContigCaller getCaller(Iterable<KmerPathNode> input, int maxEvidenceWidth) {
+		ContigCaller caller = new SubgraphPartitionedContigCaller(NonReferenceContigAssembler.ANCHORED_SCORE, maxEvidenceWidth, true);
+		for (KmerPathNode node : input) {
+			caller.add(node);
+		}
+		return caller;
+	}
+	@Test
+	public void should_track_disjoint_subgraphs() {
+		int k = 4;
+		List<KmerPathNode> input = new ArrayList<KmerPathNode>();
+		input.add(KPN(k, "AAAA", 1, 1, false));
+		input.add(KPN(k, "AAAA", 2, 2, false));
+		input.add(KPN(k, "CCCC", 100, 100, false));
+		input.add(KPN(k, "CCCC", 101, 101, false));
+		KmerPathNode.addEdge(input.get(0), input.get(1));
+		KmerPathNode.addEdge(input.get(2), input.get(3));
+		SubgraphPartitionedContigCaller caller = (SubgraphPartitionedContigCaller)getCaller(input, 10);
+		assertEquals(2, caller.tracking_subgraphCount());
+		caller.bestContig(Integer.MAX_VALUE);
+		assertEquals(4, caller.memoizedNodeCount());
+	}
+	@Test
+	public void should_merge_subgraphs_when_connected() {
+		int k = 4;
+		List<KmerPathNode> input = new ArrayList<KmerPathNode>();
+		input.add(KPN(k, "AAAA", 1, 1, false));
+		input.add(KPN(k, "AAAA", 3, 3, false));
+		input.add(KPN(k, "AAAA", 2, 2, false));
+		KmerPathNode.addEdge(input.get(0), input.get(2));
+		KmerPathNode.addEdge(input.get(2), input.get(1));
+		SubgraphPartitionedContigCaller caller = new SubgraphPartitionedContigCaller(NonReferenceContigAssembler.ANCHORED_SCORE, 10, true);
+		caller.add(input.get(0));
+		caller.add(input.get(1));
+		assertEquals(2, caller.tracking_subgraphCount());
+		caller.add(input.get(2));
+		assertEquals(1, caller.tracking_subgraphCount());
+		assertEquals(3, caller.bestContig(Integer.MAX_VALUE).size());
+	}
+	@Test
+	public void should_discard_empty_subgraphs() {
+		int k = 4;
+		List<KmerPathNode> input = new ArrayList<KmerPathNode>();
+		input.add(KPN(k, "AAAA", 1, 1, false));
+		input.add(KPN(k, "CCCC", 100, 100, false));
+		SubgraphPartitionedContigCaller caller = (SubgraphPartitionedContigCaller)getCaller(input, 10);
+		caller.remove(input.get(0));
+		assertEquals(1, caller.tracking_subgraphCount());
+	}
+	private static List<KmerPathNode> randomDisjointGraph(int seed, int subgraphs, int nodesPerSubgraph) {
+		Random rng = new Random(seed);
+		List<KmerPathNode> list = new ArrayList<KmerPathNode>();
+		for (int sg = 0; sg < subgraphs; sg++) {
+			List<KmerPathNode> sglist = new ArrayList<KmerPathNode>();
+			int offset = sg * 1000;
+			for (int i = 0; i < nodesPerSubgraph; i++) {
+				int start = 1 + rng.nextInt(100);
+				int end = start + rng.nextInt(20);
+				int weight = 1 + rng.nextInt(100);
+				// ensure kmers are unique for each starting position
+				long kmer = 100 * ((100 * weight) + start) + end;
+				String startingKmer = KmerEncodingHelper.toString(32, kmer);
+				sglist.add(KPN(32, startingKmer + StringUtils.repeat("A", rng.nextInt(10)), offset + start, offset + end, false, weight));
+			}
+			for (KmerPathNode prev : sglist) {
+				for (KmerPathNode next : sglist) {
+					if (IntervalUtil.overlapsClosed(prev.lastStart() + 1, prev.lastEnd() + 1, next.firstStart(), next.firstEnd())) {
+						KmerPathNode.addEdge(prev, next);
+					}
+				}
+			}
+			list.addAll(sglist);
+		}
+		list.sort(KmerNodeUtil.ByFirstStart);
+		return list;
+	}
+	private static List<String> callAll(ContigCaller caller) {
+		List<String> calls = new ArrayList<>();
+		ArrayDeque<KmerPathSubnode> contig;
+		while ((contig = caller.bestContig(Integer.MAX_VALUE)) != null) {
+			calls.add(String.format("%d-%d %s", contig.getFirst().firstStart(), contig.getLast().lastEnd(), S(contig, 32)));
+			Set<KmerPathNode> toRemove = contig.stream()
+					.map(sn -> sn.node())
+					.collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
+			caller.remove(toRemove);
+			for (KmerPathNode node : toRemove) {
+				node.remove();
+			}
+		}
+		return calls;
+	}
+	@Test
+	public void should_call_contigs_in_same_order_as_single_caller() {
+		for (int seed = 0; seed < 8; seed++) {
+			List<KmerPathNode> input1 = randomDisjointGraph(seed, 6, 16);
+			List<KmerPathNode> input2 = randomDisjointGraph(seed, 6, 16);
+			ContigCaller mcc = new MemoizedContigCaller(NonReferenceContigAssembler.ANCHORED_SCORE, 3);
+			input1.forEach(mcc::add);
+			ContigCaller partitioned = getCaller(input2, 3);
+			List<String> expected = callAll(mcc);
+			List<String> actual = callAll(partitioned);
+			assertTrue(expected.size() > 6);
+			assertEquals(expected, actual);
+		}
+	}
+	private static List<String> callIncrementally(ContigCaller caller, List<KmerPathNode> input) {
+		List<String> calls = new ArrayList<>();
+		int i = 0;
+		for (int position = 0; i < input.size() || position < 10000; position += 50) {
+			while (i < input.size() && input.get(i).firstStart() < position) {
+				caller.add(input.get(i++));
+			}
+			calls.add(String.format("frontier %d", caller.frontierStart(position)));
+			ArrayDeque<KmerPathSubnode> contig;
+			while ((contig = caller.bestContig(position)) != null) {
+				calls.add(String.format("%d-%d %s", contig.getFirst().firstStart(), contig.getLast().lastEnd(), S(contig, 32)));
+				Set<KmerPathNode> toRemove = contig.stream()
+						.map(sn -> sn.node())
+						.collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
+				caller.remove(toRemove);
+				for (KmerPathNode node : toRemove) {
+					node.remove();
+				}
+			}
+		}
+		calls.addAll(callAll(caller));
+		return calls;
+	}
+	@Test
+	public void should_match_single_caller_when_nodes_are_added_incrementally() {
+		for (int seed = 0; seed < 8; seed++) {
+			List<KmerPathNode> input1 = randomDisjointGraph(seed, 6, 16);
+			List<KmerPathNode> input2 = randomDisjointGraph(seed, 6, 16);
+			ContigCaller mcc = new MemoizedContigCaller(NonReferenceContigAssembler.ANCHORED_SCORE, 3);
+			ContigCaller partitioned = new SubgraphPartitionedContigCaller(NonReferenceContigAssembler.ANCHORED_SCORE, 3, false);
+			List<String> expected = callIncrementally(mcc, input1);
+			List<String> actual = callIncrementally(partitioned, input2);
+			assertTrue(expected.size() > 6);
+			assertEquals(expected, actual);
+		}
+	}
+}
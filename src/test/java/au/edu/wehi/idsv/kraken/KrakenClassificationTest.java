@@ -4,6 +4,9 @@ package au.edu.wehi.idsv.kraken;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public class KrakenClassificationTest {
     @Test
     public void should_parse_basic_fields() {
@@ -28,26 +31,34 @@ public class KrakenClassificationTest {
     @Test
     public void should_parse_kmer_alignments_se() {
         KrakenClassification kc = new KrakenClassification(new String("C\tid1\t1\t10|20\t1:10"));
-        Assert.assertEquals(1, kc.kmerTaxonomyIds.size());
-        Assert.assertEquals(10, kc.kmerTaxonomyIds.get(0).kmerCount);
-        Assert.assertEquals(1, kc.kmerTaxonomyIds.get(0).taxonomyId);
+        Assert.assertEquals(1, kc.getKmerTaxonomyIds().size());
+        Assert.assertEquals(10, kc.getKmerTaxonomyIds().get(0).kmerCount);
+        Assert.assertEquals(1, kc.getKmerTaxonomyIds().get(0).taxonomyId);
     }
     @Test
     public void should_parse_kmer_alignments_pe() {
         KrakenClassification kc = new KrakenClassification(new String("C\tid2\t9606\t15\t562:13 561:4 A:31 0:1 562:3|:|9606:15"));
-        Assert.assertEquals(5, kc.kmerTaxonomyIds.size());
-        Assert.assertEquals(1, kc.kmerTaxonomyIds2.size());
-        Assert.assertEquals(13, kc.kmerTaxonomyIds.get(0).kmerCount);
-        Assert.assertEquals(4, kc.kmerTaxonomyIds.get(1).kmerCount);
-        Assert.assertEquals(31, kc.kmerTaxonomyIds.get(2).kmerCount);
-        Assert.assertEquals(1, kc.kmerTaxonomyIds.get(3).kmerCount);
-        Assert.assertEquals(3, kc.kmerTaxonomyIds.get(4).kmerCount);
-        Assert.assertEquals(15, kc.kmerTaxonomyIds2.get(0).kmerCount);
-        Assert.assertEquals(562, kc.kmerTaxonomyIds.get(0).taxonomyId);
-        Assert.assertEquals(561, kc.kmerTaxonomyIds.get(1).taxonomyId);
-        Assert.assertEquals(KrakenKmerClassification.AMBIGUOUS, kc.kmerTaxonomyIds.get(2).taxonomyId);
-        Assert.assertEquals(0, kc.kmerTaxonomyIds.get(3).taxonomyId);
-        Assert.assertEquals(562, kc.kmerTaxonomyIds.get(4).taxonomyId);
-        Assert.assertEquals(9606, kc.kmerTaxonomyIds2.get(0).taxonomyId);
+        Assert.assertEquals(5, kc.getKmerTaxonomyIds().size());
+        Assert.assertEquals(1, kc.getKmerTaxonomyIds2().size());
+        Assert.assertEquals(13, kc.getKmerTaxonomyIds().get(0).kmerCount);
+        Assert.assertEquals(4, kc.getKmerTaxonomyIds().get(1).kmerCount);
+        Assert.assertEquals(31, kc.getKmerTaxonomyIds().get(2).kmerCount);
+        Assert.assertEquals(1, kc.getKmerTaxonomyIds().get(3).kmerCount);
+        Assert.assertEquals(3, kc.getKmerTaxonomyIds().get(4).kmerCount);
+        Assert.assertEquals(15, kc.getKmerTaxonomyIds2().get(0).kmerCount);
+        Assert.assertEquals(562, kc.getKmerTaxonomyIds().get(0).taxonomyId);
+        Assert.assertEquals(561, kc.getKmerTaxonomyIds().get(1).taxonomyId);
+        Assert.assertEquals(KrakenKmerClassification.AMBIGUOUS, kc.getKmerTaxonomyIds().get(2).taxonomyId);
+        Assert.assertEquals(0, kc.getKmerTaxonomyIds().get(3).taxonomyId);
+        Assert.assertEquals(562, kc.getKmerTaxonomyIds().get(4).taxonomyId);
+        Assert.assertEquals(9606, kc.getKmerTaxonomyIds2().get(0).taxonomyId);
+    }
+    @Test
+    public void should_not_retain_buffer() {
+        byte[] buffer = "x\nC\tid1\t1\t10\t1:10\ny".getBytes(StandardCharsets.UTF_8);
+        KrakenClassification kc = new KrakenClassification(buffer, 2, buffer.length - 2);
+        Arrays.fill(buffer, (byte)'-');
+        Assert.assertEquals("C\tid1\t1\t10\t1:10", kc.toKrakenOutput());
+        Assert.assertEquals(1, kc.getKmerTaxonomyIds().get(0).taxonomyId);
     }
-}
\ No newline at end of file
+}
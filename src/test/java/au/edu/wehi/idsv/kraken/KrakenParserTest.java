@@ -5,12 +5,19 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 public class KrakenParserTest {
+    private static final File KRAKEN_OUTPUT = new File("src/test/resources/kraken2_output.tsv");
+
     @Test
     public void should_parse_kraken2_output() throws FileNotFoundException {
-        List<KrakenClassification> result = Lists.newArrayList(new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(new File("src/test/resources/kraken2_output.tsv"))))));
+        List<KrakenClassification> result = Lists.newArrayList(new KrakenParser(new FileInputStream(KRAKEN_OUTPUT)));
         Assert.assertEquals(5, result.size());
 
         Assert.assertFalse(result.get(0).isClassified);
@@ -33,4 +40,38 @@ public class KrakenParserTest {
         Assert.assertEquals("A00624:8:HHKYHDSXX:1:2146:29749:32377", result.get(4).sequenceId);
         Assert.assertEquals(28384, result.get(4).taxonomyId);
     }
-}
\ No newline at end of file
+
+    private static List<String> parse(byte[] data, ExecutorService threadpool, boolean ordered, int blockSize) {
+        List<KrakenClassification> result = Lists.newArrayList(new KrakenParser(new ByteArrayInputStream(data), threadpool, 3, ordered, kc -> kc.isClassified, blockSize));
+        return result.stream().map(KrakenClassification::toKrakenOutput).collect(Collectors.toList());
+    }
+
+    @Test
+    public void should_return_lines_spanning_block_boundaries() throws IOException {
+        byte[] data = Files.readAllBytes(KRAKEN_OUTPUT.toPath());
+        List<String> expected = Files.readAllLines(KRAKEN_OUTPUT.toPath()).stream().filter(s -> s.startsWith("C")).collect(Collectors.toList());
+        ExecutorService threadpool = Executors.newFixedThreadPool(2);
+        try {
+            for (int blockSize : new int[] { 1, 7, 64, 151, 1000, KrakenParser.DEFAULT_BLOCK_SIZE }) {
+                Assert.assertEquals(expected, parse(data, null, true, blockSize));
+                Assert.assertEquals(expected, parse(data, threadpool, true, blockSize));
+                List<String> unordered = parse(data, threadpool, false, blockSize);
+                Assert.assertEquals(expected.size(), unordered.size());
+                Assert.assertTrue(unordered.containsAll(expected));
+            }
+        } finally {
+            threadpool.shutdown();
+        }
+    }
+
+    @Test
+    public void should_handle_missing_trailing_newline_and_crlf() {
+        byte[] data = "C\tid1\t1\t10\t1:10\r\n\nU\tid2\t0\t100\t0:5".getBytes(StandardCharsets.UTF_8);
+        List<KrakenClassification> result = Lists.newArrayList(new KrakenParser(new ByteArrayInputStream(data)));
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("C\tid1\t1\t10\t1:10", result.get(0).toKrakenOutput());
+        Assert.assertEquals(10, result.get(0).getKmerCount(0, 0));
+        Assert.assertEquals("id2", result.get(1).sequenceId);
+        Assert.assertEquals(5, result.get(1).getKmerCount(0, 0));
+    }
+}
@@ -0,0 +1,138 @@
+package au.edu.wehi.idsv.ncbi;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+public class NcbiTaxonomyTest {
+    private static final File HOMO_SAPIENS = new File("src/test/resources/ncbi/homo_sapiens.nodes.dmp");
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldParseNodesDmp() throws IOException {
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.parse(new File("src/test/resources/ncbi/test.nodes.dmp"));
+        Assert.assertEquals(2758539, taxonomy.maxTaxId());
+        Assert.assertEquals(1, taxonomy.getParent(1));
+        Assert.assertEquals(655722, taxonomy.getParent(2758539));
+        Assert.assertEquals(1707, taxonomy.getParent(11));
+        Assert.assertFalse(taxonomy.contains(3));
+        Assert.assertEquals(NcbiTaxonomy.NOT_IN_TAXONOMY, taxonomy.getParent(3));
+    }
+
+    @Test
+    public void should_parse_non_ascii_fields() throws IOException {
+        File nodes = testFolder.newFile("nodes.dmp");
+        Files.write(nodes.toPath(), ("1\t|\t1\t|\tno rank\t|\n"
+                + "2\t|\t1\t|\tsuperkingdom\t|\tcomment \u00e9\t|\n"
+                + "3\t|\t2\t|\tgenus\t|\n").getBytes(StandardCharsets.UTF_8));
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.parse(nodes);
+        Assert.assertEquals(3, taxonomy.maxTaxId());
+        Assert.assertEquals(2, taxonomy.getParent(3));
+    }
+
+    @Test
+    public void should_report_line_number_of_malformed_line() throws IOException {
+        File nodes = testFolder.newFile("nodes.dmp");
+        Files.write(nodes.toPath(), "1\t|\t1\t|\n2\t|\t1\t|\nbad\t|\t1\t|\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            NcbiTaxonomy.parse(nodes);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("line 3 "));
+        }
+    }
+
+    @Test
+    public void lookupShouldIncludeEntireTree() throws IOException {
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.parse(HOMO_SAPIENS);
+        boolean[] lookup = taxonomy.createInclusionLookup(ImmutableList.of(9606));
+        Assert.assertTrue(lookup[9606]);
+        Assert.assertFalse(lookup[9605]);
+
+        lookup = taxonomy.createInclusionLookup(ImmutableList.of(8287));
+        Assert.assertTrue(lookup[9606]);
+        Assert.assertTrue(lookup[376912]);
+        Assert.assertTrue(lookup[376913]);
+        Assert.assertFalse(lookup[117571]);
+
+        lookup = taxonomy.createInclusionLookup(ImmutableList.of(314293, 376912));
+        Assert.assertTrue(lookup[9606]);
+        Assert.assertTrue(lookup[376912]);
+        Assert.assertTrue(lookup[314293]);
+        Assert.assertFalse(lookup[9443]);
+    }
+
+    @Test
+    public void should_match_map_based_taxonomy() throws IOException {
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.parse(HOMO_SAPIENS);
+        Map<Integer, MinimalTaxonomyNode> lookup = TaxonomyHelper.parseMinimal(HOMO_SAPIENS);
+        Assert.assertEquals(lookup.size(), taxonomy.size());
+        Assert.assertArrayEquals(TaxonomyHelper.leafNodes(lookup), taxonomy.leafNodes());
+        for (List<Integer> taxIds : ImmutableList.<List<Integer>>of(
+                ImmutableList.of(9606),
+                ImmutableList.of(8287),
+                ImmutableList.of(314293, 376912),
+                ImmutableList.of(10239, 9443))) {
+            boolean[] included = taxonomy.createInclusionLookup(taxIds);
+            Assert.assertArrayEquals(TaxonomyHelper.createInclusionLookup(taxIds, lookup), included);
+            Assert.assertArrayEquals(TaxonomyHelper.addAncestors(included, lookup), taxonomy.addAncestors(included));
+        }
+        for (int taxId : lookup.keySet()) {
+            Assert.assertEquals(lookup.get(taxId).parentTaxId, taxonomy.getParent(taxId));
+            Assert.assertTrue(taxonomy.isInSubtree(taxId, taxId));
+            Assert.assertTrue(taxonomy.isInSubtree(taxId, 1));
+        }
+        Assert.assertTrue(taxonomy.isInSubtree(9606, 8287));
+        Assert.assertFalse(taxonomy.isInSubtree(8287, 9606));
+        Assert.assertFalse(taxonomy.isInSubtree(9606, 10239));
+    }
+
+    @Test
+    public void should_treat_missing_parent_as_root() {
+        int[] parent = new int[] { NcbiTaxonomy.NOT_IN_TAXONOMY, 1, 1, 2, 10, 4 };
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.fromParents(parent);
+        Assert.assertTrue(taxonomy.isInSubtree(3, 1));
+        Assert.assertTrue(taxonomy.isInSubtree(5, 4));
+        Assert.assertFalse(taxonomy.isInSubtree(5, 1));
+        Assert.assertArrayEquals(new boolean[] { false, false, false, false, true, true }, taxonomy.createInclusionLookup(ImmutableList.of(4)));
+    }
+
+    @Test
+    public void should_load_from_cache() throws IOException {
+        File nodes = testFolder.newFile("nodes.dmp");
+        Files.copy(HOMO_SAPIENS.toPath(), nodes.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        File cache = NcbiTaxonomy.getDefaultCacheFile(nodes);
+        NcbiTaxonomy parsed = NcbiTaxonomy.load(nodes, cache);
+        Assert.assertTrue(cache.exists());
+        NcbiTaxonomy cached = NcbiTaxonomy.load(nodes, cache);
+        Assert.assertEquals(parsed.maxTaxId(), cached.maxTaxId());
+        Assert.assertEquals(parsed.size(), cached.size());
+        for (int i = 0; i <= parsed.maxTaxId(); i++) {
+            Assert.assertEquals(parsed.getParent(i), cached.getParent(i));
+        }
+        Assert.assertArrayEquals(parsed.createInclusionLookup(ImmutableList.of(8287)), cached.createInclusionLookup(ImmutableList.of(8287)));
+        Assert.assertArrayEquals(parsed.leafNodes(), cached.leafNodes());
+    }
+
+    @Test
+    public void should_recreate_out_of_date_cache() throws IOException {
+        File nodes = testFolder.newFile("nodes.dmp");
+        Files.write(nodes.toPath(), "1\t|\t1\t|\tno rank\t|\n2\t|\t1\t|\tno rank\t|\n".getBytes());
+        File cache = NcbiTaxonomy.getDefaultCacheFile(nodes);
+        Assert.assertEquals(2, NcbiTaxonomy.load(nodes, cache).size());
+        Files.write(nodes.toPath(), "1\t|\t1\t|\tno rank\t|\n2\t|\t1\t|\tno rank\t|\n3\t|\t2\t|\tno rank\t|\n".getBytes());
+        NcbiTaxonomy taxonomy = NcbiTaxonomy.load(nodes, cache);
+        Assert.assertEquals(3, taxonomy.size());
+        Assert.assertTrue(taxonomy.isInSubtree(3, 2));
+    }
+}
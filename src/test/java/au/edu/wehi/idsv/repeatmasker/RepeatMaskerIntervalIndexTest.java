@@ -0,0 +1,139 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import htsjdk.samtools.util.IntervalTree;
+import htsjdk.tribble.annotation.Strand;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class RepeatMaskerIntervalIndexTest {
+    private static final File HG19 = new File("src/test/resources/hg19.rm.bedops.bed");
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static List<String> overlaps(RepeatMaskerIntervalIndex.Cursor cursor, String contig, int start, int end) {
+        List<String> result = new ArrayList<>();
+        cursor.seek(contig, start, end);
+        while (cursor.next()) {
+            result.add(cursor.getStart() + "-" + cursor.getEnd());
+        }
+        return result;
+    }
+
+    @Test
+    public void should_parse_bedops_bed() throws IOException {
+        RepeatMaskerIntervalIndex index = RepeatMaskerIntervalIndex.parse(HG19);
+        Assert.assertEquals(10, index.size());
+        RepeatMaskerIntervalIndex.Cursor cursor = index.cursor();
+        cursor.seek("chr1", 10001, 10001);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(10001, cursor.getStart());
+        Assert.assertEquals(10468, cursor.getEnd());
+        Assert.assertEquals(Strand.POSITIVE, cursor.getStrand());
+        Assert.assertEquals("(CCCTAA)n", cursor.getRepeatType());
+        Assert.assertEquals("Simple_repeat", cursor.getRepeatClass());
+        Assert.assertFalse(cursor.next());
+        cursor.seek("chr1", 10000, 10000);
+        Assert.assertFalse(cursor.next());
+        cursor.seek("chr2", 10001, 10001);
+        Assert.assertFalse(cursor.next());
+    }
+
+    @Test
+    public void cursor_should_support_forward_and_backward_seeks() throws IOException {
+        RepeatMaskerIntervalIndex.Cursor cursor = RepeatMaskerIntervalIndex.parse(HG19).cursor();
+        Assert.assertEquals(2, overlaps(cursor, "chr1", 10468, 10469).size());
+        Assert.assertEquals(1, overlaps(cursor, "chr1", 21000, 22000).size());
+        Assert.assertEquals(0, overlaps(cursor, "chr1", 11448, 11504).size());
+        Assert.assertEquals(1, overlaps(cursor, "chr1", 11448, 11505).size());
+        Assert.assertEquals(10, overlaps(cursor, "chr1", 1, 100000).size());
+        Assert.assertEquals(0, overlaps(cursor, "chrUn", 1, 100000).size());
+        Assert.assertEquals(1, overlaps(cursor, "chr1", 10001, 10001).size());
+    }
+
+    @Test
+    public void should_match_interval_tree() throws IOException {
+        File bed = testFolder.newFile("rm.bed");
+        Random random = new Random(0);
+        List<IntervalTree<Integer>> trees = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int contig = 0; contig < 3; contig++) {
+            IntervalTree<Integer> tree = new IntervalTree<>();
+            trees.add(tree);
+            for (int i = 0; i < 500; i++) {
+                int start = random.nextInt(10000);
+                int end = start + 1 + random.nextInt(random.nextInt(8) == 0 ? 2000 : 50);
+                if (tree.find(start + 1, end) != null) continue;
+                sb.append(String.format("chr%d\t%d\t%d\tL1\t100\t+\t0\t0\t0\t(0)\tLINE/L1\t1\t1\t(0)\t%d\n", contig, start, end, i));
+                tree.put(start + 1, end, i);
+            }
+        }
+        Files.write(bed.toPath(), sb.toString().getBytes());
+        RepeatMaskerIntervalIndex.Cursor cursor = RepeatMaskerIntervalIndex.parse(bed).cursor();
+        for (int contig = 0; contig < 3; contig++) {
+            // sorted queries, then random queries
+            for (int i = 0; i < 2000; i++) {
+                int start = i < 1000 ? 10 * i : random.nextInt(10500);
+                int end = start + random.nextInt(100);
+                List<String> expected = new ArrayList<>();
+                Iterator<IntervalTree.Node<Integer>> it = trees.get(contig).overlappers(start, end);
+                while (it.hasNext()) {
+                    IntervalTree.Node<Integer> n = it.next();
+                    expected.add(n.getStart() + "-" + n.getEnd());
+                }
+                Assert.assertEquals(expected, overlaps(cursor, "chr" + contig, start, end));
+            }
+        }
+    }
+
+    @Test
+    public void should_load_from_cache() throws IOException {
+        File bed = testFolder.newFile("rm.bed");
+        Files.copy(HG19.toPath(), bed.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        File cache = RepeatMaskerIntervalIndex.getDefaultCacheFile(bed);
+        RepeatMaskerIntervalIndex parsed = RepeatMaskerIntervalIndex.load(bed, cache);
+        Assert.assertTrue(cache.exists());
+        RepeatMaskerIntervalIndex cached = RepeatMaskerIntervalIndex.load(bed, cache);
+        Assert.assertEquals(parsed.size(), cached.size());
+        Assert.assertEquals(parsed.getContigs(), cached.getContigs());
+        RepeatMaskerIntervalIndex.Cursor c1 = parsed.cursor();
+        RepeatMaskerIntervalIndex.Cursor c2 = cached.cursor();
+        c1.seek("chr1", 1, 100000);
+        c2.seek("chr1", 1, 100000);
+        while (c1.next()) {
+            Assert.assertTrue(c2.next());
+            Assert.assertEquals(c1.getStart(), c2.getStart());
+            Assert.assertEquals(c1.getEnd(), c2.getEnd());
+            Assert.assertEquals(c1.getStrand(), c2.getStrand());
+            Assert.assertEquals(c1.getRepeatType(), c2.getRepeatType());
+            Assert.assertEquals(c1.getRepeatClass(), c2.getRepeatClass());
+        }
+        Assert.assertFalse(c2.next());
+    }
+
+    @Test
+    public void should_recreate_out_of_date_cache() throws IOException {
+        File bed = testFolder.newFile("rm.bed");
+        Files.write(bed.toPath(), "chr1\t0\t10\tL1\t100\t+\n".getBytes());
+        File cache = RepeatMaskerIntervalIndex.getDefaultCacheFile(bed);
+        Assert.assertEquals(1, RepeatMaskerIntervalIndex.load(bed, cache).size());
+        Files.write(bed.toPath(), "chr1\t0\t10\tL1\t100\t+\nchr1\t20\t30\tAlu\t100\t-\n".getBytes());
+        RepeatMaskerIntervalIndex index = RepeatMaskerIntervalIndex.load(bed, cache);
+        Assert.assertEquals(2, index.size());
+        RepeatMaskerIntervalIndex.Cursor cursor = index.cursor();
+        cursor.seek("chr1", 25, 25);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals("Alu", cursor.getRepeatType());
+        Assert.assertEquals(Strand.NEGATIVE, cursor.getStrand());
+        Assert.assertNull(cursor.getRepeatClass());
+    }
+}
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.TextCigarCodec;
 import org.junit.Assert;
 import org.junit.Test;
@@ -151,4 +152,72 @@ public class ChimericAlignmentTest {
 				Range.closedOpen(0, 5))),
 				ChimericAlignment.getUnalignedIntervals(list));
 	}
+	@Test
+	public void should_match_regex_parsing() {
+		for (String sa : ImmutableList.of(
+				"chr18,107870,-,8817S631M318S,30,39;chr18,108695,-,7874S237M1D203M1I5M2D215M1D40M1191S,0,48;chrUn_gl000216,155097,+,927S271M8568S,19,12;",
+				"polyA,1,+,10M,0,0",
+				"polyA,1,+,10M,0,",
+				"polyA,1,+,10M,5",
+				"polyA,1,+,10M",
+				"polyA,1,+,10M,5,.",
+				"polyA,1,+,*,5,0;polyACGT,20,-,5S5M,60,1",
+				"chr1,100,-,10M,60,2,extra;chr1,200,+,10M,60,3 ")) {
+			assertEquals(ChimericAlignment.getChimericAlignments(sa, ";"), ChimericAlignment.getChimericAlignments(sa));
+			List<ChimericAlignment> expected = ChimericAlignment.getChimericAlignments(sa, ";");
+			List<ChimericAlignment> actual = ChimericAlignment.getChimericAlignments(sa);
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).nm, actual.get(i).nm);
+				assertEquals(expected.get(i).toString(), actual.get(i).toString());
+			}
+		}
+	}
+	@Test(expected = NumberFormatException.class)
+	public void should_fail_on_invalid_position() {
+		ChimericAlignment.getChimericAlignments("polyA,x,+,10M,0,0");
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void should_fail_on_missing_cigar() {
+		ChimericAlignment.getChimericAlignments("polyA,1,+");
+	}
+	@Test
+	public void should_cache_parsed_SA_tag_until_replaced() {
+		SAMRecord r = new SAMRecord(null);
+		r.setAttribute("SA", "polyA,1,+,10M,0,0;polyA,100,-,5S5M,10,1");
+		List<ChimericAlignment> list = ChimericAlignment.getChimericAlignments(r);
+		assertSame(list, ChimericAlignment.getChimericAlignments(r));
+		r.setAttribute("SA", "polyA,2,+,10M,0,0");
+		assertNotSame(list, ChimericAlignment.getChimericAlignments(r));
+		assertEquals(1, ChimericAlignment.getChimericAlignments(r).size());
+		assertEquals(2, ChimericAlignment.getChimericAlignments(r).get(0).pos);
+		r.setAttribute("SA", null);
+		assertEquals(0, ChimericAlignment.getChimericAlignments(r).size());
+	}
+	@Test
+	public void retainChimericAlignments_should_not_modify_tag_if_all_retained() {
+		SAMRecord r = new SAMRecord(null);
+		String sa = "polyA,1,+,10M,0,;polyA,100,-,5S5M,10,1";
+		r.setAttribute("SA", sa);
+		assertFalse(ChimericAlignment.retainChimericAlignments(r, ca -> true));
+		assertSame(sa, r.getStringAttribute("SA"));
+	}
+	@Test
+	public void retainChimericAlignments_should_copy_retained_alignments_verbatim() {
+		SAMRecord r = new SAMRecord(null);
+		r.setAttribute("SA", "polyA,1,+,10M,0,;polyA,100,-,5S5M,10,1;polyA,200,+,5M5S,20");
+		assertTrue(ChimericAlignment.retainChimericAlignments(r, ca -> ca.pos != 100));
+		assertEquals("polyA,1,+,10M,0;polyA,200,+,5M5S,20", r.getStringAttribute("SA"));
+		List<ChimericAlignment> list = ChimericAlignment.getChimericAlignments(r);
+		assertEquals(ChimericAlignment.getChimericAlignments(r.getStringAttribute("SA")), list);
+		assertTrue(ChimericAlignment.retainChimericAlignments(r, ca -> ca.pos == 200));
+		assertEquals("polyA,200,+,5M5S,20", r.getStringAttribute("SA"));
+		assertTrue(ChimericAlignment.retainChimericAlignments(r, ca -> false));
+		assertEquals("", r.getStringAttribute("SA"));
+		assertEquals(0, ChimericAlignment.getChimericAlignments(r).size());
+	}
+	@Test
+	public void toString_should_match_SA_tag_format() {
+		assertEquals("chr1,100,-,5S10M,30,2", new ChimericAlignment("chr1,100,-,5S10M,30,2").toString());
+		assertEquals("chr1,100,+,5S10M,30,", new ChimericAlignment("chr1,100,+,5S10M,30,").toString());
+	}
 }
@@ -0,0 +1,59 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TemplateAlignmentSummaryTest extends TestHelper {
+	@Test
+	public void should_match_SAMRecordUtil_clipping() {
+		for (String cigar : new String[] { "10M", "5H3S10M", "10M2S4H", "1H2S3M4I5D6M7S8H", "3S", "2H" }) {
+			for (boolean negativeStrand : new boolean[] { false, true }) {
+				SAMRecord r = Read(0, 1, cigar);
+				r.setReadNegativeStrandFlag(negativeStrand);
+				TemplateAlignmentSummary summary = new TemplateAlignmentSummary();
+				assertEquals(SAMRecordUtil.getStartClipLength(r), summary.getStartClipLength(r));
+				assertEquals(SAMRecordUtil.getEndClipLength(r), summary.getEndClipLength(r));
+				assertEquals(SAMRecordUtil.getFirstAlignedBaseReadOffset(r), summary.getFirstAlignedBaseReadOffset(r));
+				assertEquals(r.getCigar().getReadLength(), summary.get(r).readLength);
+				assertEquals(cigar.contains("H"), summary.get(r).hasHardClip);
+			}
+		}
+	}
+	@Test
+	public void should_count_hard_clips_in_read_length() {
+		TemplateAlignmentSummary summary = new TemplateAlignmentSummary();
+		assertEquals(1 + 2 + 3 + 4 + 6 + 7 + 8, summary.get(Read(0, 1, "1H2S3M4I5D6M7S8H")).getReadLengthIncludingHardClipping());
+	}
+	@Test
+	public void should_reuse_summary_of_unchanged_record() {
+		TemplateAlignmentSummary summary = new TemplateAlignmentSummary();
+		SAMRecord r = Read(0, 1, "5S10M");
+		org.junit.Assert.assertSame(summary.get(r), summary.get(r));
+	}
+	@Test
+	public void should_update_when_cigar_changes() {
+		TemplateAlignmentSummary summary = new TemplateAlignmentSummary();
+		SAMRecord r = Read(0, 1, "5S10M");
+		assertEquals(5, summary.getStartClipLength(r));
+		r.setCigarString("10M5S");
+		assertEquals(0, summary.getStartClipLength(r));
+		assertEquals(5, summary.getEndClipLength(r));
+	}
+	@Test
+	public void should_update_when_strand_changes() {
+		TemplateAlignmentSummary summary = new TemplateAlignmentSummary();
+		SAMRecord r = Read(0, 1, "5S10M2S");
+		assertEquals(5, summary.getFirstAlignedBaseReadOffset(r));
+		r.setReadNegativeStrandFlag(true);
+		assertEquals(2, summary.getFirstAlignedBaseReadOffset(r));
+	}
+	@Test
+	public void should_not_have_first_aligned_base_without_alignment() {
+		SAMRecord r = Read(0, 1, "10M");
+		r.setCigarString("*");
+		assertEquals(-1, new TemplateAlignmentSummary().getFirstAlignedBaseReadOffset(r));
+	}
+}
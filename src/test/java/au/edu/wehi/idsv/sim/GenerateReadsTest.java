@@ -0,0 +1,101 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.vcf.SvType;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GenerateReadsTest extends IntermediateFilesTest {
+	private List<SAMRecord> read(File file) throws IOException {
+		try (SamReader reader = SamReaderFactory.makeDefault().open(file)) {
+			assertEquals(SortOrder.coordinate, reader.getFileHeader().getSortOrder());
+			List<SAMRecord> list = new ArrayList<>();
+			reader.iterator().forEachRemaining(list::add);
+			return list;
+		}
+	}
+	private File fasta;
+	private File layout;
+	private void simulateGenome() throws IOException {
+		fasta = testFolder.newFile("sim.fa");
+		layout = testFolder.newFile("sim.layout.tsv");
+		output = new File(testFolder.getRoot(), "tumour.bam");
+		File vcf = testFolder.newFile("sim.vcf");
+		SimpleVariantChromosome svc = new SimpleVariantChromosome(getContext(), "random", 500, 0);
+		svc.assemble(fasta, vcf, layout, false, Lists.newArrayList(SvType.DEL, SvType.INS, SvType.INV), Lists.newArrayList(100), 2);
+	}
+	private String[] args(String... extra) {
+		List<String> args = Lists.newArrayList(
+				"REFERENCE_SEQUENCE=" + reference.toString(),
+				"FASTA=" + fasta.toString(),
+				"LAYOUT=" + layout.toString(),
+				"OUTPUT=" + output.toString(),
+				"TMP_DIR=" + testFolder.getRoot().toString(),
+				"COVERAGE=10",
+				"READ_LENGTH=100",
+				"FRAGMENT_SIZE=300",
+				"FRAGMENT_SIZE_STDDEV=30");
+		args.addAll(Lists.newArrayList(extra));
+		return args.toArray(new String[0]);
+	}
+	@Test
+	public void should_write_coordinate_sorted_split_read_alignments() throws IOException {
+		simulateGenome();
+		File truth = testFolder.newFile("truth.bedpe");
+		assertEquals(0, new GenerateReads().instanceMain(args("TRUTH=" + truth.toString())));
+		List<SAMRecord> reads = read(output);
+		assertTrue(reads.size() > 0);
+		for (int i = 1; i < reads.size(); i++) {
+			if (reads.get(i).getReadUnmappedFlag() && reads.get(i).getMateUnmappedFlag()) continue;
+			assertTrue(reads.get(i - 1).getAlignmentStart() <= reads.get(i).getAlignmentStart());
+		}
+		assertTrue(reads.stream().anyMatch(r -> r.getSupplementaryAlignmentFlag()));
+		assertTrue(reads.stream().anyMatch(r -> r.getStringAttribute(SAMTag.SA.name()) != null));
+		assertTrue(reads.stream().allMatch(r -> r.getReadUnmappedFlag() || r.getMateUnmappedFlag() || r.getStringAttribute(SAMTag.MC.name()) != null));
+		assertTrue(reads.stream().allMatch(r -> "tumour".equals(r.getReadGroup().getSample())));
+		List<String> bedpe = Files.readLines(truth, StandardCharsets.US_ASCII).stream().filter(s -> !s.startsWith("#")).collect(Collectors.toList());
+		// each deletion and insertion has one breakpoint. Inversions have two
+		assertEquals(2 + 2 + 2 * 2, bedpe.size());
+		assertTrue(bedpe.stream().anyMatch(s -> s.split("\t", -1)[10].length() == 100));
+	}
+	@Test
+	public void should_be_deterministic() throws IOException {
+		simulateGenome();
+		assertEquals(0, new GenerateReads().instanceMain(args()));
+		List<String> a = read(output).stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+		output.delete();
+		assertEquals(0, new GenerateReads().instanceMain(args()));
+		List<String> b = read(output).stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+		assertEquals(a, b);
+	}
+	@Test
+	public void should_mix_tumour_and_normal_reads() throws IOException {
+		simulateGenome();
+		File normal = testFolder.newFile("normal.bam");
+		assertEquals(0, new GenerateReads().instanceMain(args("TUMOUR_PURITY=0.5", "NORMAL_OUTPUT=" + normal.toString())));
+		List<SAMRecord> tumourReads = read(output);
+		List<SAMRecord> normalReads = read(normal);
+		long fromReference = tumourReads.stream().filter(r -> r.getReadName().startsWith("tumour.random.")).count();
+		long fromSimulated = tumourReads.stream().filter(r -> r.getReadName().startsWith("tumour.variant.random.")).count();
+		assertTrue(fromReference > 0);
+		assertTrue(fromSimulated > 0);
+		assertTrue(normalReads.stream().allMatch(r -> r.getReadName().startsWith("normal.random.")));
+		assertTrue(normalReads.stream().noneMatch(r -> r.getSupplementaryAlignmentFlag()));
+		assertTrue(normalReads.stream().allMatch(r -> "normal".equals(r.getReadGroup().getSample())));
+	}
+}
@@ -0,0 +1,147 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.sam.ChimericAlignment;
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.SequenceUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ReadSimulatorTest extends TestHelper {
+	private static final int READ_LENGTH = 100;
+	private ReadSimulator create(double errorRate, long seed) {
+		SAMFileHeader header = new SAMFileHeader(SMALL_FA.getSequenceDictionary());
+		return new ReadSimulator(header, SMALL_FA, null, READ_LENGTH, 300, 30, errorRate, errorRate, 20, 60, seed);
+	}
+	private List<SAMRecord> simulate(ReadSimulator sim, String contig, byte[] bases, SimulatedGenomeLayout layout, long fragments) {
+		List<SAMRecord> out = new ArrayList<>();
+		sim.simulate("read", bases, layout.getSegments(contig), fragments, out::add);
+		return out;
+	}
+	private static byte[] sequence(SimulatedGenomeLayout layout, String contig) {
+		StringBuilder sb = new StringBuilder();
+		for (SimulatedGenomeLayout.Segment s : layout.getSegments(contig)) {
+			if (s.isNovel()) {
+				for (int i = 0; i < s.length; i++) {
+					sb.append("ACGT".charAt((s.derivedStart + i) % 4));
+				}
+			} else {
+				String seq = new String(SMALL_FA.getSubsequenceAt(s.referenceContig, s.referenceStart, s.getReferenceEnd()).getBases());
+				sb.append(s.negative ? SequenceUtil.reverseComplement(seq) : seq);
+			}
+		}
+		return B(sb.toString());
+	}
+	private static void assertMatchesReference(SAMRecord r) {
+		byte[] ref = SMALL_FA.getSequence(r.getReferenceName()).getBases();
+		for (AlignmentBlock block : r.getAlignmentBlocks()) {
+			for (int i = 0; i < block.getLength(); i++) {
+				assertEquals(ref[block.getReferenceStart() - 1 + i], r.getReadBases()[block.getReadStart() - 1 + i]);
+			}
+		}
+		assertEquals(0, (int)r.getIntegerAttribute(SAMTag.NM.name()));
+	}
+	@Test
+	public void should_align_reference_reads() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("random", "random", 1, 10000, false);
+		List<SAMRecord> reads = simulate(create(0, 0), "random", sequence(layout, "random"), layout, 100);
+		assertEquals(200, reads.size());
+		for (SAMRecord r : reads) {
+			assertFalse(r.getReadUnmappedFlag());
+			assertFalse(r.getSupplementaryAlignmentFlag());
+			assertTrue(r.getProperPairFlag());
+			assertEquals(READ_LENGTH + "M", r.getCigarString());
+			assertEquals(READ_LENGTH + "M", r.getStringAttribute(SAMTag.MC.name()));
+			assertNull(r.getStringAttribute(SAMTag.SA.name()));
+			assertMatchesReference(r);
+		}
+		assertEquals(100, reads.stream().filter(r -> r.getFirstOfPairFlag()).count());
+	}
+	@Test
+	public void should_split_reads_spanning_breakpoints() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived", "random", 1, 1000, false);
+		layout.appendReference("derived", "random", 5001, 1000, false);
+		layout.appendReference("derived", "random", 2001, 1000, true);
+		List<SAMRecord> reads = simulate(create(0, 0), "derived", sequence(layout, "derived"), layout, 1000);
+		List<SAMRecord> split = reads.stream().filter(r -> r.getStringAttribute(SAMTag.SA.name()) != null).collect(Collectors.toList());
+		assertTrue(split.size() > 0);
+		assertTrue(reads.stream().anyMatch(r -> r.getSupplementaryAlignmentFlag()));
+		for (SAMRecord r : reads) {
+			assertFalse(r.getReadUnmappedFlag());
+			assertMatchesReference(r);
+		}
+		for (SAMRecord r : split) {
+			for (ChimericAlignment ca : ChimericAlignment.getChimericAlignments(r)) {
+				assertTrue(reads.stream().anyMatch(x -> x.getReadName().equals(r.getReadName())
+						&& x.getFirstOfPairFlag() == r.getFirstOfPairFlag()
+						&& x.getAlignmentStart() == ca.pos
+						&& x.getCigar().equals(ca.cigar)));
+			}
+		}
+	}
+	@Test
+	public void should_not_map_reads_in_novel_sequence() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived", "random", 1, 1000, false);
+		layout.appendNovel("derived", 2000);
+		layout.appendReference("derived", "random", 1001, 1000, false);
+		List<SAMRecord> reads = simulate(create(0, 0), "derived", sequence(layout, "derived"), layout, 1000);
+		assertTrue(reads.stream().anyMatch(r -> r.getReadUnmappedFlag()));
+		for (SAMRecord r : reads) {
+			if (r.getReadUnmappedFlag()) {
+				assertEquals(READ_LENGTH, r.getReadLength());
+			} else {
+				assertTrue(r.getAlignmentStart() <= 2000);
+				assertMatchesReference(r);
+			}
+		}
+	}
+	@Test
+	public void should_be_deterministic() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived", "random", 1, 1000, false);
+		layout.appendReference("derived", "random", 2001, 1000, true);
+		byte[] bases = sequence(layout, "derived");
+		List<String> a = simulate(create(0.01, 1), "derived", bases, layout, 100).stream().map(r -> r.getSAMString()).collect(Collectors.toList());
+		List<String> b = simulate(create(0.01, 1), "derived", bases, layout, 100).stream().map(r -> r.getSAMString()).collect(Collectors.toList());
+		List<String> c = simulate(create(0.01, 2), "derived", bases, layout, 100).stream().map(r -> r.getSAMString()).collect(Collectors.toList());
+		assertEquals(a, b);
+		assertNotEquals(a, c);
+	}
+	@Test
+	public void should_introduce_sequencing_errors() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("random", "random", 1, 10000, false);
+		List<SAMRecord> reads = simulate(create(0.1, 0), "random", sequence(layout, "random"), layout, 1000);
+		long bases = 0;
+		long errors = 0;
+		for (SAMRecord r : reads) {
+			bases += r.getReadLength();
+			errors += r.getIntegerAttribute(SAMTag.NM.name());
+			for (byte q : r.getBaseQualities()) {
+				assertEquals(10, q);
+			}
+		}
+		assertEquals(0.1, errors / (double)bases, 0.01);
+	}
+	@Test
+	public void should_not_sequence_ambiguous_bases() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("Npower2", "Npower2", 1, 10000, false);
+		List<SAMRecord> reads = simulate(create(0, 0), "Npower2", sequence(layout, "Npower2"), layout, 1000);
+		for (SAMRecord r : reads) {
+			assertFalse(r.getReadString().contains("N"));
+		}
+	}
+	@Test
+	public void fragmentsForCoverage_should_account_for_both_reads() {
+		assertEquals(150, create(0, 0).fragmentsForCoverage(1000, 30));
+	}
+}
@@ -5,8 +5,10 @@ import au.edu.wehi.idsv.IntermediateFilesTest;
 import au.edu.wehi.idsv.vcf.SvType;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import htsjdk.samtools.util.SequenceUtil;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -85,4 +87,34 @@ public class SimpleVariantChromosomeTest extends IntermediateFilesTest {
 		assertEquals(3, vcf.get(0).getStart());
 		assertTrue(vcf.get(0).getFilters().contains("REF"));
 	}
+	@Test
+	public void should_write_layout_matching_variant_sequence() throws IOException {
+		File layoutFile = testFolder.newFile("layout.tsv");
+		SimpleVariantChromosome svc = new SimpleVariantChromosome(getContext(), "random", 20, 0);
+		svc.assemble(input, output, layoutFile, true, Lists.newArrayList(SvType.DEL, SvType.INS, SvType.INV, SvType.DUP), Lists.newArrayList(1, 5, 50), 3);
+		SimulatedGenomeLayout layout = SimulatedGenomeLayout.read(layoutFile);
+		List<String> fa = Files.readLines(input, StandardCharsets.US_ASCII);
+		assertEquals(">variant.random", fa.get(0));
+		assertEquals(">random", fa.get(2));
+		String ref = new String(SMALL_FA.getSequence("random").getBases(), StandardCharsets.US_ASCII);
+		for (int i = 0; i < 2; i++) {
+			String contig = fa.get(2 * i).substring(1);
+			String seq = fa.get(2 * i + 1);
+			assertEquals(seq.length(), layout.getLength(contig));
+			int novelBases = 0;
+			for (SimulatedGenomeLayout.Segment s : layout.getSegments(contig)) {
+				String derived = seq.substring(s.derivedStart - 1, s.getDerivedEnd());
+				if (s.isNovel()) {
+					novelBases += s.length;
+					continue;
+				}
+				String expected = ref.substring(s.referenceStart - 1, s.getReferenceEnd());
+				if (s.negative) {
+					expected = SequenceUtil.reverseComplement(expected);
+				}
+				assertEquals(expected, derived);
+			}
+			assertEquals(i == 0 ? 3 * (1 + 5 + 50) : 0, novelBases);
+		}
+	}
 }
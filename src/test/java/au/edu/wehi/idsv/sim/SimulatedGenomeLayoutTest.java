@@ -0,0 +1,90 @@
+package au.edu.wehi.idsv.sim;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.sim.SimulatedGenomeLayout.Segment;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SimulatedGenomeLayoutTest extends IntermediateFilesTest {
+	@Test
+	public void should_merge_contiguous_segments() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived", "polyA", 1, 10, false);
+		layout.appendReference("derived", "polyA", 11, 5, false);
+		layout.appendNovel("derived", 3);
+		layout.appendNovel("derived", 2);
+		layout.appendReference("derived", "polyA", 20, 5, true);
+		layout.appendReference("derived", "polyA", 10, 10, true);
+		layout.appendReference("derived", "polyA", 10, 10, true);
+		List<Segment> segments = layout.getSegments("derived");
+		assertEquals(4, segments.size());
+		assertEquals(1, segments.get(0).derivedStart);
+		assertEquals(15, segments.get(0).length);
+		assertTrue(segments.get(1).isNovel());
+		assertEquals(16, segments.get(1).derivedStart);
+		assertEquals(5, segments.get(1).length);
+		assertEquals(21, segments.get(2).derivedStart);
+		assertEquals(10, segments.get(2).referenceStart);
+		assertEquals(15, segments.get(2).length);
+		assertTrue(segments.get(2).negative);
+		assertEquals(36, segments.get(3).derivedStart);
+		assertEquals(45, layout.getLength("derived"));
+	}
+	@Test
+	public void should_ignore_empty_segments() {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived", "polyA", 1, 0, false);
+		layout.appendNovel("derived", 0);
+		assertEquals(0, layout.getSegments("derived").size());
+		assertEquals(0, layout.getLength("derived"));
+	}
+	@Test
+	public void should_map_reference_position() {
+		Segment forward = new Segment("derived", 11, 10, "polyA", 101, false);
+		Segment reverse = new Segment("derived", 11, 10, "polyA", 101, true);
+		assertEquals(101, forward.getReferencePosition(11));
+		assertEquals(110, forward.getReferencePosition(20));
+		assertEquals(110, reverse.getReferencePosition(11));
+		assertEquals(101, reverse.getReferencePosition(20));
+	}
+	@Test
+	public void should_return_segment_breakends() {
+		Segment forward = new Segment("derived", 11, 10, "polyACGT", 101, false);
+		Segment reverse = new Segment("derived", 11, 10, "polyACGT", 101, true);
+		assertEquals(1, forward.getStartBreakend(SMALL_FA.getSequenceDictionary()).referenceIndex);
+		assertEquals(BreakendDirection.Backward, forward.getStartBreakend(SMALL_FA.getSequenceDictionary()).direction);
+		assertEquals(101, forward.getStartBreakend(SMALL_FA.getSequenceDictionary()).start);
+		assertEquals(BreakendDirection.Forward, forward.getEndBreakend(SMALL_FA.getSequenceDictionary()).direction);
+		assertEquals(110, forward.getEndBreakend(SMALL_FA.getSequenceDictionary()).start);
+		assertEquals(BreakendDirection.Forward, reverse.getStartBreakend(SMALL_FA.getSequenceDictionary()).direction);
+		assertEquals(110, reverse.getStartBreakend(SMALL_FA.getSequenceDictionary()).start);
+		assertEquals(BreakendDirection.Backward, reverse.getEndBreakend(SMALL_FA.getSequenceDictionary()).direction);
+		assertEquals(101, reverse.getEndBreakend(SMALL_FA.getSequenceDictionary()).start);
+	}
+	@Test
+	public void should_round_trip_layout_file() throws IOException {
+		SimulatedGenomeLayout layout = new SimulatedGenomeLayout();
+		layout.appendReference("derived1", "polyA", 1, 10, false);
+		layout.appendNovel("derived1", 3);
+		layout.appendReference("derived1", "random", 50, 20, true);
+		layout.appendReference("derived2", "random", 1, 100, false);
+		File file = testFolder.newFile("layout.tsv");
+		layout.write(file);
+		SimulatedGenomeLayout loaded = SimulatedGenomeLayout.read(file);
+		assertEquals(layout.getDerivedContigs(), loaded.getDerivedContigs());
+		for (String contig : layout.getDerivedContigs()) {
+			List<Segment> expected = layout.getSegments(contig);
+			List<Segment> actual = loaded.getSegments(contig);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).toString(), actual.get(i).toString());
+			}
+		}
+	}
+}
@@ -7,7 +7,16 @@ import com.google.common.primitives.Ints;
 import htsjdk.samtools.util.CloseableIterator;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.*;
 
@@ -59,29 +68,111 @@ public class AsyncBufferedIteratorTest {
 		assertTrue(it.isClosed); // should have now closed
 		abi.close();
 	}
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 1024 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(1);
+		}
+	}
 	@Test
-	public void should_block_background_thread_when_waiting_to_write() throws InterruptedException {
-		CIT it = new CIT(2);
+	public void should_release_prefetch_thread_when_buffer_full() throws InterruptedException {
+		CIT it = new CIT(3);
 		AsyncBufferedIterator<Integer> abi = new AsyncBufferedIterator<Integer>(it, 1, 1);
-		assertNotNull(getThreadWithName(abi.getBackgroundThreadName()));
+		waitFor(() -> !abi.isReadingAhead());
+		assertFalse(abi.isReadingAhead());
+		assertFalse(it.isClosed);
+		abi.next();
 		abi.next();
 		abi.next(); // eos indicator can now be written to buffer
-		Thread.sleep(50);
-		assertNull(getThreadWithName(abi.getBackgroundThreadName()));
+		waitFor(() -> abi.isUnderlyingClosed());
+		assertTrue(abi.isUnderlyingClosed());
+		assertTrue(it.isClosed);
 		abi.close();
 	}
 	@Test
 	public void should_finish_background_thread_when_end_of_stream_reached() throws InterruptedException {
 		CIT it = new CIT(1);
 		AsyncBufferedIterator<Integer> abi = new AsyncBufferedIterator<Integer>(it, "should_finish_background_thread_when_end_of_stream_reached", 1, 1);
-		// A cleaner approach that relying on waiting on a race condition would be nice
-		for (int i = 0; i < 1024; i++) {
-			if (getThreadWithName(abi.getBackgroundThreadName()) != null) {
-				Thread.sleep(1);
+		waitFor(() -> abi.isUnderlyingClosed());
+		assertTrue(abi.isUnderlyingClosed());
+		assertFalse(abi.isReadingAhead());
+		abi.close();
+	}
+	@Test
+	public void should_not_require_a_thread_per_iterator() {
+		List<AsyncBufferedIterator<Integer>> list = new ArrayList<>();
+		int threads = Thread.activeCount();
+		for (int i = 0; i < 256; i++) {
+			list.add(new AsyncBufferedIterator<Integer>(new CIT(100), 2, 3));
+		}
+		assertTrue(Thread.activeCount() - threads <= gridss.Defaults.ASYNC_THREADS);
+		for (AsyncBufferedIterator<Integer> abi : list) {
+			assertEquals(100, Iterators.size(abi));
+			abi.close();
+		}
+	}
+	@Test
+	public void should_preserve_order() {
+		List<Integer> list = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+		AsyncBufferedIterator<Integer> abi = new AsyncBufferedIterator<Integer>(list.iterator(), 3, 7);
+		assertEquals(list, Lists.newArrayList(abi));
+		abi.close();
+	}
+	@Test
+	public void should_not_deadlock_when_nested_iterators_exceed_pool_size() {
+		Executor original = AsyncBufferedIterator.getPrefetchThreadpool();
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			AsyncBufferedIterator.setPrefetchThreadpool(single);
+			Iterator<Integer> it = new CIT(1000);
+			for (int depth = 0; depth < 8; depth++) {
+				it = new AsyncBufferedIterator<Integer>(it, 1, 3);
 			}
+			assertEquals(1000, Iterators.size(it));
+			((AsyncBufferedIterator<Integer>)it).close();
+		} finally {
+			AsyncBufferedIterator.setPrefetchThreadpool(original);
+			single.shutdown();
 		}
-		assertNull(getThreadWithName(abi.getBackgroundThreadName()));
+	}
+	@Test
+	public void should_propagate_underlying_exception_to_consumer() {
+		Iterator<Integer> it = new AbstractIterator<Integer>() {
+			int count = 0;
+			@Override
+			protected Integer computeNext() {
+				if (count++ == 10) throw new IllegalStateException("test");
+				return count;
+			}
+		};
+		AsyncBufferedIterator<Integer> abi = new AsyncBufferedIterator<Integer>(it, 1, 4);
+		try {
+			Iterators.size(abi);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("test", e.getMessage());
+		}
+		abi.close();
+	}
+	@Test
+	public void close_should_stop_blocking_read_ahead() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		Iterator<Integer> blocking = new AbstractIterator<Integer>() {
+			@Override
+			protected Integer computeNext() {
+				started.countDown();
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return 1;
+			}
+		};
+		AsyncBufferedIterator<Integer> abi = new AsyncBufferedIterator<Integer>(blocking, 1, 1);
+		started.await();
 		abi.close();
+		assertTrue(abi.isUnderlyingClosed());
+		assertFalse(abi.hasNext());
 	}
 	public static Thread getThreadWithName(String name) {
 		Thread[] allthreads = new Thread[4096];
@@ -38,10 +38,9 @@ public class AutoClosingMergedIteratorTest extends TestHelper {
 				abi), new SAMRecordCoordinateComparator());
 		merged.next();
 		Thread.sleep(50);
-		assertNotNull(AsyncBufferedIteratorTest.getThreadWithName(abi.getBackgroundThreadName()));
+		assertFalse(abi.isUnderlyingClosed());
 		merged.close();
-		Thread.sleep(50);
-		assertNull(AsyncBufferedIteratorTest.getThreadWithName(abi.getBackgroundThreadName()));
+		assertTrue(abi.isUnderlyingClosed());
 	}
 	@Test
 	public void close_should_close_all() {
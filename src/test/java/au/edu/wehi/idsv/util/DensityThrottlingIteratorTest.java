@@ -1,13 +1,15 @@
 package au.edu.wehi.idsv.util;
 
 import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 
 public class DensityThrottlingIteratorTest {
@@ -15,6 +17,9 @@ public class DensityThrottlingIteratorTest {
 		public IntDensityThrottlingIterator(Iterator<Integer> it, int windowSize, double acceptDensity, double targetDensity) {
 			super(it, windowSize, acceptDensity, targetDensity);
 		}
+		public IntDensityThrottlingIterator(Iterator<Integer> it, int windowSize, double acceptDensity, double targetDensity, int windowBins, int reorderBufferSize, long seed) {
+			super(it, windowSize, acceptDensity, targetDensity, windowBins, reorderBufferSize, seed);
+		}
 		@Override
 		protected long getPosition(Integer record) {
 			return record;
@@ -45,4 +50,165 @@ public class DensityThrottlingIteratorTest {
 		List<Integer> result = Lists.newArrayList(new IntDensityThrottlingIterator(input.iterator(), 4, 2.0, 4.0));
 		assertEquals(2048, result.size(), 64);
 	}
+	/**
+	 * Records are encoded as position * 1000 + score
+	 */
+	public class ScoredDensityThrottlingIterator extends DensityThrottlingIterator<Integer> {
+		public ScoredDensityThrottlingIterator(Iterator<Integer> it, int windowSize, double acceptDensity, double targetDensity, int windowBins, int reorderBufferSize, long seed) {
+			super(it, windowSize, acceptDensity, targetDensity, windowBins, reorderBufferSize, seed);
+		}
+		@Override
+		protected long getPosition(Integer record) {
+			return record / 1000;
+		}
+		@Override
+		protected boolean excludedFromThrottling(Integer record) {
+			return record < 0;
+		}
+		@Override
+		protected double getScore(Integer record) {
+			return record % 1000;
+		}
+	}
+	/**
+	 * Amplicon-like input: 2000 records at each of a few positions, 10% of which are high scoring
+	 */
+	private static List<Integer> amplicon() {
+		List<Integer> input = new ArrayList<Integer>();
+		Random rng = new Random(1);
+		for (int pos = 100; pos < 110; pos++) {
+			for (int j = 0; j < 2000; j++) {
+				input.add(pos * 1000 + (rng.nextInt(10) == 0 ? 60 : rng.nextInt(10)));
+			}
+		}
+		return input;
+	}
+	@Test
+	public void should_be_deterministic_for_seed() {
+		List<Integer> input = amplicon();
+		assertEquals(
+				Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 64, 7)),
+				Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 64, 7)));
+		assertNotEquals(
+				Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 1, 7)),
+				Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 1, 8)));
+	}
+	@Test
+	public void should_retain_same_number_of_records_regardless_of_reorder_buffer_size() {
+		List<Integer> input = amplicon();
+		int expected = Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 1, 0)).size();
+		for (int reorderBufferSize : new int[] { 2, 16, 64, 4096 }) {
+			assertEquals(expected, Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, reorderBufferSize, 0)).size());
+		}
+	}
+	@Test
+	public void should_prioritise_high_scoring_records() {
+		List<Integer> input = amplicon();
+		List<Integer> uniform = Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 0.1, 1, 16, 1, 0));
+		List<Integer> prioritised = Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 100, 0.1, 1, 16, 64, 0));
+		long uniformHighScoring = uniform.stream().filter(x -> x % 1000 == 60).count();
+		long prioritisedHighScoring = prioritised.stream().filter(x -> x % 1000 == 60).count();
+		assertTrue(prioritisedHighScoring > 2 * uniformHighScoring);
+		// output remains sorted
+		for (int i = 1; i < prioritised.size(); i++) {
+			assertTrue(prioritised.get(i - 1) / 1000 <= prioritised.get(i) / 1000);
+		}
+	}
+	@Test
+	public void should_pass_through_excluded_records_in_order() {
+		List<Integer> input = new ArrayList<Integer>();
+		for (int i = 1; i <= 1000; i++) {
+			for (int j = 0; j < 10; j++) {
+				input.add(i * 1000 + j);
+			}
+			input.add(-i);
+		}
+		List<Integer> result = Lists.newArrayList(new ScoredDensityThrottlingIterator(input.iterator(), 4, 0.5, 0.5, 4, 8, 0));
+		assertTrue(result.size() < input.size() / 2);
+		assertEquals(1000, result.stream().filter(x -> x < 0).count());
+		// result is a subsequence of the input
+		int offset = 0;
+		for (int x : result) {
+			while (input.get(offset) != x) {
+				offset++;
+			}
+		}
+	}
+	@Test
+	public void should_use_fixed_size_window_tracking() {
+		List<Integer> input = amplicon();
+		ScoredDensityThrottlingIterator it = new ScoredDensityThrottlingIterator(input.iterator(), 100, 1, 1, 16, 64, 0);
+		while (it.hasNext()) {
+			it.next();
+			assertTrue(it.currentTrackedBufferSizes().get(2).size <= 64);
+		}
+	}
+	/**
+	 * Reference implementation tracking every position in the window
+	 */
+	private static class BaselineDensityThrottle {
+		private final LongArrayFIFOQueue inWindow = new LongArrayFIFOQueue();
+		private final LongArrayFIFOQueue emittedInWindow = new LongArrayFIFOQueue();
+		private final Random random = new Random(0);
+		private final double windowSize;
+		private final double acceptDensity;
+		private final double maxDensity;
+		public BaselineDensityThrottle(int windowSize, double acceptDensity, double maxDensity) {
+			this.windowSize = windowSize;
+			this.acceptDensity = acceptDensity;
+			this.maxDensity = maxDensity;
+		}
+		public boolean isFiltered(long position) {
+			while (!inWindow.isEmpty() && inWindow.firstLong() <= position - windowSize) {
+				inWindow.dequeueLong();
+			}
+			while (!emittedInWindow.isEmpty() && emittedInWindow.firstLong() <= position - windowSize) {
+				emittedInWindow.dequeueLong();
+			}
+			inWindow.enqueue(position);
+			if (isBelowUnconditionalAcceptanceThreshold()) {
+				emittedInWindow.enqueue(position);
+				return false;
+			}
+			double x = ((inWindow.size() / windowSize) - acceptDensity) / maxDensity;
+			if (Math.exp(-x) >= random.nextDouble()) {
+				emittedInWindow.enqueue(position);
+				emittedInWindow.enqueue(position);
+				return false;
+			}
+			return true;
+		}
+		public boolean isBelowUnconditionalAcceptanceThreshold() {
+			return emittedInWindow.size() / windowSize < acceptDensity;
+		}
+		public double currentDensity() {
+			return inWindow.size() / windowSize;
+		}
+	}
+	@Test
+	public void default_window_tracking_should_match_exact_window_density() {
+		Random rng = new Random(1);
+		List<Integer> input = new ArrayList<Integer>();
+		int position = 0;
+		for (int i = 0; i < 100000; i++) {
+			// bursts of high density separated by sparse regions
+			position += (i / 1000) % 2 == 0 ? rng.nextInt(2) : rng.nextInt(200);
+			input.add(position);
+		}
+		int windowSize = 1000;
+		BaselineDensityThrottle baseline = new BaselineDensityThrottle(windowSize, 0.1, 1);
+		IntDensityThrottlingIterator it = new IntDensityThrottlingIterator(input.iterator(), windowSize, 0.1, 1);
+		int filtered = 0;
+		for (int x : input) {
+			if (baseline.isFiltered(x)) {
+				filtered++;
+				continue;
+			}
+			assertEquals(x, (int)it.next());
+			assertEquals(baseline.isBelowUnconditionalAcceptanceThreshold(), it.isBelowUnconditionalAcceptanceThreshold());
+			assertEquals(baseline.currentDensity(), it.currentDensity(), 0);
+		}
+		assertFalse(it.hasNext());
+		assertTrue(filtered > 0);
+	}
 }
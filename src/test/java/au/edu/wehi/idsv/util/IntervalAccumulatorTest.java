@@ -3,6 +3,9 @@ package au.edu.wehi.idsv.util;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.stream.IntStream;
 
 public class IntervalAccumulatorTest {
@@ -59,4 +62,52 @@ public class IntervalAccumulatorTest {
 		Assert.assertArrayEquals(new int[] { 1, 2, 4}, ia.getBinStarts().toIntArray());
 		Assert.assertArrayEquals(new int[] { 1, 2, 2}, IntStream.of(ia.getBinStarts().toIntArray()).map(i -> ia.getBinSize(i)).toArray());
 	}
-}
+	@Test
+	public void should_match_per_bin_accumulation() {
+		Random rng = new Random(0);
+		int length = 10000;
+		IntervalAccumulator ia = new IntervalAccumulator(1, length, 37);
+		List<Integer> splits = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			int split = 1 + rng.nextInt(length);
+			ia.splitBin(split);
+			splits.add(split);
+		}
+		ia.finaliseBins();
+		int[] binStarts = ia.getBinStarts().toIntArray();
+		double[] expected = new double[binStarts.length];
+		for (int i = 0; i < 2000; i++) {
+			int start = rng.nextInt(length) - 50;
+			int end = start + rng.nextInt(1000);
+			// integral values first, then a mixture
+			double value = i < 1000 || rng.nextBoolean() ? rng.nextInt(3) : rng.nextDouble();
+			ia.add(start, end, value);
+			for (int j = 0; j < binStarts.length; j++) {
+				int binEnd = binStarts[j] + ia.getBinSize(binStarts[j]) - 1;
+				int overlap = IntervalUtil.overlapsWidthClosed(Math.max(1, start), Math.min(length, end), binStarts[j], binEnd);
+				if (overlap > 0) {
+					expected[j] += overlap * value;
+				}
+			}
+		}
+		for (int j = 0; j < binStarts.length; j++) {
+			Assert.assertEquals(binStarts[j], ia.getBinStart(j));
+			// summation order must be preserved for output to be unchanged
+			Assert.assertEquals(expected[j] / ia.getBinSize(binStarts[j]), ia.getMeanValue(binStarts[j]), 0);
+		}
+	}
+	@Test
+	public void should_add_integral_values_across_many_bins() {
+		IntervalAccumulator ia = new IntervalAccumulator(1, 100, 10);
+		ia.finaliseBins();
+		ia.add(5, 95, 2);
+		ia.add(-10, 200, 1);
+		Assert.assertEquals(2.2, ia.getMeanValue(1), 0);
+		for (int i = 11; i <= 81; i += 10) {
+			Assert.assertEquals(3, ia.getMeanValue(i), 0);
+		}
+		Assert.assertEquals(2, ia.getMeanValue(91), 0);
+		ia.add(50, 50, 10);
+		Assert.assertEquals(4, ia.getMeanValue(41), 0);
+	}
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv.util;
 
 import au.edu.wehi.idsv.util.AsyncBufferedIteratorTest.CIT;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import org.junit.Test;
@@ -9,8 +10,11 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 
 public class ParallelTransformIteratorTest {
@@ -54,4 +58,53 @@ public class ParallelTransformIteratorTest {
 		for (int i = 32; i > 0; i--) assertEquals(i, (int)it.next());
 		threadpool.shutdown();
 	}
+	@Test
+	public void should_retain_iteration_order_when_batched() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		for (int batchSize = 1; batchSize < 8; batchSize++) {
+			for (int lookahead = batchSize; lookahead < 20; lookahead += 3) {
+				List<Integer> list = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+				ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(list.iterator(), n -> n * 2, lookahead, threadpool, batchSize);
+				assertEquals(list.stream().map(n -> n * 2).collect(Collectors.toList()), Lists.newArrayList(it));
+			}
+		}
+		threadpool.shutdown();
+	}
+	@Test
+	public void should_only_dispatch_full_batches_within_lookahead() {
+		CIT cit = new CIT(16);
+		ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(cit, n -> n, 8, Runnable::run, 4);
+		it.next();
+		assertEquals(16 - 8, cit.recordsleft);
+		it.next();
+		it.next();
+		assertEquals(16 - 8, cit.recordsleft);
+		it.next(); // first batch fully consumed
+		assertEquals(16 - 12, cit.recordsleft);
+	}
+	@Test
+	public void should_return_partial_final_batch() {
+		CIT cit = new CIT(10);
+		ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(cit, n -> n, 8, Runnable::run, 4);
+		assertEquals(10, Iterators.size(it));
+	}
+	@Test
+	public void should_rethrow_transform_exception_in_iteration_order() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		List<Integer> list = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+		ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(list.iterator(), n -> {
+			if (n == 50) throw new IllegalStateException("test");
+			return n;
+		}, 16, threadpool, 5);
+		for (int i = 0; i < 50; i++) {
+			assertEquals(i, (int)it.next());
+		}
+		try {
+			it.next();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("test", e.getMessage());
+		}
+		threadpool.shutdown();
+	}
 }
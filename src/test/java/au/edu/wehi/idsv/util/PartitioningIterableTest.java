@@ -0,0 +1,67 @@
+package au.edu.wehi.idsv.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class PartitioningIterableTest {
+	@Test
+	public void should_return_underlying_iterator() {
+		List<Integer> list = ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7);
+		assertEquals(list, Lists.newArrayList(new PartitioningIterable<Integer>(1, list.iterator(), x -> 1, 3, 1).iterator()));
+	}
+	@Test
+	public void should_route_to_partitions_in_order() {
+		List<Integer> list = ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+		// bit 0: even, bit 1: multiples of 3, bit 2: none
+		PartitioningIterable<Integer> pi = new PartitioningIterable<Integer>(3, list.iterator(), x -> (x % 2 == 0 ? 1 : 0) | (x % 3 == 0 ? 2 : 0), 2, 8);
+		Iterator<Integer> even = pi.iterator();
+		Iterator<Integer> three = pi.iterator();
+		Iterator<Integer> none = pi.iterator();
+		assertEquals(ImmutableList.of(0, 3, 6, 9), Lists.newArrayList(three));
+		assertEquals(ImmutableList.of(0, 2, 4, 6, 8), Lists.newArrayList(even));
+		assertFalse(none.hasNext());
+	}
+	@Test
+	public void should_allow_consumer_to_run_ahead_of_other_partitions() {
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) list.add(i);
+		PartitioningIterable<Integer> pi = new PartitioningIterable<Integer>(2, list.iterator(), x -> x < 90 ? 1 : 2, 1, 1);
+		Iterator<Integer> it1 = pi.iterator();
+		Iterator<Integer> it2 = pi.iterator();
+		// partition 1 can be fully consumed before partition 2 is touched
+		for (int i = 0; i < 90; i++) {
+			assertEquals(i, (int)it1.next());
+		}
+		assertEquals(90, (int)it2.next());
+	}
+	@Test(expected=IllegalStateException.class)
+	public void should_not_create_more_iterators_than_partitions() {
+		PartitioningIterable<Integer> pi = new PartitioningIterable<Integer>(1, ImmutableList.of(1).iterator(), x -> 1, 1, 1);
+		pi.iterator();
+		pi.iterator();
+	}
+	@Test(expected=RuntimeException.class)
+	public void should_rethrow_underlying_iterator_error() {
+		PartitioningIterable<Integer> pi = new PartitioningIterable<Integer>(1, new ErrorIterator<Integer>(), x -> 1, 1, 1);
+		Lists.newArrayList(pi.iterator());
+	}
+	@Test
+	public void close_should_end_stream() {
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) list.add(i);
+		PartitioningIterable<Integer> pi = new PartitioningIterable<Integer>(2, list.iterator(), x -> 3, 1, 1);
+		Iterator<Integer> it1 = pi.iterator();
+		it1.next();
+		pi.close();
+		// stream ends early without blocking
+		Lists.newArrayList(it1);
+	}
+}
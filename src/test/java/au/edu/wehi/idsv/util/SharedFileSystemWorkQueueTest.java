@@ -0,0 +1,291 @@
+package au.edu.wehi.idsv.util;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SharedFileSystemWorkQueueTest extends IntermediateFilesTest {
+	private static final long HEARTBEAT_MS = 100;
+	private static final long STALE_MS = 2000;
+	private static List<File> chunkOutputs(File dir, int chunks) {
+		List<File> outputs = new ArrayList<>();
+		for (int i = 0; i < chunks; i++) {
+			outputs.add(new File(dir, "chunk" + i + ".txt"));
+		}
+		return outputs;
+	}
+	/**
+	 * Writes the chunk output and a marker recording which node processed the chunk
+	 * @param chunk chunk output
+	 * @param output file to write to
+	 */
+	private static void processChunk(File chunk, File output, String nodeId) throws IOException, InterruptedException {
+		Thread.sleep(10);
+		Files.write(new File(chunk.getPath() + ".processedby." + nodeId).toPath(), new byte[0]);
+		File tmp = new File(output.getParentFile(), "gridss.tmp." + nodeId + "." + output.getName());
+		Files.write(tmp.toPath(), nodeId.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+	private static int processedCount(File output) {
+		File[] markers = output.getParentFile().listFiles((d, name) -> name.startsWith(output.getName() + ".processedby."));
+		return markers.length;
+	}
+	/**
+	 * Worker process entry point: dir chunks nodeId [crash]
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args[0]);
+		List<File> outputs = chunkOutputs(dir, Integer.parseInt(args[1]));
+		String nodeId = args[2];
+		boolean crash = args.length > 3;
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue(nodeId, HEARTBEAT_MS, STALE_MS)) {
+			queue.execute(outputs, (i, out) -> {
+				if (crash) {
+					// simulate node failure whilst holding a claim
+					Runtime.getRuntime().halt(1);
+				}
+				processChunk(outputs.get(i), out, nodeId);
+			}, MoreExecutors.newDirectExecutorService(), 1);
+		}
+	}
+	private Process startNode(File dir, int chunks, String nodeId, boolean crash) throws IOException {
+		List<String> cmd = new ArrayList<>();
+		cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		cmd.add("-Xmx64m");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(SharedFileSystemWorkQueueTest.class.getName());
+		cmd.add(dir.getPath());
+		cmd.add(Integer.toString(chunks));
+		cmd.add(nodeId);
+		if (crash) cmd.add("crash");
+		return new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(new File(dir, nodeId + ".log")).start();
+	}
+	@Test
+	public void should_process_all_chunks() throws IOException {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 10);
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			queue.execute(outputs, (i, out) -> processChunk(outputs.get(i), out, "node"), MoreExecutors.newDirectExecutorService(), 1);
+		}
+		for (File f : outputs) {
+			assertTrue(f.exists());
+			assertFalse(SharedFileSystemWorkQueue.getClaimFile(f).exists());
+			assertTrue(SharedFileSystemWorkQueue.getTimingFile(f).exists());
+		}
+	}
+	@Test
+	public void should_skip_completed_chunks() throws IOException {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 3);
+		Files.write(outputs.get(1).toPath(), new byte[0]);
+		AtomicInteger count = new AtomicInteger();
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			queue.execute(outputs, (i, out) -> { count.incrementAndGet(); processChunk(outputs.get(i), out, "node"); }, MoreExecutors.newDirectExecutorService(), 1);
+		}
+		assertEquals(2, count.get());
+		assertEquals(0, processedCount(outputs.get(1)));
+	}
+	@Test
+	public void should_process_each_chunk_once_across_nodes() throws Exception {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 40);
+		ExecutorService threadpool = Executors.newFixedThreadPool(8);
+		List<SharedFileSystemWorkQueue> nodes = new ArrayList<>();
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int n = 0; n < 4; n++) {
+				SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node" + n, HEARTBEAT_MS, STALE_MS);
+				nodes.add(queue);
+				ExecutorService nodePool = Executors.newFixedThreadPool(2);
+				futures.add(threadpool.submit(() -> {
+					try {
+						queue.execute(outputs, (i, out) -> processChunk(outputs.get(i), out, queue.getNodeId()), nodePool, 2);
+					} finally {
+						nodePool.shutdown();
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			nodes.forEach(SharedFileSystemWorkQueue::close);
+			threadpool.shutdown();
+		}
+		for (File f : outputs) {
+			assertTrue(f.exists());
+			assertEquals(1, processedCount(f));
+		}
+		File timings = new File(dir, "timings.tsv");
+		SharedFileSystemWorkQueue.gatherTimings(outputs, timings, true);
+		List<String> lines = Files.readAllLines(timings.toPath());
+		assertEquals(SharedFileSystemWorkQueue.TIMING_HEADER, lines.get(0));
+		assertEquals(outputs.size() + 1, lines.size());
+		assertFalse(SharedFileSystemWorkQueue.getTimingFile(outputs.get(0)).exists());
+	}
+	@Test
+	public void should_wait_for_live_claim() throws Exception {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 1);
+		ExecutorService threadpool = Executors.newSingleThreadExecutor();
+		try (SharedFileSystemWorkQueue holder = new SharedFileSystemWorkQueue("holder", HEARTBEAT_MS, STALE_MS);
+				SharedFileSystemWorkQueue waiter = new SharedFileSystemWorkQueue("waiter", HEARTBEAT_MS, STALE_MS)) {
+			// claim held for longer than the stale timeout but kept alive by the heartbeat
+			Future<?> f = threadpool.submit(() -> {
+				holder.execute(outputs, (i, out) -> { Thread.sleep(2 * STALE_MS); processChunk(outputs.get(i), out, "holder"); }, MoreExecutors.newDirectExecutorService(), 1);
+				return null;
+			});
+			while (!SharedFileSystemWorkQueue.getClaimFile(outputs.get(0)).exists()) {
+				Thread.sleep(10);
+			}
+			waiter.execute(outputs, (i, out) -> processChunk(outputs.get(i), out, "waiter"), MoreExecutors.newDirectExecutorService(), 1);
+			assertTrue(outputs.get(0).exists());
+			f.get();
+		} finally {
+			threadpool.shutdown();
+		}
+		assertEquals(1, processedCount(outputs.get(0)));
+		assertEquals("holder", new String(Files.readAllBytes(outputs.get(0).toPath()), StandardCharsets.UTF_8));
+	}
+	@Test
+	public void should_not_reprocess_chunks_deleted_after_completion() throws Exception {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 2);
+		File merged = new File(dir, "merged.txt");
+		ExecutorService threadpool = Executors.newSingleThreadExecutor();
+		try (SharedFileSystemWorkQueue holder = new SharedFileSystemWorkQueue("holder", HEARTBEAT_MS, STALE_MS);
+				SharedFileSystemWorkQueue waiter = new SharedFileSystemWorkQueue("waiter", HEARTBEAT_MS, STALE_MS)) {
+			Future<?> f = threadpool.submit(() -> {
+				holder.execute(outputs, merged, (i, out) -> { Thread.sleep(STALE_MS / 4); processChunk(outputs.get(i), out, "holder"); }, MoreExecutors.newDirectExecutorService(), 1);
+				// merge then delete the chunks whilst the waiter is still polling
+				holder.runOnce(merged, () -> { processChunk(merged, merged, "holder"); return null; });
+				for (File output : outputs) {
+					Files.delete(output.toPath());
+				}
+				return null;
+			});
+			while (!SharedFileSystemWorkQueue.getClaimFile(outputs.get(0)).exists()) {
+				Thread.sleep(10);
+			}
+			waiter.execute(outputs, merged, (i, out) -> processChunk(outputs.get(i), out, "waiter"), MoreExecutors.newDirectExecutorService(), 1);
+			f.get();
+			// later jobs also treat the deleted chunks as complete
+			waiter.execute(outputs, merged, (i, out) -> processChunk(outputs.get(i), out, "waiter"), MoreExecutors.newDirectExecutorService(), 1);
+		} finally {
+			threadpool.shutdown();
+		}
+		for (File f : outputs) {
+			assertFalse(f.exists());
+			assertEquals(1, processedCount(f));
+		}
+	}
+	@Test
+	public void should_write_timing_before_chunk_output() throws Exception {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 20);
+		AtomicBoolean done = new AtomicBoolean(false);
+		ExecutorService threadpool = Executors.newSingleThreadExecutor();
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			Future<Integer> observer = threadpool.submit(() -> {
+				int missing = 0;
+				while (!done.get()) {
+					for (File f : outputs) {
+						if (f.exists() && !SharedFileSystemWorkQueue.getTimingFile(f).exists()) {
+							missing++;
+						}
+					}
+				}
+				return missing;
+			});
+			queue.execute(outputs, (i, out) -> {
+				assertNotEquals(outputs.get(i), out);
+				processChunk(outputs.get(i), out, "node");
+			}, MoreExecutors.newDirectExecutorService(), 1);
+			done.set(true);
+			assertEquals(0, (int)observer.get());
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+	@Test
+	public void should_reclaim_abandoned_chunk() throws IOException {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 2);
+		File claim = SharedFileSystemWorkQueue.getClaimFile(outputs.get(0));
+		Files.write(claim.toPath(), "crashed\n".getBytes(StandardCharsets.UTF_8));
+		claim.setLastModified(System.currentTimeMillis() - 2 * STALE_MS);
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			queue.execute(outputs, (i, out) -> processChunk(outputs.get(i), out, "node"), MoreExecutors.newDirectExecutorService(), 1);
+		}
+		assertTrue(outputs.get(0).exists());
+		assertFalse(claim.exists());
+	}
+	@Test
+	public void should_report_failed_chunks_after_processing_remaining_chunks() throws IOException {
+		File dir = testFolder.newFolder();
+		List<File> outputs = chunkOutputs(dir, 3);
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			queue.execute(outputs, (i, out) -> {
+				if (i == 0) throw new IllegalStateException("test");
+				processChunk(outputs.get(i), out, "node");
+			}, MoreExecutors.newDirectExecutorService(), 1);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertFalse(outputs.get(0).exists());
+		assertFalse(SharedFileSystemWorkQueue.getClaimFile(outputs.get(0)).exists());
+		assertTrue(outputs.get(1).exists());
+		assertTrue(outputs.get(2).exists());
+	}
+	@Test
+	public void should_only_run_exclusive_task_once() throws Exception {
+		File dir = testFolder.newFolder();
+		File output = new File(dir, "merged.txt");
+		try (SharedFileSystemWorkQueue queue = new SharedFileSystemWorkQueue("node", HEARTBEAT_MS, STALE_MS)) {
+			assertTrue(queue.runExclusive(output, () -> { processChunk(output, output, "node"); return null; }));
+			assertTrue(queue.runExclusive(output, () -> { fail(); return null; }));
+		}
+	}
+	@Test
+	public void should_recover_from_crashed_process() throws Exception {
+		File dir = testFolder.newFolder();
+		int chunks = 30;
+		List<File> outputs = chunkOutputs(dir, chunks);
+		// crashed node leaves its claim on the first chunk behind
+		Process crashed = startNode(dir, chunks, "crashed", true);
+		assertTrue(crashed.waitFor(60, TimeUnit.SECONDS));
+		assertNotEquals(0, crashed.exitValue());
+		assertTrue(SharedFileSystemWorkQueue.getClaimFile(outputs.get(0)).exists());
+		List<Process> nodes = new ArrayList<>();
+		for (int n = 0; n < 3; n++) {
+			nodes.add(startNode(dir, chunks, "node" + n, false));
+		}
+		for (Process p : nodes) {
+			assertTrue(p.waitFor(120, TimeUnit.SECONDS));
+			assertEquals(0, p.exitValue());
+		}
+		for (File f : outputs) {
+			assertTrue(f.exists());
+			assertEquals(1, processedCount(f));
+			assertFalse(SharedFileSystemWorkQueue.getClaimFile(f).exists());
+		}
+	}
+}
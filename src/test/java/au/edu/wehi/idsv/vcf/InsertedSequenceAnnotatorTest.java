@@ -1,14 +1,133 @@
 package au.edu.wehi.idsv.vcf;
 
 import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.variant.variantcontext.VariantContext;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 
 public class InsertedSequenceAnnotatorTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    /**
+     * Aligns each read to a unique position. Alignments are only returned after a flush.
+     */
+    private static class StubAligner implements StreamingAligner {
+        private final List<String> sequences = new ArrayList<>();
+        private final Queue<FastqRecord> input = new ArrayDeque<>();
+        private final Queue<SAMRecord> output = new ArrayDeque<>();
+        @Override
+        public synchronized void asyncAlign(FastqRecord fq) {
+            sequences.add(fq.getReadString());
+            input.add(fq);
+        }
+        @Override
+        public synchronized void flush() {
+            while (!input.isEmpty()) {
+                FastqRecord fq = input.poll();
+                SAMRecord r = new SAMRecord(null);
+                r.setReadName(fq.getReadName());
+                r.setReferenceName("polyA");
+                r.setAlignmentStart(sequences.indexOf(fq.getReadString()) + 1);
+                r.setCigarString(fq.getReadLength() + "M");
+                r.setMappingQuality(60);
+                output.add(r);
+            }
+        }
+        @Override
+        public synchronized int processedAlignmentRecords() {
+            return output.size();
+        }
+        @Override
+        public synchronized int outstandingAlignmentRecord() {
+            return input.size();
+        }
+        @Override
+        public synchronized SAMRecord getAlignment() {
+            return output.poll();
+        }
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    private File createVcf() throws IOException {
+        File vcf = testFolder.newFile("input.vcf");
+        String x = "ACGTACGTACGTACGTACGT";
+        String y = "TTTTGGGGCCCCAAAATTTT";
+        Files.write(vcf.toPath(), ImmutableList.of(
+                "##fileformat=VCFv4.2",
+                "##INFO=<ID=BEALN,Number=.,Type=String,Description=\"\">",
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+                "polyA\t1\tr1\tA\tA" + x + ".\t.\t.\t.",
+                "polyA\t2\tr2\tA\t." + y + "A\t.\t.\t.",
+                "polyA\t3\tr3\tA\tA" + x + "[polyA:100[\t.\t.\t.",
+                "polyA\t4\tr4\tA\tAAC.\t.\t.\t.",
+                "polyA\t5\tr5\tA\tA" + x + ".\t.\t.\tBEALN=existing:1|+|1M|"
+        ));
+        return vcf;
+    }
+
+    private void assertAnnotated(List<VariantContext> result) {
+        Assert.assertEquals(5, result.size());
+        Assert.assertEquals(ImmutableList.of("polyA:1|+|20M|60"), result.get(0).getAttributeAsStringList("BEALN", null));
+        Assert.assertEquals(ImmutableList.of("polyA:2|+|20M|60"), result.get(1).getAttributeAsStringList("BEALN", null));
+        Assert.assertEquals(ImmutableList.of("polyA:1|+|20M|60"), result.get(2).getAttributeAsStringList("BEALN", null));
+        Assert.assertFalse(result.get(3).hasAttribute("BEALN"));
+        Assert.assertEquals(ImmutableList.of("existing:1|+|1M|", "polyA:1|+|20M|60"), result.get(4).getAttributeAsStringList("BEALN", null));
+    }
+
+    @Test
+    public void should_align_identical_sequences_once() throws IOException {
+        StubAligner aligner = new StubAligner();
+        try (InsertedSequenceAnnotator isa = new InsertedSequenceAnnotator(createVcf(), aligner, 10, false, false)) {
+            assertAnnotated(Lists.newArrayList(isa));
+            Assert.assertEquals(2, aligner.sequences.size());
+        }
+    }
+
+    @Test
+    public void should_flush_aligner_when_too_many_records_in_flight() throws IOException {
+        StubAligner aligner = new StubAligner();
+        try (InsertedSequenceAnnotator isa = new InsertedSequenceAnnotator(createVcf(), aligner, 10, false, false, 1)) {
+            assertAnnotated(Lists.newArrayList(isa));
+        }
+    }
+
+    @Test
+    public void should_strip_existing_annotations() throws IOException {
+        StubAligner aligner = new StubAligner();
+        try (InsertedSequenceAnnotator isa = new InsertedSequenceAnnotator(createVcf(), aligner, 10, true, false)) {
+            List<VariantContext> result = Lists.newArrayList(isa);
+            Assert.assertEquals(ImmutableList.of("polyA:1|+|20M|60"), result.get(4).getAttributeAsStringList("BEALN", null));
+        }
+    }
+
+    @Test
+    public void should_skip_existing_annotations() throws IOException {
+        StubAligner aligner = new StubAligner();
+        try (InsertedSequenceAnnotator isa = new InsertedSequenceAnnotator(createVcf(), aligner, 10, false, true)) {
+            List<VariantContext> result = Lists.newArrayList(isa);
+            Assert.assertEquals(ImmutableList.of("existing:1|+|1M|"), result.get(4).getAttributeAsStringList("BEALN", null));
+        }
+    }
+
     @Test
     public void should_replace_pipes_with_underscores() {
         SAMRecord r = new SAMRecord(null);
@@ -22,4 +141,4 @@ public class InsertedSequenceAnnotatorTest extends TestHelper {
         Assert.assertEquals("with_pipe:1|+|50M|5", result.get(0));
         Assert.assertEquals("chr_piped:5|-|50M|", result.get(1));
     }
-}
\ No newline at end of file
+}
@@ -4,14 +4,26 @@ import au.edu.wehi.idsv.*;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class AnnotateInexactHomologyTest extends TestHelper {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
 	@Test
 	public void should_calculate_inexact_homology() {
 		ProcessingContext pc = getContext();
@@ -29,4 +41,35 @@ public class AnnotateInexactHomologyTest extends TestHelper {
 		assertEquals(300, ((int[])e.getAttribute(VcfInfoAttributes.INEXACT_HOMPOS.attribute()))[1]);
 		threadpool.shutdown();
 	}
+	@Test
+	public void should_pass_through_non_breakend_records_in_input_order() throws IOException, InterruptedException, ExecutionException {
+		File input = new File(testFolder.getRoot(), "input.vcf");
+		Files.write(input.toPath(), ImmutableList.of(
+				"##fileformat=VCFv4.2",
+				"##contig=<ID=polyA,length=10000>",
+				"##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"\">",
+				"##INFO=<ID=MATEID,Number=.,Type=String,Description=\"\">",
+				"##FORMAT=<ID=GT,Number=1,Type=String,Description=\"\">",
+				"#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample",
+				"polyA\t10\tsnv1\tA\tC\t10\t.\t.\tGT\t0/1",
+				"polyA\t100\tbpo\tA\tA[polyA:200[\t10\t.\tSVTYPE=BND;MATEID=bph\tGT\t0/1",
+				"polyA\t150\tsnv2\tA\tC\t10\t.\t.\tGT\t0/1",
+				"polyA\t200\tbph\tA\t]polyA:100]A\t10\t.\tSVTYPE=BND;MATEID=bpo\tGT\t0/1",
+				"polyA\t300\tsnv3\tA\tC\t10\t.\t.\tGT\t0/1"));
+		AnnotateInexactHomology aih = new AnnotateInexactHomology();
+		aih.setContext(getContext());
+		aih.INPUT_VCF = input;
+		aih.OUTPUT_VCF = new File(testFolder.getRoot(), "output.vcf");
+		ExecutorService threadpool = Executors.newSingleThreadExecutor();
+		assertEquals(0, aih.doWork(threadpool));
+		threadpool.shutdown();
+		List<VariantContext> result;
+		try (VCFFileReader reader = new VCFFileReader(aih.OUTPUT_VCF, false)) {
+			result = Lists.newArrayList(reader.iterator());
+		}
+		assertEquals(ImmutableList.of("snv1", "bpo", "snv2", "bph", "snv3"), Lists.transform(result, VariantContext::getID));
+		assertTrue(result.get(1).hasAttribute(VcfInfoAttributes.INEXACT_HOMPOS.attribute()));
+		assertTrue(result.get(3).hasAttribute(VcfInfoAttributes.INEXACT_HOMPOS.attribute()));
+		assertFalse(result.get(2).hasAttribute(VcfInfoAttributes.INEXACT_HOMPOS.attribute()));
+	}
 }
@@ -2,6 +2,7 @@ package gridss;
 
 import au.edu.wehi.idsv.IntermediateFilesTest;
 import com.google.common.io.Files;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.bed.BEDCodec;
 import htsjdk.tribble.bed.BEDFeature;
@@ -11,8 +12,12 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -95,4 +100,52 @@ public class ComputeCoverageTest extends IntermediateFilesTest {
 		expectBin("polyA", 21, 30, 50, list.get(2));
 		expectBin("polyA", 31, 40, 0, list.get(3));
 	}
-}
+	@Test
+	public void multithreaded_coverage_should_match_single_threaded() throws IOException {
+		File gcFile = new File(testFolder.getRoot(), "gcbias.txt");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i <= 100; i++) {
+			sb.append(i);
+			sb.append('\t');
+			sb.append(1 + i / 37.0);
+			sb.append('\n');
+		}
+		Files.write(B(sb.toString()), gcFile);
+		Random rng = new Random(0);
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			int referenceIndex = rng.nextInt(4);
+			int pos = 1 + rng.nextInt(9000);
+			if (rng.nextBoolean()) {
+				reads.addAll(Arrays.asList(withReadName("rp" + i, RP(referenceIndex, pos, pos + rng.nextInt(500), 100))));
+			} else {
+				reads.add(withReadName("r" + i, Read(referenceIndex, pos, "100M"))[0]);
+			}
+		}
+		createInput(reads);
+		List<String> outputs = new ArrayList<>();
+		for (int threads : new int[] { 1, 3 }) {
+			File out = new File(testFolder.getRoot(), "out" + threads + ".bed");
+			File outgc = new File(testFolder.getRoot(), "outgc" + threads + ".bed");
+			String[] args = new String[] {
+					"INPUT=" + input.toString(),
+					"REFERENCE_SEQUENCE=" + reference.toString(),
+					"OUTPUT=" + out.toString(),
+					"OUTPUT_GC=" + outgc.toString(),
+					"TMP_DIR=" + super.testFolder.getRoot().toString(),
+					"BIN_SIZE=100",
+					"COVERAGE_METHOD=FRAGMENT",
+					"UNPAIRED_FRAGMENT_SIZE=300",
+					"READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE=0",
+					"READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE=1000",
+					"GC_ADJUSTMENT=" + gcFile.toString(),
+					"WORKER_THREADS=" + threads,
+			};
+			assertEquals(0, new ComputeCoverage().instanceMain(args));
+			outputs.add(Files.asCharSource(out, StandardCharsets.UTF_8).read());
+			outputs.add(Files.asCharSource(outgc, StandardCharsets.UTF_8).read());
+		}
+		assertEquals(outputs.get(0), outputs.get(2));
+		assertEquals(outputs.get(1), outputs.get(3));
+	}
+}
\ No newline at end of file
@@ -1,11 +1,17 @@
 package gridss;
 
-import au.edu.wehi.idsv.Hg19Tests;
-import au.edu.wehi.idsv.IdsvVariantContext;
-import au.edu.wehi.idsv.IntermediateFilesTest;
-import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.*;
+import au.edu.wehi.idsv.bed.PanelOfNormals;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFHeader;
 import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -13,9 +19,12 @@ import org.junit.experimental.categories.Category;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -150,4 +159,100 @@ public class GeneratePonBedpeTest extends IntermediateFilesTest {
         assertEquals(S(Files.readAllBytes(out_bed.toPath())), S(Files.readAllBytes(out2_bed.toPath())));
         assertEquals(S(Files.readAllBytes(out_bedpe.toPath())), S(Files.readAllBytes(out2_bedpe.toPath())));
     }
-}
\ No newline at end of file
+    private static VariantContext normal(String id, BreakendSummary be, double qual) {
+        IdsvVariantContextBuilder builder = minimalBreakend();
+        if (be instanceof BreakpointSummary) {
+            builder.breakpoint((BreakpointSummary)be, "");
+        } else {
+            builder.breakend(be, "");
+        }
+        builder.id(id);
+        return new VariantContextBuilder(builder.make())
+                .genotypes(new GenotypeBuilder("normal").attribute("QUAL", Double.toString(qual)).attribute("BQ", Double.toString(qual)).make())
+                .make();
+    }
+    private File createNormalVcf(String name, BreakendSummary... calls) throws IOException {
+        File file = testFolder.newFile(name);
+        List<VariantContext> vcs = new ArrayList<>();
+        for (int i = 0; i < calls.length; i++) {
+            vcs.add(normal(name + i, calls[i], 1000));
+            if (calls[i] instanceof BreakpointSummary) {
+                vcs.add(normal(name + i + "h", ((BreakpointSummary)calls[i]).remoteBreakpoint(), 1000));
+            }
+        }
+        vcs.sort(IdsvVariantContext.VariantContextByLocationStart(SMALL_FA.getSequenceDictionary()));
+        try (VariantContextWriter writer = new VariantContextWriterBuilder()
+                .setOutputFile(file)
+                .setReferenceDictionary(SMALL_FA.getSequenceDictionary())
+                .unsetOption(Options.INDEX_ON_THE_FLY)
+                .setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
+                .build()) {
+            writer.writeHeader(new VCFHeader(new HashSet<>(), Lists.newArrayList("normal")));
+            vcs.forEach(writer::add);
+        }
+        return file;
+    }
+    private void generatePon(String prefix, List<File> input, File inputPon) {
+        List<String> args = Lists.newArrayList(
+                "OUTPUT_BED=" + new File(testFolder.getRoot(), prefix + ".bed"),
+                "OUTPUT_BEDPE=" + new File(testFolder.getRoot(), prefix + ".bedpe"),
+                "OUTPUT_PON=" + new File(testFolder.getRoot(), prefix + PanelOfNormals.FILE_EXTENSION),
+                "NORMAL_ORDINAL=0",
+                "THREADS=2",
+                "TMP_DIR=" + testFolder.getRoot(),
+                "R=" + SMALL_FA_FILE.getAbsolutePath());
+        for (File f : input) {
+            args.add("INPUT=" + f.getAbsolutePath());
+        }
+        if (inputPon != null) {
+            args.add("INPUT_PON=" + inputPon.getAbsolutePath());
+        }
+        assertEquals(0, new GeneratePonBedpe().instanceMain(args.toArray(new String[0])));
+    }
+    private List<String> lines(String filename) throws IOException {
+        return Files.readAllLines(new File(testFolder.getRoot(), filename).toPath()).stream().filter(s -> !s.startsWith("#")).collect(Collectors.toList());
+    }
+    @Test
+    public void should_count_normals_across_input_vcfs() throws IOException {
+        File vcf1 = createNormalVcf("n1.vcf",
+                new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 200),
+                new BreakendSummary(0, BreakendDirection.Forward, 500));
+        File vcf2 = createNormalVcf("n2.vcf",
+                new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 200),
+                new BreakpointSummary(2, BreakendDirection.Backward, 1000, 0, BreakendDirection.Backward, 300));
+        generatePon("pon", ImmutableList.of(vcf1, vcf2), null);
+        List<String> bedpe = lines("pon.bedpe");
+        List<String> bed = lines("pon.bed");
+        assertEquals(2, bedpe.size());
+        assertEquals(1, bed.size());
+        assertEquals("2", bedpe.get(0).split("\t")[7]);
+        assertEquals("1", bed.get(0).split("\t")[4]);
+        try (PanelOfNormals pon = new PanelOfNormals(new File(testFolder.getRoot(), "pon" + PanelOfNormals.FILE_EXTENSION))) {
+            assertEquals(3, pon.size());
+            assertEquals(2, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 200)));
+            assertEquals(2, pon.countOverlapping(new BreakpointSummary(1, BreakendDirection.Backward, 200, 0, BreakendDirection.Forward, 100)));
+            assertEquals(1, pon.countOverlapping(new BreakpointSummary(0, BreakendDirection.Backward, 300, 2, BreakendDirection.Backward, 1000)));
+            assertEquals(1, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Forward, 500)));
+            assertEquals(0, pon.countOverlapping(new BreakendSummary(0, BreakendDirection.Backward, 500)));
+        }
+    }
+    @Test
+    public void incremental_pon_should_match_full_pon() throws IOException {
+        File vcf1 = createNormalVcf("n1.vcf",
+                new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 200),
+                new BreakendSummary(0, BreakendDirection.Forward, 500),
+                new BreakendSummary(1, BreakendDirection.Backward, 50));
+        File vcf2 = createNormalVcf("n2.vcf",
+                new BreakpointSummary(0, BreakendDirection.Forward, 100, 1, BreakendDirection.Backward, 200),
+                new BreakendSummary(0, BreakendDirection.Forward, 500),
+                new BreakpointSummary(2, BreakendDirection.Backward, 1000, 0, BreakendDirection.Backward, 300));
+        generatePon("full", ImmutableList.of(vcf1, vcf2), null);
+        generatePon("first", ImmutableList.of(vcf1), null);
+        generatePon("incremental", ImmutableList.of(vcf2), new File(testFolder.getRoot(), "first" + PanelOfNormals.FILE_EXTENSION));
+        assertEquals(lines("full.bed"), lines("incremental.bed"));
+        assertEquals(lines("full.bedpe"), lines("incremental.bedpe"));
+        assertArrayEquals(
+                Files.readAllBytes(new File(testFolder.getRoot(), "full" + PanelOfNormals.FILE_EXTENSION).toPath()),
+                Files.readAllBytes(new File(testFolder.getRoot(), "incremental" + PanelOfNormals.FILE_EXTENSION).toPath()));
+    }
+}
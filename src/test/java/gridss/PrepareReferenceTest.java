@@ -30,4 +30,20 @@ public class PrepareReferenceTest extends IntermediateFilesTest {
         assertTrue(img.length() > 0);
         assertTrue(cache.length() > 0);
     }
+    @Test
+    public void should_create_gc_cache() throws IOException {
+        File fa = testFolder.newFile("test.fa");
+        File fai = testFolder.newFile("test.fa.fai");
+        File gc = new File(testFolder.getRoot(), "test.fa.gridsscache.gc");
+        Files.copy(SMALL_FA_FILE, fa);
+        Files.copy(new File(SMALL_FA_FILE.getAbsolutePath() + ".fai"), fai);
+        PrepareReference cmd = new PrepareReference();
+        cmd.instanceMain(new String[] {
+                "R=" + fa.getAbsolutePath(),
+                "CREATE_BWA_INDEX_IMAGE=false",
+                "CREATE_GC_CACHE=true",
+        });
+        assertTrue(gc.exists());
+        assertTrue(gc.length() > 0);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class BAMFileWriterTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private void write(File bam, int asyncCompressionBlocks) {
+        SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.setRandomSeed(0);
+        for (int i = 0; i < 20000; i++) {
+            builder.addPair("r" + i, i % 2, 1 + i * 10, 1 + i * 10 + 300);
+        }
+        builder.addUnmappedFragment("unmapped");
+        int defaultBlocks = BlockCompressedOutputStream.getDefaultAsyncCompressionBlocks();
+        BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(asyncCompressionBlocks);
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(builder.getHeader(), true, bam)) {
+            for (SAMRecord r : builder.getRecords()) {
+                writer.addAlignment(r);
+            }
+        } finally {
+            BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(defaultBlocks);
+        }
+    }
+
+    @Test
+    public void index_on_the_fly_should_match_synchronous_compression() throws IOException {
+        File sync = testFolder.newFile("sync.bam");
+        File async = testFolder.newFile("async.bam");
+        write(sync, 0);
+        write(async, 4);
+        Assert.assertArrayEquals(Files.readAllBytes(sync.toPath()), Files.readAllBytes(async.toPath()));
+        Assert.assertArrayEquals(
+                Files.readAllBytes(new File(testFolder.getRoot(), "sync.bai").toPath()),
+                Files.readAllBytes(new File(testFolder.getRoot(), "async.bai").toPath()));
+    }
+
+    @Test
+    public void index_on_the_fly_should_be_queryable() throws IOException {
+        File bam = testFolder.newFile("async.bam");
+        write(bam, 4);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            Assert.assertTrue(reader.hasIndex());
+            int count = 0;
+            try (SAMRecordIterator it = reader.queryOverlapping("chr1", 100001, 100100)) {
+                while (it.hasNext()) {
+                    SAMRecord r = it.next();
+                    Assert.assertEquals("chr1", r.getReferenceName());
+                    count++;
+                }
+            }
+            Assert.assertTrue(count > 0);
+        }
+    }
+}
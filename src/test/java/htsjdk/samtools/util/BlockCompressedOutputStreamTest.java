@@ -0,0 +1,140 @@
+package htsjdk.samtools.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BlockCompressedOutputStreamTest {
+    private static final int ASYNC_BLOCKS = 4;
+
+    /**
+     * Semi-compressible test data spanning many blocks
+     */
+    private static byte[] testData(int length) {
+        Random rng = new Random(0);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)"ACGT".charAt(rng.nextInt(4));
+            if (i % 100 == 0) {
+                // add some incompressible bytes
+                data[i] = (byte)rng.nextInt();
+            }
+        }
+        return data;
+    }
+
+    private static class WriteResult {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final List<Long> filePointers = new ArrayList<>();
+    }
+
+    private static WriteResult write(byte[] data, int compressionLevel, int asyncCompressionBlocks, boolean recordFilePointers) throws IOException {
+        WriteResult result = new WriteResult();
+        int defaultBlocks = BlockCompressedOutputStream.getDefaultAsyncCompressionBlocks();
+        BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(asyncCompressionBlocks);
+        try (BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(result.output, (Path)null, compressionLevel)) {
+            Random rng = new Random(1);
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, rng.nextInt(1000));
+                bcos.write(data, offset, length);
+                offset += length;
+                if (recordFilePointers) {
+                    result.filePointers.add(bcos.getFilePointer());
+                }
+            }
+        } finally {
+            BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(defaultBlocks);
+        }
+        return result;
+    }
+
+    @Test
+    public void async_compression_should_match_synchronous_compression() throws IOException {
+        byte[] data = testData(1000000);
+        for (int level = 0; level <= 9; level++) {
+            byte[] sync = write(data, level, 0, false).output.toByteArray();
+            byte[] async = write(data, level, ASYNC_BLOCKS, false).output.toByteArray();
+            Assert.assertArrayEquals(sync, async);
+        }
+    }
+
+    @Test
+    public void should_round_trip() throws IOException {
+        byte[] data = testData(1000000);
+        byte[] compressed = write(data, 5, ASYNC_BLOCKS, false).output.toByteArray();
+        byte[] decompressed = new byte[data.length];
+        try (BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(compressed))) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = bcis.read(decompressed, offset, data.length - offset);
+                Assert.assertTrue(read > 0);
+                offset += read;
+            }
+            Assert.assertEquals(-1, bcis.read());
+        }
+        Assert.assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void getFilePointer_should_match_synchronous_compression() throws IOException {
+        byte[] data = testData(500000);
+        WriteResult sync = write(data, 5, 0, true);
+        WriteResult async = write(data, 5, ASYNC_BLOCKS, true);
+        Assert.assertEquals(sync.filePointers, async.filePointers);
+        Assert.assertArrayEquals(sync.output.toByteArray(), async.output.toByteArray());
+    }
+
+    @Test
+    public void deferred_file_pointers_should_resolve_to_file_pointer() throws IOException {
+        byte[] data = testData(500000);
+        WriteResult sync = write(data, 5, 0, true);
+        int defaultBlocks = BlockCompressedOutputStream.getDefaultAsyncCompressionBlocks();
+        BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(ASYNC_BLOCKS);
+        List<Long> deferred = new ArrayList<>();
+        List<Long> resolved = new ArrayList<>();
+        try (BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(new ByteArrayOutputStream(), (Path)null, 5)) {
+            Random rng = new Random(1);
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, rng.nextInt(1000));
+                bcos.write(data, offset, length);
+                offset += length;
+                deferred.add(bcos.getDeferredFilePointer());
+                while (resolved.size() < deferred.size()) {
+                    long fp = bcos.resolveDeferredFilePointer(deferred.get(resolved.size()));
+                    if (fp < 0) break;
+                    resolved.add(fp);
+                }
+            }
+            // unresolved pointers are in blocks still being compressed
+            Assert.assertTrue(resolved.size() < deferred.size());
+            bcos.flush();
+            while (resolved.size() < deferred.size()) {
+                resolved.add(bcos.resolveDeferredFilePointer(deferred.get(resolved.size())));
+            }
+        } finally {
+            BlockCompressedOutputStream.setDefaultAsyncCompressionBlocks(defaultBlocks);
+        }
+        Assert.assertEquals(sync.filePointers, resolved);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deferred_file_pointers_should_be_resolved_in_order() throws IOException {
+        byte[] data = testData(200000);
+        try (BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(new ByteArrayOutputStream(), (Path)null, 5)) {
+            long first = bcos.getDeferredFilePointer();
+            bcos.write(data);
+            bcos.flush();
+            bcos.resolveDeferredFilePointer(bcos.getDeferredFilePointer());
+            bcos.resolveDeferredFilePointer(first);
+        }
+    }
+}
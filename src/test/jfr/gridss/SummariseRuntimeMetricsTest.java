@@ -0,0 +1,117 @@
+package gridss;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.MetricScope;
+import au.edu.wehi.idsv.metrics.RuntimeMetrics.ThroughputMonitor;
+import au.edu.wehi.idsv.metrics.jfr.*;
+import gridss.analysis.RuntimeStageMetrics;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.metrics.MetricsFile;
+import jdk.jfr.Recording;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SummariseRuntimeMetricsTest extends IntermediateFilesTest {
+	@Before
+	public void requireFlightRecorder() {
+		Assume.assumeTrue(RuntimeMetrics.ENABLED);
+	}
+	private File record(Runnable r) throws IOException {
+		File jfr = new File(testFolder.getRoot(), "test.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(ChunkEvent.NAME);
+			recording.enable(AssemblyWindowEvent.NAME);
+			recording.enable(AlignerBatchEvent.NAME);
+			recording.enable(IteratorThroughputEvent.NAME);
+			recording.enable("jdk.GCHeapSummary");
+			recording.start();
+			r.run();
+			recording.stop();
+			recording.dump(jfr.toPath());
+		}
+		return jfr;
+	}
+	private static Map<String, RuntimeStageMetrics> byStage(List<RuntimeStageMetrics> list) {
+		return list.stream().collect(Collectors.toMap(m -> m.CATEGORY + "." + m.STAGE, Function.identity()));
+	}
+	@Test
+	public void should_summarise_chunks() throws IOException {
+		File jfr = record(() -> {
+			for (int i = 0; i < 3; i++) {
+				try (MetricScope scope = RuntimeMetrics.chunk("assembly", i, BreakendDirection.Forward, getContext().getDictionary(), new QueryInterval[] { new QueryInterval(0, 1, 10) })) {
+					System.gc();
+				}
+			}
+			try (MetricScope scope = RuntimeMetrics.chunk("variantCalling", 0, null, getContext().getDictionary(), new QueryInterval[] { new QueryInterval(0, 1, 10) })) {
+			}
+		});
+		Map<String, RuntimeStageMetrics> result = byStage(SummariseRuntimeMetrics.summarise(jfr.toPath()));
+		assertEquals(3, result.get("chunk.assembly").EVENTS);
+		assertEquals(1, result.get("chunk.variantCalling").EVENTS);
+		assertTrue(result.get("chunk.assembly").TOTAL_SECONDS >= result.get("chunk.assembly").MAX_SECONDS);
+		assertNotNull(result.get("chunk.assembly").MAX_HEAP_USED);
+	}
+	@Test
+	public void should_summarise_assembly_windows() throws IOException {
+		File jfr = record(() -> {
+			RuntimeMetrics.assemblyWindow("load", "polyA", 1, 100, 5, false, 1000000000L);
+			RuntimeMetrics.assemblyWindow("load", "polyA", 100, 200, 7, false, 3000000000L);
+			RuntimeMetrics.assemblyWindow("flushContigs", "polyA", 1, 100, 2, false, 10);
+		});
+		Map<String, RuntimeStageMetrics> result = byStage(SummariseRuntimeMetrics.summarise(jfr.toPath()));
+		RuntimeStageMetrics load = result.get("assembly.load");
+		assertEquals(2, load.EVENTS);
+		assertEquals(12, load.RECORDS);
+		assertEquals(4, load.TOTAL_SECONDS, 0.001);
+		assertEquals(3, load.MAX_SECONDS, 0.001);
+		assertEquals(3, load.RECORDS_PER_SECOND, 0.001);
+		assertEquals(1, result.get("assembly.flushContigs").EVENTS);
+	}
+	@Test
+	public void should_summarise_aligner_batches() throws IOException {
+		File jfr = record(() -> {
+			try (MetricScope scope = RuntimeMetrics.alignerBatch("bwa", 10, 1000)) {
+			}
+			try (MetricScope scope = RuntimeMetrics.alignerBatch("bwa", 5, 500)) {
+			}
+		});
+		RuntimeStageMetrics bwa = byStage(SummariseRuntimeMetrics.summarise(jfr.toPath())).get("aligner.bwa");
+		assertEquals(2, bwa.EVENTS);
+		assertEquals(15, bwa.RECORDS);
+	}
+	@Test
+	public void should_summarise_iterator_throughput() throws IOException {
+		File jfr = record(() -> {
+			try (ThroughputMonitor monitor = RuntimeMetrics.throughput("test")) {
+				for (int i = 0; i < 100000; i++) {
+					monitor.record();
+				}
+			}
+		});
+		RuntimeStageMetrics it = byStage(SummariseRuntimeMetrics.summarise(jfr.toPath())).get("iterator.test");
+		assertEquals(100000, it.RECORDS);
+	}
+	@Test
+	public void should_write_metrics_file() throws IOException {
+		File jfr = record(() -> RuntimeMetrics.assemblyWindow("load", "polyA", 1, 100, 5, false, 1000));
+		SummariseRuntimeMetrics program = new SummariseRuntimeMetrics();
+		program.INPUT = jfr;
+		program.OUTPUT = new File(testFolder.getRoot(), "runtime_metrics.txt");
+		assertEquals(0, program.doWork());
+		List<RuntimeStageMetrics> metrics = MetricsFile.readBeans(program.OUTPUT);
+		assertEquals(1, metrics.size());
+		assertEquals("load", metrics.get(0).STAGE);
+	}
+}